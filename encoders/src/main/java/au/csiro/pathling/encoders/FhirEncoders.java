@@ -13,15 +13,31 @@
 
 package au.csiro.pathling.encoders;
 
+import au.csiro.pathling.PathlingVersion;
 import au.csiro.pathling.encoders.datatypes.DataTypeMappings;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import ca.uhn.fhir.util.VersionUtil;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.catalyst.encoders.ExpressionEncoder;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import scala.collection.JavaConverters;
@@ -29,22 +45,56 @@ import scala.collection.JavaConverters;
 /**
  * Spark Encoders for FHIR Resources. This object is thread safe.
  */
+@Slf4j
 public class FhirEncoders {
 
+  /**
+   * Persisted encoders are only read if they are made up of the classes that encoders are built
+   * from: Spark expressions and types, Scala collections, the FHIR model classes that are referred
+   * to by the expressions, and a small number of core Java classes.
+   */
+  private static final ObjectInputFilter ENCODER_FILTER = ObjectInputFilter.Config.createFilter(
+      String.join(";",
+          "au.csiro.pathling.encoders.**",
+          "org.apache.spark.sql.catalyst.**",
+          "org.apache.spark.sql.types.*",
+          "org.apache.spark.unsafe.types.*",
+          "scala.*",
+          "scala.collection.immutable.*",
+          "scala.collection.mutable.*",
+          "scala.reflect.*",
+          "org.hl7.fhir.instance.model.api.*",
+          "org.hl7.fhir.r4.model.*",
+          "org.hl7.fhir.utilities.xhtml.*",
+          "ca.uhn.fhir.model.api.*",
+          "java.lang.*",
+          "java.lang.invoke.SerializedLambda",
+          "java.math.*",
+          "java.sql.Timestamp",
+          "java.util.*",
+          "!*"));
+
+  /**
+   * The version of Pathling and the commit that it was built from, or null if it is not known.
+   */
+  private static final String PATHLING_VERSION = getPathlingVersion();
+
   /**
    * Cache of Encoders instances.
    */
-  private static final Map<EncodersKey, FhirEncoders> ENCODERS = new HashMap<>();
+  private static final Map<EncodersKey, FhirEncoders> ENCODERS = new ConcurrentHashMap<>();
 
   /**
    * Cache of mappings between Spark and FHIR types.
    */
-  private static final Map<FhirVersionEnum, DataTypeMappings> DATA_TYPE_MAPPINGS = new HashMap<>();
+  private static final Map<FhirVersionEnum, DataTypeMappings> DATA_TYPE_MAPPINGS =
+      new ConcurrentHashMap<>();
 
   /**
    * Cache of FHIR contexts.
    */
-  private static final Map<FhirVersionEnum, FhirContext> FHIR_CONTEXTS = new HashMap<>();
+  private static final Map<FhirVersionEnum, FhirContext> FHIR_CONTEXTS =
+      new ConcurrentHashMap<>();
 
   /**
    * The FHIR context used by the encoders instance.
@@ -57,9 +107,9 @@ public class FhirEncoders {
   private final DataTypeMappings mappings;
 
   /**
-   * Cached encoders to avoid having to re-create them.
+   * Cached encoders to avoid having to re-create them, keyed by the name of the resource class.
    */
-  private final Map<Integer, ExpressionEncoder<?>> encoderCache = new HashMap<>();
+  private final Map<String, ExpressionEncoder<?>> encoderCache = new ConcurrentHashMap<>();
 
   /**
    * The maximum nesting level for expansion of recursive data types.
@@ -76,6 +126,11 @@ public class FhirEncoders {
    */
   private final boolean enableExtensions;
 
+  /**
+   * The directory in which built encoders are persisted, or null if they are not persisted.
+   */
+  private final Path cacheDirectory;
+
   /**
    * Consumers should generally use the {@link #forR4()} method, but this is made available for test
    * purposes and additional experimental mappings.
@@ -88,11 +143,39 @@ public class FhirEncoders {
    */
   public FhirEncoders(final FhirContext context, final DataTypeMappings mappings,
       final int maxNestingLevel, final Set<String> openTypes, final boolean enableExtensions) {
+    this(context, mappings, maxNestingLevel, openTypes, enableExtensions, null);
+  }
+
+  /**
+   * @param context the FHIR context to use.
+   * @param mappings mappings between Spark and FHIR data types.
+   * @param maxNestingLevel maximum nesting level for expansion of recursive data types.
+   * @param openTypes the list of types that are encoded within open types, such as extensions.
+   * @param enableExtensions true if FHIR extension should be enabled.
+   * @param cacheDirectory the directory in which to persist built encoders, or null.
+   */
+  public FhirEncoders(final FhirContext context, final DataTypeMappings mappings,
+      final int maxNestingLevel, final Set<String> openTypes, final boolean enableExtensions,
+      final Path cacheDirectory) {
     this.context = context;
     this.mappings = mappings;
     this.maxNestingLevel = maxNestingLevel;
     this.openTypes = openTypes;
     this.enableExtensions = enableExtensions;
+    if (cacheDirectory != null && PATHLING_VERSION == null) {
+      log.warn("Encoders will not be persisted, as the version of Pathling is not known");
+    }
+    this.cacheDirectory = cacheDirectory == null || PATHLING_VERSION == null
+                          ? null
+                          : cacheDirectory.resolve(cacheDirectoryName());
+  }
+
+  private static String getPathlingVersion() {
+    try {
+      return new PathlingVersion().getDescriptiveVersion().orElse(null);
+    } catch (final RuntimeException e) {
+      return null;
+    }
   }
 
   /**
@@ -103,20 +186,7 @@ public class FhirEncoders {
    * @return the FhirContext
    */
   public static FhirContext contextFor(final FhirVersionEnum fhirVersion) {
-
-    synchronized (FHIR_CONTEXTS) {
-
-      FhirContext context = FHIR_CONTEXTS.get(fhirVersion);
-
-      if (context == null) {
-
-        context = new FhirContext(fhirVersion);
-
-        FHIR_CONTEXTS.put(fhirVersion, context);
-      }
-
-      return context;
-    }
+    return FHIR_CONTEXTS.computeIfAbsent(fhirVersion, FhirContext::new);
   }
 
   /**
@@ -126,41 +196,31 @@ public class FhirEncoders {
    * @return a DataTypeMappings instance.
    */
   static DataTypeMappings mappingsFor(final FhirVersionEnum fhirVersion) {
+    return DATA_TYPE_MAPPINGS.computeIfAbsent(fhirVersion, version -> {
+      final String dataTypesClassName;
 
-    synchronized (DATA_TYPE_MAPPINGS) {
-
-      DataTypeMappings mappings = DATA_TYPE_MAPPINGS.get(fhirVersion);
-
-      if (mappings == null) {
-        final String dataTypesClassName;
-
-        if (fhirVersion == FhirVersionEnum.R4) {
-          dataTypesClassName = "au.csiro.pathling.encoders.datatypes.R4DataTypeMappings";
-        } else {
-          throw new IllegalArgumentException("Unsupported FHIR version: " + fhirVersion);
-        }
-
-        try {
+      if (version == FhirVersionEnum.R4) {
+        dataTypesClassName = "au.csiro.pathling.encoders.datatypes.R4DataTypeMappings";
+      } else {
+        throw new IllegalArgumentException("Unsupported FHIR version: " + version);
+      }
 
-          mappings = (DataTypeMappings) Class.forName(dataTypesClassName).getDeclaredConstructor()
-              .newInstance();
+      try {
 
-          DATA_TYPE_MAPPINGS.put(fhirVersion, mappings);
+        return (DataTypeMappings) Class.forName(dataTypesClassName).getDeclaredConstructor()
+            .newInstance();
 
-        } catch (final Exception createClassException) {
+      } catch (final Exception createClassException) {
 
-          throw new IllegalStateException("Unable to create the data mappings "
-              + dataTypesClassName
-              + ". This is typically because the HAPI FHIR dependencies for "
-              + "the underlying data model are note present. Make sure the "
-              + " hapi-fhir-structures-* and hapi-fhir-validation-resources-* "
-              + " jars for the desired FHIR version are available on the class path.",
-              createClassException);
-        }
+        throw new IllegalStateException("Unable to create the data mappings "
+            + dataTypesClassName
+            + ". This is typically because the HAPI FHIR dependencies for "
+            + "the underlying data model are note present. Make sure the "
+            + " hapi-fhir-structures-* and hapi-fhir-validation-resources-* "
+            + " jars for the desired FHIR version are available on the class path.",
+            createClassException);
       }
-
-      return mappings;
-    }
+    });
   }
 
   /**
@@ -206,23 +266,90 @@ public class FhirEncoders {
    */
   public final <T extends IBaseResource> ExpressionEncoder<T> of(final Class<T> type) {
 
-    final RuntimeResourceDefinition definition =
-        context.getResourceDefinition(type);
+    // Each encoder is built at most once, without blocking the lookup of other encoders.
+    //noinspection unchecked
+    return (ExpressionEncoder<T>) encoderCache.computeIfAbsent(type.getName(),
+        name -> loadOrBuild(type));
+  }
 
-    final int key = type.getName().hashCode();
+  private ExpressionEncoder<?> loadOrBuild(final Class<? extends IBaseResource> type) {
+    if (cacheDirectory == null) {
+      return build(type);
+    }
+    final Path file = cacheDirectory.resolve(type.getName() + ".encoder");
+    if (Files.exists(file)) {
+      final Optional<ExpressionEncoder<?>> persisted = read(file);
+      if (persisted.isPresent()) {
+        return persisted.get();
+      }
+      // A persisted encoder that cannot be read is rebuilt and written again.
+    }
+    final ExpressionEncoder<?> encoder = build(type);
+    try {
+      Files.createDirectories(cacheDirectory);
+      // The encoder is written to a temporary file and then moved into place, so that other
+      // processes never see a partially written file.
+      final Path temporary = Files.createTempFile(cacheDirectory, type.getSimpleName(), ".tmp");
+      try (final OutputStream output = Files.newOutputStream(temporary);
+          final ObjectOutputStream objectOutput = new ObjectOutputStream(output)) {
+        objectOutput.writeObject(encoder);
+      }
+      Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (final IOException e) {
+      // Persistence is an optimisation, the encoder can still be used if it cannot be written.
+      log.warn("Unable to persist encoder: {}", file, e);
+    }
+    return encoder;
+  }
 
-    synchronized (encoderCache) {
-      //noinspection unchecked
-      return (ExpressionEncoder<T>) encoderCache.computeIfAbsent(key, k ->
-          EncoderBuilder.of(definition,
-              context,
-              mappings,
-              maxNestingLevel,
-              JavaConverters.asScalaSet(openTypes).toSet(),
-              enableExtensions));
+  /**
+   * Reads a persisted encoder, rejecting any file that contains classes that are not part of an
+   * encoder.
+   *
+   * @param file the file to read
+   * @return the encoder, or nothing if it could not be read
+   */
+  static Optional<ExpressionEncoder<?>> read(final Path file) {
+    try (final InputStream input = Files.newInputStream(file);
+        final ObjectInputStream objectInput = new ObjectInputStream(input)) {
+      objectInput.setObjectInputFilter(ENCODER_FILTER);
+      return Optional.of((ExpressionEncoder<?>) objectInput.readObject());
+    } catch (final IOException | ClassNotFoundException | ClassCastException e) {
+      log.warn("Unable to read persisted encoder: {}", file, e);
+      return Optional.empty();
     }
   }
 
+  private ExpressionEncoder<?> build(final Class<? extends IBaseResource> type) {
+    final RuntimeResourceDefinition definition = context.getResourceDefinition(type);
+    return EncoderBuilder.of(definition,
+        context,
+        mappings,
+        maxNestingLevel,
+        JavaConverters.asScalaSet(openTypes).toSet(),
+        enableExtensions);
+  }
+
+  /**
+   * Persisted encoders are only valid for the configuration and library versions that built them,
+   * so these are captured within the name of the directory that they are stored in. The Pathling
+   * version includes the commit that it was built from, so that encoders are rebuilt whenever the
+   * encoding code changes.
+   */
+  private String cacheDirectoryName() {
+    final String signature = String.join("|",
+        getFhirVersion().name(),
+        String.valueOf(maxNestingLevel),
+        String.join(",", new TreeSet<>(openTypes)),
+        String.valueOf(enableExtensions),
+        PATHLING_VERSION,
+        org.apache.spark.package$.MODULE$.SPARK_VERSION(),
+        VersionUtil.getVersion());
+    return getFhirVersion().name() + "-"
+        + UUID.nameUUIDFromBytes(signature.getBytes(StandardCharsets.UTF_8));
+  }
+
   /**
    * Returns the version of FHIR used by encoders produced by this instance.
    *
@@ -243,6 +370,7 @@ public class FhirEncoders {
     int maxNestingLevel;
     Set<String> openTypes;
     boolean enableExtensions;
+    Path cacheDirectory;
   }
 
   /**
@@ -258,6 +386,7 @@ public class FhirEncoders {
     private int maxNestingLevel;
     private Set<String> openTypes;
     private boolean enableExtensions;
+    private Path cacheDirectory;
 
     Builder(final FhirVersionEnum fhirVersion) {
       this.fhirVersion = fhirVersion;
@@ -300,6 +429,18 @@ public class FhirEncoders {
       return this;
     }
 
+    /**
+     * Sets a directory in which built encoders are persisted, so that they can be loaded rather
+     * than built again by subsequent processes with the same configuration.
+     *
+     * @param cacheDirectory the directory, or null to disable persistence.
+     * @return this builder
+     */
+    public Builder withCacheDirectory(final Path cacheDirectory) {
+      this.cacheDirectory = cacheDirectory;
+      return this;
+    }
+
     /**
      * Get or create an {@link FhirEncoders} instance that matches the builder's configuration.
      *
@@ -308,24 +449,12 @@ public class FhirEncoders {
     public FhirEncoders getOrCreate() {
 
       final EncodersKey key = new EncodersKey(fhirVersion, maxNestingLevel,
-          openTypes, enableExtensions);
+          openTypes, enableExtensions, cacheDirectory);
 
-      synchronized (ENCODERS) {
-
-        FhirEncoders encoders = ENCODERS.get(key);
-
-        // No instance with the given configuration found,
-        // so create one.
-        if (encoders == null) {
-
-          final FhirContext context = contextFor(fhirVersion);
-          final DataTypeMappings mappings = mappingsFor(fhirVersion);
-          encoders = new FhirEncoders(context, mappings, maxNestingLevel, openTypes,
-              enableExtensions);
-          ENCODERS.put(key, encoders);
-        }
-        return encoders;
-      }
+      // No instance with the given configuration found, so create one.
+      return ENCODERS.computeIfAbsent(key, k -> new FhirEncoders(contextFor(fhirVersion),
+          mappingsFor(fhirVersion), maxNestingLevel, openTypes, enableExtensions,
+          cacheDirectory));
     }
   }
 }
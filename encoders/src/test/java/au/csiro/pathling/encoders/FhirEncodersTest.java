@@ -15,14 +15,19 @@ package au.csiro.pathling.encoders;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import ca.uhn.fhir.context.FhirVersionEnum;
 import com.google.common.collect.ImmutableList;
+import java.io.File;
 import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.math.BigDecimal;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -35,6 +40,7 @@ import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.RowFactory;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.encoders.ExpressionEncoder;
 import org.apache.spark.sql.catalyst.expressions.GenericRowWithSchema;
 import org.apache.spark.sql.functions;
 import org.hl7.fhir.exceptions.FHIRException;
@@ -53,6 +59,7 @@ import org.hl7.fhir.r4.model.QuestionnaireResponse;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 /**
  * Test for FHIR encoders.
@@ -465,6 +472,42 @@ public class FhirEncodersTest {
         ENCODERS_L0.of(Patient.class));
   }
 
+  @Test
+  public void testEncoderPersisted(@TempDir final Path cacheDirectory) throws IOException {
+    final FhirEncoders writer = FhirEncoders.forR4()
+        .withCacheDirectory(cacheDirectory)
+        .getOrCreate();
+    final ExpressionEncoder<Patient> built = writer.of(Patient.class);
+    final List<Path> persisted;
+    try (final Stream<Path> files = Files.walk(cacheDirectory)) {
+      persisted = files.filter(file -> file.toString().endsWith(".encoder"))
+          .collect(Collectors.toList());
+    }
+    assertEquals(1, persisted.size());
+    assertTrue(FhirEncoders.read(persisted.get(0)).isPresent());
+
+    // A separate instance with the same configuration loads the encoder that was persisted.
+    final FhirEncoders reader = new FhirEncoders(FhirEncoders.contextFor(FhirVersionEnum.R4),
+        FhirEncoders.mappingsFor(FhirVersionEnum.R4), 0, Collections.emptySet(), false,
+        cacheDirectory);
+    final ExpressionEncoder<Patient> loaded = reader.of(Patient.class);
+    assertNotSame(built, loaded);
+    assertEquals(built.schema(), loaded.schema());
+
+    final Patient decoded = spark.createDataset(ImmutableList.of(patient), loaded).head();
+    assertTrue(patient.equalsDeep(decoded));
+  }
+
+  @Test
+  public void testPersistedEncoderWithOtherClassesRejected(@TempDir final Path cacheDirectory)
+      throws IOException {
+    final Path file = cacheDirectory.resolve("rejected.encoder");
+    try (final ObjectOutputStream output = new ObjectOutputStream(Files.newOutputStream(file))) {
+      output.writeObject(new File("rejected"));
+    }
+    assertTrue(FhirEncoders.read(file).isEmpty());
+  }
+
   @Test
   public void testPrimitiveClassDecoding() {
     assertEquals(encounter.getClass_().getCode(),
@@ -0,0 +1,253 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling;
+
+import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
+
+import au.csiro.pathling.async.AsyncAspect;
+import au.csiro.pathling.config.AdmissionConfiguration;
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.errors.AsyncRequiredError;
+import au.csiro.pathling.errors.InvalidUserInputError;
+import au.csiro.pathling.errors.ServerBusyError;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import java.math.BigInteger;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.plans.LeftAnti$;
+import org.apache.spark.sql.catalyst.plans.LeftSemi$;
+import org.apache.spark.sql.catalyst.plans.logical.Join;
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan;
+import org.apache.spark.sql.catalyst.plans.logical.Statistics;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import scala.collection.JavaConverters;
+
+/**
+ * Estimates the cost of queries before they are executed, and decides whether they can proceed.
+ * <p>
+ * The cost of a query is estimated from its optimized logical plan, as the number of bytes that it
+ * scans plus the estimated number of bytes produced by each of its joins. Queries above the
+ * configured limit are rejected. Heavy queries may be required to run asynchronously, and the
+ * number of heavy queries that execute at the same time can be limited, with any others waiting in
+ * a queue of limited length for a limited time.
+ */
+@Component
+@Profile("core")
+@Slf4j
+public class AdmissionController {
+
+  @Nonnull
+  private final AdmissionConfiguration configuration;
+
+  @Nonnull
+  private final SparkSession spark;
+
+  private final boolean asyncEnabled;
+
+  private final int retryAfter;
+
+  @Nullable
+  private final Semaphore heavyQuerySlots;
+
+  @Nonnull
+  private final AtomicInteger queuedHeavyQueries = new AtomicInteger();
+
+  /**
+   * @param configuration a {@link Configuration} object containing the cost thresholds
+   * @param spark the {@link SparkSession} that queries are run within
+   */
+  public AdmissionController(@Nonnull final Configuration configuration,
+      @Nonnull final SparkSession spark) {
+    this.configuration = configuration.getAdmission();
+    this.spark = spark;
+    this.asyncEnabled = configuration.getAsync().isEnabled();
+    this.retryAfter = configuration.getThreads().getRetryAfter();
+    final int maxConcurrent = this.configuration.getMaxConcurrentHeavyQueries();
+    heavyQuerySlots = maxConcurrent > 0
+                      ? new Semaphore(maxConcurrent, true)
+                      : null;
+  }
+
+  /**
+   * Checks that a query can be admitted, and then executes it.
+   *
+   * @param query the query that is about to be executed
+   * @param asyncSupported whether the operation executing the query supports asynchronous
+   * processing
+   * @param action the action that executes the query
+   * @param <T> the type of the result of the action
+   * @return the result of the action
+   * @throws InvalidUserInputError if the estimated cost of the query exceeds the limit
+   * @throws AsyncRequiredError if the query is heavy and must be processed asynchronously
+   * @throws ServerBusyError if the query is heavy and cannot be queued, or has waited too long
+   */
+  public <T> T execute(@Nonnull final Dataset<?> query, final boolean asyncSupported,
+      @Nonnull final Supplier<T> action) {
+    final QueryCost cost = estimateCost(query);
+    log.debug("Estimated query cost: {}", cost);
+
+    final long maxQueryCost = configuration.getMaxQueryCost();
+    if (maxQueryCost > 0 && cost.getCost().compareTo(BigInteger.valueOf(maxQueryCost)) > 0) {
+      throw new InvalidUserInputError(
+          "Query is too expensive to execute, try narrowing it with filters or using fewer "
+              + "expressions");
+    }
+
+    final long heavyThreshold = configuration.getHeavyQueryThreshold();
+    final boolean heavy = heavyThreshold > 0
+        && cost.getCost().compareTo(BigInteger.valueOf(heavyThreshold)) > 0;
+    if (!heavy) {
+      return action.get();
+    }
+
+    if (configuration.isAsyncHeavyQueries() && asyncEnabled && asyncSupported
+        && !isRunningAsynchronously()) {
+      throw new AsyncRequiredError(
+          "Query is too expensive to execute synchronously, use \"Prefer: respond-async\"");
+    }
+
+    if (heavyQuerySlots == null) {
+      return action.get();
+    }
+    if (!heavyQuerySlots.tryAcquire()) {
+      waitForHeavyQuerySlot(cost);
+    }
+    try {
+      return action.get();
+    } finally {
+      heavyQuerySlots.release();
+    }
+  }
+
+  private void waitForHeavyQuerySlot(@Nonnull final QueryCost cost) {
+    checkNotNull(heavyQuerySlots);
+    // Each waiting query holds a request thread, so the queue is limited in both length and time.
+    if (queuedHeavyQueries.incrementAndGet() > configuration.getMaxQueuedHeavyQueries()) {
+      queuedHeavyQueries.decrementAndGet();
+      throw new ServerBusyError("Too many heavy queries are waiting to execute", retryAfter);
+    }
+    final boolean acquired;
+    try {
+      log.info("Waiting for capacity to execute heavy query: {}", cost);
+      acquired = heavyQuerySlots.tryAcquire(configuration.getHeavyQueryTimeout(),
+          TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InternalErrorException("Interrupted while waiting to execute query", e);
+    } finally {
+      queuedHeavyQueries.decrementAndGet();
+    }
+    if (!acquired) {
+      throw new ServerBusyError("Timed out waiting for capacity to execute heavy query",
+          retryAfter);
+    }
+  }
+
+  /**
+   * Estimates the cost of a query from its optimized logical plan.
+   *
+   * @param query the query
+   * @return a {@link QueryCost} describing the estimate
+   */
+  @Nonnull
+  public static QueryCost estimateCost(@Nonnull final Dataset<?> query) {
+    final LogicalPlan plan = query.queryExecution().optimizedPlan();
+    final BigInteger[] scanBytes = {BigInteger.ZERO};
+    final BigInteger[] joinBytes = {BigInteger.ZERO};
+    final int[] joins = {0};
+    visit(plan, scanBytes, joinBytes, joins);
+    return new QueryCost(scanBytes[0], joins[0], joinBytes[0], scanBytes[0].add(joinBytes[0]));
+  }
+
+  private static void visit(@Nonnull final LogicalPlan plan, @Nonnull final BigInteger[] scanBytes,
+      @Nonnull final BigInteger[] joinBytes, @Nonnull final int[] joins) {
+    if (plan.children().isEmpty()) {
+      scanBytes[0] = scanBytes[0].add(plan.stats().sizeInBytes().bigInteger());
+      return;
+    }
+    if (plan instanceof Join) {
+      joins[0]++;
+      joinBytes[0] = joinBytes[0].add(estimateOutput((Join) plan));
+    }
+    for (final LogicalPlan child : JavaConverters.seqAsJavaList(plan.children())) {
+      visit(child, scanBytes, joinBytes, joins);
+    }
+  }
+
+  /**
+   * Estimates the number of bytes produced by a join. If Spark has estimated the number of rows
+   * that the join produces, its estimate is used. Otherwise Spark only estimates the size of the
+   * join as the product of the sizes of its inputs, so each row of the larger input is instead
+   * assumed to match a row of the other. This reflects the fan-out of a join to a larger table,
+   * such as that of a reverse resolve.
+   */
+  @Nonnull
+  private static BigInteger estimateOutput(@Nonnull final Join join) {
+    final Statistics stats = join.stats();
+    if (stats.rowCount().isDefined() || join.joinType() == LeftSemi$.MODULE$
+        || join.joinType() == LeftAnti$.MODULE$) {
+      return stats.sizeInBytes().bigInteger();
+    }
+    final BigInteger rows = estimateRows(join.left()).max(estimateRows(join.right()));
+    return rows.multiply(BigInteger.valueOf(join.schema().defaultSize()));
+  }
+
+  @Nonnull
+  private static BigInteger estimateRows(@Nonnull final LogicalPlan plan) {
+    final Statistics stats = plan.stats();
+    if (stats.rowCount().isDefined()) {
+      return stats.rowCount().get().bigInteger();
+    }
+    return stats.sizeInBytes().bigInteger()
+        .divide(BigInteger.valueOf(Math.max(1, plan.schema().defaultSize())));
+  }
+
+  private boolean isRunningAsynchronously() {
+    return spark.sparkContext().getLocalProperty(AsyncAspect.ASYNC_JOB_PROPERTY) != null;
+  }
+
+  /**
+   * The estimated cost of a query.
+   */
+  @Value
+  public static class QueryCost {
+
+    /**
+     * The estimated number of bytes read from the source data.
+     */
+    @Nonnull
+    BigInteger scanBytes;
+
+    /**
+     * The number of joins within the query.
+     */
+    int joins;
+
+    /**
+     * The estimated number of bytes produced by the joins within the query.
+     */
+    @Nonnull
+    BigInteger joinBytes;
+
+    /**
+     * The overall cost, used for comparison against the configured thresholds.
+     */
+    @Nonnull
+    BigInteger cost;
+
+  }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.ThreadConfiguration;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.tomcat.util.threads.TaskQueue;
+import org.apache.tomcat.util.threads.TaskThreadFactory;
+import org.apache.tomcat.util.threads.ThreadPoolExecutor;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.task.TaskExecutionProperties;
+import org.springframework.boot.autoconfigure.task.TaskExecutionProperties.Pool;
+import org.springframework.boot.web.embedded.tomcat.TomcatServletWebServerFactory;
+import org.springframework.boot.web.server.WebServerFactoryCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Profile;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Component;
+
+/**
+ * Configures request handling and asynchronous jobs to run on threads that are created on demand,
+ * rather than drawn from fixed-size pools.
+ * <p>
+ * Requests spend most of their time waiting for Spark, so holding many of them open is limited by
+ * the number of threads rather than by CPU. The number of queries that actually run within Spark at
+ * the same time is limited separately, by the scheduler pools and admission control.
+ */
+@Component
+@Profile("core")
+@ConditionalOnProperty(prefix = "pathling", name = "threads.elastic", havingValue = "true")
+@Slf4j
+public class ElasticThreading {
+
+  /**
+   * The number of seconds that an idle request handling thread is retained for, which matches the
+   * default of the Tomcat connector.
+   */
+  private static final long REQUEST_THREAD_KEEP_ALIVE = 60;
+
+  /**
+   * Replaces the task executor that Spring Boot would otherwise configure, which only creates more
+   * than its core threads once its queue is full. This executor creates a thread for each task up
+   * to {@code spring.task.execution.pool.max-size}, and releases threads that have been idle for
+   * longer than {@code spring.task.execution.pool.keep-alive}. Beyond the maximum, tasks wait
+   * within a queue of {@code spring.task.execution.pool.queue-capacity}, and once that is full they
+   * are rejected with a {@link org.springframework.core.task.TaskRejectedException}.
+   *
+   * @param properties the {@link TaskExecutionProperties} that Spring Boot binds from
+   * {@code spring.task.execution}
+   * @return a {@link ThreadPoolTaskExecutor} that creates a thread for each task, up to a limit
+   */
+  @Bean(name = "applicationTaskExecutor")
+  @Nonnull
+  public static ThreadPoolTaskExecutor elasticTaskExecutor(
+      @Nonnull final TaskExecutionProperties properties) {
+    final Pool pool = properties.getPool();
+    log.info("Using elastic threads for asynchronous jobs, up to a maximum of {}",
+        pool.getMaxSize());
+    final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+    // Every thread is a core thread that is allowed to time out, so a new thread is started for
+    // each task until the maximum is reached, before any task is queued.
+    executor.setCorePoolSize(pool.getMaxSize());
+    executor.setMaxPoolSize(pool.getMaxSize());
+    executor.setAllowCoreThreadTimeOut(true);
+    executor.setKeepAliveSeconds((int) pool.getKeepAlive().getSeconds());
+    executor.setQueueCapacity(pool.getQueueCapacity());
+    executor.setThreadNamePrefix(properties.getThreadNamePrefix());
+    return executor;
+  }
+
+  /**
+   * @param configuration a {@link Configuration} object containing the thread settings
+   * @return a customizer that creates request handling threads on demand, up to
+   * {@code pathling.threads.maxRequestThreads}
+   */
+  @Bean
+  @Profile("server")
+  @Nonnull
+  public static WebServerFactoryCustomizer<TomcatServletWebServerFactory> elasticRequestThreads(
+      @Nonnull final Configuration configuration) {
+    final ThreadConfiguration threads = configuration.getThreads();
+    return factory -> factory.addConnectorCustomizers(connector -> {
+      if (connector.getProtocolHandler() instanceof AbstractProtocol) {
+        log.info("Using elastic threads for handling requests, up to a maximum of {}",
+            threads.getMaxRequestThreads());
+        final AbstractProtocol<?> protocol = (AbstractProtocol<?>) connector.getProtocolHandler();
+        // The task queue hands each request to a new thread whenever all the existing threads are
+        // busy, up to the maximum.
+        final TaskQueue queue = new TaskQueue();
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(0,
+            threads.getMaxRequestThreads(), REQUEST_THREAD_KEEP_ALIVE, TimeUnit.SECONDS, queue,
+            new TaskThreadFactory("http-elastic-", true, Thread.NORM_PRIORITY));
+        queue.setParent(executor);
+        protocol.setExecutor(executor);
+        // Each request that is held open occupies a connection, so the connection limit needs to be
+        // at least the number of threads.
+        protocol.setMaxConnections(Math.max(protocol.getMaxConnections(),
+            threads.getMaxRequestThreads()));
+      }
+    });
+  }
+
+}
@@ -6,6 +6,7 @@
 
 package au.csiro.pathling;
 
+import static au.csiro.pathling.QueryHelpers.combineAggregations;
 import static au.csiro.pathling.QueryHelpers.join;
 import static au.csiro.pathling.utilities.Preconditions.checkArgument;
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
@@ -26,6 +27,8 @@ import au.csiro.pathling.fhirpath.parser.Parser;
 import au.csiro.pathling.fhirpath.parser.ParserContext;
 import au.csiro.pathling.io.Database;
 import ca.uhn.fhir.context.FhirContext;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
@@ -82,6 +85,44 @@ public abstract class QueryExecutor {
         terminologyServiceFactory, groupingColumns, new HashMap<>());
   }
 
+  /**
+   * Builds a key that identifies a request for the purposes of coalescing identical requests. The
+   * key combines the supplied parameters with the current version of the data, so that requests
+   * made before and after an update are never coalesced. It also includes the scope of the
+   * resources that are visible to the current user, so that a result is never shared with a request
+   * that would not be able to see the same resources. Requests from different users with the same
+   * scope are coalesced.
+   *
+   * @param parameters the canonicalised parameters of the request
+   * @return a key suitable for use with a {@link au.csiro.pathling.caching.RequestCoalescer}
+   */
+  @Nonnull
+  protected List<Object> buildRequestKey(@Nonnull final Object... parameters) {
+    final List<Object> key = new ArrayList<>(Arrays.asList(parameters));
+    key.add(database.getCacheKey());
+    key.add(database.getScopeKey());
+    return key;
+  }
+
+  /**
+   * @param expressions a list of expressions
+   * @return the expressions with surrounding whitespace removed, in their original order
+   */
+  @Nonnull
+  protected static List<String> canonicalizeExpressions(
+      @Nonnull final Collection<String> expressions) {
+    return expressions.stream().map(String::strip).collect(Collectors.toList());
+  }
+
+  /**
+   * @param filters a collection of filter expressions, which are combined using AND logic
+   * @return the distinct filters with surrounding whitespace removed, in a canonical order
+   */
+  @Nonnull
+  protected static List<String> canonicalizeFilters(@Nonnull final Collection<String> filters) {
+    return filters.stream().map(String::strip).distinct().sorted().collect(Collectors.toList());
+  }
+
   @Nonnull
   protected List<FhirPathAndContext> parseMaterializableExpressions(
       @Nonnull final ParserContext parserContext, @Nonnull final Collection<String> expressions,
@@ -91,7 +132,9 @@ public abstract class QueryExecutor {
           final ParserContext currentContext = new ParserContext(parserContext.getInputContext(),
               parserContext.getFhirContext(), parserContext.getSparkSession(),
               parserContext.getDatabase(), parserContext.getTerminologyServiceFactory(),
-              parserContext.getGroupingColumns(), new HashMap<>());
+              parserContext.getGroupingColumns(), new HashMap<>(),
+              parserContext.getSubexpressionCache());
+          parserContext.getApproximation().ifPresent(currentContext::setApproximation);
           final Parser parser = new Parser(currentContext);
           final FhirPath result = parser.parse(expression);
           // Each expression must evaluate to a Materializable path, or a user error will be thrown.
@@ -142,6 +185,11 @@ public abstract class QueryExecutor {
 
   /**
    * Joins the datasets in a list together the provided set of shared columns.
+   * <p>
+   * Datasets that are the result of aggregating the same input by the same columns are first
+   * combined into a single aggregation (see {@link QueryHelpers#combineAggregations}), so that the
+   * input only needs to be aggregated once. A join is only required between aggregations that were
+   * performed over different inputs.
    *
    * @param expressions a list of expressions to join
    * @param joinColumns the columns to join by; all columns must be present in all expressions.
@@ -152,8 +200,23 @@ public abstract class QueryExecutor {
       @Nonnull final Collection<FhirPath> expressions, @Nonnull final List<Column> joinColumns) {
     checkArgument(!expressions.isEmpty(), "expressions must not be empty");
 
-    final Optional<Dataset<Row>> maybeJoinResult = expressions.stream()
-        .map(FhirPath::getDataset)
+    final List<Dataset<Row>> combined = new ArrayList<>();
+    for (final FhirPath expression : expressions) {
+      final Dataset<Row> dataset = expression.getDataset();
+      boolean wasCombined = false;
+      for (int i = 0; i < combined.size() && !wasCombined; i++) {
+        final Optional<Dataset<Row>> result = combineAggregations(combined.get(i), dataset);
+        if (result.isPresent()) {
+          combined.set(i, result.get());
+          wasCombined = true;
+        }
+      }
+      if (!wasCombined) {
+        combined.add(dataset);
+      }
+    }
+
+    final Optional<Dataset<Row>> maybeJoinResult = combined.stream()
         .reduce((l, r) -> join(l, joinColumns, r, joinColumns, JoinType.LEFT_OUTER));
     return maybeJoinResult.orElseThrow();
   }
@@ -17,17 +17,21 @@ import au.csiro.pathling.fhirpath.NonLiteralPath;
 import au.csiro.pathling.fhirpath.literal.LiteralPath;
 import au.csiro.pathling.fhirpath.parser.ParserContext;
 import au.csiro.pathling.utilities.Strings;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.WeakHashMap;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
@@ -49,6 +53,21 @@ import org.hl7.fhir.r4.model.Enumerations.ResourceType;
  */
 public abstract class QueryHelpers {
 
+  /**
+   * The datasets that were derived from another dataset by adding aliased columns to it, see
+   * {@link #aliasColumns(Dataset, Iterable)}. The rows of these datasets correspond one-to-one with
+   * the rows of the dataset that they were derived from.
+   */
+  private static final Map<Dataset<Row>, Projection> PROJECTIONS = Collections.synchronizedMap(
+      new WeakHashMap<>());
+
+  /**
+   * The datasets that were produced by grouping and aggregating another dataset, see
+   * {@link #aggregate(Dataset, List, Map)}.
+   */
+  private static final Map<Dataset<Row>, Aggregation> AGGREGATIONS = Collections.synchronizedMap(
+      new WeakHashMap<>());
+
   /**
    * Adds to the columns within a {@link Dataset} with an aliased version of the supplied column.
    *
@@ -120,15 +139,18 @@ public abstract class QueryHelpers {
 
     // Create an aliased column for each of the new columns, and add it to the selection and the
     // map.
+    final List<Column> aliasedColumns = new ArrayList<>();
     for (final Column column : columns) {
       final String alias = randomAlias();
       final Column aliasedColumn = column.alias(alias);
-      selection.add(aliasedColumn);
+      aliasedColumns.add(aliasedColumn);
       columnMap.put(column, col(alias));
     }
+    selection.addAll(aliasedColumns);
 
-    // Create a new dataset from the selection.
+    // Create a new dataset from the selection, and record where it came from.
     final Dataset<Row> result = dataset.select(selection.toArray(new Column[0]));
+    PROJECTIONS.put(result, new Projection(dataset, aliasedColumns));
 
     return new DatasetWithColumnMap(result, columnMap);
   }
@@ -283,6 +305,9 @@ public abstract class QueryHelpers {
   /**
    * Joins any number of {@link FhirPath} expressions, using equality between their respective
    * resource ID columns.
+   * <p>
+   * Expressions that share the same lineage are combined without a join, see
+   * {@link #combineProjections(Dataset, Dataset)}.
    *
    * @param parserContext the current {@link ParserContext}
    * @param fhirPaths a list of {@link FhirPath} expressions
@@ -317,6 +342,13 @@ public abstract class QueryHelpers {
     final List<Column> leftColumns = checkColumnsAndFallback(left.getDataset(), groupingColumns,
         idColumn);
     for (final FhirPath right : nonLiteralTargets) {
+      // If both paths were derived from the same dataset by selecting columns, we can select the
+      // columns of both from that dataset without any need to join.
+      final Optional<Dataset<Row>> combined = combineProjections(dataset, right.getDataset());
+      if (combined.isPresent()) {
+        dataset = combined.get();
+        continue;
+      }
       final List<Column> resolvedGroupingColumns = checkColumnsAndFallback(right.getDataset(),
           leftColumns, idColumn);
       dataset = join(dataset, resolvedGroupingColumns, right.getDataset(), resolvedGroupingColumns,
@@ -325,6 +357,187 @@ public abstract class QueryHelpers {
     return dataset;
   }
 
+  /**
+   * Combines two datasets that share the same lineage, i.e. that were both derived from the same
+   * dataset by adding columns to it. The rows of such datasets correspond one-to-one, so the result
+   * of joining them can be obtained by adding the columns of both to the dataset that they were
+   * derived from.
+   *
+   * @param left a {@link Dataset}
+   * @param right another Dataset
+   * @return the combined Dataset, or nothing if the lineage of the datasets diverges
+   */
+  @Nonnull
+  private static Optional<Dataset<Row>> combineProjections(@Nonnull final Dataset<Row> left,
+      @Nonnull final Dataset<Row> right) {
+    if (left == right) {
+      return Optional.of(left);
+    }
+
+    // Find the closest dataset that both datasets were derived from.
+    final Deque<Projection> leftProjections = new ArrayDeque<>();
+    findOrigin(left, leftProjections);
+    final Deque<Projection> rightProjections = new ArrayDeque<>();
+    Dataset<Row> origin = right;
+    while (origin != left && !isParentWithin(origin, leftProjections)) {
+      final Projection projection = PROJECTIONS.get(origin);
+      if (projection == null) {
+        return Optional.empty();
+      }
+      rightProjections.push(projection);
+      origin = projection.getParent();
+    }
+
+    // Discard the projections that led to that dataset within the lineage of the left dataset.
+    while (!leftProjections.isEmpty() && leftProjections.peek().getParent() != origin) {
+      leftProjections.pop();
+    }
+    return addProjections(origin, leftProjections, rightProjections)
+        .map(combined -> selectColumnsOf(combined, left, right));
+  }
+
+  /**
+   * Groups a {@link Dataset} by the supplied columns, and computes the supplied aggregations within
+   * each group. Aggregations produced this way over the same input can later be combined into a
+   * single aggregation, see {@link #combineAggregations(Dataset, Dataset)}.
+   *
+   * @param dataset the Dataset to aggregate
+   * @param groupBy the columns to group by
+   * @param aggregations the aggregate columns to compute, keyed by the name of the resulting column
+   * @return the aggregated Dataset
+   */
+  @Nonnull
+  public static Dataset<Row> aggregate(@Nonnull final Dataset<Row> dataset,
+      @Nonnull final List<Column> groupBy, @Nonnull final Map<String, Column> aggregations) {
+    checkArgument(!aggregations.isEmpty(), "aggregations must not be empty");
+    final Column[] selection = aggregations.entrySet().stream()
+        .map(entry -> entry.getValue().alias(entry.getKey()))
+        .toArray(Column[]::new);
+    final Dataset<Row> result = dataset
+        .groupBy(groupBy.toArray(new Column[0]))
+        .agg(selection[0], Arrays.copyOfRange(selection, 1, selection.length));
+    AGGREGATIONS.put(result, new Aggregation(dataset, groupBy, aggregations));
+    return result;
+  }
+
+  /**
+   * Combines two datasets that are each the result of an aggregation (see
+   * {@link #aggregate(Dataset, List, Map)}), where both aggregations group the same input by the
+   * same columns. The input may differ only in the columns that were added to it. The rows of such
+   * datasets correspond one-to-one, so the result of joining them on the grouping columns can be
+   * obtained by computing the aggregations of both within a single aggregation of the input.
+   * <p>
+   * As with a join, columns of the right dataset with the same name as a column of the left dataset
+   * are not included in the result.
+   *
+   * @param left a {@link Dataset}
+   * @param right another Dataset
+   * @return the combined Dataset, or nothing if the datasets were not aggregated in the same way
+   */
+  @Nonnull
+  public static Optional<Dataset<Row>> combineAggregations(@Nonnull final Dataset<Row> left,
+      @Nonnull final Dataset<Row> right) {
+    final Deque<Projection> leftProjections = new ArrayDeque<>();
+    final Aggregation leftAggregation = AGGREGATIONS.get(findOrigin(left, leftProjections));
+    final Deque<Projection> rightProjections = new ArrayDeque<>();
+    final Aggregation rightAggregation = AGGREGATIONS.get(findOrigin(right, rightProjections));
+    if (leftAggregation == null || rightAggregation == null
+        || !columnNames(leftAggregation.getGroupBy())
+        .equals(columnNames(rightAggregation.getGroupBy()))) {
+      return Optional.empty();
+    }
+    if (leftAggregation == rightAggregation) {
+      return combineProjections(left, right);
+    }
+    final Optional<Dataset<Row>> input = combineProjections(leftAggregation.getInput(),
+        rightAggregation.getInput());
+    if (input.isEmpty()) {
+      return Optional.empty();
+    }
+
+    // Compute the aggregations of both within a single aggregation of the combined input, then add
+    // the columns that were derived from each of them.
+    final Map<String, Column> aggregations = new LinkedHashMap<>(
+        leftAggregation.getAggregations());
+    rightAggregation.getAggregations().forEach(aggregations::putIfAbsent);
+    final Dataset<Row> aggregated = aggregate(input.get(), leftAggregation.getGroupBy(),
+        aggregations);
+    return addProjections(aggregated, leftProjections, rightProjections)
+        .map(combined -> selectColumnsOf(combined, left, right));
+  }
+
+  /**
+   * Follows the projections that a dataset was derived from back to the dataset that they started
+   * from.
+   *
+   * @param dataset the Dataset to start from
+   * @param projections a Deque that will be populated with the projections, in the order in which
+   * they were applied
+   * @return the Dataset that the projections started from
+   */
+  @Nonnull
+  private static Dataset<Row> findOrigin(@Nonnull final Dataset<Row> dataset,
+      @Nonnull final Deque<Projection> projections) {
+    Dataset<Row> origin = dataset;
+    Projection projection = PROJECTIONS.get(origin);
+    while (projection != null) {
+      projections.push(projection);
+      origin = projection.getParent();
+      projection = PROJECTIONS.get(origin);
+    }
+    return origin;
+  }
+
+  /**
+   * Adds the columns of two sets of projections to a dataset. All the columns of the dataset are
+   * retained, so that each projection can find the columns that it was derived from.
+   */
+  @Nonnull
+  private static Optional<Dataset<Row>> addProjections(@Nonnull final Dataset<Row> dataset,
+      @Nonnull final Collection<Projection> leftProjections,
+      @Nonnull final Collection<Projection> rightProjections) {
+    // Columns with duplicate names could not be told apart within the combined dataset.
+    final List<String> columnNames = List.of(dataset.columns());
+    if (new HashSet<>(columnNames).size() != columnNames.size()) {
+      return Optional.empty();
+    }
+    Dataset<Row> result = dataset;
+    for (final Projection projection : Stream.concat(leftProjections.stream(),
+        rightProjections.stream()).collect(Collectors.toList())) {
+      final List<Column> selection = new ArrayList<>();
+      selection.add(col("*"));
+      selection.addAll(projection.getColumns());
+      result = result.select(selection.toArray(new Column[0]));
+    }
+    return Optional.of(result);
+  }
+
+  /**
+   * Selects the columns of the left dataset from a combined dataset, followed by any columns of the
+   * right dataset that are not named the same as a column of the left dataset.
+   */
+  @Nonnull
+  private static Dataset<Row> selectColumnsOf(@Nonnull final Dataset<Row> combined,
+      @Nonnull final Dataset<Row> left, @Nonnull final Dataset<Row> right) {
+    final Set<String> columnNames = new LinkedHashSet<>(List.of(left.columns()));
+    columnNames.addAll(List.of(right.columns()));
+    return combined.select(columnNames.stream()
+        .map(combined::col)
+        .toArray(Column[]::new));
+  }
+
+  private static boolean isParentWithin(@Nonnull final Dataset<Row> dataset,
+      @Nonnull final Collection<Projection> projections) {
+    return projections.stream().anyMatch(projection -> projection.getParent() == dataset);
+  }
+
+  @Nonnull
+  private static List<String> columnNames(@Nonnull final Collection<Column> columns) {
+    return columns.stream()
+        .map(Column::toString)
+        .collect(Collectors.toList());
+  }
+
   /**
    * Joins a {@link Dataset} to a {@link FhirPath}, using equality between the resource ID in the
    * FhirPath and the supplied column.
@@ -547,4 +760,35 @@ public abstract class QueryHelpers {
 
   }
 
+  /**
+   * Describes how a {@link Dataset} was derived from another by adding aliased columns to it.
+   */
+  @Value
+  private static class Projection {
+
+    @Nonnull
+    Dataset<Row> parent;
+
+    @Nonnull
+    List<Column> columns;
+
+  }
+
+  /**
+   * Describes how a {@link Dataset} was produced by grouping and aggregating another.
+   */
+  @Value
+  private static class Aggregation {
+
+    @Nonnull
+    Dataset<Row> input;
+
+    @Nonnull
+    List<Column> groupBy;
+
+    @Nonnull
+    Map<String, Column> aggregations;
+
+  }
+
 }
@@ -0,0 +1,198 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling;
+
+import static au.csiro.pathling.fhir.FhirServer.supportedResourceTypes;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.WarmUpConfiguration;
+import au.csiro.pathling.encoders.FhirEncoders;
+import au.csiro.pathling.io.Database;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Warms up the server at startup, so that the first requests after a restart do not pay the cost
+ * of loading tables, populating caches and building encoders.
+ * <p>
+ * The warm-up is run before the application is marked as ready, so the health endpoint does not
+ * report that the server is ready to receive requests until it has completed. A failure within the
+ * warm-up is logged, but does not prevent the server from starting.
+ *
+ * @see au.csiro.pathling.fhir.HealthInterceptor
+ */
+@Component
+@Profile("core")
+@ConditionalOnProperty(prefix = "pathling", name = "warmUp.enabled", havingValue = "true")
+@Slf4j
+public class WarmUp implements ApplicationRunner {
+
+  @Nonnull
+  private final WarmUpConfiguration configuration;
+
+  private final boolean authEnabled;
+
+  @Nonnull
+  private final Database database;
+
+  @Nonnull
+  private final FhirEncoders fhirEncoders;
+
+  @Nonnull
+  private final Environment environment;
+
+  /**
+   * @param configuration a {@link Configuration} object containing the warm-up settings
+   * @param database the {@link Database} containing the tables to load
+   * @param fhirEncoders the {@link FhirEncoders} to build encoders with
+   * @param environment the {@link Environment}, used to find the port that the server is listening
+   * on
+   */
+  public WarmUp(@Nonnull final Configuration configuration, @Nonnull final Database database,
+      @Nonnull final FhirEncoders fhirEncoders, @Nonnull final Environment environment) {
+    this.configuration = configuration.getWarmUp();
+    this.authEnabled = configuration.getAuth().isEnabled();
+    this.database = database;
+    this.fhirEncoders = fhirEncoders;
+    this.environment = environment;
+  }
+
+  @Override
+  public void run(@Nonnull final ApplicationArguments args) {
+    log.info("Warming up");
+    final long start = System.currentTimeMillis();
+    final ExecutorService executor = Executors.newFixedThreadPool(configuration.getParallelism());
+    try {
+      final List<Callable<Void>> tasks = new ArrayList<>();
+      for (final ResourceType resourceType : getResourceTypes()) {
+        tasks.add(() -> {
+          if (database.preload(resourceType)) {
+            log.debug("Loaded table: {}", resourceType.toCode());
+          }
+          return null;
+        });
+        if (configuration.isEncoders()) {
+          tasks.add(() -> {
+            fhirEncoders.of(resourceType.toCode());
+            return null;
+          });
+        }
+      }
+      runAll(executor, tasks);
+
+      // Queries are replayed once the tables are loaded, so that they populate the caches that
+      // depend on the data. They are sent without credentials, so they would all be rejected if
+      // authorisation is enabled.
+      if (authEnabled && configuration.getQueries().isPresent()) {
+        log.warn("Authorisation is enabled, warm-up queries will not be replayed");
+      }
+      final List<String> queries = authEnabled
+                                   ? List.of()
+                                   : readQueries();
+      if (!queries.isEmpty()) {
+        final Optional<String> port = Optional.ofNullable(
+            environment.getProperty("local.server.port"));
+        if (port.isPresent()) {
+          final String base = "http://localhost:" + port.get() + "/fhir/";
+          final HttpClient client = HttpClient.newHttpClient();
+          runAll(executor, queries.stream()
+              .map(query -> (Callable<Void>) () -> {
+                replay(client, base, query);
+                return null;
+              })
+              .collect(Collectors.toList()));
+        } else {
+          log.warn("Server is not listening, warm-up queries will not be replayed");
+        }
+      }
+    } catch (final InterruptedException e) {
+      log.warn("Warm-up interrupted");
+      Thread.currentThread().interrupt();
+    } finally {
+      executor.shutdownNow();
+    }
+    log.info("Warm-up complete in {} ms", System.currentTimeMillis() - start);
+  }
+
+  @Nonnull
+  private Collection<ResourceType> getResourceTypes() {
+    if (configuration.getResourceTypes().isEmpty()) {
+      return supportedResourceTypes();
+    }
+    return configuration.getResourceTypes().stream()
+        .map(ResourceType::fromCode)
+        .collect(Collectors.toList());
+  }
+
+  @Nonnull
+  private List<String> readQueries() {
+    if (configuration.getQueries().isEmpty()) {
+      return List.of();
+    }
+    final Path path = Path.of(configuration.getQueries().get());
+    try {
+      return Files.readAllLines(path).stream()
+          .map(String::strip)
+          .filter(line -> !line.isEmpty() && !line.startsWith("#"))
+          .collect(Collectors.toList());
+    } catch (final IOException e) {
+      log.warn("Unable to read warm-up queries: {}", path, e);
+      return List.of();
+    }
+  }
+
+  private static void replay(@Nonnull final HttpClient client, @Nonnull final String base,
+      @Nonnull final String query) throws IOException, InterruptedException {
+    final HttpRequest request = HttpRequest.newBuilder(URI.create(base + query))
+        .header("Accept", "application/fhir+json")
+        .GET()
+        .build();
+    final HttpResponse<Void> response = client.send(request, BodyHandlers.discarding());
+    if (response.statusCode() >= 400) {
+      log.warn("Warm-up query failed with status {}: {}", response.statusCode(), query);
+    } else {
+      log.debug("Replayed warm-up query: {}", query);
+    }
+  }
+
+  private static void runAll(@Nonnull final ExecutorService executor,
+      @Nonnull final List<Callable<Void>> tasks) throws InterruptedException {
+    for (final Future<Void> future : executor.invokeAll(tasks)) {
+      try {
+        future.get();
+      } catch (final ExecutionException e) {
+        log.warn("Problem during warm-up", e.getCause());
+      }
+    }
+  }
+
+}
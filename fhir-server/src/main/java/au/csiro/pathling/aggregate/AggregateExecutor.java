@@ -8,7 +8,14 @@ package au.csiro.pathling.aggregate;
 
 import static au.csiro.pathling.QueryHelpers.createColumns;
 import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
-
+import static org.apache.spark.sql.functions.coalesce;
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.sum;
+
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
+import au.csiro.pathling.config.AggregateViewConfiguration;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.QueryExecutor;
 import au.csiro.pathling.QueryHelpers.DatasetWithColumnMap;
@@ -16,27 +23,39 @@ import au.csiro.pathling.fhir.TerminologyServiceFactory;
 import au.csiro.pathling.fhirpath.FhirPath;
 import au.csiro.pathling.fhirpath.Materializable;
 import au.csiro.pathling.fhirpath.ResourcePath;
+import au.csiro.pathling.fhirpath.parser.Approximation;
 import au.csiro.pathling.fhirpath.parser.Parser;
 import au.csiro.pathling.fhirpath.parser.ParserContext;
 import au.csiro.pathling.io.Database;
+import au.csiro.pathling.io.DatabaseUpdate;
 import au.csiro.pathling.sql.PathlingFunctions;
 import ca.uhn.fhir.context.FhirContext;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
+import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.hl7.fhir.r4.model.Type;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.annotation.Profile;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
 /**
@@ -50,32 +69,71 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class AggregateExecutor extends QueryExecutor {
 
+  private static final String COUNT_AGGREGATION = "count()";
+
+  private static final Pattern RESOLVE_FUNCTION = Pattern.compile("(?i)resolve\\(");
+
+  @Nonnull
+  private final AdmissionController admissionController;
+
+  @Nonnull
+  private final RequestCoalescer requestCoalescer;
+
+  /**
+   * The parsed expressions of each aggregate view, as of its latest refresh. These are used to
+   * interpret the results that are read from the view.
+   */
+  @Nonnull
+  private final Map<String, ResultWithExpressions> parsedViews = new ConcurrentHashMap<>();
+
   /**
    * @param configuration A {@link Configuration} object to control the behaviour of the executor
    * @param fhirContext A {@link FhirContext} for doing FHIR stuff
    * @param sparkSession A {@link SparkSession} for resolving Spark queries
    * @param database A {@link Database} for retrieving resources
    * @param terminologyClientFactory A {@link TerminologyServiceFactory} for resolving terminology
+   * @param admissionController An {@link AdmissionController} for checking the cost of queries
+   * before they are executed
+   * @param requestCoalescer A {@link RequestCoalescer} for sharing the results of identical
+   * requests
    */
   public AggregateExecutor(@Nonnull final Configuration configuration,
       @Nonnull final FhirContext fhirContext, @Nonnull final SparkSession sparkSession,
       @Nonnull final Database database,
-      @Nonnull final Optional<TerminologyServiceFactory> terminologyClientFactory) {
+      @Nonnull final Optional<TerminologyServiceFactory> terminologyClientFactory,
+      @Nonnull final AdmissionController admissionController,
+      @Nonnull final RequestCoalescer requestCoalescer) {
     super(configuration, fhirContext, sparkSession, database,
         terminologyClientFactory);
+    this.admissionController = admissionController;
+    this.requestCoalescer = requestCoalescer;
+    if (!configuration.getAggregateViews().isEmpty()) {
+      database.addUpdateListener(this::refreshViews);
+    }
   }
 
   /**
+   * Executes a query. If an identical query is already being executed against the same version of
+   * the data, its result is shared rather than executing the query again.
+   *
    * @param query an {@link AggregateRequest}
    * @return the resulting {@link AggregateResponse}
    */
   @Nonnull
   public AggregateResponse execute(@Nonnull final AggregateRequest query) {
-    final ResultWithExpressions resultWithExpressions = buildQuery(
-        query);
-
-    // Translate the result into a response object to be passed back to the user.
-    return buildResponse(resultWithExpressions);
+    final List<Object> key = buildRequestKey("aggregate", query.getSubjectResource(),
+        canonicalizeExpressions(query.getAggregations()),
+        canonicalizeExpressions(query.getGroupings()), canonicalizeFilters(query.getFilters()),
+        query.isApproximate());
+    return requestCoalescer.execute(key, () -> {
+      // If the query can be answered using the result of an aggregate view, the result is read from
+      // the view instead of being computed.
+      final ResultWithExpressions result = answerFromView(query)
+          .orElseGet(() -> buildQuery(query));
+
+      // Translate the result into a response object to be passed back to the user.
+      return buildResponse(result);
+    });
   }
 
   /**
@@ -85,13 +143,19 @@ public class AggregateExecutor extends QueryExecutor {
   @SuppressWarnings("WeakerAccess")
   @Nonnull
   public ResultWithExpressions buildQuery(@Nonnull final AggregateRequest query) {
+    return buildQuery(query, getDatabase().read(query.getSubjectResource()));
+  }
+
+  @Nonnull
+  private ResultWithExpressions buildQuery(@Nonnull final AggregateRequest query,
+      @Nonnull final Dataset<Row> resources) {
     log.info("Executing request: {}", query);
 
     // Build a new expression parser, and parse all of the filter and grouping expressions within
     // the query.
     final ResourcePath inputContext = ResourcePath
-        .build(getFhirContext(), getDatabase(), query.getSubjectResource(),
-            query.getSubjectResource().toCode(), true);
+        .build(getFhirContext(), resources, query.getSubjectResource(),
+            query.getSubjectResource().toCode(), true, false);
     final ParserContext groupingAndFilterContext = buildParserContext(inputContext,
         Collections.singletonList(inputContext.getIdColumn()));
     final Parser parser = new Parser(groupingAndFilterContext);
@@ -130,6 +194,11 @@ public class AggregateExecutor extends QueryExecutor {
             Optional.empty());
     final ParserContext aggregationParserContext = buildParserContext(aggregationContext,
         groupingColumns);
+    // If an approximate result has been requested, the aggregations may be evaluated as estimates.
+    final Optional<Approximation> approximation = Optional.of(query)
+        .filter(AggregateRequest::isApproximate)
+        .map(q -> new Approximation(getConfiguration().getSpark().getApproximateCountError()));
+    approximation.ifPresent(aggregationParserContext::setApproximation);
     final Parser aggregationParser = new Parser(aggregationParserContext);
 
     // Parse the aggregations, and grab the updated grouping columns. When aggregations are
@@ -157,7 +226,12 @@ public class AggregateExecutor extends QueryExecutor {
         // This is needed to cater for the scenario where a literal value is used within an
         // aggregation expression.
         .distinct();
-    return new ResultWithExpressions(finalDataset, aggregations, groupings, filters);
+    // The relative error is only reported if any of the aggregations were actually estimated.
+    final Optional<Double> relativeError = approximation
+        .filter(Approximation::isUsed)
+        .map(Approximation::getRelativeError);
+    return new ResultWithExpressions(finalDataset, aggregations, groupings, filters,
+        relativeError);
   }
 
   @Nonnull
@@ -175,6 +249,269 @@ public class AggregateExecutor extends QueryExecutor {
     }).collect(Collectors.toList());
   }
 
+  /**
+   * Attempts to answer a query using the materialised result of one of the configured aggregate
+   * views. A view can be used if it has the same subject resource, aggregations and filters as the
+   * query, and each of the groupings of the query is also a grouping of the view. The view is
+   * matched using the expressions of the query, so the query is not parsed.
+   * <p>
+   * If the view has groupings that the query does not, its result is rolled up by adding together
+   * the results of the groupings that share the same labels. This is only possible if all the
+   * aggregations are {@code count()}, and each of the groupings of the view is singular, so that
+   * each resource is counted within only one grouping.
+   * <p>
+   * Views are computed from all the resources, so they are not used when the resources that are
+   * visible to the current request are limited to a scope. A view that has not yet been refreshed
+   * following a change to the data is not used either.
+   *
+   * @param query an {@link AggregateRequest}
+   * @return a result which reads from the view, if a suitable view exists
+   */
+  @Nonnull
+  private Optional<ResultWithExpressions> answerFromView(@Nonnull final AggregateRequest query) {
+    final Optional<String> version = getDatabase().getCacheKey();
+    if (getDatabase().getScopeKey().isPresent() || version.isEmpty()) {
+      return Optional.empty();
+    }
+    for (final Entry<String, AggregateViewConfiguration> entry : getConfiguration()
+        .getAggregateViews().entrySet()) {
+      final Optional<ResultWithExpressions> result = readFromView(query, entry.getKey(),
+          buildViewRequest(entry.getValue()), version.get());
+      if (result.isPresent()) {
+        log.info("Answering request using aggregate view: {}", entry.getKey());
+        return result;
+      }
+    }
+    return Optional.empty();
+  }
+
+  @Nonnull
+  private Optional<ResultWithExpressions> readFromView(@Nonnull final AggregateRequest query,
+      @Nonnull final String name, @Nonnull final AggregateRequest view,
+      @Nonnull final String version) {
+    @Nullable final ResultWithExpressions parsedView = parsedViews.get(name);
+    if (parsedView == null || query.getSubjectResource() != view.getSubjectResource()
+        || !canonicalizeFilters(query.getFilters())
+        .equals(canonicalizeFilters(view.getFilters()))) {
+      return Optional.empty();
+    }
+    final List<String> groupings = canonicalizeExpressions(query.getGroupings());
+    final List<String> aggregations = canonicalizeExpressions(query.getAggregations());
+    final List<String> viewGroupings = canonicalizeExpressions(view.getGroupings());
+    final List<String> viewAggregations = canonicalizeExpressions(view.getAggregations());
+    if (!viewGroupings.containsAll(groupings) || !viewAggregations.containsAll(aggregations)) {
+      return Optional.empty();
+    }
+    final boolean rollUp = !groupings.containsAll(viewGroupings);
+    if (rollUp && !(aggregations.stream().allMatch(COUNT_AGGREGATION::equals)
+        && parsedView.getParsedGroupings().stream().allMatch(FhirPath::isSingular))) {
+      return Optional.empty();
+    }
+
+    final Optional<Dataset<Row>> maybeTable = getDatabase().readView(name, version);
+    if (maybeTable.isEmpty()) {
+      return Optional.empty();
+    }
+    final Dataset<Row> table = maybeTable.get();
+    final Column[] groupingColumns = groupings.stream()
+        .map(grouping -> table.col(viewGroupingColumn(viewGroupings.indexOf(grouping))))
+        .toArray(Column[]::new);
+    final List<Column> aggregationColumns = aggregations.stream()
+        .map(aggregation -> table.col(
+            viewAggregationColumn(viewAggregations.indexOf(aggregation))))
+        .collect(Collectors.toList());
+    final Dataset<Row> dataset;
+    if (rollUp) {
+      // Add together the counts within each of the groupings of the query, keeping the type of the
+      // original counts.
+      final List<Column> sums = aggregationColumns.stream()
+          .map(column -> coalesce(sum(column), lit(0))
+              .cast(table.select(column).schema().fields()[0].dataType()))
+          .collect(Collectors.toList());
+      dataset = table.groupBy(groupingColumns)
+          .agg(sums.get(0), sums.subList(1, sums.size()).toArray(new Column[0]));
+    } else {
+      final List<Column> selection = new ArrayList<>(Arrays.asList(groupingColumns));
+      selection.addAll(aggregationColumns);
+      dataset = table.select(selection.toArray(new Column[0]));
+    }
+
+    // The expressions of the query are the same as those of the view, so the parsed expressions of
+    // the view are used to interpret the result.
+    final List<FhirPath> parsedGroupings = groupings.stream()
+        .map(grouping -> parsedView.getParsedGroupings().get(viewGroupings.indexOf(grouping)))
+        .collect(Collectors.toList());
+    final List<FhirPath> parsedAggregations = aggregations.stream()
+        .map(aggregation -> parsedView.getParsedAggregations()
+            .get(viewAggregations.indexOf(aggregation)))
+        .collect(Collectors.toList());
+    return Optional.of(new ResultWithExpressions(dataset, parsedAggregations, parsedGroupings,
+        parsedView.getParsedFilters(), Optional.empty()));
+  }
+
+  /**
+   * Materialises any aggregate view that has not been materialised from the current version of
+   * the data, once the server has started.
+   */
+  @EventListener(ApplicationReadyEvent.class)
+  public synchronized void materialiseViews() {
+    final Optional<String> version = getDatabase().getCacheKey();
+    if (version.isEmpty()) {
+      return;
+    }
+    for (final Entry<String, AggregateViewConfiguration> entry : getConfiguration()
+        .getAggregateViews().entrySet()) {
+      final AggregateRequest view = buildViewRequest(entry.getValue());
+      try {
+        if (getDatabase().readView(entry.getKey(), version.get()).isPresent()) {
+          parsedViews.put(entry.getKey(), buildQuery(view));
+        } else {
+          computeView(entry.getKey(), view, version.get());
+        }
+      } catch (final RuntimeException e) {
+        log.warn("Unable to materialise aggregate view: {}", entry.getKey(), e);
+      }
+    }
+  }
+
+  /**
+   * Refreshes the materialised results of the aggregate views following a change to the data.
+   * This is called by the {@link Database} after the change has been made, rather than within a
+   * request.
+   * <p>
+   * A view whose aggregations are all {@code count()}, whose groupings are singular and whose
+   * expressions do not resolve references to other resources is updated incrementally when
+   * resources of its subject type are merged. The counts of the new versions of the changed
+   * resources are added to the view, and the counts of their previous versions are subtracted. A
+   * change to another type of resource leaves such a view unchanged. Any other view is computed
+   * again in full.
+   *
+   * @param update the {@link DatabaseUpdate} that describes the change
+   */
+  private synchronized void refreshViews(@Nonnull final DatabaseUpdate update) {
+    if (update.getCacheKey().isEmpty()) {
+      return;
+    }
+    final String version = update.getCacheKey().get();
+    for (final Entry<String, AggregateViewConfiguration> entry : getConfiguration()
+        .getAggregateViews().entrySet()) {
+      try {
+        refreshView(entry.getKey(), buildViewRequest(entry.getValue()), update, version);
+      } catch (final RuntimeException e) {
+        log.warn("Unable to refresh aggregate view: {}", entry.getKey(), e);
+      }
+    }
+  }
+
+  private void refreshView(@Nonnull final String name, @Nonnull final AggregateRequest view,
+      @Nonnull final DatabaseUpdate update, @Nonnull final String version) {
+    final Optional<Dataset<Row>> previous = update.getPreviousCacheKey()
+        .flatMap(previousVersion -> getDatabase().readView(name, previousVersion));
+    final boolean resolvesReferences = Stream.of(view.getAggregations(), view.getGroupings(),
+            view.getFilters())
+        .flatMap(Collection::stream)
+        .anyMatch(expression -> RESOLVE_FUNCTION.matcher(expression).find());
+    if (previous.isEmpty() || resolvesReferences) {
+      computeView(name, view, version);
+      return;
+    }
+
+    if (update.getResourceType() != view.getSubjectResource()) {
+      log.info("Aggregate view is not affected by update: {}", name);
+      getDatabase().writeView(name, previous.get(), version);
+      return;
+    }
+
+    final ResultWithExpressions parsedView = buildQuery(view);
+    final boolean incremental = update.getBefore().isPresent() && update.getAfter().isPresent()
+        && canonicalizeExpressions(view.getAggregations()).stream()
+        .allMatch(COUNT_AGGREGATION::equals)
+        && parsedView.getParsedGroupings().stream().allMatch(FhirPath::isSingular);
+    if (!incremental) {
+      computeView(name, view, version);
+      return;
+    }
+
+    log.info("Updating aggregate view: {}", name);
+    final Dataset<Row> table = previous.get();
+    final Dataset<Row> added = toViewColumns(view,
+        buildQuery(view, update.getAfter().get()).getDataset());
+    final Dataset<Row> removed = toViewColumns(view,
+        buildQuery(view, update.getBefore().get()).getDataset());
+    final List<Column> groupingColumns = new ArrayList<>();
+    final List<Column> removedColumns = new ArrayList<>();
+    for (int i = 0; i < view.getGroupings().size(); i++) {
+      groupingColumns.add(col(viewGroupingColumn(i)));
+      removedColumns.add(col(viewGroupingColumn(i)));
+    }
+    final List<Column> sums = new ArrayList<>();
+    for (int i = 0; i < view.getAggregations().size(); i++) {
+      final String column = viewAggregationColumn(i);
+      removedColumns.add(col(column).multiply(-1).alias(column));
+      sums.add(coalesce(sum(col(column)), lit(0))
+          .cast(table.schema().apply(column).dataType())
+          .alias(column));
+    }
+    Dataset<Row> result = table
+        .unionByName(added)
+        .unionByName(removed.select(removedColumns.toArray(new Column[0])))
+        .groupBy(groupingColumns.toArray(new Column[0]))
+        .agg(sums.get(0), sums.subList(1, sums.size()).toArray(new Column[0]));
+    if (!groupingColumns.isEmpty()) {
+      // A grouping that no longer counts any resources is not part of the result.
+      result = result.where(col(viewAggregationColumn(0)).notEqual(0));
+    }
+    final Dataset<Row> finalResult = result;
+    admissionController.execute(finalResult, true, () -> {
+      getDatabase().writeView(name, finalResult, version);
+      return null;
+    });
+    parsedViews.put(name, parsedView);
+  }
+
+  private void computeView(@Nonnull final String name, @Nonnull final AggregateRequest view,
+      @Nonnull final String version) {
+    log.info("Materialising aggregate view: {}", name);
+    final ResultWithExpressions parsedView = buildQuery(view);
+    final Dataset<Row> result = toViewColumns(view, parsedView.getDataset());
+    admissionController.execute(result, true, () -> {
+      getDatabase().writeView(name, result, version);
+      return null;
+    });
+    parsedViews.put(name, parsedView);
+  }
+
+  @Nonnull
+  private static Dataset<Row> toViewColumns(@Nonnull final AggregateRequest view,
+      @Nonnull final Dataset<Row> result) {
+    final List<String> columnNames = new ArrayList<>();
+    for (int i = 0; i < view.getGroupings().size(); i++) {
+      columnNames.add(viewGroupingColumn(i));
+    }
+    for (int i = 0; i < view.getAggregations().size(); i++) {
+      columnNames.add(viewAggregationColumn(i));
+    }
+    return result.toDF(columnNames.toArray(new String[0]));
+  }
+
+  @Nonnull
+  private static AggregateRequest buildViewRequest(
+      @Nonnull final AggregateViewConfiguration view) {
+    return new AggregateRequest(ResourceType.fromCode(view.getSubjectResource()),
+        Optional.of(view.getAggregations()), Optional.of(view.getGroupings()),
+        Optional.of(view.getFilters()), false);
+  }
+
+  @Nonnull
+  private static String viewGroupingColumn(final int index) {
+    return "grouping" + index;
+  }
+
+  @Nonnull
+  private static String viewAggregationColumn(final int index) {
+    return "aggregation" + index;
+  }
+
   @Nonnull
   private AggregateResponse buildResponse(
       @Nonnull final ResultWithExpressions resultWithExpressions) {
@@ -185,7 +522,8 @@ public class AggregateExecutor extends QueryExecutor {
     }
 
     // Execute the query.
-    final List<Row> rows = resultWithExpressions.getDataset().collectAsList();
+    final Dataset<Row> dataset = resultWithExpressions.getDataset();
+    final List<Row> rows = admissionController.execute(dataset, true, dataset::collectAsList);
 
     // Map each of the rows in the result to a grouping in the response object.
     final List<AggregateResponse.Grouping> groupings = rows.stream()
@@ -194,7 +532,7 @@ public class AggregateExecutor extends QueryExecutor {
             resultWithExpressions.getParsedFilters()))
         .collect(Collectors.toList());
 
-    return new AggregateResponse(groupings);
+    return new AggregateResponse(groupings, resultWithExpressions.getRelativeError());
   }
 
   @Nonnull
@@ -231,7 +569,7 @@ public class AggregateExecutor extends QueryExecutor {
   }
 
   @Value
-  private static class ResultWithExpressions {
+  static class ResultWithExpressions {
 
     @Nonnull
     Dataset<Row> dataset;
@@ -245,6 +583,9 @@ public class AggregateExecutor extends QueryExecutor {
     @Nonnull
     Collection<FhirPath> parsedFilters;
 
+    @Nonnull
+    Optional<Double> relativeError;
+
   }
 
 }
@@ -21,6 +21,7 @@ import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.BooleanType;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.hl7.fhir.r4.model.Parameters;
 import org.springframework.context.annotation.Profile;
@@ -69,6 +70,7 @@ public class AggregateProvider implements IResourceProvider {
    * @param aggregation a list of aggregation expressions
    * @param grouping a list of grouping expressions
    * @param filter a list of filter expressions
+   * @param approximate whether estimates may be returned in place of exact results
    * @param request the {@link HttpServletRequest} details
    * @param requestDetails the {@link RequestDetails} containing HAPI inferred info
    * @param response the {@link HttpServletResponse} response
@@ -81,12 +83,13 @@ public class AggregateProvider implements IResourceProvider {
       @Nullable @OperationParam(name = "aggregation") final List<String> aggregation,
       @Nullable @OperationParam(name = "grouping") final List<String> grouping,
       @Nullable @OperationParam(name = "filter") final List<String> filter,
+      @Nullable @OperationParam(name = "approximate") final BooleanType approximate,
       @SuppressWarnings("unused") @Nullable final HttpServletRequest request,
       @SuppressWarnings("unused") @Nullable final RequestDetails requestDetails,
       @SuppressWarnings("unused") @Nullable final HttpServletResponse response) {
     final AggregateRequest query = new AggregateRequest(
         resourceType, Optional.ofNullable(aggregation), Optional.ofNullable(grouping),
-        Optional.ofNullable(filter));
+        Optional.ofNullable(filter), approximate != null && approximate.booleanValue());
     final AggregateResponse result = aggregateExecutor.execute(query);
     return result.toParameters();
   }
@@ -35,16 +35,20 @@ public class AggregateRequest {
   @Nonnull
   List<String> filters;
 
+  boolean approximate;
+
   /**
    * @param subjectResource The resource which will serve as the input context for each expression
    * @param aggregations A set of aggregation expressions to execute over the data
    * @param groupings Instructions on how the data should be grouped when aggregating
    * @param filters The criteria by which the data should be filtered
+   * @param approximate Whether estimates may be returned in place of exact results, where these
+   * are cheaper to compute
    */
   public AggregateRequest(@Nonnull final ResourceType subjectResource,
       @Nonnull final Optional<List<String>> aggregations,
       @Nonnull final Optional<List<String>> groupings,
-      @Nonnull final Optional<List<String>> filters) {
+      @Nonnull final Optional<List<String>> filters, final boolean approximate) {
     checkUserInput(aggregations.isPresent() && aggregations.get().size() > 0,
         "Query must have at least one aggregation expression");
     checkUserInput(aggregations.get().stream().noneMatch(String::isBlank),
@@ -57,6 +61,7 @@ public class AggregateRequest {
     this.aggregations = aggregations.get();
     this.groupings = groupings.orElse(Collections.emptyList());
     this.filters = filters.orElse(Collections.emptyList());
+    this.approximate = approximate;
   }
 
 }
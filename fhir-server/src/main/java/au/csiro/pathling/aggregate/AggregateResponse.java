@@ -11,6 +11,7 @@ import java.util.Optional;
 import javax.annotation.Nonnull;
 import lombok.Getter;
 import lombok.Value;
+import org.hl7.fhir.r4.model.DecimalType;
 import org.hl7.fhir.r4.model.Parameters;
 import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r4.model.StringType;
@@ -28,11 +29,18 @@ public class AggregateResponse {
   @Nonnull
   private final List<Grouping> groupings;
 
+  @Nonnull
+  private final Optional<Double> relativeError;
+
   /**
    * @param groupings A set of grouped results
+   * @param relativeError The relative standard deviation of any results that were estimated, if an
+   * approximate result was requested
    */
-  public AggregateResponse(@Nonnull final List<Grouping> groupings) {
+  public AggregateResponse(@Nonnull final List<Grouping> groupings,
+      @Nonnull final Optional<Double> relativeError) {
     this.groupings = groupings;
+    this.relativeError = relativeError;
   }
 
   /**
@@ -71,6 +79,12 @@ public class AggregateResponse {
       }
       parameters.getParameter().add(groupingParameter);
     });
+    relativeError.ifPresent(error -> {
+      final ParametersParameterComponent errorParameter = new ParametersParameterComponent();
+      errorParameter.setName("relativeError");
+      errorParameter.setValue(new DecimalType(error));
+      parameters.getParameter().add(errorParameter);
+    });
     return parameters;
   }
 
@@ -9,14 +9,21 @@ package au.csiro.pathling.async;
 import static au.csiro.pathling.security.SecurityAspect.getCurrentUserId;
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.errors.AsyncRequiredError;
+import au.csiro.pathling.errors.ServerBusyError;
+import au.csiro.pathling.fhir.SchedulingInterceptor;
+import au.csiro.pathling.io.Database;
+import au.csiro.pathling.spark.QueryCanceller;
+import au.csiro.pathling.spark.RequestScheduler;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import io.sentry.ITransaction;
 import io.sentry.Sentry;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Optional;
-import java.util.concurrent.Future;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.servlet.http.HttpServletRequest;
@@ -35,6 +42,7 @@ import org.slf4j.MDC;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Profile;
 import org.springframework.core.annotation.Order;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -57,6 +65,11 @@ public class AsyncAspect {
   private static final String ASYNC_HEADER = "Prefer";
   private static final String ASYNC_HEADER_VALUE = "respond-async";
 
+  /**
+   * A Spark local property that is set on the thread that runs an asynchronous job.
+   */
+  public static final String ASYNC_JOB_PROPERTY = "pathling.async.job";
+
   @Nonnull
   private final ThreadPoolTaskExecutor executor;
 
@@ -69,19 +82,55 @@ public class AsyncAspect {
   @Nonnull
   private final SparkSession spark;
 
+  @Nonnull
+  private final RequestScheduler requestScheduler;
+
+  @Nonnull
+  private final SchedulingInterceptor schedulingInterceptor;
+
+  @Nonnull
+  private final QueryCanceller queryCanceller;
+
+  @Nonnull
+  private final Database database;
+
+  @Nonnull
+  private final Configuration configuration;
+
+  /**
+   * The IDs of the jobs that are currently running, keyed by the canonicalised request that they
+   * are processing. This is used to share a single job between identical requests.
+   */
+  @Nonnull
+  private final Map<List<Object>, String> inFlightJobs = new ConcurrentHashMap<>();
+
   /**
    * @param executor used to run asynchronous jobs in the background
    * @param jobRegistry the {@link JobRegistry} used to keep track of running jobs
    * @param stageMap the {@link StageMap} used to map stages to job IDs
    * @param spark used for updating the Spark Context with job identity
+   * @param requestScheduler used to assign jobs to Spark scheduler pools
+   * @param schedulingInterceptor used to release the scheduler pool of a request once its job has
+   * been handed off
+   * @param queryCanceller used to stop cancelling jobs once they have completed
+   * @param database used to determine the version of the data that a job is processing
+   * @param configuration used to tell clients when to retry a job that could not be accepted
    */
   public AsyncAspect(@Nonnull final ThreadPoolTaskExecutor executor,
       @Nonnull final JobRegistry jobRegistry, @Nonnull final StageMap stageMap,
-      @Nonnull final SparkSession spark) {
+      @Nonnull final SparkSession spark, @Nonnull final RequestScheduler requestScheduler,
+      @Nonnull final SchedulingInterceptor schedulingInterceptor,
+      @Nonnull final QueryCanceller queryCanceller, @Nonnull final Database database,
+      @Nonnull final Configuration configuration) {
     this.executor = executor;
     this.jobRegistry = jobRegistry;
     this.stageMap = stageMap;
     this.spark = spark;
+    this.requestScheduler = requestScheduler;
+    this.schedulingInterceptor = schedulingInterceptor;
+    this.queryCanceller = queryCanceller;
+    this.database = database;
+    this.configuration = configuration;
   }
 
   @Around("@annotation(asyncSupported)")
@@ -96,7 +145,15 @@ public class AsyncAspect {
       processRequestAsynchronously(joinPoint, args, spark);
       throw new ProcessingNotCompletedException("Accepted", buildOperationOutcome());
     } else {
-      return (IBaseResource) joinPoint.proceed(args);
+      try {
+        return (IBaseResource) joinPoint.proceed(args);
+      } catch (final AsyncRequiredError e) {
+        // The query was found to be too expensive to run synchronously, so we process it as if
+        // asynchronous processing had been requested.
+        log.info("Processing heavy request asynchronously");
+        processRequestAsynchronously(joinPoint, args, spark);
+        throw new ProcessingNotCompletedException("Accepted", buildOperationOutcome());
+      }
     }
   }
 
@@ -104,31 +161,95 @@ public class AsyncAspect {
       @Nonnull final Object[] args, @Nonnull final SparkSession spark) {
     final RequestDetails requestDetails = getRequestDetails(args);
     final HttpServletResponse response = getResponse(args);
+    // The request does no further work of its own, and the job enters a pool on its own thread, so
+    // the pool slot held by the request is released rather than being held until it returns.
+    schedulingInterceptor.releasePool(requestDetails);
     final String requestId = requestDetails.getRequestId();
     final ITransaction transaction = Sentry.startTransaction(requestId, "async");
     final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
     checkNotNull(requestId);
     final String operation = requestDetails.getOperation().replaceFirst("\\$", "");
-    final Future<IBaseResource> result = executor.submit(() -> {
+    final Optional<String> ownerId = getCurrentUserId(authentication);
+
+    final List<Object> jobKey = buildJobKey(joinPoint, requestDetails, args, ownerId);
+    final JobTask result = new JobTask(() -> {
+      // The job runs within the scheduler pool for its operation and owner, in the same way as a
+      // synchronous request would.
+      final String pool = requestScheduler.enter(operation, ownerId);
       try {
         MDC.put("requestId", requestId);
         Sentry.startTransaction(requestId, "async");
         SecurityContextHolder.getContext().setAuthentication(authentication);
         spark.sparkContext().setJobGroup(requestId, requestId, true);
+        spark.sparkContext().setLocalProperty(ASYNC_JOB_PROPERTY, "true");
         return (IBaseResource) joinPoint.proceed(args);
       } catch (final Throwable e) {
         throw new RuntimeException("Problem processing request asynchronously", e);
       } finally {
+        inFlightJobs.remove(jobKey, requestId);
         cleanUpAfterJob(spark, requestId);
+        requestScheduler.exit(pool);
         transaction.finish();
       }
+    }, () -> {
+      // The job was cancelled before it started, so it will never run.
+      inFlightJobs.remove(jobKey, requestId);
+      queryCanceller.release(requestId);
+      transaction.finish();
     });
-    final Optional<String> ownerId = getCurrentUserId(authentication);
+
+    // The job is registered before it is published, so that an identical request that finds it
+    // can always be directed to it.
     jobRegistry.put(requestId, new Job(operation, result, ownerId));
+
+    // If an identical request from the same user is already being processed against the same
+    // version of the data, the client is directed to the existing job instead of starting another.
+    // An entry for a job that is no longer in the registry is replaced.
+    final String jobId = inFlightJobs.compute(jobKey, (key, existingJobId) ->
+        existingJobId != null && jobRegistry.get(existingJobId) != null
+        ? existingJobId
+        : requestId);
+    if (!requestId.equals(jobId)) {
+      log.info("Sharing existing job for identical request: {}", jobId);
+      jobRegistry.remove(requestId);
+      transaction.finish();
+      response.setHeader("Content-Location",
+          requestDetails.getFhirServerBase() + "/$job?id=" + jobId);
+      return;
+    }
+
+    try {
+      executor.execute(result);
+    } catch (final TaskRejectedException e) {
+      // There are no threads or queue capacity left for jobs, so the client is asked to try again
+      // later, rather than the job being run on the request thread. The job is cancelled rather
+      // than removed, so that any identical request that has already been directed to it sees
+      // that it will not complete.
+      result.cancel(false);
+      throw new ServerBusyError("Too many asynchronous jobs are in progress",
+          configuration.getThreads().getRetryAfter());
+    }
     response.setHeader("Content-Location",
         requestDetails.getFhirServerBase() + "/$job?id=" + requestId);
   }
 
+  /**
+   * Builds a key that identifies a request, made up of the operation and its arguments. Arguments
+   * that are specific to the HTTP exchange are excluded, and arguments that do not implement
+   * equality (such as resources) prevent the request from ever matching another.
+   */
+  @Nonnull
+  private List<Object> buildJobKey(@Nonnull final ProceedingJoinPoint joinPoint,
+      @Nonnull final RequestDetails requestDetails, @Nonnull final Object[] args,
+      @Nonnull final Optional<String> ownerId) {
+    final List<Object> parameters = Arrays.stream(args)
+        .filter(a -> !(a instanceof HttpServletRequest || a instanceof HttpServletResponse
+            || a instanceof RequestDetails))
+        .collect(Collectors.toList());
+    return Arrays.asList(joinPoint.getSignature().toLongString(),
+        requestDetails.getResourceName(), parameters, ownerId, database.getCacheKey());
+  }
+
   @Nonnull
   private HttpServletRequest getRequest(@Nonnull final Object[] args) {
     return (HttpServletRequest) Arrays.stream(args)
@@ -158,14 +279,12 @@ public class AsyncAspect {
 
   private void cleanUpAfterJob(@Nonnull final SparkSession spark, @Nonnull final String requestId) {
     spark.sparkContext().clearJobGroup();
+    spark.sparkContext().setLocalProperty(ASYNC_JOB_PROPERTY, null);
+    queryCanceller.release(requestId);
     // Clean up the stage mappings.
-    final List<Integer> keys = stageMap.entrySet().stream()
-        .filter(e -> requestId.equals(e.getValue()))
-        .map(Entry::getKey)
-        .collect(Collectors.toList());
-    stageMap.keySet().removeAll(keys);
-    // We can't clean up the entry in the job registry, it needs to stay there so that clients can
-    // retrieve the result of completed jobs.
+    stageMap.removeJob(requestId);
+    // The entry in the job registry needs to stay there so that clients can retrieve the result of
+    // completed jobs. It is evicted by the registry once its retention period has elapsed.
   }
 
   @Nonnull
@@ -8,6 +8,8 @@ package au.csiro.pathling.async;
 
 import java.util.Optional;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import javax.annotation.Nonnull;
 import lombok.Getter;
 import lombok.ToString;
@@ -31,9 +33,26 @@ public class Job {
   @Nonnull
   private final Optional<String> ownerId;
 
-  private int totalStages;
+  /**
+   * The time at which the job was started, in milliseconds since the epoch.
+   */
+  private final long startTime;
+
+  // These counters are updated from the Spark listener bus thread, and read from request threads.
+  @Nonnull
+  private final AtomicInteger totalStages = new AtomicInteger();
+
+  @Nonnull
+  private final AtomicInteger completedStages = new AtomicInteger();
+
+  @Nonnull
+  private final AtomicLong totalTasks = new AtomicLong();
+
+  @Nonnull
+  private final AtomicLong completedTasks = new AtomicLong();
 
-  private int completedStages;
+  @Nonnull
+  private final AtomicLong bytesProcessed = new AtomicLong();
 
   /**
    * @param operation the operation that initiated the job, used for enforcing authorization
@@ -42,27 +61,103 @@ public class Job {
    */
   public Job(@Nonnull final String operation, @Nonnull final Future<IBaseResource> result,
       @Nonnull final Optional<String> ownerId) {
+    this(operation, result, ownerId, System.currentTimeMillis());
+  }
+
+  /**
+   * @param operation the operation that initiated the job, used for enforcing authorization
+   * @param result the {@link Future} result
+   * @param ownerId the identifier of the owner of the job, if authenticated
+   * @param startTime the time at which the job was started, in milliseconds since the epoch
+   */
+  public Job(@Nonnull final String operation, @Nonnull final Future<IBaseResource> result,
+      @Nonnull final Optional<String> ownerId, final long startTime) {
     this.operation = operation;
     this.result = result;
     this.ownerId = ownerId;
+    this.startTime = startTime;
+  }
+
+  /**
+   * Records the submission of a stage within the job, used to calculate progress.
+   *
+   * @param numTasks the number of tasks within the stage
+   */
+  public void stageSubmitted(final int numTasks) {
+    totalStages.incrementAndGet();
+    totalTasks.addAndGet(numTasks);
   }
 
   /**
-   * Increment the number of total stages within the job, used to calculate progress.
+   * Records the completion of a stage within the job, used to calculate progress.
    */
-  public void incrementTotalStages() {
-    totalStages++;
+  public void stageCompleted() {
+    completedStages.incrementAndGet();
   }
 
   /**
-   * Increment the number of completed stages within the job, used to calculate progress.
+   * Records the successful completion of a task within the job, used to calculate progress.
+   *
+   * @param bytesRead the number of bytes of input read by the task
    */
-  public void incrementCompletedStages() {
-    completedStages++;
+  public void taskCompleted(final long bytesRead) {
+    completedTasks.incrementAndGet();
+    bytesProcessed.addAndGet(bytesRead);
+  }
+
+  public int getTotalStages() {
+    return totalStages.get();
+  }
+
+  public int getCompletedStages() {
+    return completedStages.get();
+  }
+
+  public long getTotalTasks() {
+    return totalTasks.get();
+  }
+
+  public long getCompletedTasks() {
+    return completedTasks.get();
+  }
+
+  public long getBytesProcessed() {
+    return bytesProcessed.get();
   }
 
+  /**
+   * @return the percentage of the submitted tasks that have completed, or of the submitted stages
+   * if no tasks have been submitted
+   */
   public int getProgressPercentage() {
-    return (completedStages * 100) / totalStages;
+    final long tasks = totalTasks.get();
+    if (tasks > 0) {
+      return (int) (Math.min(completedTasks.get(), tasks) * 100 / tasks);
+    }
+    final int stages = totalStages.get();
+    return stages > 0
+           ? Math.min(completedStages.get(), stages) * 100 / stages
+           : 0;
+  }
+
+  /**
+   * Estimates the time remaining until the submitted tasks are complete, based upon the rate at
+   * which tasks have been completed so far.
+   *
+   * @param now the current time, in milliseconds since the epoch
+   * @return the estimated number of seconds remaining, or nothing if no tasks have completed yet
+   */
+  @Nonnull
+  public Optional<Long> getEstimatedSecondsRemaining(final long now) {
+    // The counters are read individually, so the completed count is capped at the total in case
+    // it has moved on between the two reads.
+    final long tasks = totalTasks.get();
+    final long completed = Math.min(completedTasks.get(), tasks);
+    if (completed == 0) {
+      return Optional.empty();
+    }
+    final long elapsed = Math.max(0, now - startTime);
+    return Optional.of(elapsed * (tasks - completed) / completed / 1000);
   }
 
 }
@@ -0,0 +1,68 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.async;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Handles DELETE requests to the job status URL, which cancel the job. This follows the pattern
+ * described in the Bulk Data Access specification.
+ * <p>
+ * HAPI only routes GET and POST requests to operations, so we need to intercept these requests
+ * before they are routed.
+ *
+ * @see <a href="https://hl7.org/fhir/uv/bulkdata/export/index.html#bulk-data-delete-request">Bulk
+ * Data Delete Request</a>
+ */
+@Component
+@Profile("server")
+@ConditionalOnProperty(prefix = "pathling", name = "async.enabled", havingValue = "true")
+@Interceptor
+public class JobCancellationInterceptor {
+
+  private static final String JOB_PATH = "/$job";
+
+  @Nonnull
+  private final JobProvider jobProvider;
+
+  /**
+   * @param jobProvider the {@link JobProvider} used to delete jobs
+   */
+  public JobCancellationInterceptor(@Nonnull final JobProvider jobProvider) {
+    this.jobProvider = jobProvider;
+  }
+
+  /**
+   * Deletes the job identified within a DELETE request to the job status URL.
+   *
+   * @param request the incoming {@link HttpServletRequest}
+   * @param response the {@link HttpServletResponse} to be sent back to the client
+   * @return false if the request has been handled, otherwise true to continue processing
+   */
+  @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_PROCESSED)
+  @SuppressWarnings("unused")
+  public boolean deleteJob(@Nullable final HttpServletRequest request,
+      @Nullable final HttpServletResponse response) {
+    if (request == null || response == null || !request.getMethod().equals("DELETE")
+        || !JOB_PATH.equals(request.getPathInfo())) {
+      return true;
+    }
+    jobProvider.deleteJob(request.getParameter("id"));
+    response.setStatus(HttpServletResponse.SC_ACCEPTED);
+    return false;
+  }
+
+}
@@ -17,6 +17,7 @@ import au.csiro.pathling.errors.AccessDeniedError;
 import au.csiro.pathling.errors.ResourceNotFoundError;
 import au.csiro.pathling.fhir.ErrorHandlingInterceptor;
 import au.csiro.pathling.security.PathlingAuthority;
+import au.csiro.pathling.spark.QueryCanceller;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
@@ -58,14 +59,19 @@ public class JobProvider {
   @Nonnull
   private final JobRegistry jobRegistry;
 
+  @Nonnull
+  private final QueryCanceller queryCanceller;
+
   /**
    * @param configuration a {@link Configuration} for determining if authorization is enabled
    * @param jobRegistry the {@link JobRegistry} used to keep track of running jobs
+   * @param queryCanceller the {@link QueryCanceller} used to cancel running jobs
    */
   public JobProvider(@Nonnull final Configuration configuration,
-      @Nonnull final JobRegistry jobRegistry) {
+      @Nonnull final JobRegistry jobRegistry, @Nonnull final QueryCanceller queryCanceller) {
     this.configuration = configuration;
     this.jobRegistry = jobRegistry;
+    this.queryCanceller = queryCanceller;
   }
 
   /**
@@ -81,28 +87,8 @@ public class JobProvider {
   public IBaseResource job(@Nullable @OperationParam(name = "id") final String id,
       @Nullable final HttpServletRequest request,
       @Nullable final HttpServletResponse response) {
-    // Validate that the ID looks reasonable.
-    if (id == null || !ID_PATTERN.matcher(id).matches()) {
-      throw new ResourceNotFoundError("Job ID not found");
-    }
-
     log.debug("Received request to check job status: {}", id);
-    @Nullable final Job job = jobRegistry.get(id);
-    // Check that the job exists.
-    if (job == null) {
-      throw new ResourceNotFoundError("Job ID not found");
-    }
-
-    if (configuration.getAuth().isEnabled()) {
-      // Check for the required authority associated with the operation that initiated the job.
-      checkHasAuthority(PathlingAuthority.operationAccess(job.getOperation()));
-      // Check that the user requesting the job status is the same user that started the job.
-      final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-      final Optional<String> currentUserId = getCurrentUserId(authentication);
-      if (!job.getOwnerId().equals(currentUserId)) {
-        throw new AccessDeniedError("The requested job is not owned by the current user");
-      }
-    }
+    final Job job = getJob(id);
 
     if (job.getResult().isDone()) {
       // If the job is done, we return the Parameters resource.
@@ -128,13 +114,68 @@ public class JobProvider {
         if (progress != 100) {
           // We don't bother showing 100%, this usually means that there are outstanding stages
           // which have not yet been submitted.
-          response.setHeader(PROGRESS_HEADER, progress + "%");
+          response.setHeader(PROGRESS_HEADER, buildProgress(job, progress));
         }
       }
       throw new ProcessingNotCompletedException("Processing", buildProcessingOutcome());
     }
   }
 
+  /**
+   * Deletes a job, cancelling it if it is still running. Any subsequent requests for the status of
+   * the job will return a 404 response.
+   *
+   * @param id the ID of the job
+   */
+  public void deleteJob(@Nullable final String id) {
+    log.debug("Received request to delete job: {}", id);
+    final Job job = getJob(id);
+    checkNotNull(id);
+    if (!job.getResult().isDone()) {
+      queryCanceller.cancel(id);
+      // Interrupt the thread running the job, in case it is waiting on something other than Spark.
+      job.getResult().cancel(true);
+    }
+    jobRegistry.remove(id);
+  }
+
+  /**
+   * Describes the progress of a job, e.g. "45% (ETA 30s)". The estimate only accounts for the
+   * stages that have been submitted so far, so it may be revised upwards as the job progresses.
+   */
+  @Nonnull
+  private static String buildProgress(@Nonnull final Job job, final int progress) {
+    return progress + "%" + job.getEstimatedSecondsRemaining(System.currentTimeMillis())
+        .map(seconds -> " (ETA " + seconds + "s)")
+        .orElse("");
+  }
+
+  @Nonnull
+  private Job getJob(@Nullable final String id) {
+    // Validate that the ID looks reasonable.
+    if (id == null || !ID_PATTERN.matcher(id).matches()) {
+      throw new ResourceNotFoundError("Job ID not found");
+    }
+
+    @Nullable final Job job = jobRegistry.get(id);
+    // Check that the job exists.
+    if (job == null) {
+      throw new ResourceNotFoundError("Job ID not found");
+    }
+
+    if (configuration.getAuth().isEnabled()) {
+      // Check for the required authority associated with the operation that initiated the job.
+      checkHasAuthority(PathlingAuthority.operationAccess(job.getOperation()));
+      // Check that the user requesting the job is the same user that started the job.
+      final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+      final Optional<String> currentUserId = getCurrentUserId(authentication);
+      if (!job.getOwnerId().equals(currentUserId)) {
+        throw new AccessDeniedError("The requested job is not owned by the current user");
+      }
+    }
+    return job;
+  }
+
   @Nonnull
   private static OperationOutcome buildProcessingOutcome() {
     final OperationOutcome opOutcome = new OperationOutcome();
@@ -6,21 +6,36 @@
 
 package au.csiro.pathling.async;
 
-import java.util.concurrent.ConcurrentHashMap;
+import au.csiro.pathling.caching.ExpiringRegistry;
+import au.csiro.pathling.config.Configuration;
+import javax.annotation.Nonnull;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 /**
  * Used for storing information about running asynchronous tasks.
+ * <p>
+ * Jobs are retained for the configured retention period after they complete, so that clients can
+ * retrieve their results. Jobs that are still running are never evicted.
  *
  * @author John Grimes
  */
 @Component
 @Profile("server")
 @ConditionalOnProperty(prefix = "pathling", name = "async.enabled", havingValue = "true")
-public class JobRegistry extends ConcurrentHashMap<String, Job> {
+public class JobRegistry extends ExpiringRegistry<Job> {
 
-  private static final long serialVersionUID = -1895384364583552139L;
+  /**
+   * @param configuration a {@link Configuration} object to control the retention of jobs
+   */
+  public JobRegistry(@Nonnull final Configuration configuration) {
+    super(configuration.getAsync().getRetention(), configuration.getAsync().getMaxJobs());
+  }
+
+  @Override
+  protected boolean isEvictable(@Nonnull final Job job) {
+    return job.getResult().isDone();
+  }
 
 }
@@ -0,0 +1,57 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.async;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nonnull;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * The task that runs an asynchronous job.
+ * <p>
+ * A job that is cancelled while it is still waiting for a thread never runs, so it cannot clean up
+ * after itself. In this case, the task runs a clean-up action when it is cancelled instead. A job
+ * that has already started is responsible for its own clean-up.
+ */
+class JobTask extends FutureTask<IBaseResource> {
+
+  /**
+   * Set by whichever happens first: the job starting, or the task being cancelled.
+   */
+  @Nonnull
+  private final AtomicBoolean claimed;
+
+  @Nonnull
+  private final Runnable cleanUp;
+
+  /**
+   * @param job the work of the job
+   * @param cleanUp the action to run if the task is cancelled before the job starts
+   */
+  JobTask(@Nonnull final Callable<IBaseResource> job, @Nonnull final Runnable cleanUp) {
+    this(job, cleanUp, new AtomicBoolean());
+  }
+
+  private JobTask(@Nonnull final Callable<IBaseResource> job, @Nonnull final Runnable cleanUp,
+      @Nonnull final AtomicBoolean claimed) {
+    super(() -> claimed.compareAndSet(false, true)
+                ? job.call()
+                : null);
+    this.claimed = claimed;
+    this.cleanUp = cleanUp;
+  }
+
+  @Override
+  protected void done() {
+    if (isCancelled() && claimed.compareAndSet(false, true)) {
+      cleanUp.run();
+    }
+  }
+
+}
@@ -8,11 +8,14 @@ package au.csiro.pathling.async;
 
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 
+import java.util.Optional;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.executor.TaskMetrics;
 import org.apache.spark.scheduler.SparkListenerStageCompleted;
 import org.apache.spark.scheduler.SparkListenerStageSubmitted;
+import org.apache.spark.scheduler.SparkListenerTaskEnd;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
@@ -47,13 +50,7 @@ public class SparkListener extends org.apache.spark.scheduler.SparkListener {
   @Override
   public void onStageCompleted(final SparkListenerStageCompleted stageCompleted) {
     checkNotNull(stageCompleted);
-    @Nullable final String jobGroupId = stageMap.get(stageCompleted.stageInfo().stageId());
-    if (jobGroupId != null) {
-      @Nullable final Job job = jobRegistry.get(jobGroupId);
-      if (job != null) {
-        job.incrementCompletedStages();
-      }
-    }
+    getJob(stageCompleted.stageInfo().stageId()).ifPresent(Job::stageCompleted);
   }
 
   @Override
@@ -67,8 +64,28 @@ public class SparkListener extends org.apache.spark.scheduler.SparkListener {
     @Nullable final Job job = jobRegistry.get(jobGroupId);
     if (job != null) {
       stageMap.put(stageSubmitted.stageInfo().stageId(), jobGroupId);
-      job.incrementTotalStages();
+      job.stageSubmitted(stageSubmitted.stageInfo().numTasks());
     }
   }
 
+  @Override
+  public void onTaskEnd(final SparkListenerTaskEnd taskEnd) {
+    checkNotNull(taskEnd);
+    // Failed tasks are retried, so only successful tasks are counted towards progress.
+    if (taskEnd.taskInfo() == null || !taskEnd.taskInfo().successful()) {
+      return;
+    }
+    getJob(taskEnd.stageId()).ifPresent(job -> {
+      @Nullable final TaskMetrics metrics = taskEnd.taskMetrics();
+      job.taskCompleted(metrics == null
+                        ? 0
+                        : metrics.inputMetrics().bytesRead());
+    });
+  }
+
+  @Nonnull
+  private Optional<Job> getJob(final int stageId) {
+    return Optional.ofNullable(stageMap.get(stageId)).map(jobRegistry::get);
+  }
+
 }
@@ -6,7 +6,12 @@
 
 package au.csiro.pathling.async;
 
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
@@ -14,14 +19,56 @@ import org.springframework.stereotype.Component;
 /**
  * Used to store a mapping between stages and the job that they are related to, for the purpose of
  * monitoring progress.
+ * <p>
+ * The stages of each job are also indexed, so that the mappings for a job can be removed without
+ * scanning the stages of every other job.
  *
  * @author John Grimes
  */
 @Component
 @Profile("server")
 @ConditionalOnProperty(prefix = "pathling", name = "async.enabled", havingValue = "true")
-public class StageMap extends ConcurrentHashMap<Integer, String> {
+public class StageMap {
 
-  private static final long serialVersionUID = -8385386725080021575L;
+  @Nonnull
+  private final Map<Integer, String> jobsByStage = new ConcurrentHashMap<>();
+
+  @Nonnull
+  private final Map<String, Set<Integer>> stagesByJob = new ConcurrentHashMap<>();
+
+  /**
+   * @param stageId the ID of a Spark stage
+   * @param jobId the ID of the job that the stage belongs to
+   */
+  public void put(final int stageId, @Nonnull final String jobId) {
+    stagesByJob.computeIfAbsent(jobId, id -> ConcurrentHashMap.newKeySet()).add(stageId);
+    jobsByStage.put(stageId, jobId);
+  }
+
+  /**
+   * @param stageId the ID of a Spark stage
+   * @return the ID of the job that the stage belongs to, or null if it is not known
+   */
+  @Nullable
+  public String get(final int stageId) {
+    return jobsByStage.get(stageId);
+  }
+
+  /**
+   * Removes the mappings for all the stages of a job.
+   *
+   * @param jobId the ID of the job
+   */
+  public void removeJob(@Nonnull final String jobId) {
+    Optional.ofNullable(stagesByJob.remove(jobId))
+        .ifPresent(stages -> stages.forEach(jobsByStage::remove));
+  }
+
+  /**
+   * @return the number of stages that are currently mapped
+   */
+  public int size() {
+    return jobsByStage.size();
+  }
 
 }
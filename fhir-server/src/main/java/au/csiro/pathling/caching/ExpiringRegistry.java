@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.caching;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * A registry of values keyed by an identifier, which evicts each value once it has been held for a
+ * configured period of time, and limits the number of values that it retains.
+ * <p>
+ * Expired values are evicted as new values are added, so there is no need for a background
+ * thread. Values that are not yet evictable, such as a job that is still running, have their
+ * retention period restarted each time that they are checked.
+ *
+ * @param <V> the type of the values held within the registry
+ */
+@Slf4j
+public abstract class ExpiringRegistry<V> {
+
+  @Nonnull
+  private final Map<String, Entry<V>> entries = new ConcurrentHashMap<>();
+
+  private final long retentionMillis;
+
+  private final int maxEntries;
+
+  @Nonnull
+  private final LongSupplier clock;
+
+  /**
+   * @param retention the number of seconds that a value is retained for, or zero to retain values
+   * until the maximum number of entries is reached
+   * @param maxEntries the maximum number of values to retain
+   */
+  protected ExpiringRegistry(final long retention, final int maxEntries) {
+    this(retention, maxEntries, System::currentTimeMillis);
+  }
+
+  /**
+   * @param retention the number of seconds that a value is retained for, or zero to retain values
+   * until the maximum number of entries is reached
+   * @param maxEntries the maximum number of values to retain
+   * @param clock a source of the current time, in milliseconds
+   */
+  protected ExpiringRegistry(final long retention, final int maxEntries,
+      @Nonnull final LongSupplier clock) {
+    this.retentionMillis = retention * 1000;
+    this.maxEntries = maxEntries;
+    this.clock = clock;
+  }
+
+  /**
+   * Adds a value to the registry, replacing any existing value with the same key. Any values that
+   * have expired are evicted.
+   *
+   * @param key the key of the value
+   * @param value the value
+   */
+  public void put(@Nonnull final String key, @Nonnull final V value) {
+    entries.put(key, new Entry<>(value, clock.getAsLong()));
+    evict();
+  }
+
+  /**
+   * @param key the key of the value
+   * @return the value, or null if there is no value with the key or it has expired
+   */
+  @Nullable
+  public V get(@Nonnull final String key) {
+    Entry<V> entry = entries.get(key);
+    if (entry == null) {
+      final V loaded = load(key);
+      if (loaded == null) {
+        return null;
+      }
+      entries.putIfAbsent(key, new Entry<>(loaded, clock.getAsLong()));
+      entry = entries.get(key);
+    }
+    if (entry != null && isExpired(entry, clock.getAsLong()) && isEvictable(entry.value)) {
+      remove(key, entry);
+      return null;
+    }
+    return entry == null
+           ? null
+           : entry.value;
+  }
+
+  /**
+   * Removes a value from the registry, cleaning up any resources associated with it.
+   *
+   * @param key the key of the value
+   * @return true if there was a value with the key
+   */
+  public boolean remove(@Nonnull final String key) {
+    final Entry<V> entry = entries.get(key);
+    return entry != null && remove(key, entry);
+  }
+
+  /**
+   * @return the number of values currently held within the registry
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  /**
+   * Evicts all values that have expired, followed by the least recently added values if the
+   * registry holds more than the maximum number of entries.
+   */
+  public void evict() {
+    final long now = clock.getAsLong();
+    for (final Map.Entry<String, Entry<V>> mapEntry : entries.entrySet()) {
+      final Entry<V> entry = mapEntry.getValue();
+      if (!isEvictable(entry.value)) {
+        entry.timestamp = now;
+      } else if (isExpired(entry, now)) {
+        remove(mapEntry.getKey(), entry);
+      }
+    }
+
+    final int excess = entries.size() - maxEntries;
+    if (excess > 0) {
+      final List<Map.Entry<String, Entry<V>>> oldest = entries.entrySet().stream()
+          .filter(e -> isEvictable(e.getValue().value))
+          .sorted(Comparator.comparingLong(e -> e.getValue().timestamp))
+          .limit(excess)
+          .collect(Collectors.toList());
+      for (final Map.Entry<String, Entry<V>> mapEntry : oldest) {
+        remove(mapEntry.getKey(), mapEntry.getValue());
+      }
+    }
+  }
+
+  /**
+   * @param value a value within the registry
+   * @return true if the value can be evicted
+   */
+  protected boolean isEvictable(@Nonnull final V value) {
+    return true;
+  }
+
+  /**
+   * Called after a value has been removed from the registry, to clean up any resources associated
+   * with it.
+   *
+   * @param key the key of the value
+   * @param value the value
+   */
+  protected void onEviction(@Nonnull final String key, @Nonnull final V value) {
+  }
+
+  /**
+   * Called when a key is not found within the registry, to load the value from elsewhere.
+   *
+   * @param key the key of the value
+   * @return the value, or null if it could not be found
+   */
+  @Nullable
+  protected V load(@Nonnull final String key) {
+    return null;
+  }
+
+  /**
+   * @return the number of milliseconds that a value is retained for, or zero if values do not
+   * expire
+   */
+  protected long getRetentionMillis() {
+    return retentionMillis;
+  }
+
+  /**
+   * @return the maximum number of values that are retained
+   */
+  protected int getMaxEntries() {
+    return maxEntries;
+  }
+
+  private boolean isExpired(@Nonnull final Entry<V> entry, final long now) {
+    return retentionMillis > 0 && now - entry.timestamp >= retentionMillis;
+  }
+
+  private boolean remove(@Nonnull final String key, @Nonnull final Entry<V> entry) {
+    // Only remove the entry if it has not been replaced in the meantime.
+    if (entries.remove(key, entry)) {
+      log.debug("Evicting entry from registry: {}", key);
+      try {
+        onEviction(key, entry.value);
+      } catch (final RuntimeException e) {
+        log.warn("Problem cleaning up after evicted entry: {}", key, e);
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static class Entry<V> {
+
+    @Nonnull
+    private final V value;
+
+    private volatile long timestamp;
+
+    private Entry(@Nonnull final V value, final long timestamp) {
+      this.value = value;
+      this.timestamp = timestamp;
+    }
+
+  }
+
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.caching;
+
+import au.csiro.pathling.spark.QueryCanceller;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Coalesces identical requests that are in flight at the same time, so that only the first of them
+ * (the leader) is executed, and the others (the followers) wait for and share its result.
+ * <p>
+ * Callers are responsible for building a key that captures everything that the result depends
+ * upon, including the version of the underlying data. Results are only shared while the leader is
+ * running, nothing is retained once it has completed.
+ * <p>
+ * The leader runs the action within a job group of its own, which is only cancelled once none of
+ * the requests that are waiting for it remain (see {@link QueryCanceller}). A failure may still be
+ * specific to the leader, e.g. a follower may have joined just after the last waiting request was
+ * cancelled. If the leader fails, its followers therefore make one more attempt, which is again
+ * coalesced so that only one of them is executed.
+ */
+@Component
+@Profile("core")
+@Slf4j
+public class RequestCoalescer {
+
+  @Nonnull
+  private final Optional<QueryCanceller> queryCanceller;
+
+  @Nonnull
+  private final Map<Object, Flight> inFlight = new ConcurrentHashMap<>();
+
+  /**
+   * @param queryCanceller a {@link QueryCanceller} for cancelling the shared work once no requests
+   * are waiting for it, if running as a server
+   */
+  public RequestCoalescer(@Nonnull final Optional<QueryCanceller> queryCanceller) {
+    this.queryCanceller = queryCanceller;
+  }
+
+  /**
+   * Executes an action, or waits for the result of an identical action that is already in flight.
+   *
+   * @param key a key that identifies the request, with a well-defined equals and hashCode
+   * @param action the action that produces the result of the request
+   * @param <T> the type of the result
+   * @return the result of the action
+   */
+  @Nonnull
+  public <T> T execute(@Nonnull final Object key, @Nonnull final Supplier<T> action) {
+    final Flight flight = new Flight();
+    final Flight existing = inFlight.putIfAbsent(key, flight);
+    if (existing == null) {
+      return lead(key, flight, action);
+    }
+    log.debug("Waiting for identical request in flight: {}", key);
+    try {
+      return follow(existing);
+    } catch (final CompletionException e) {
+      log.debug("Identical request failed, retrying: {}", key);
+      final Flight retry = new Flight();
+      final Flight retryExisting = inFlight.putIfAbsent(key, retry);
+      if (retryExisting == null) {
+        return lead(key, retry, action);
+      }
+      try {
+        return follow(retryExisting);
+      } catch (final CompletionException retryError) {
+        throw unwrap(retryError);
+      }
+    }
+  }
+
+  /**
+   * @return the number of distinct requests that are currently in flight
+   */
+  public int getInFlightCount() {
+    return inFlight.size();
+  }
+
+  @Nonnull
+  private <T> T lead(@Nonnull final Object key, @Nonnull final Flight flight,
+      @Nonnull final Supplier<T> action) {
+    // The flight is removed before it is completed, so that followers retrying after a failure do
+    // not find it again.
+    final T result;
+    try {
+      result = queryCanceller
+          .map(canceller -> canceller.runShared(flight.getJobGroup(), action))
+          .orElseGet(action);
+    } catch (final RuntimeException | Error e) {
+      inFlight.remove(key, flight);
+      flight.getResult().completeExceptionally(e);
+      throw e;
+    }
+    inFlight.remove(key, flight);
+    flight.getResult().complete(result);
+    return result;
+  }
+
+  @Nonnull
+  private <T> T follow(@Nonnull final Flight flight) {
+    queryCanceller.ifPresent(canceller -> canceller.waitFor(flight.getJobGroup()));
+    try {
+      return cast(flight.getResult().join());
+    } finally {
+      queryCanceller.ifPresent(canceller -> canceller.stopWaitingFor(flight.getJobGroup()));
+    }
+  }
+
+  @Nonnull
+  @SuppressWarnings("unchecked")
+  private static <T> T cast(@Nonnull final Object result) {
+    return (T) result;
+  }
+
+  /**
+   * An action that is in flight, along with the job group that it runs within.
+   */
+  @Value
+  private static class Flight {
+
+    @Nonnull
+    CompletableFuture<Object> result = new CompletableFuture<>();
+
+    @Nonnull
+    String jobGroup = "coalesced-" + UUID.randomUUID();
+
+  }
+
+  @Nonnull
+  private static RuntimeException unwrap(@Nonnull final CompletionException e) {
+    final Throwable cause = e.getCause();
+    if (cause instanceof RuntimeException) {
+      return (RuntimeException) cause;
+    } else if (cause instanceof Error) {
+      throw (Error) cause;
+    } else {
+      return e;
+    }
+  }
+
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Represents configuration that controls the admission of queries based upon their estimated
+ * cost.
+ */
+@Data
+public class AdmissionConfiguration {
+
+  /**
+   * Queries with an estimated cost above this threshold are considered heavy. A value of zero
+   * means that no queries are considered heavy.
+   */
+  @NotNull
+  @Min(0)
+  private Long heavyQueryThreshold;
+
+  /**
+   * The maximum number of heavy queries that can execute at the same time, additional heavy
+   * queries wait until one of the running queries completes. A value of zero disables the limit.
+   */
+  @NotNull
+  @Min(0)
+  private Integer maxConcurrentHeavyQueries;
+
+  /**
+   * The maximum number of heavy queries that can wait for one of the running queries to complete.
+   * Heavy queries beyond this are rejected, and the client is asked to try again later.
+   */
+  @NotNull
+  @Min(0)
+  private Integer maxQueuedHeavyQueries;
+
+  /**
+   * The maximum period (in seconds) that a heavy query waits for one of the running queries to
+   * complete, after which it is rejected and the client is asked to try again later.
+   */
+  @NotNull
+  @Min(0)
+  private Integer heavyQueryTimeout;
+
+  /**
+   * If enabled, heavy queries for operations that support asynchronous processing are always
+   * processed asynchronously, even if this was not requested by the client.
+   */
+  @NotNull
+  private boolean asyncHeavyQueries;
+
+  /**
+   * Queries with an estimated cost above this limit are rejected. A value of zero disables the
+   * limit.
+   */
+  @NotNull
+  @Min(0)
+  private Long maxQueryCost;
+
+}
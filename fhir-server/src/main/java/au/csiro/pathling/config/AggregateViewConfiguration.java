@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.validation.constraints.NotBlank;
+import javax.validation.constraints.NotEmpty;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Represents the definition of a named aggregate view, which is an aggregate query whose result is
+ * materialised within the warehouse.
+ */
+@Data
+public class AggregateViewConfiguration {
+
+  /**
+   * The resource type that the query is run against, e.g. {@code Encounter}.
+   */
+  @NotBlank
+  private String subjectResource;
+
+  /**
+   * The aggregation expressions of the query.
+   */
+  @NotEmpty
+  private List<String> aggregations = new ArrayList<>();
+
+  /**
+   * The grouping expressions of the query.
+   */
+  @NotNull
+  private List<String> groupings = new ArrayList<>();
+
+  /**
+   * The filter expressions of the query.
+   */
+  @NotNull
+  private List<String> filters = new ArrayList<>();
+
+}
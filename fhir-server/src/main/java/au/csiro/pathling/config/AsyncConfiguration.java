@@ -6,6 +6,7 @@
 
 package au.csiro.pathling.config;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import lombok.Data;
 
@@ -21,4 +22,20 @@ public class AsyncConfiguration {
   @NotNull
   private boolean enabled;
 
+  /**
+   * The period (in seconds) that a job is retained for after it has completed, after which its
+   * status and result are no longer available. A value of zero disables expiry.
+   */
+  @NotNull
+  @Min(0)
+  private Integer retention;
+
+  /**
+   * The maximum number of completed jobs that are retained. The oldest jobs are removed once this
+   * number is exceeded.
+   */
+  @NotNull
+  @Min(1)
+  private Integer maxJobs;
+
 }
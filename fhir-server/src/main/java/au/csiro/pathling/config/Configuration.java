@@ -6,6 +6,8 @@
 
 package au.csiro.pathling.config;
 
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -87,6 +89,25 @@ public class Configuration {
   @NotNull
   private AsyncConfiguration async;
 
+  @NotNull
+  private ResultConfiguration results;
+
+  @NotNull
+  private AdmissionConfiguration admission;
+
+  @NotNull
+  private ThreadConfiguration threads;
+
+  @NotNull
+  private WarmUpConfiguration warmUp;
+
+  /**
+   * Named aggregate views, whose results are materialised within the warehouse and used to answer
+   * matching aggregate requests.
+   */
+  @NotNull
+  private Map<String, AggregateViewConfiguration> aggregateViews = new HashMap<>();
+
   @Nonnull
   public ImportConfiguration getImport() {
     return import_;
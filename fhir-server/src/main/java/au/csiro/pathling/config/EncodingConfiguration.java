@@ -6,7 +6,10 @@
 
 package au.csiro.pathling.config;
 
+import java.util.Optional;
 import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 import lombok.Data;
@@ -36,4 +39,16 @@ public class EncodingConfiguration {
   @NotNull
   private boolean enableExtensions;
 
+  /**
+   * A directory in which built encoders are persisted, so that they are loaded rather than built
+   * again when the server restarts. If absent, encoders are not persisted.
+   */
+  @Nullable
+  private String cacheDirectory;
+
+  @Nonnull
+  public Optional<String> getCacheDirectory() {
+    return Optional.ofNullable(cacheDirectory);
+  }
+
 }
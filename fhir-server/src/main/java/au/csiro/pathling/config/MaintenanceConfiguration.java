@@ -0,0 +1,84 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import javax.validation.constraints.Pattern;
+import lombok.Data;
+
+/**
+ * Represents configuration that controls the maintenance of the tables within the warehouse.
+ */
+@Data
+public class MaintenanceConfiguration {
+
+  /**
+   * The time of day within which maintenance is performed, in the form {@code HH:mm-HH:mm} in the
+   * local time zone of the server. Maintenance that is requested outside this window is deferred
+   * until it next opens. If absent, maintenance can be performed at any time.
+   */
+  @Nullable
+  @Pattern(regexp = "\\d{2}:\\d{2}-\\d{2}:\\d{2}")
+  private String window;
+
+  /**
+   * Files smaller than this size (in bytes) are considered small. A table is compacted once it
+   * contains two or more small files, and compaction rewrites only the small files.
+   */
+  @NotNull
+  @Min(1)
+  private Long minFileSize;
+
+  /**
+   * The target size (in bytes) of the files produced when a table is compacted.
+   */
+  @NotNull
+  @Min(1)
+  private Long maxFileSize;
+
+  /**
+   * The maximum number of bytes of small files that a single compaction rewrites. The smallest
+   * files are rewritten first, and any that remain are left to the next compaction.
+   */
+  @NotNull
+  @Min(1)
+  private Long compactionBudget;
+
+  /**
+   * The Spark scheduler pool that maintenance runs within, which limits its share of the cluster.
+   */
+  @NotNull
+  private String pool;
+
+  /**
+   * The interval (in hours) at which files that are no longer referenced by any table are deleted.
+   * A value of zero disables this.
+   */
+  @NotNull
+  @Min(0)
+  private Integer vacuumInterval;
+
+  /**
+   * The period (in hours) that files are retained for after they are no longer referenced by a
+   * table, before they can be deleted. This cannot be shorter than one week, which is the minimum
+   * that Delta allows without disabling its check, as files that are still read by running queries
+   * or cached datasets would otherwise be deleted.
+   */
+  @NotNull
+  @Min(168)
+  private Integer vacuumRetention;
+
+  @Nonnull
+  public Optional<String> getWindow() {
+    return Optional.ofNullable(window);
+  }
+
+}
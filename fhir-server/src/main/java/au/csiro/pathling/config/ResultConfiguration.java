@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Represents configuration relating to the retention of extract results.
+ */
+@Data
+public class ResultConfiguration {
+
+  /**
+   * The period (in seconds) that a result is retained for, after which it is no longer available
+   * and its files are deleted. A value of zero disables expiry.
+   */
+  @NotNull
+  @Min(0)
+  private Integer retention;
+
+  /**
+   * The maximum number of results that are retained. The oldest results are removed once this
+   * number is exceeded.
+   */
+  @NotNull
+  @Min(1)
+  private Integer maxEntries;
+
+  /**
+   * If enabled, details of each result are stored within the warehouse. This allows results to be
+   * retrieved after a restart of the server, or from any server that shares the same warehouse.
+   */
+  @NotNull
+  private boolean persistent;
+
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Represents configuration that controls how requests are assigned to Spark scheduler pools.
+ */
+@Data
+public class SchedulerConfiguration {
+
+  /**
+   * The Spark FAIR scheduler pools that requests can be assigned to, keyed by pool name. Requests
+   * that do not match any pool are assigned to the {@code default} pool.
+   */
+  @NotNull
+  private Map<String, Pool> pools;
+
+  /**
+   * Configuration of a single scheduler pool. Properties that are not specified take the default
+   * values that Spark uses for pools.
+   */
+  @Data
+  public static class Pool {
+
+    /**
+     * The share of the cluster that this pool receives, relative to other pools.
+     */
+    @NotNull
+    @Min(0)
+    private Integer weight = 1;
+
+    /**
+     * The minimum number of CPU cores that this pool is given, before the remaining resources are
+     * shared according to weight.
+     */
+    @NotNull
+    @Min(0)
+    private Integer minShare = 0;
+
+    /**
+     * The maximum number of requests that can run within this pool at the same time, additional
+     * requests wait until one of the running requests completes. A value of zero disables the
+     * limit.
+     */
+    @NotNull
+    @Min(0)
+    private Integer maxConcurrency = 0;
+
+    /**
+     * The operations that are assigned to this pool, e.g. {@code aggregate} or {@code search}.
+     */
+    @NotNull
+    private List<String> operations = new ArrayList<>();
+
+    /**
+     * The users that are assigned to this pool, identified by the subject of their token. This
+     * takes precedence over assignment by operation.
+     */
+    @NotNull
+    private List<String> users = new ArrayList<>();
+
+  }
+
+}
@@ -6,6 +6,8 @@
 
 package au.csiro.pathling.config;
 
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
 import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
@@ -40,11 +42,33 @@ public class SparkConfiguration {
 
   /**
    * When a table is updated, the number of partitions is checked. If the number exceeds this
-   * threshold, the table will be repartitioned back to the default number of partitions. This
+   * threshold, compaction of the table is requested from the background maintenance scheduler. This
    * prevents large numbers of small updates causing poor subsequent query performance.
    */
   @NotNull
   @Min(1)
   private int compactionThreshold;
 
+  @NotNull
+  private SchedulerConfiguration scheduler;
+
+  /**
+   * The interval (in milliseconds) at which cancelled queries are checked. Spark jobs that are
+   * submitted by a cancelled query after it has been cancelled are also cancelled. A value of zero
+   * disables these checks.
+   */
+  @NotNull
+  @Min(0)
+  private Integer cancellationCheckInterval;
+
+  /**
+   * The relative standard deviation permitted for estimates of the number of distinct resources,
+   * which are used in place of exact counts when an approximate result is requested from the
+   * aggregate operation. Lower values give more accurate estimates, at the cost of more memory.
+   */
+  @NotNull
+  @DecimalMin("0.01")
+  @DecimalMax("0.39")
+  private Double approximateCountError;
+
 }
@@ -9,6 +9,7 @@ package au.csiro.pathling.config;
 import java.util.Optional;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotBlank;
 import javax.validation.constraints.NotNull;
 import javax.validation.constraints.Pattern;
@@ -38,9 +39,31 @@ public class StorageConfiguration {
   @Size(min = 1, max = 50)
   private String databaseName;
 
+  /**
+   * Enables the materialisation of an edge table for each reference element within a resource,
+   * whenever the resource is written. Edge tables contain the identity of each referencing resource
+   * along with the type and identity of the resource that it refers to, and are used to speed up
+   * reference resolution. Only reference elements at the root of a resource get an edge table.
+   */
+  @NotNull
+  private boolean edgeTables;
+
+  /**
+   * The number of partitions used to cluster each resource table by the patient that it belongs
+   * to, or zero to disable this. Tables are clustered by this key when written, and hash
+   * partitioned by it when read, so that joins between resources of the same patient do not need
+   * to shuffle their data. Partitioning on read requires dataset caching to be enabled.
+   */
+  @NotNull
+  @Min(0)
+  private int patientPartitions;
+
   @NotNull
   private Aws aws;
 
+  @NotNull
+  private MaintenanceConfiguration maintenance;
+
   /**
    * Configuration relating to storage of data using Amazon Web Services (AWS).
    */
@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Represents configuration relating to the threads that handle requests and run background tasks.
+ */
+@Data
+public class ThreadConfiguration {
+
+  /**
+   * Creates threads on demand for handling requests and running asynchronous jobs, rather than
+   * drawing them from fixed-size pools. The limits on the threads for asynchronous jobs are set
+   * using the {@code spring.task.execution} properties.
+   */
+  @NotNull
+  private boolean elastic;
+
+  /**
+   * The maximum number of threads that can be created for handling requests, when elastic
+   * threading is enabled.
+   */
+  @NotNull
+  @Min(1)
+  private Integer maxRequestThreads;
+
+  /**
+   * The number of seconds that a client is asked to wait before retrying a request that was
+   * rejected because the server is busy, such as an asynchronous job or a heavy query that could
+   * not be queued.
+   */
+  @NotNull
+  @Min(1)
+  private Integer retryAfter;
+
+}
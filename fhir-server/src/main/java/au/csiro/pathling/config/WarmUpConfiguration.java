@@ -0,0 +1,63 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.config;
+
+import java.util.List;
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import lombok.Data;
+
+/**
+ * Represents configuration relating to the warm-up that is performed when the server starts.
+ */
+@Data
+public class WarmUpConfiguration {
+
+  /**
+   * Loads resource tables and builds encoders at startup, before the server reports that it is
+   * ready to receive requests.
+   */
+  @NotNull
+  private boolean enabled;
+
+  /**
+   * The resource types to load. If empty, all the tables within the warehouse are loaded.
+   */
+  @NotNull
+  private List<String> resourceTypes;
+
+  /**
+   * Builds the encoders for all resource types.
+   */
+  @NotNull
+  private boolean encoders;
+
+  /**
+   * The path to a file containing representative requests, one per line, relative to the FHIR
+   * endpoint (e.g. {@code Patient/$aggregate?aggregation=count()}). These are replayed against the
+   * server once the tables have been loaded. They are sent without credentials, so they are not
+   * replayed if authorization is enabled.
+   */
+  @Nullable
+  private String queries;
+
+  /**
+   * The number of warm-up tasks that are run at the same time.
+   */
+  @NotNull
+  @Min(1)
+  private Integer parallelism;
+
+  @Nonnull
+  public Optional<String> getQueries() {
+    return Optional.ofNullable(queries);
+  }
+
+}
@@ -0,0 +1,22 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.errors;
+
+/**
+ * Thrown when a query is too expensive to be processed synchronously. Operations that support
+ * asynchronous processing catch this and process the request asynchronously instead, otherwise it
+ * is reported back to the user as invalid input.
+ */
+public class AsyncRequiredError extends InvalidUserInputError {
+
+  private static final long serialVersionUID = 6047624856311375264L;
+
+  public AsyncRequiredError(final String message) {
+    super(message);
+  }
+
+}
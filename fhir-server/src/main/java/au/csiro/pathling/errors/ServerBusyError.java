@@ -0,0 +1,34 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.errors;
+
+import lombok.Getter;
+
+/**
+ * Thrown when the server does not currently have the capacity to accept a request. This is reported
+ * back to the user as a 503 response, with a Retry-After header.
+ */
+@Getter
+public class ServerBusyError extends RuntimeException {
+
+  private static final long serialVersionUID = -3171316845271391466L;
+
+  /**
+   * The number of seconds that the client should wait before retrying the request.
+   */
+  private final int retryAfter;
+
+  /**
+   * @param message the message to report to the user
+   * @param retryAfter the number of seconds that the client should wait before retrying
+   */
+  public ServerBusyError(final String message, final int retryAfter) {
+    super(message);
+    this.retryAfter = retryAfter;
+  }
+
+}
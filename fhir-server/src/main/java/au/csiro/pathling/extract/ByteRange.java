@@ -0,0 +1,93 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.extract;
+
+import java.util.Optional;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.annotation.Nonnull;
+import lombok.Value;
+
+/**
+ * A single range of bytes requested using the HTTP {@code Range} header.
+ *
+ * @see <a href="https://www.rfc-editor.org/rfc/rfc7233">RFC 7233: Range Requests</a>
+ */
+@Value
+public class ByteRange {
+
+  private static final Pattern RANGE_PATTERN = Pattern.compile(
+      "^\\s*bytes\\s*=\\s*(\\d*)\\s*-\\s*(\\d*)\\s*$");
+
+  /**
+   * The position of the first byte in the range.
+   */
+  long start;
+
+  /**
+   * The position of the last byte in the range, inclusive.
+   */
+  long end;
+
+  /**
+   * @return the number of bytes within the range
+   */
+  public long getLength() {
+    return end - start + 1;
+  }
+
+  /**
+   * @param length the length of the representation that the range applies to
+   * @return true if the range overlaps with the representation
+   */
+  public boolean isSatisfiable(final long length) {
+    return start < length && start <= end;
+  }
+
+  /**
+   * Parses the value of a {@code Range} header. Only a single range is supported, other range
+   * specifications are ignored and the full representation should be returned instead.
+   *
+   * @param header the value of the header
+   * @param length the length of the representation that the range applies to
+   * @return the requested range, or an empty result if the header cannot be served as a single
+   * range
+   */
+  @Nonnull
+  public static Optional<ByteRange> parse(@Nonnull final String header, final long length) {
+    final Matcher matcher = RANGE_PATTERN.matcher(header);
+    if (!matcher.matches()) {
+      return Optional.empty();
+    }
+    final String first = matcher.group(1);
+    final String last = matcher.group(2);
+    try {
+      if (first.isEmpty() && last.isEmpty()) {
+        return Optional.empty();
+      } else if (first.isEmpty()) {
+        // A suffix range, e.g. "bytes=-500" requests the last 500 bytes.
+        final long suffixLength = Long.parseLong(last);
+        return Optional.of(suffixLength == 0
+                           ? new ByteRange(length, length - 1)
+                           : new ByteRange(Math.max(0, length - suffixLength), length - 1));
+      } else {
+        final long start = Long.parseLong(first);
+        final long end = last.isEmpty()
+                         ? length - 1
+                         : Math.min(Long.parseLong(last), length - 1);
+        if (!last.isEmpty() && Long.parseLong(last) < start) {
+          return Optional.empty();
+        }
+        return Optional.of(new ByteRange(start, end));
+      }
+    } catch (final NumberFormatException e) {
+      // The values are too large to represent, so we treat the range as invalid.
+      return Optional.empty();
+    }
+  }
+
+}
@@ -10,24 +10,42 @@ import static au.csiro.pathling.QueryHelpers.join;
 import static au.csiro.pathling.security.SecurityAspect.getCurrentUserId;
 import static au.csiro.pathling.utilities.Preconditions.check;
 import static au.csiro.pathling.utilities.Preconditions.checkArgument;
+import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
+import static au.csiro.pathling.utilities.Strings.randomAlias;
+import static org.apache.spark.sql.functions.col;
+import static org.apache.spark.sql.functions.struct;
+import static org.apache.spark.sql.functions.to_csv;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.QueryExecutor;
+import au.csiro.pathling.QueryHelpers.DatasetWithColumn;
 import au.csiro.pathling.QueryHelpers.JoinType;
 import au.csiro.pathling.fhir.TerminologyServiceFactory;
 import au.csiro.pathling.fhirpath.FhirPath;
 import au.csiro.pathling.fhirpath.Materializable;
+import au.csiro.pathling.fhirpath.NonLiteralPath;
 import au.csiro.pathling.fhirpath.ResourcePath;
+import au.csiro.pathling.fhirpath.literal.LiteralPath;
 import au.csiro.pathling.fhirpath.parser.ParserContext;
 import au.csiro.pathling.io.Database;
+import au.csiro.pathling.io.ResultFormat;
 import au.csiro.pathling.io.ResultWriter;
 import ca.uhn.fhir.context.FhirContext;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -39,8 +57,14 @@ import lombok.Value;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
 import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.SparkSession;
+import org.hl7.fhir.r4.model.OperationOutcome;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueSeverity;
+import org.hl7.fhir.r4.model.OperationOutcome.IssueType;
+import org.hl7.fhir.r4.model.OperationOutcome.OperationOutcomeIssueComponent;
 import org.springframework.context.annotation.Profile;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -55,12 +79,26 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class ExtractExecutor extends QueryExecutor {
 
+  private static final String INVALID_PARQUET_CHARACTERS = "[ ,;{}()\\n\\t=]";
+
+  /**
+   * The number of rows that are buffered before the response is flushed to the client, when
+   * streaming a result.
+   */
+  private static final int STREAM_FLUSH_INTERVAL = 1000;
+
   @Nonnull
   private final ResultWriter resultWriter;
 
   @Nonnull
   private final ResultRegistry resultRegistry;
 
+  @Nonnull
+  private final AdmissionController admissionController;
+
+  @Nonnull
+  private final RequestCoalescer requestCoalescer;
+
   /**
    * @param configuration a {@link Configuration} object to control the behaviour of the executor
    * @param fhirContext a {@link FhirContext} for doing FHIR stuff
@@ -70,21 +108,32 @@ public class ExtractExecutor extends QueryExecutor {
    * @param resultWriter a {@link ResultWriter} for writing results for later retrieval
    * @param resultRegistry a {@link ResultRegistry} for storing the mapping between request ID and
    * result URL
+   * @param admissionController an {@link AdmissionController} for checking the cost of queries
+   * before they are executed
+   * @param requestCoalescer a {@link RequestCoalescer} for sharing the results of identical
+   * requests
    */
   public ExtractExecutor(@Nonnull final Configuration configuration,
       @Nonnull final FhirContext fhirContext, @Nonnull final SparkSession sparkSession,
       @Nonnull final Database database,
       @Nonnull final Optional<TerminologyServiceFactory> terminologyClientFactory,
       @Nonnull final ResultWriter resultWriter,
-      @Nonnull final ResultRegistry resultRegistry) {
+      @Nonnull final ResultRegistry resultRegistry,
+      @Nonnull final AdmissionController admissionController,
+      @Nonnull final RequestCoalescer requestCoalescer) {
     super(configuration, fhirContext, sparkSession, database,
         terminologyClientFactory);
     this.resultWriter = resultWriter;
     this.resultRegistry = resultRegistry;
+    this.admissionController = admissionController;
+    this.requestCoalescer = requestCoalescer;
   }
 
   /**
    * Executes an extract request.
+   * <p>
+   * If an identical request from the same user is already being executed against the same version
+   * of the data, it shares the result of that request, including its result URLs.
    *
    * @param query an {@link ExtractRequest}
    * @param serverBase the base URL of this server, used to construct result URLs
@@ -93,27 +142,154 @@ public class ExtractExecutor extends QueryExecutor {
   @Nonnull
   public ExtractResponse execute(@Nonnull final ExtractRequest query,
       @Nonnull final String serverBase) {
-    log.info("Executing request: {}", query);
-    final String requestId = query.getRequestId();
-    final Dataset<Row> result = buildQuery(query);
-
-    // Write the result and get the URL.
-    final String resultUrl = resultWriter.write(result, requestId);
-
     // Get the current user, if authenticated, and store alongside the result for later 
     // authorization.
     final Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
     final Optional<String> currentUserId = getCurrentUserId(authentication);
 
-    // Store a mapping between the request ID and the result URL, for later retrieval via the result
-    // operation.
-    resultRegistry.put(requestId, new Result(resultUrl, currentUserId));
+    // The request ID is unique to each request, so it does not form part of the key. The result
+    // URLs can only be retrieved by the user that owns them, so they are only shared between the
+    // requests of the same user.
+    final List<Object> key = buildRequestKey("extract", query.getSubjectResource(),
+        canonicalizeExpressions(query.getColumns()), canonicalizeFilters(query.getFilters()),
+        query.getLimit(), query.getFormat(), query.getCompression(), query.isPartitioned(),
+        serverBase, currentUserId);
+    return requestCoalescer.execute(key,
+        () -> writeAndRegister(query, serverBase, currentUserId));
+  }
+
+  @Nonnull
+  private ExtractResponse writeAndRegister(@Nonnull final ExtractRequest query,
+      @Nonnull final String serverBase, @Nonnull final Optional<String> currentUserId) {
+    log.info("Executing request: {}", query);
+    final String requestId = query.getRequestId();
+    final Dataset<Row> result = labelColumns(buildQuery(query), query);
+
+    // Write the result and get the URLs of the files that it was written to.
+    final List<String> resultUrls = admissionController.execute(result, true,
+        () -> resultWriter.write(result, requestId, query.getFormat(), query.getCompression(),
+            query.isPartitioned(), SaveMode.ErrorIfExists));
+
+    // Store a mapping between the result ID and the URL of each result file, for later retrieval
+    // via the result operation. A result made up of multiple files gets an ID for each file, 
+    // suffixed with the index of the file.
+    final List<String> urls = new ArrayList<>();
+    for (int i = 0; i < resultUrls.size(); i++) {
+      final String resultId = resultUrls.size() == 1
+                              ? requestId
+                              : requestId + "_" + i;
+      resultRegistry.put(resultId, new Result(resultUrls.get(i), currentUserId,
+          query.getFormat().getMimeType(query.getCompression()),
+          query.getFormat().getContentEncoding(query.getCompression())));
+      urls.add(serverBase + "/$result?id=" + resultId);
+    }
+
+    return new ExtractResponse(urls);
+  }
+
+  /**
+   * Executes an extract request, and streams the result directly to the supplied output stream
+   * rather than writing it to the warehouse.
+   * <p>
+   * Rows are pulled from the cluster one partition at a time, so only a single partition of the
+   * result needs to be held on the driver. Writes to the output stream block when the client is not
+   * keeping up, which in turn stops any further partitions from being requested.
+   *
+   * @param query an {@link ExtractRequest}
+   * @param outputStream the {@link OutputStream} to write the result to
+   */
+  public void stream(@Nonnull final ExtractRequest query,
+      @Nonnull final OutputStream outputStream) {
+    log.info("Streaming request: {}", query);
+    checkUserInput(query.getFormat() != ResultFormat.PARQUET,
+        "Streaming is only supported for the csv and ndjson formats");
+    final Dataset<Row> result = labelColumns(buildQuery(query), query);
+
+    // Serialize each row as a single line of text, within the cluster.
+    final Dataset<String> lines;
+    if (query.getFormat() == ResultFormat.NDJSON) {
+      lines = result.toJSON();
+    } else {
+      final Column[] columns = Arrays.stream(result.columns())
+          .map(result::col)
+          .toArray(Column[]::new);
+      lines = result.select(to_csv(struct(columns))).as(Encoders.STRING());
+    }
+
+    // Streaming is always synchronous, so heavy queries cannot be deferred to an asynchronous job.
+    final long rows = admissionController.execute(result, false,
+        () -> writeLines(lines, outputStream, query.getFormat(), query.getRequestId()));
+    log.info("Streamed {} rows for request: {}", rows, query.getRequestId());
+  }
+
+  private long writeLines(@Nonnull final Dataset<String> lines,
+      @Nonnull final OutputStream outputStream, @Nonnull final ResultFormat format,
+      @Nonnull final String requestId) {
+    final Iterator<String> iterator = lines.toLocalIterator();
+    final Writer writer = new BufferedWriter(
+        new OutputStreamWriter(outputStream, StandardCharsets.UTF_8));
+    long rows = 0;
+    try {
+      try {
+        while (iterator.hasNext()) {
+          writer.write(iterator.next());
+          writer.write('\n');
+          rows++;
+          // Flush the first row immediately, so that the client starts receiving data as soon as
+          // it is available.
+          if (rows == 1 || rows % STREAM_FLUSH_INTERVAL == 0) {
+            writer.flush();
+          }
+        }
+      } catch (final RuntimeException e) {
+        // Before the first row has been flushed, the response has not been committed and the
+        // error can be reported in the usual way.
+        if (rows == 0) {
+          throw e;
+        }
+        // Otherwise the status has already been sent, so the error is reported by ending the
+        // stream with an error record that the client can detect.
+        log.error("Problem streaming result after {} rows: {}", rows, requestId, e);
+        writer.write(buildErrorRecord(format));
+        writer.write('\n');
+      }
+      writer.flush();
+      return rows;
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem streaming result to response: " + requestId, e);
+    }
+  }
 
-    return new ExtractResponse(serverBase + "/$result?id=" + requestId);
+  /**
+   * Builds the record that ends a stream that could not be completed. For NDJSON, this is an
+   * OperationOutcome resource on a line of its own. For CSV, this is a comment line, beginning with
+   * a {@code #} character.
+   */
+  @Nonnull
+  private String buildErrorRecord(@Nonnull final ResultFormat format) {
+    final String message = "The result is incomplete, as an error occurred while it was being "
+        + "streamed";
+    if (format == ResultFormat.NDJSON) {
+      final OperationOutcome opOutcome = new OperationOutcome();
+      final OperationOutcomeIssueComponent issue = new OperationOutcomeIssueComponent();
+      issue.setSeverity(IssueSeverity.ERROR);
+      issue.setCode(IssueType.EXCEPTION);
+      issue.setDiagnostics(message);
+      opOutcome.getIssue().add(issue);
+      return getFhirContext().newJsonParser().setPrettyPrint(false)
+          .encodeResourceToString(opOutcome);
+    } else {
+      return "# " + message;
+    }
   }
 
   /**
    * Builds up the query for an extract request.
+   * <p>
+   * The filters are applied to the subject resource before any of the columns are evaluated, so
+   * that the columns are only evaluated and joined for the resources that match the filters. If all
+   * of the columns are singular, the limit is also applied to the first column before the others
+   * are joined to it.
    *
    * @param query an {@link ExtractRequest}
    * @return an uncollected {@link Dataset}
@@ -121,36 +297,45 @@ public class ExtractExecutor extends QueryExecutor {
   @SuppressWarnings("WeakerAccess")
   @Nonnull
   public Dataset<Row> buildQuery(@Nonnull final ExtractRequest query) {
-    // Build a new expression parser, and parse all the column expressions within the query.
     final ResourcePath inputContext = ResourcePath
         .build(getFhirContext(), getDatabase(), query.getSubjectResource(),
             query.getSubjectResource().toCode(), true);
-    // The context of evaluation is a single resource.
-    final ParserContext parserContext = buildParserContext(inputContext,
-        Collections.singletonList(inputContext.getIdColumn()));
-    final List<FhirPathAndContext> columnParseResult =
-        parseMaterializableExpressions(parserContext, query.getColumns(), "Column");
+    final Column idColumn = inputContext.getIdColumn();
+
+    // Apply the filters to the subject resource, before any of the columns are evaluated.
+    final Dataset<Row> filteredResources = filterDataset(inputContext, query.getFilters(),
+        inputContext.getDataset(), Column::and);
+
+    // Parse all the column expressions within the query, using the filtered resources as the input
+    // context.
+    final List<FhirPathAndContext> columnParseResult = parseColumns(query, inputContext,
+        filteredResources);
     final List<FhirPath> columns = columnParseResult.stream()
         .map(FhirPathAndContext::getFhirPath)
         .collect(Collectors.toList());
 
+    // If all the columns are singular, there will be at most one row for each resource. This means
+    // that the limit can be applied to the resources before the columns are joined.
+    final boolean allColumnsSingular = columns.stream().allMatch(FhirPath::isSingular);
+    final Optional<DatasetWithColumn> limitedIds = query.getLimit()
+        .filter(limit -> allColumnsSingular)
+        .map(limit -> {
+          final String limitedIdAlias = randomAlias();
+          return new DatasetWithColumn(filteredResources.select(idColumn.alias(limitedIdAlias))
+              .limit(limit), col(limitedIdAlias));
+        });
+
     // Join all the column expressions together.
-    final FhirPathContextAndResult columnJoinResult = joinColumns(columnParseResult);
+    final FhirPathContextAndResult columnJoinResult = joinColumns(columnParseResult, limitedIds);
     final Dataset<Row> columnJoinResultDataset = columnJoinResult.getResult();
-    final Dataset<Row> trimmedDataset = trimTrailingNulls(inputContext.getIdColumn(),
-        columns, columnJoinResultDataset);
-
-    // Apply the filters.
-    final List<String> filters = query.getFilters();
-    final Dataset<Row> filteredDataset = filterDataset(inputContext, filters, trimmedDataset,
-        Column::and);
+    final Dataset<Row> trimmedDataset = trimTrailingNulls(idColumn, columns,
+        columnJoinResultDataset);
 
     // Select the column values.
-    final Column idColumn = inputContext.getIdColumn();
     final Column[] columnValues = columns.stream()
         .map(path -> ((Materializable<?>) path).getExtractableColumn())
         .toArray(Column[]::new);
-    final Dataset<Row> selectedDataset = filteredDataset.select(columnValues)
+    final Dataset<Row> selectedDataset = trimmedDataset.select(columnValues)
         .filter(idColumn.isNotNull());
 
     // If there is a limit, apply it.
@@ -159,9 +344,74 @@ public class ExtractExecutor extends QueryExecutor {
            : selectedDataset;
   }
 
+  @Nonnull
+  private List<FhirPathAndContext> parseColumns(@Nonnull final ExtractRequest query,
+      @Nonnull final ResourcePath inputContext, @Nonnull final Dataset<Row> resources) {
+    final ResourcePath resourcesContext = inputContext
+        .copy(inputContext.getExpression(), resources, inputContext.getIdColumn(),
+            inputContext.getEidColumn(), inputContext.getValueColumn(), inputContext.isSingular(),
+            Optional.empty());
+    // The context of evaluation is a single resource.
+    final ParserContext parserContext = buildParserContext(resourcesContext,
+        Collections.singletonList(resourcesContext.getIdColumn()));
+    return parseMaterializableExpressions(parserContext, query.getColumns(), "Column");
+  }
+
+  /**
+   * Restricts the dataset of an already parsed column to the supplied IDs.
+   */
+  @Nonnull
+  private static FhirPath limitTo(@Nonnull final FhirPath column,
+      @Nonnull final Dataset<Row> ids, @Nonnull final Column idColumn) {
+    final Dataset<Row> dataset = column.getDataset()
+        .join(ids, column.getIdColumn().equalTo(idColumn), "left_semi");
+    if (column instanceof LiteralPath) {
+      return ((LiteralPath) column).withDataset(dataset);
+    }
+    final NonLiteralPath nonLiteralColumn = (NonLiteralPath) column;
+    return nonLiteralColumn.copy(nonLiteralColumn.getExpression(), dataset,
+        nonLiteralColumn.getIdColumn(), nonLiteralColumn.getEidColumn(),
+        nonLiteralColumn.getValueColumn(), nonLiteralColumn.isSingular(),
+        nonLiteralColumn.getThisColumn());
+  }
+
+  /**
+   * Names the columns of the result after the expressions that they were created from, for formats
+   * that record the names of columns. Characters that Parquet does not allow within column names
+   * are replaced, and duplicate names are made unique.
+   */
+  @Nonnull
+  private static Dataset<Row> labelColumns(@Nonnull final Dataset<Row> result,
+      @Nonnull final ExtractRequest query) {
+    if (query.getFormat() == ResultFormat.CSV) {
+      return result;
+    }
+    final Set<String> names = new HashSet<>();
+    final List<String> labels = new ArrayList<>();
+    for (final String expression : query.getColumns()) {
+      final String label = query.getFormat() == ResultFormat.PARQUET
+                           ? expression.replaceAll(INVALID_PARQUET_CHARACTERS, "_")
+                           : expression;
+      String uniqueLabel = label;
+      for (int i = 1; names.contains(uniqueLabel); i++) {
+        uniqueLabel = label + "_" + i;
+      }
+      names.add(uniqueLabel);
+      labels.add(uniqueLabel);
+    }
+    return result.toDF(labels.toArray(new String[0]));
+  }
+
+  /**
+   * Joins the columns together, starting with the column with the longest expression. The other
+   * columns are each left outer joined to the result, so if limited IDs are supplied, they only
+   * need to be joined to the first column. This means that the limited IDs are only read once
+   * within the query, so that they don't need to be ordered to be consistent.
+   */
   @Nonnull
   private FhirPathContextAndResult joinColumns(
-      @Nonnull final Collection<FhirPathAndContext> columnsAndContexts) {
+      @Nonnull final Collection<FhirPathAndContext> columnsAndContexts,
+      @Nonnull final Optional<DatasetWithColumn> limitedIds) {
     // Sort the columns in descending order of expression length.
     final List<FhirPathAndContext> sortedColumnsAndContexts = columnsAndContexts.stream()
         .sorted(Comparator.<FhirPathAndContext>comparingInt(p ->
@@ -217,8 +467,10 @@ public class ExtractExecutor extends QueryExecutor {
               dataset);
         }
       } else {
-        result = new FhirPathContextAndResult(current.getFhirPath(), current.getContext(),
-            current.getFhirPath().getDataset());
+        final FhirPath first = limitedIds
+            .map(ids -> limitTo(current.getFhirPath(), ids.getDataset(), ids.getColumn()))
+            .orElse(current.getFhirPath());
+        result = new FhirPathContextAndResult(first, current.getContext(), first.getDataset());
       }
     }
 
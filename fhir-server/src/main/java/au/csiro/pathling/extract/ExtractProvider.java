@@ -11,10 +11,12 @@ import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 
 import au.csiro.pathling.async.AsyncSupported;
 import au.csiro.pathling.security.OperationAccess;
+import au.csiro.pathling.spark.QueryCanceller;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
 import ca.uhn.fhir.rest.server.IResourceProvider;
+import java.io.IOException;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -23,6 +25,8 @@ import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.BooleanType;
+import org.hl7.fhir.r4.model.CodeType;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.hl7.fhir.r4.model.IntegerType;
 import org.hl7.fhir.r4.model.Parameters;
@@ -44,6 +48,9 @@ public class ExtractProvider implements IResourceProvider {
   @Nonnull
   private final ExtractExecutor extractExecutor;
 
+  @Nonnull
+  private final QueryCanceller queryCanceller;
+
   @Nonnull
   private final Class<? extends IBaseResource> resourceClass;
 
@@ -52,11 +59,15 @@ public class ExtractProvider implements IResourceProvider {
 
   /**
    * @param extractExecutor an instance of {@link ExtractExecutor} to process requests
+   * @param queryCanceller a {@link QueryCanceller} for cancelling streamed requests when their
+   * client disconnects
    * @param resourceClass the resource class that this provider will receive requests for
    */
   public ExtractProvider(@Nonnull final ExtractExecutor extractExecutor,
+      @Nonnull final QueryCanceller queryCanceller,
       @Nonnull final Class<? extends IBaseResource> resourceClass) {
     this.extractExecutor = extractExecutor;
+    this.queryCanceller = queryCanceller;
     this.resourceClass = resourceClass;
     resourceType = resourceTypeFromClass(resourceClass);
   }
@@ -72,6 +83,9 @@ public class ExtractProvider implements IResourceProvider {
    * @param column a list of column expressions
    * @param filter a list of filter expressions
    * @param limit a maximum number of rows to return
+   * @param format the format that the result should be written in
+   * @param compression the compression codec to apply to the result
+   * @param partitioned whether the result may be written as multiple files
    * @param request the {@link HttpServletRequest} details
    * @param requestDetails the {@link RequestDetails} containing HAPI inferred info
    * @param response the {@link HttpServletResponse} response
@@ -83,16 +97,42 @@ public class ExtractProvider implements IResourceProvider {
       @Nullable @OperationParam(name = "column") final List<String> column,
       @Nullable @OperationParam(name = "filter") final List<String> filter,
       @Nullable @OperationParam(name = "limit") final IntegerType limit,
+      @Nullable @OperationParam(name = "format") final CodeType format,
+      @Nullable @OperationParam(name = "compression") final CodeType compression,
+      @Nullable @OperationParam(name = "partitioned") final BooleanType partitioned,
       @SuppressWarnings("unused") @Nullable final HttpServletRequest request,
       @SuppressWarnings("unused") @Nullable final RequestDetails requestDetails,
       @SuppressWarnings("unused") @Nullable final HttpServletResponse response) {
-    return invoke(column, filter, limit, requestDetails);
+    return invoke(column, filter, limit, format, compression, partitioned, requestDetails);
+  }
+
+  /**
+   * Extended FHIR operation: "extract-stream". Executes an extract query and streams the result
+   * directly within the response, rather than writing it to a file for later retrieval.
+   *
+   * @param column a list of column expressions
+   * @param filter a list of filter expressions
+   * @param limit a maximum number of rows to return
+   * @param format the format that the result should be streamed in
+   * @param requestDetails the {@link RequestDetails} containing HAPI inferred info
+   * @param response the {@link HttpServletResponse} response
+   */
+  @Operation(name = "$extract-stream", idempotent = true, manualResponse = true)
+  public void extractStream(
+      @Nullable @OperationParam(name = "column") final List<String> column,
+      @Nullable @OperationParam(name = "filter") final List<String> filter,
+      @Nullable @OperationParam(name = "limit") final IntegerType limit,
+      @Nullable @OperationParam(name = "format") final CodeType format,
+      @Nullable final RequestDetails requestDetails,
+      @Nullable final HttpServletResponse response) {
+    invokeStream(column, filter, limit, format, requestDetails, response);
   }
 
   @OperationAccess("extract")
   private Parameters invoke(@Nullable final List<String> column,
       @Nullable final List<String> filter, @Nullable final IntegerType limit,
-      @Nullable final RequestDetails requestDetails) {
+      @Nullable final CodeType format, @Nullable final CodeType compression,
+      @Nullable final BooleanType partitioned, @Nullable final RequestDetails requestDetails) {
     checkNotNull(requestDetails);
 
     final String requestId = requestDetails.getRequestId();
@@ -102,11 +142,44 @@ public class ExtractProvider implements IResourceProvider {
 
     final ExtractRequest query = new ExtractRequest(resourceType, Optional.ofNullable(column),
         Optional.ofNullable(filter), Optional.ofNullable(limit).map(IntegerType::getValue),
-        resultId);
+        resultId, Optional.ofNullable(format).map(CodeType::getCode),
+        Optional.ofNullable(compression).map(CodeType::getCode),
+        partitioned != null && partitioned.booleanValue());
     final ExtractResponse result = extractExecutor.execute(query,
         requestDetails.getFhirServerBase());
 
     return result.toParameters();
   }
 
+  @OperationAccess("extract")
+  private void invokeStream(@Nullable final List<String> column,
+      @Nullable final List<String> filter, @Nullable final IntegerType limit,
+      @Nullable final CodeType format, @Nullable final RequestDetails requestDetails,
+      @Nullable final HttpServletResponse response) {
+    checkNotNull(requestDetails);
+    checkNotNull(response);
+
+    final String requestId = requestDetails.getRequestId();
+    final String resultId = requestId != null
+                            ? requestId
+                            : UUID.randomUUID().toString();
+
+    final ExtractRequest query = new ExtractRequest(resourceType, Optional.ofNullable(column),
+        Optional.ofNullable(filter), Optional.ofNullable(limit).map(IntegerType::getValue),
+        resultId, Optional.ofNullable(format).map(CodeType::getCode), Optional.empty(), false);
+
+    // Set the appropriate response headers.
+    response.setHeader("Content-Type", query.getFormat().getMimeType());
+
+    // Opt out of processing the request using the ResponseHighlighterInterceptor.
+    requestDetails.setAttribute("ResponseHighlighterInterceptorHandled", Boolean.TRUE);
+
+    try {
+      // If a write to the client fails, the client has gone away and the query is cancelled.
+      extractExecutor.stream(query, queryCanceller.watch(resultId, response.getOutputStream()));
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem opening response for streaming: " + resultId, e);
+    }
+  }
+
 }
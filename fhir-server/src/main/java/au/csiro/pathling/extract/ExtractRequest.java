@@ -8,6 +8,8 @@ package au.csiro.pathling.extract;
 
 import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
 
+import au.csiro.pathling.io.ResultFormat;
+import au.csiro.pathling.io.ResultWriter;
 import java.util.Collections;
 import java.util.List;
 import java.util.Optional;
@@ -38,6 +40,14 @@ public class ExtractRequest {
   @Nonnull
   String requestId;
 
+  @Nonnull
+  ResultFormat format;
+
+  @Nonnull
+  String compression;
+
+  boolean partitioned;
+
   /**
    * @param subjectResource the resource which will serve as the input context for each expression
    * @param columns a set of columns expressions to execute over the data
@@ -48,6 +58,25 @@ public class ExtractRequest {
   public ExtractRequest(@Nonnull final ResourceType subjectResource,
       @Nonnull final Optional<List<String>> columns, @Nonnull final Optional<List<String>> filters,
       @Nonnull final Optional<Integer> limit, @Nonnull final String requestId) {
+    this(subjectResource, columns, filters, limit, requestId, Optional.empty(), Optional.empty(),
+        false);
+  }
+
+  /**
+   * @param subjectResource the resource which will serve as the input context for each expression
+   * @param columns a set of columns expressions to execute over the data
+   * @param filters the criteria by which the data should be filtered
+   * @param limit the maximum number of rows to return
+   * @param requestId an identifier for the request used to initiate this
+   * @param format the code of the format that the result should be written in, defaults to CSV
+   * @param compression the compression codec to apply to the result, defaults to none
+   * @param partitioned whether the result may be written as multiple files
+   */
+  public ExtractRequest(@Nonnull final ResourceType subjectResource,
+      @Nonnull final Optional<List<String>> columns, @Nonnull final Optional<List<String>> filters,
+      @Nonnull final Optional<Integer> limit, @Nonnull final String requestId,
+      @Nonnull final Optional<String> format, @Nonnull final Optional<String> compression,
+      final boolean partitioned) {
     this.limit = limit;
     checkUserInput(columns.isPresent() && columns.get().size() > 0,
         "Query must have at least one column expression");
@@ -60,6 +89,17 @@ public class ExtractRequest {
     this.columns = columns.get();
     this.filters = filters.orElse(Collections.emptyList());
     this.requestId = requestId;
+    if (format.isPresent()) {
+      final ResultFormat resolvedFormat = ResultFormat.fromCode(format.get());
+      checkUserInput(resolvedFormat != null, "Unsupported format: " + format.get());
+      this.format = resolvedFormat;
+    } else {
+      this.format = ResultFormat.CSV;
+    }
+    this.compression = compression.orElse(ResultWriter.NO_COMPRESSION);
+    checkUserInput(this.format.supportsCompression(this.compression),
+        "Unsupported compression for format " + this.format.getCode() + ": " + this.compression);
+    this.partitioned = partitioned;
   }
 
 }
@@ -6,6 +6,7 @@
 
 package au.csiro.pathling.extract;
 
+import java.util.List;
 import javax.annotation.Nonnull;
 import lombok.Getter;
 import org.hl7.fhir.r4.model.Parameters;
@@ -22,13 +23,20 @@ import org.hl7.fhir.r4.model.UrlType;
 public class ExtractResponse {
 
   @Nonnull
-  private final String url;
+  private final List<String> urls;
 
   /**
    * @param url A URL at which the result can be retrieved
    */
   public ExtractResponse(@Nonnull final String url) {
-    this.url = url;
+    this(List.of(url));
+  }
+
+  /**
+   * @param urls The URLs at which each of the files that make up the result can be retrieved
+   */
+  public ExtractResponse(@Nonnull final List<String> urls) {
+    this.urls = urls;
   }
 
   /**
@@ -39,10 +47,12 @@ public class ExtractResponse {
    */
   public Parameters toParameters() {
     final Parameters parameters = new Parameters();
-    final ParametersParameterComponent urlParameter = new ParametersParameterComponent();
-    urlParameter.setName("url");
-    urlParameter.setValue(new UrlType(url));
-    parameters.getParameter().add(urlParameter);
+    for (final String url : urls) {
+      final ParametersParameterComponent urlParameter = new ParametersParameterComponent();
+      urlParameter.setName("url");
+      urlParameter.setValue(new UrlType(url));
+      parameters.getParameter().add(urlParameter);
+    }
     return parameters;
   }
 
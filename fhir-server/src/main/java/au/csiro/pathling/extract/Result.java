@@ -14,5 +14,7 @@ public class Result {
 
   String url;
   Optional<String> ownerId;
+  String mimeType;
+  Optional<String> contentEncoding;
 
 }
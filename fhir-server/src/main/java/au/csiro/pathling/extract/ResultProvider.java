@@ -11,20 +11,31 @@ import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 
 import au.csiro.pathling.errors.AccessDeniedError;
 import au.csiro.pathling.errors.ResourceNotFoundError;
+import au.csiro.pathling.io.ResultFormat;
 import au.csiro.pathling.io.ResultReader;
 import au.csiro.pathling.security.OperationAccess;
 import ca.uhn.fhir.rest.annotation.Operation;
 import ca.uhn.fhir.rest.annotation.OperationParam;
 import ca.uhn.fhir.rest.api.server.RequestDetails;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.Optional;
+import java.util.Set;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.springframework.context.annotation.Profile;
 import org.springframework.security.core.Authentication;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -40,6 +51,21 @@ public class ResultProvider {
 
   private static final Pattern ID_PATTERN = Pattern.compile("^\\w{1,50}$");
 
+  private static final String GZIP = "gzip";
+  private static final String IDENTITY = "identity";
+
+  private static final int BUFFER_SIZE = 65536;
+
+  private static final Set<String> COMPRESSIBLE_TYPES = Set.of(ResultFormat.CSV.getMimeType(),
+      ResultFormat.NDJSON.getMimeType());
+
+  // Request attributes used to ask Tomcat to send a file using the sendfile capability of the
+  // operating system.
+  private static final String SENDFILE_SUPPORTED_ATTRIBUTE = "org.apache.tomcat.sendfile.support";
+  private static final String SENDFILE_FILENAME_ATTRIBUTE = "org.apache.tomcat.sendfile.filename";
+  private static final String SENDFILE_START_ATTRIBUTE = "org.apache.tomcat.sendfile.start";
+  private static final String SENDFILE_END_ATTRIBUTE = "org.apache.tomcat.sendfile.end";
+
   @Nonnull
   private final ResultRegistry resultRegistry;
 
@@ -58,8 +84,15 @@ public class ResultProvider {
 
   /**
    * Enables the download of the result of an extract operation.
+   * <p>
+   * Single byte ranges can be requested using the {@code Range} header, which allows interrupted
+   * downloads to be resumed. Results that are not already compressed are compressed on the fly
+   * using gzip if the client indicates that it is supported, and the whole result is requested.
+   * Compressed results are decompressed on the fly for clients that don't support their encoding,
+   * in which case ranges are not supported.
    *
    * @param id the ID of the extract request
+   * @param request the {@link HttpServletRequest}, for reading request headers
    * @param response the {@link HttpServletResponse} for updating the response
    * @param requestDetails the {@link RequestDetails}, for preparing the request for downstream
    * processing
@@ -68,7 +101,9 @@ public class ResultProvider {
   @OperationAccess("extract")
   @Operation(name = "$result", idempotent = true, manualResponse = true)
   public void result(@Nullable @OperationParam(name = "id") final String id,
-      @Nullable final HttpServletResponse response, @Nullable final RequestDetails requestDetails) {
+      @Nullable final HttpServletRequest request, @Nullable final HttpServletResponse response,
+      @Nullable final RequestDetails requestDetails) {
+    checkNotNull(request);
     checkNotNull(response);
     checkNotNull(requestDetails);
 
@@ -91,21 +126,132 @@ public class ResultProvider {
       throw new AccessDeniedError("The requested result is not owned by the current user");
     }
 
-    // Open an input stream to read the result.
-    final InputStream inputStream = resultReader.read(result);
+    final FileStatus status = resultReader.getStatus(result);
+    final long length = status.getLen();
+    // The entity tag identifies the stored bytes. Representations that are transcoded on the fly
+    // get a tag of their own, so that they are never confused with the stored bytes by a cache or
+    // within an If-Range header.
+    final String storedTag = Long.toHexString(length) + "-"
+        + Long.toHexString(status.getModificationTime());
+    final String eTag = "\"" + storedTag + "\"";
 
     // Set the appropriate response headers.
-    response.setHeader("Content-Type", "text/csv");
+    response.setHeader("Content-Type", result.getMimeType());
+    response.setHeader("Accept-Ranges", "bytes");
+    response.setHeader("Vary", "Accept-Encoding");
+    response.setDateHeader("Last-Modified", status.getModificationTime());
 
     // Opt out of processing the request using the ResponseHighlighterInterceptor.
     requestDetails.setAttribute("ResponseHighlighterInterceptorHandled", Boolean.TRUE);
 
-    // Copy all data from the result to the HTTP response.
+    final Optional<String> contentEncoding = result.getContentEncoding();
+    final String rangeHeader = request.getHeader("Range");
     try {
-      IOUtils.copyLarge(inputStream, response.getOutputStream());
+      if (contentEncoding.isPresent()) {
+        if (acceptsEncoding(request, contentEncoding.get())) {
+          // The result was stored compressed, so it can be served as-is.
+          response.setHeader("Content-Encoding", contentEncoding.get());
+        } else {
+          // The client can't accept the stored encoding, so we need to decompress it on the fly.
+          // Ranges of the decompressed bytes can't be served without decompressing everything that
+          // comes before them, so they are not offered.
+          response.setHeader("Accept-Ranges", "none");
+          response.setHeader("ETag", "\"" + storedTag + "-" + IDENTITY + "\"");
+          try (final InputStream inputStream = new GZIPInputStream(resultReader.read(result))) {
+            IOUtils.copyLarge(inputStream, response.getOutputStream());
+          }
+          return;
+        }
+      } else if (rangeHeader == null && COMPRESSIBLE_TYPES.contains(result.getMimeType())
+          && acceptsEncoding(request, GZIP)) {
+        response.setHeader("Content-Encoding", GZIP);
+        response.setHeader("ETag", "\"" + storedTag + "-" + GZIP + "\"");
+        try (final InputStream inputStream = resultReader.read(result);
+            final OutputStream outputStream = new GZIPOutputStream(response.getOutputStream(),
+                BUFFER_SIZE)) {
+          IOUtils.copyLarge(inputStream, outputStream);
+        }
+        return;
+      }
+
+      response.setHeader("ETag", eTag);
+
+      // Work out which part of the result has been requested. A range is ignored if the result has
+      // changed since the client last saw it.
+      final Optional<ByteRange> range = rangeHeader != null && ifRangeMatches(request, eTag,
+          status.getModificationTime())
+                                        ? ByteRange.parse(rangeHeader, length)
+                                        : Optional.empty();
+      if (range.isPresent() && !range.get().isSatisfiable(length)) {
+        response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+        response.setHeader("Content-Range", "bytes */" + length);
+        return;
+      }
+      final ByteRange served = range.orElse(new ByteRange(0, length - 1));
+      if (range.isPresent()) {
+        response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+        response.setHeader("Content-Range",
+            "bytes " + served.getStart() + "-" + served.getEnd() + "/" + length);
+      }
+      response.setContentLengthLong(served.getLength());
+      if (served.getLength() == 0) {
+        return;
+      }
+
+      // If the result is on the local filesystem and the container supports it, hand the file
+      // over to the container to be sent without copying it through the JVM.
+      final Optional<File> localFile = resultReader.getLocalFile(result);
+      if (localFile.isPresent() && Boolean.TRUE.equals(
+          request.getAttribute(SENDFILE_SUPPORTED_ATTRIBUTE))) {
+        request.setAttribute(SENDFILE_FILENAME_ATTRIBUTE, localFile.get().getAbsolutePath());
+        request.setAttribute(SENDFILE_START_ATTRIBUTE, served.getStart());
+        request.setAttribute(SENDFILE_END_ATTRIBUTE, served.getEnd() + 1);
+        return;
+      }
+
+      // Otherwise, copy the requested bytes from the result to the HTTP response.
+      try (final FSDataInputStream inputStream = resultReader.read(result)) {
+        inputStream.seek(served.getStart());
+        IOUtils.copyLarge(inputStream, response.getOutputStream(), 0, served.getLength());
+      }
     } catch (final IOException e) {
       throw new RuntimeException("Problem writing result data to response: " + result, e);
     }
   }
 
+  private static boolean acceptsEncoding(@Nonnull final HttpServletRequest request,
+      @Nonnull final String encoding) {
+    final Enumeration<String> headers = request.getHeaders("Accept-Encoding");
+    if (headers == null) {
+      return false;
+    }
+    for (final String header : Collections.list(headers)) {
+      for (final String coding : header.split(",")) {
+        final String[] parts = coding.split(";");
+        if (parts[0].trim().equalsIgnoreCase(encoding)) {
+          // An encoding with a quality value of zero has been explicitly rejected.
+          return parts.length < 2 || !parts[1].trim().matches("^q\\s*=\\s*0(\\.0*)?$");
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean ifRangeMatches(@Nonnull final HttpServletRequest request,
+      @Nonnull final String eTag, final long modificationTime) {
+    final String ifRange = request.getHeader("If-Range");
+    if (ifRange == null) {
+      return true;
+    }
+    if (ifRange.trim().startsWith("\"")) {
+      return ifRange.trim().equals(eTag);
+    }
+    try {
+      // HTTP dates only have a precision of one second.
+      return request.getDateHeader("If-Range") / 1000 == modificationTime / 1000;
+    } catch (final IllegalArgumentException e) {
+      return false;
+    }
+  }
+
 }
@@ -6,17 +6,227 @@
 
 package au.csiro.pathling.extract;
 
-import java.util.concurrent.ConcurrentHashMap;
+import static au.csiro.pathling.io.PersistenceScheme.convertS3ToS3aUrl;
+import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
+
+import au.csiro.pathling.caching.ExpiringRegistry;
+import au.csiro.pathling.config.Configuration;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.SparkSession;
 import org.springframework.context.annotation.Profile;
 import org.springframework.stereotype.Component;
 
 /**
+ * Used for storing the location and ownership of extract results, for later retrieval.
+ * <p>
+ * Results expire after the configured retention period, at which point their files are deleted.
+ * If persistence is enabled, details of each result are also stored within the warehouse. These
+ * are checked on a schedule for results that have expired, or that exceed the maximum number of
+ * entries, as they may have been registered before a restart or by another server.
+ *
  * @author John Grimes
  */
 @Component
 @Profile("core")
-public class ResultRegistry extends ConcurrentHashMap<String, Result> {
+@Slf4j
+public class ResultRegistry extends ExpiringRegistry<Result> {
+
+  private static final String REGISTRY_DIRECTORY = "/results/.registry/";
+  private static final String METADATA_EXTENSION = ".properties";
+
+  /**
+   * The interval between checks of the persistent store for expired results, in milliseconds.
+   */
+  private static final long PERSISTENT_SWEEP_INTERVAL = 60_000;
+
+  @Nonnull
+  private final SparkSession spark;
+
+  @Nonnull
+  private final String registryUrl;
+
+  private final boolean persistent;
+
+  @Nullable
+  private final ScheduledExecutorService executor;
+
+  /**
+   * @param configuration a {@link Configuration} object to control the retention of results
+   * @param spark the current {@link SparkSession}, used to access the warehouse
+   */
+  public ResultRegistry(@Nonnull final Configuration configuration,
+      @Nonnull final SparkSession spark) {
+    super(configuration.getResults().getRetention(),
+        configuration.getResults().getMaxEntries());
+    this.spark = spark;
+    this.persistent = configuration.getResults().isPersistent();
+    this.registryUrl = convertS3ToS3aUrl(configuration.getStorage().getWarehouseUrl())
+        + REGISTRY_DIRECTORY;
+    if (persistent) {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "result-registry");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(this::sweep, PERSISTENT_SWEEP_INTERVAL,
+          PERSISTENT_SWEEP_INTERVAL, TimeUnit.MILLISECONDS);
+    } else {
+      executor = null;
+    }
+  }
+
+  @Override
+  public void put(@Nonnull final String key, @Nonnull final Result value) {
+    if (persistent) {
+      writeMetadata(key, value);
+    }
+    super.put(key, value);
+  }
+
+  @Override
+  protected void onEviction(@Nonnull final String key, @Nonnull final Result value) {
+    log.info("Deleting expired result: {}", key);
+    delete(value.getUrl());
+    if (persistent) {
+      delete(getMetadataUrl(key));
+    }
+  }
+
+  /**
+   * Evicts the results within the persistent store that have expired, followed by the oldest
+   * results if the store holds more than the maximum number of entries.
+   */
+  void sweep() {
+    final long now = System.currentTimeMillis();
+    try {
+      final FileSystem fileSystem = getFileSystem(registryUrl);
+      final Path registryPath = new Path(registryUrl);
+      if (!fileSystem.exists(registryPath)) {
+        return;
+      }
+      final List<FileStatus> newestFirst = Arrays.stream(fileSystem.listStatus(registryPath))
+          .filter(status -> status.getPath().getName().endsWith(METADATA_EXTENSION))
+          .sorted(Comparator.comparingLong(FileStatus::getModificationTime).reversed())
+          .collect(Collectors.toList());
+      for (int i = 0; i < newestFirst.size(); i++) {
+        final FileStatus status = newestFirst.get(i);
+        final boolean expired = getRetentionMillis() > 0
+            && now - status.getModificationTime() >= getRetentionMillis();
+        if (expired || i >= getMaxEntries()) {
+          final String name = status.getPath().getName();
+          evictPersisted(name.substring(0, name.length() - METADATA_EXTENSION.length()));
+        }
+      }
+    } catch (final IOException | RuntimeException e) {
+      log.warn("Problem checking persistent result registry for expired results", e);
+    }
+  }
+
+  private void evictPersisted(@Nonnull final String key) {
+    // A result that is also held in memory is removed from there along with its files, so that it
+    // is not served after its files have been deleted.
+    if (!remove(key)) {
+      final Result result = readMetadata(key);
+      if (result != null) {
+        onEviction(key, result);
+      }
+    }
+  }
+
+  @Nullable
+  @Override
+  protected Result load(@Nonnull final String key) {
+    return persistent
+           ? readMetadata(key)
+           : null;
+  }
+
+  private void writeMetadata(@Nonnull final String key, @Nonnull final Result result) {
+    final Properties properties = new Properties();
+    properties.setProperty("url", result.getUrl());
+    properties.setProperty("mimeType", result.getMimeType());
+    result.getOwnerId().ifPresent(ownerId -> properties.setProperty("ownerId", ownerId));
+    result.getContentEncoding()
+        .ifPresent(encoding -> properties.setProperty("contentEncoding", encoding));
+    final String metadataUrl = getMetadataUrl(key);
+    try (final OutputStream outputStream = getFileSystem(metadataUrl)
+        .create(new Path(metadataUrl), true)) {
+      properties.store(outputStream, null);
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem writing result metadata: " + metadataUrl, e);
+    }
+  }
+
+  @Nullable
+  private Result readMetadata(@Nonnull final String key) {
+    final String metadataUrl = getMetadataUrl(key);
+    final Properties properties = new Properties();
+    try (final InputStream inputStream = getFileSystem(metadataUrl)
+        .open(new Path(metadataUrl))) {
+      properties.load(inputStream);
+    } catch (final FileNotFoundException e) {
+      return null;
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem reading result metadata: " + metadataUrl, e);
+    }
+    return new Result(properties.getProperty("url"),
+        Optional.ofNullable(properties.getProperty("ownerId")),
+        properties.getProperty("mimeType"),
+        Optional.ofNullable(properties.getProperty("contentEncoding")));
+  }
+
+  private void delete(@Nonnull final String url) {
+    try {
+      getFileSystem(url).delete(new Path(url), false);
+    } catch (final IOException e) {
+      log.warn("Problem deleting file: {}", url, e);
+    }
+  }
+
+  @Nonnull
+  private String getMetadataUrl(@Nonnull final String key) {
+    return registryUrl + key + METADATA_EXTENSION;
+  }
+
+  /**
+   * Stops checking the persistent store for expired results.
+   */
+  @PreDestroy
+  public void shutdown() {
+    Optional.ofNullable(executor).ifPresent(ScheduledExecutorService::shutdownNow);
+  }
 
-  private static final long serialVersionUID = -3960163244304628646L;
+  @Nonnull
+  private FileSystem getFileSystem(@Nonnull final String url) throws IOException {
+    @Nullable final org.apache.hadoop.conf.Configuration hadoopConfiguration = spark.sparkContext()
+        .hadoopConfiguration();
+    checkNotNull(hadoopConfiguration);
+    try {
+      return FileSystem.get(new URI(url), hadoopConfiguration);
+    } catch (final URISyntaxException e) {
+      throw new RuntimeException("Problem parsing URL: " + url, e);
+    }
+  }
 
 }
@@ -103,7 +103,7 @@ public class ConformanceProvider implements IServerConformanceProvider<Capabilit
    * All resource-level operations available within Pathling.
    */
   private static final List<String> RESOURCE_LEVEL_OPERATIONS = Arrays.asList("aggregate",
-      "search", "extract");
+      "search", "extract", "extract-stream");
 
   /**
    * All operations available within Pathling.
@@ -288,6 +288,14 @@ public class ConformanceProvider implements IServerConformanceProvider<Capabilit
               extractOperationUri);
       resource.addOperation(extractOperation);
 
+      // Add the `extract-stream` operation to all resources.
+      final CanonicalType extractStreamOperationUri = new CanonicalType(
+          getOperationUri("extract-stream"));
+      final CapabilityStatementRestResourceOperationComponent extractStreamOperation =
+          new CapabilityStatementRestResourceOperationComponent(new StringType("extract-stream"),
+              extractStreamOperationUri);
+      resource.addOperation(extractStreamOperation);
+
       // Add the `fhirPath` search parameter to all resources.
       final CapabilityStatementRestResourceOperationComponent searchOperation = new CapabilityStatementRestResourceOperationComponent();
       searchOperation.setName("fhirPath");
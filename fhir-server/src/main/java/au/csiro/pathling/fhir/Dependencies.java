@@ -12,6 +12,7 @@ import au.csiro.pathling.config.TerminologyConfiguration;
 import au.csiro.pathling.encoders.FhirEncoders;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
+import java.nio.file.Path;
 import javax.annotation.Nonnull;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnBean;
@@ -65,6 +66,9 @@ public class Dependencies {
         .withMaxNestingLevel(maxNestingLevel)
         .withOpenTypes(configuration.getEncoding().getOpenTypes())
         .withExtensionsEnabled(enableExtensions)
+        .withCacheDirectory(configuration.getEncoding().getCacheDirectory()
+            .map(Path::of)
+            .orElse(null))
         .getOrCreate();
   }
 
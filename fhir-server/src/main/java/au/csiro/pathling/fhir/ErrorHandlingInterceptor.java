@@ -11,6 +11,7 @@ import static org.springframework.http.HttpStatus.SERVICE_UNAVAILABLE;
 import au.csiro.pathling.errors.AccessDeniedError;
 import au.csiro.pathling.errors.InvalidUserInputError;
 import au.csiro.pathling.errors.ResourceNotFoundError;
+import au.csiro.pathling.errors.ServerBusyError;
 import ca.uhn.fhir.interceptor.api.Hook;
 import ca.uhn.fhir.interceptor.api.Interceptor;
 import ca.uhn.fhir.interceptor.api.Pointcut;
@@ -119,6 +120,12 @@ public class ErrorHandlingInterceptor {
       return new InvalidRequestException(e);
     } catch (final AccessDeniedError e) {
       return buildException(HttpServletResponse.SC_FORBIDDEN, e.getMessage(), IssueType.FORBIDDEN);
+    } catch (final ServerBusyError e) {
+      // The client is told when to try again.
+      final BaseServerResponseException ex = buildException(SERVICE_UNAVAILABLE.value(),
+          e.getMessage(), IssueType.TRANSIENT);
+      ex.addResponseHeader("Retry-After", String.valueOf(e.getRetryAfter()));
+      return ex;
     } catch (final Throwable e) {
       // Anything else is unexpected and triggers a 500.
       return internalServerError(e);
@@ -126,7 +133,6 @@ public class ErrorHandlingInterceptor {
   }
 
   @Nonnull
-  @SuppressWarnings("SameParameterValue")
   private static BaseServerResponseException buildException(final int theStatusCode,
       @Nonnull final String message,
       @Nonnull final IssueType issueType) {
@@ -8,6 +8,7 @@ package au.csiro.pathling.fhir;
 
 import static au.csiro.pathling.utilities.Preconditions.checkPresent;
 
+import au.csiro.pathling.async.JobCancellationInterceptor;
 import au.csiro.pathling.async.JobProvider;
 import au.csiro.pathling.caching.EntityTagInterceptor;
 import au.csiro.pathling.config.Configuration;
@@ -74,6 +75,9 @@ public class FhirServer extends RestfulServer {
   @Nonnull
   private final Optional<JobProvider> jobProvider;
 
+  @Nonnull
+  private final Optional<JobCancellationInterceptor> jobCancellationInterceptor;
+
   @Nonnull
   private final ResultProvider resultProvider;
 
@@ -86,6 +90,12 @@ public class FhirServer extends RestfulServer {
   @Nonnull
   private final EntityTagInterceptor entityTagInterceptor;
 
+  @Nonnull
+  private final SchedulingInterceptor schedulingInterceptor;
+
+  @Nonnull
+  private final HealthInterceptor healthInterceptor;
+
   @Nonnull
   private final ConformanceProvider conformanceProvider;
 
@@ -103,11 +113,15 @@ public class FhirServer extends RestfulServer {
    * from OIDC discovery
    * @param importProvider a {@link ImportProvider} for receiving requests to the import operation
    * @param jobProvider a {@link JobProvider} for checking on the status of jobs
+   * @param jobCancellationInterceptor a {@link JobCancellationInterceptor} for cancelling jobs
    * @param resultProvider {@link ResultProvider} for retrieving the result of extract requests
    * @param requestIdInterceptor a {@link RequestIdInterceptor} for adding request IDs to logging
    * @param errorReportingInterceptor a {@link ErrorReportingInterceptor} for reporting errors to
    * Sentry
    * @param entityTagInterceptor a {@link EntityTagInterceptor} validating and returning ETags
+   * @param schedulingInterceptor a {@link SchedulingInterceptor} for assigning requests to Spark
+   * scheduler pools
+   * @param healthInterceptor a {@link HealthInterceptor} for reporting whether the server is ready
    * @param conformanceProvider a {@link ConformanceProvider} for receiving requests for the server
    * CapabilityStatement
    * @param resourceProviderFactory a {@link ResourceProviderFactory} for providing instances of
@@ -118,10 +132,13 @@ public class FhirServer extends RestfulServer {
       @Nonnull final Optional<OidcConfiguration> oidcConfiguration,
       @Nonnull final ImportProvider importProvider,
       @Nonnull final Optional<JobProvider> jobProvider,
+      @Nonnull final Optional<JobCancellationInterceptor> jobCancellationInterceptor,
       @Nonnull final ResultProvider resultProvider,
       @Nonnull final RequestIdInterceptor requestIdInterceptor,
       @Nonnull final ErrorReportingInterceptor errorReportingInterceptor,
       @Nonnull final EntityTagInterceptor entityTagInterceptor,
+      @Nonnull final SchedulingInterceptor schedulingInterceptor,
+      @Nonnull final HealthInterceptor healthInterceptor,
       @Nonnull final ConformanceProvider conformanceProvider,
       @Nonnull final ResourceProviderFactory resourceProviderFactory,
       @Nonnull final BatchProvider batchProvider) {
@@ -130,10 +147,13 @@ public class FhirServer extends RestfulServer {
     this.oidcConfiguration = oidcConfiguration;
     this.importProvider = importProvider;
     this.jobProvider = jobProvider;
+    this.jobCancellationInterceptor = jobCancellationInterceptor;
     this.resultProvider = resultProvider;
     this.requestIdInterceptor = requestIdInterceptor;
     this.errorReportingInterceptor = errorReportingInterceptor;
     this.entityTagInterceptor = entityTagInterceptor;
+    this.schedulingInterceptor = schedulingInterceptor;
+    this.healthInterceptor = healthInterceptor;
     this.conformanceProvider = conformanceProvider;
     this.resourceProviderFactory = resourceProviderFactory;
     this.batchProvider = batchProvider;
@@ -170,6 +190,7 @@ public class FhirServer extends RestfulServer {
 
       // Register job provider, if async is enabled.
       jobProvider.ifPresent(this::registerProvider);
+      jobCancellationInterceptor.ifPresent(this::registerInterceptor);
 
       // Register extract result provider.
       registerProvider(resultProvider);
@@ -177,6 +198,9 @@ public class FhirServer extends RestfulServer {
       // Configure interceptors.
       configureRequestLogging();
 
+      // Report whether the server is ready to receive requests.
+      registerInterceptor(healthInterceptor);
+
       // Authorization-related configuration.
       configureAuthorization();
 
@@ -194,6 +218,9 @@ public class FhirServer extends RestfulServer {
       // Register ETag handling interceptor.
       registerInterceptor(entityTagInterceptor);
 
+      // Assign requests to Spark scheduler pools.
+      registerInterceptor(schedulingInterceptor);
+
       // Report errors to Sentry, if configured.
       registerInterceptor(errorReportingInterceptor);
 
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhir;
+
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import java.io.IOException;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * This class intercepts requests to `health` and reports whether the server is ready to receive
+ * requests. The server is not ready until startup has completed, including any warm-up.
+ *
+ * @see au.csiro.pathling.WarmUp
+ */
+@Component
+@Profile("server")
+@Interceptor
+@Slf4j
+public class HealthInterceptor {
+
+  @Nonnull
+  private final ApplicationAvailability applicationAvailability;
+
+  /**
+   * @param applicationAvailability the {@link ApplicationAvailability} used to determine whether
+   * the server is ready
+   */
+  public HealthInterceptor(@Nonnull final ApplicationAvailability applicationAvailability) {
+    this.applicationAvailability = applicationAvailability;
+  }
+
+  /**
+   * HAPI hook to serve the health status, when the URL matches.
+   *
+   * @param servletRequest the details of the request
+   * @param servletResponse the response that will be sent
+   * @return a boolean value indicating whether to continue processing through HAPI
+   * @throws IOException if there is a problem writing to the response
+   */
+  @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_PROCESSED)
+  @SuppressWarnings("unused")
+  public boolean serveHealth(@Nullable final HttpServletRequest servletRequest,
+      @Nullable final HttpServletResponse servletResponse) throws IOException {
+    if (servletRequest == null || servletResponse == null) {
+      log.warn("Health interceptor invoked with missing servlet request or response");
+      return true;
+    }
+
+    if (servletRequest.getPathInfo() != null && servletRequest.getPathInfo().equals("/health")) {
+      final boolean ready = applicationAvailability.getReadinessState()
+          == ReadinessState.ACCEPTING_TRAFFIC;
+      servletResponse.setStatus(ready
+                                ? 200
+                                : 503);
+      servletResponse.setContentType("application/json");
+      servletResponse.getWriter().append(ready
+                                         ? "{\"status\":\"UP\"}"
+                                         : "{\"status\":\"OUT_OF_SERVICE\"}");
+      return false;
+    } else {
+      return true;
+    }
+  }
+
+}
@@ -6,6 +6,8 @@
 
 package au.csiro.pathling.fhir;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.aggregate.AggregateExecutor;
 import au.csiro.pathling.aggregate.AggregateProvider;
@@ -14,6 +16,7 @@ import au.csiro.pathling.extract.ExtractExecutor;
 import au.csiro.pathling.extract.ExtractProvider;
 import au.csiro.pathling.io.Database;
 import au.csiro.pathling.search.SearchProvider;
+import au.csiro.pathling.spark.QueryCanceller;
 import au.csiro.pathling.update.UpdateProvider;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.rest.server.IResourceProvider;
@@ -62,6 +65,15 @@ public class ResourceProviderFactory {
   @Nonnull
   private final FhirEncoders fhirEncoders;
 
+  @Nonnull
+  private final AdmissionController admissionController;
+
+  @Nonnull
+  private final RequestCoalescer requestCoalescer;
+
+  @Nonnull
+  private final QueryCanceller queryCanceller;
+
   /**
    * @param applicationContext the Spring {@link ApplicationContext}
    * @param fhirContext a {@link FhirContext} for doing FHIR stuff
@@ -76,6 +88,12 @@ public class ResourceProviderFactory {
    * @param aggregateExecutor a {@link AggregateExecutor} for processing requests to the aggregate
    * operation
    * @param extractExecutor a {@link ExtractExecutor} for processing requests to the extract
+   * @param admissionController an {@link AdmissionController} for checking the cost of search
+   * queries before they are executed
+   * @param requestCoalescer a {@link RequestCoalescer} for sharing the results of identical search
+   * requests
+   * @param queryCanceller a {@link QueryCanceller} for cancelling streamed requests when their
+   * client disconnects
    */
   public ResourceProviderFactory(
       @Nonnull final ApplicationContext applicationContext,
@@ -86,7 +104,10 @@ public class ResourceProviderFactory {
       @Nonnull final Optional<TerminologyServiceFactory> terminologyServiceFactory,
       @Nonnull final FhirEncoders fhirEncoders,
       @Nonnull final AggregateExecutor aggregateExecutor,
-      @Nonnull final ExtractExecutor extractExecutor) {
+      @Nonnull final ExtractExecutor extractExecutor,
+      @Nonnull final AdmissionController admissionController,
+      @Nonnull final RequestCoalescer requestCoalescer,
+      @Nonnull final QueryCanceller queryCanceller) {
     this.applicationContext = applicationContext;
     this.fhirContext = fhirContext;
     this.configuration = configuration;
@@ -96,6 +117,9 @@ public class ResourceProviderFactory {
     this.fhirEncoders = fhirEncoders;
     this.aggregateExecutor = aggregateExecutor;
     this.extractExecutor = extractExecutor;
+    this.admissionController = admissionController;
+    this.requestCoalescer = requestCoalescer;
+    this.queryCanceller = queryCanceller;
   }
 
   /**
@@ -125,7 +149,7 @@ public class ResourceProviderFactory {
     final Class<? extends IBaseResource> resourceTypeClass = fhirContext
         .getResourceDefinition(resourceType.name()).getImplementingClass();
     return applicationContext
-        .getBean(ExtractProvider.class, extractExecutor, resourceTypeClass);
+        .getBean(ExtractProvider.class, extractExecutor, queryCanceller, resourceTypeClass);
   }
 
   /**
@@ -140,7 +164,8 @@ public class ResourceProviderFactory {
         .getResourceDefinition(resourceType.name()).getImplementingClass();
 
     return applicationContext.getBean(SearchProvider.class, configuration, fhirContext,
-        sparkSession, database, terminologyServiceFactory, fhirEncoders, resourceTypeClass);
+        sparkSession, database, terminologyServiceFactory, fhirEncoders, resourceTypeClass,
+        admissionController, requestCoalescer);
   }
 
   @Nonnull
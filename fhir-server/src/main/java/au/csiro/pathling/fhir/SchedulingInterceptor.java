@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhir;
+
+import static au.csiro.pathling.security.SecurityAspect.getCurrentUserId;
+
+import au.csiro.pathling.spark.QueryCanceller;
+import au.csiro.pathling.spark.RequestScheduler;
+import ca.uhn.fhir.interceptor.api.Hook;
+import ca.uhn.fhir.interceptor.api.Interceptor;
+import ca.uhn.fhir.interceptor.api.Pointcut;
+import ca.uhn.fhir.rest.api.RestOperationTypeEnum;
+import ca.uhn.fhir.rest.api.server.RequestDetails;
+import java.util.Set;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.context.annotation.Profile;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.stereotype.Component;
+
+/**
+ * Assigns each incoming request to a Spark scheduler pool for the duration of its processing.
+ * <p>
+ * Each request is also run within its own Spark job group, so that its queries can be cancelled
+ * before the request has completed.
+ *
+ * @see RequestScheduler
+ * @see QueryCanceller
+ */
+@Component
+@Profile("server")
+@Interceptor
+public class SchedulingInterceptor {
+
+  private static final String POOL_KEY = SchedulingInterceptor.class.getName() + ".pool";
+  private static final String JOB_GROUP_KEY = SchedulingInterceptor.class.getName() + ".jobGroup";
+
+  /**
+   * Operations that do not submit any work to Spark, and are therefore not subject to scheduling.
+   */
+  private static final Set<String> UNSCHEDULED_OPERATIONS = Set.of("metadata", "job", "result");
+
+  @Nonnull
+  private final RequestScheduler requestScheduler;
+
+  @Nonnull
+  private final QueryCanceller queryCanceller;
+
+  @Nonnull
+  private final SparkSession spark;
+
+  /**
+   * @param requestScheduler the {@link RequestScheduler} used to assign requests to pools
+   * @param queryCanceller the {@link QueryCanceller} that is told when a request has completed
+   * @param spark the {@link SparkSession} that requests are run within
+   */
+  public SchedulingInterceptor(@Nonnull final RequestScheduler requestScheduler,
+      @Nonnull final QueryCanceller queryCanceller, @Nonnull final SparkSession spark) {
+    this.requestScheduler = requestScheduler;
+    this.queryCanceller = queryCanceller;
+    this.spark = spark;
+  }
+
+  /**
+   * Assigns the request to a pool before it is handled.
+   *
+   * @param requestDetails the details of the request
+   * @param operationType the type of operation that the request is for
+   */
+  @Hook(Pointcut.SERVER_INCOMING_REQUEST_PRE_HANDLED)
+  @SuppressWarnings("unused")
+  public void enterPool(@Nullable final RequestDetails requestDetails,
+      @Nullable final RestOperationTypeEnum operationType) {
+    if (requestDetails == null || operationType == null) {
+      return;
+    }
+    final String operation = getOperationName(requestDetails, operationType);
+    if (UNSCHEDULED_OPERATIONS.contains(operation)) {
+      return;
+    }
+    final String pool = requestScheduler.enter(operation,
+        getCurrentUserId(SecurityContextHolder.getContext().getAuthentication()));
+    requestDetails.getUserData().put(POOL_KEY, pool);
+
+    final String requestId = requestDetails.getRequestId();
+    if (requestId != null) {
+      spark.sparkContext().setJobGroup(requestId, requestId, true);
+      requestDetails.getUserData().put(JOB_GROUP_KEY, requestId);
+    }
+  }
+
+  /**
+   * Removes the request from its pool and job group once processing is complete, whether it was
+   * successful or not.
+   *
+   * @param requestDetails the details of the request
+   */
+  @Hook(Pointcut.SERVER_PROCESSING_COMPLETED)
+  @SuppressWarnings("unused")
+  public void exitPool(@Nullable final RequestDetails requestDetails) {
+    if (requestDetails == null) {
+      return;
+    }
+    final Object jobGroup = requestDetails.getUserData().remove(JOB_GROUP_KEY);
+    if (jobGroup != null) {
+      queryCanceller.release((String) jobGroup);
+      spark.sparkContext().clearJobGroup();
+    }
+    releasePool(requestDetails);
+  }
+
+  /**
+   * Removes the request from its pool before processing is complete, allowing a waiting request to
+   * take its place. This is used when the remainder of the work for the request is handed off to
+   * another thread, which enters a pool of its own.
+   *
+   * @param requestDetails the details of the request
+   */
+  public void releasePool(@Nonnull final RequestDetails requestDetails) {
+    final Object pool = requestDetails.getUserData().remove(POOL_KEY);
+    if (pool != null) {
+      requestScheduler.exit((String) pool);
+    }
+  }
+
+  @Nonnull
+  private static String getOperationName(@Nonnull final RequestDetails requestDetails,
+      @Nonnull final RestOperationTypeEnum operationType) {
+    switch (operationType) {
+      case EXTENDED_OPERATION_SERVER:
+      case EXTENDED_OPERATION_TYPE:
+      case EXTENDED_OPERATION_INSTANCE:
+        return requestDetails.getOperation().replaceFirst("\\$", "");
+      case SEARCH_TYPE:
+      case SEARCH_SYSTEM:
+      case GET_PAGE:
+        return "search";
+      case READ:
+      case VREAD:
+        return "read";
+      case CREATE:
+      case UPDATE:
+        return "update";
+      case TRANSACTION:
+      case BATCH:
+        return "batch";
+      default:
+        return operationType.getCode();
+    }
+  }
+
+}
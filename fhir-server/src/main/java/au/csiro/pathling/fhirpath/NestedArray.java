@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhirpath;
+
+import javax.annotation.Nonnull;
+import lombok.Getter;
+import org.apache.spark.sql.Column;
+
+/**
+ * Describes the array that a collection was exploded from during path traversal, along with the
+ * path that contains it. This allows some operations upon the collection to be evaluated upon the
+ * array instead, without the need for the exploded rows.
+ */
+@Getter
+public class NestedArray {
+
+  /**
+   * The path that the array was traversed from.
+   */
+  @Nonnull
+  private final NonLiteralPath parent;
+
+  /**
+   * A {@link Column} within the dataset of the parent, containing the array.
+   */
+  @Nonnull
+  private final Column array;
+
+  /**
+   * @param parent the path that the array was traversed from
+   * @param array a column within the dataset of the parent, containing the array
+   */
+  public NestedArray(@Nonnull final NonLiteralPath parent, @Nonnull final Column array) {
+    this.parent = parent;
+    this.array = array;
+  }
+
+}
@@ -90,6 +90,27 @@ public class ResourcePath extends NonLiteralPath {
   public static ResourcePath build(@Nonnull final FhirContext fhirContext,
       @Nonnull final Database database, @Nonnull final ResourceType resourceType,
       @Nonnull final String expression, final boolean singular, final boolean skipAliasing) {
+    // Retrieve the dataset for the resource type using the supplied resource reader.
+    return build(fhirContext, database.read(resourceType), resourceType, expression, singular,
+        skipAliasing);
+  }
+
+  /**
+   * Build a new ResourcePath using the supplied {@link FhirContext} and a {@link Dataset} of
+   * resources, such as a subset of the resources within the {@link Database}.
+   *
+   * @param fhirContext the {@link FhirContext} to use for sourcing the resource definition
+   * @param dataset the {@link Dataset} containing the resources
+   * @param resourceType the type of the resource
+   * @param expression the expression to use in the resulting path
+   * @param singular whether the resulting path should be flagged as a single item collection
+   * @param skipAliasing set to true to skip column aliasing
+   * @return A shiny new ResourcePath
+   */
+  @Nonnull
+  public static ResourcePath build(@Nonnull final FhirContext fhirContext,
+      @Nonnull final Dataset<Row> dataset, @Nonnull final ResourceType resourceType,
+      @Nonnull final String expression, final boolean singular, final boolean skipAliasing) {
 
     // Get the resource definition from HAPI.
     final String resourceCode = resourceType.toCode();
@@ -97,9 +118,6 @@ public class ResourcePath extends NonLiteralPath {
         .getResourceDefinition(resourceCode);
     final ResourceDefinition definition = new ResourceDefinition(resourceType, hapiDefinition);
 
-    // Retrieve the dataset for the resource type using the supplied resource reader.
-    final Dataset<Row> dataset = database.read(resourceType);
-
     final Column idColumn = col("id");
     final Column finalIdColumn;
     final Dataset<Row> finalDataset;
@@ -129,6 +147,15 @@ public class ResourcePath extends NonLiteralPath {
         finalIdColumn, singular, Optional.empty(), definition, elementsToColumns);
   }
 
+  /**
+   * @param elementName the name of the element
+   * @return the {@link Column} within the dataset pertaining to this element, if it is present
+   */
+  @Nonnull
+  public Optional<Column> findElementColumn(@Nonnull final String elementName) {
+    return Optional.ofNullable(elementsToColumns.get(elementName));
+  }
+
   /**
    * @param elementName the name of the element
    * @return the {@link Column} within the dataset pertaining to this element
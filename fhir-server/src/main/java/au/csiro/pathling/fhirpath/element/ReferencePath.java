@@ -6,8 +6,11 @@
 
 package au.csiro.pathling.fhirpath.element;
 
+import static au.csiro.pathling.io.Database.PATIENT_KEY_COLUMN;
+
 import au.csiro.pathling.fhirpath.Referrer;
 import au.csiro.pathling.fhirpath.ResourcePath;
+import au.csiro.pathling.io.Database;
 import java.util.Collections;
 import java.util.Optional;
 import java.util.Set;
@@ -59,6 +62,32 @@ public class ReferencePath extends ElementPath implements Referrer {
     return Referrer.resourceEqualityFor(this, targetCode, targetId);
   }
 
+  /**
+   * Constructs an equality column for matching this reference to the ID of a patient, using the
+   * patient key column of the resource that contains the reference. This is only possible where
+   * resource tables are partitioned by patient, and this reference is the element that identifies
+   * the patient that the resource belongs to. A join upon this condition does not require Spark to
+   * shuffle either side.
+   *
+   * @param database the {@link Database} that the resources were read from
+   * @param patientId a column containing the ID of the patient
+   * @return a {@link Column} representing the matching condition, if it can be used
+   */
+  @Nonnull
+  public Optional<Column> getPatientKeyEquality(@Nonnull final Database database,
+      @Nonnull final Column patientId) {
+    if (getCurrentResource().isEmpty()) {
+      return Optional.empty();
+    }
+    final ResourcePath currentResource = getCurrentResource().get();
+    return database.getPatientKeyElement(currentResource.getResourceType())
+        // The reference must be the patient key element at the root of the current resource.
+        .filter(element -> getExpression().equals(element)
+            || getExpression().equals(currentResource.getExpression() + "." + element))
+        .flatMap(element -> currentResource.findElementColumn(PATIENT_KEY_COLUMN))
+        .map(patientKey -> patientKey.equalTo(patientId));
+  }
+
   @Nonnull
   @Override
   public Optional<ElementDefinition> getChildElement(@Nonnull final String name) {
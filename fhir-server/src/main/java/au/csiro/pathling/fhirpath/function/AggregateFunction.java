@@ -6,18 +6,24 @@
 
 package au.csiro.pathling.fhirpath.function;
 
+import static au.csiro.pathling.QueryHelpers.aggregate;
 import static au.csiro.pathling.utilities.Preconditions.checkArgument;
-import static au.csiro.pathling.utilities.Preconditions.checkPresent;
+import static au.csiro.pathling.utilities.Strings.randomAlias;
 import static org.apache.spark.sql.functions.col;
 import static org.apache.spark.sql.functions.first;
 
 import au.csiro.pathling.fhirpath.FhirPath;
+import au.csiro.pathling.fhirpath.NestedArray;
 import au.csiro.pathling.fhirpath.NonLiteralPath;
 import au.csiro.pathling.fhirpath.element.ElementPath;
 import au.csiro.pathling.fhirpath.parser.ParserContext;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.function.Predicate;
@@ -98,9 +104,108 @@ public abstract class AggregateFunction {
       @Nonnull final FHIRDefinedType fhirType) {
 
     return buildAggregateResult(dataset, parserContext, inputs, valueColumn, expression,
-        // Create the result as an ElementPath of the given FHIR type.
-        (exp, ds, id, eid, value, singular, thisColumn) -> ElementPath
-            .build(exp, ds, id, eid, value, true, Optional.empty(), thisColumn, fhirType));
+        elementPathFactory(fhirType));
+  }
+
+  /**
+   * Gets the array that the input collection was exploded from, if an aggregation over the input
+   * can be evaluated upon that array rather than by grouping the exploded rows. This is only the
+   * case when each row of the path containing the array corresponds to one of the groups that the
+   * aggregation would otherwise produce.
+   *
+   * @param parserContext the current {@link ParserContext}
+   * @param input the {@link NonLiteralPath} being aggregated
+   * @return the {@link NestedArray}, if the aggregation can be evaluated upon it
+   */
+  @Nonnull
+  protected Optional<NestedArray> getNestedArray(@Nonnull final ParserContext parserContext,
+      @Nonnull final NonLiteralPath input) {
+    return Optional.ofNullable(parserContext.getNestedArrays().get(input))
+        .filter(nestedArray -> {
+          final NonLiteralPath parent = nestedArray.getParent();
+          if (!parent.isSingular()) {
+            return false;
+          }
+          final Set<String> existingColumns = Stream.of(parent.getDataset().columns())
+              .collect(Collectors.toSet());
+          final Set<String> groupBy = parserContext.getGroupingColumns().stream()
+              .map(Column::toString)
+              .filter(existingColumns::contains)
+              .collect(Collectors.toSet());
+          final Set<String> parentKeys = new HashSet<>();
+          parentKeys.add(parent.getIdColumn().toString());
+          parent.getEidColumn().ifPresent(eid -> parentKeys.add(eid.toString()));
+          return groupBy.equals(parentKeys);
+        });
+  }
+
+  /**
+   * Builds a result for an aggregation operation that has been evaluated upon a
+   * {@link NestedArray}, with a single {@link FhirPath} object as input that will be copied and
+   * used as a template for the new result.
+   *
+   * @param nestedArray the {@link NestedArray} that the input was exploded from
+   * @param parserContext the current {@link ParserContext}
+   * @param input the {@link FhirPath} objects being aggregated
+   * @param valueColumn a {@link Column} describing the resulting value, in terms of the array
+   * @param expression the FHIRPath expression for the result
+   * @return a new {@link ElementPath} representing the result
+   */
+  @Nonnull
+  protected NonLiteralPath buildAggregateResult(@Nonnull final NestedArray nestedArray,
+      @Nonnull final ParserContext parserContext, @Nonnull final NonLiteralPath input,
+      @Nonnull final Column valueColumn, @Nonnull final String expression) {
+
+    return buildAggregateResult(nestedArray, parserContext, input, valueColumn, expression,
+        input::copy);
+  }
+
+  /**
+   * Builds a result for an aggregation operation that has been evaluated upon a
+   * {@link NestedArray}, with a single {@link FhirPath} object as input.
+   *
+   * @param nestedArray the {@link NestedArray} that the input was exploded from
+   * @param parserContext the current {@link ParserContext}
+   * @param input the {@link FhirPath} objects being aggregated
+   * @param valueColumn a {@link Column} describing the resulting value, in terms of the array
+   * @param expression the FHIRPath expression for the result
+   * @param fhirType the {@link FHIRDefinedType} of the result
+   * @return a new {@link ElementPath} representing the result
+   */
+  @Nonnull
+  protected ElementPath buildAggregateResult(@Nonnull final NestedArray nestedArray,
+      @Nonnull final ParserContext parserContext, @Nonnull final NonLiteralPath input,
+      @Nonnull final Column valueColumn, @Nonnull final String expression,
+      @Nonnull final FHIRDefinedType fhirType) {
+
+    return buildAggregateResult(nestedArray, parserContext, input, valueColumn, expression,
+        elementPathFactory(fhirType));
+  }
+
+  @Nonnull
+  private <T extends FhirPath> T buildAggregateResult(@Nonnull final NestedArray nestedArray,
+      @Nonnull final ParserContext parserContext, @Nonnull final NonLiteralPath input,
+      @Nonnull final Column valueColumn, @Nonnull final String expression,
+      @Nonnull final ResultPathFactory<T> resultPathFactory) {
+
+    // The value is evaluated once for each row of the path containing the array, so there is no
+    // need to explode the array or to group the results.
+    final Dataset<Row> dataset = nestedArray.getParent().getDataset();
+
+    // Clear out the node ID columns in the parser context - as they are no longer valid for joining.
+    parserContext.getNodeIdColumns().clear();
+
+    return resultPathFactory
+        .create(expression, dataset, input.getIdColumn(), Optional.empty(), valueColumn, true,
+            input.getThisColumn());
+  }
+
+  @Nonnull
+  private static ResultPathFactory<ElementPath> elementPathFactory(
+      @Nonnull final FHIRDefinedType fhirType) {
+    // Create the result as an ElementPath of the given FHIR type.
+    return (exp, ds, id, eid, value, singular, thisColumn) -> ElementPath
+        .build(exp, ds, id, eid, value, true, Optional.empty(), thisColumn, fhirType);
   }
 
   @Nonnull
@@ -128,17 +233,16 @@ public abstract class AggregateFunction {
         .toArray(Column[]::new);
 
     // The selection will be the first function applied to each column except the grouping columns, 
-    // plus the value column.
+    // plus the value column. The value column is given a unique name, so that this aggregation can
+    // be combined with others over the same input.
     final Predicate<Column> groupingFilter = column -> !groupByList.contains(column);
-    final List<Column> selection = Stream.of(dataset.columns())
+    final Map<String, Column> selection = new LinkedHashMap<>();
+    Stream.of(dataset.columns())
         .map(functions::col)
         .filter(groupingFilter)
-        .map(column -> first(column, true).alias(column.toString()))
-        .collect(Collectors.toList());
-    selection.add(valueColumn.alias("value"));
-
-    final Column firstSelection = checkPresent(selection.stream().limit(1).findFirst());
-    final Column[] remainingSelection = selection.stream().skip(1).toArray(Column[]::new);
+        .forEach(column -> selection.put(column.toString(), first(column, true)));
+    final String valueAlias = randomAlias();
+    selection.put(valueAlias, valueColumn);
 
     // Get any this columns that may be present in the inputs.
     // TODO: This is very error prone as a collection can be passed here instead of an array.
@@ -147,10 +251,8 @@ public abstract class AggregateFunction {
     final Optional<Column> thisColumn = NonLiteralPath
         .findThisColumn(inputs.toArray(new FhirPath[0]));
 
-    final Dataset<Row> finalDataset = dataset
-        .groupBy(groupBy)
-        .agg(firstSelection, remainingSelection);
-    final Column finalValueColumn = col("value");
+    final Dataset<Row> finalDataset = aggregate(dataset, Arrays.asList(groupBy), selection);
+    final Column finalValueColumn = col(valueAlias);
 
     // Clear out the node ID columns in the parser context - as they are no longer valid for joining.
     parserContext.getNodeIdColumns().clear();
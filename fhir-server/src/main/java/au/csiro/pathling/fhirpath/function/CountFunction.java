@@ -8,14 +8,21 @@ package au.csiro.pathling.fhirpath.function;
 
 import static au.csiro.pathling.fhirpath.function.NamedFunction.checkNoArguments;
 import static au.csiro.pathling.fhirpath.function.NamedFunction.expressionFromInput;
+import static org.apache.spark.sql.functions.approx_count_distinct;
+import static org.apache.spark.sql.functions.filter;
+import static org.apache.spark.sql.functions.size;
 import static org.apache.spark.sql.functions.when;
 
 import au.csiro.pathling.fhirpath.FhirPath;
+import au.csiro.pathling.fhirpath.NestedArray;
 import au.csiro.pathling.fhirpath.NonLiteralPath;
+import au.csiro.pathling.fhirpath.parser.Approximation;
+import java.util.Optional;
 import java.util.function.Function;
 import javax.annotation.Nonnull;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.functions;
+import org.apache.spark.sql.types.DataTypes;
 import org.hl7.fhir.r4.model.Enumerations.FHIRDefinedType;
 
 /**
@@ -37,15 +44,37 @@ public class CountFunction extends AggregateFunction implements NamedFunction {
     checkNoArguments("count", input);
     final NonLiteralPath inputPath = input.getInput();
     final String expression = expressionFromInput(input, NAME);
+
+    // If the input was exploded from an array, we can count the non-null elements of the array.
+    final Optional<NestedArray> nestedArray = getNestedArray(input.getContext(), inputPath);
+    if (nestedArray.isPresent()) {
+      final Column array = nestedArray.get().getArray();
+      final Column valueColumn = when(array.isNull(), 0L)
+          .otherwise(size(filter(array, Column::isNotNull)).cast(DataTypes.LongType));
+      return buildAggregateResult(nestedArray.get(), input.getContext(), inputPath, valueColumn,
+          expression, FHIRDefinedType.UNSIGNEDINT);
+    }
+
     final Column subjectColumn = inputPath.getValueColumn();
 
     // When we are counting resources from the input context, we use the distinct count to account
     // for the fact that there may be duplicate IDs in the dataset.
     // When we are counting anything else, we use a non-distinct count, to account for the fact that
     // it is valid to have multiple of the same value.
-    final Function<Column, Column> countFunction = inputPath == input.getContext().getInputContext()
-                                                   ? functions::countDistinct
-                                                   : functions::count;
+    final Optional<Approximation> approximation = input.getContext().getApproximation();
+    final Function<Column, Column> countFunction;
+    if (inputPath != input.getContext().getInputContext()) {
+      countFunction = functions::count;
+    } else if (approximation.isPresent()) {
+      // If an approximate result has been requested, the distinct count is estimated using
+      // HyperLogLog++, which needs a fixed amount of memory for each group rather than keeping track
+      // of every distinct ID.
+      countFunction = column -> approx_count_distinct(column,
+          approximation.get().getRelativeError());
+      approximation.get().markUsed();
+    } else {
+      countFunction = functions::countDistinct;
+    }
 
     // According to the FHIRPath specification, the count function must return 0 when invoked on an
     // empty collection.
@@ -8,10 +8,14 @@ package au.csiro.pathling.fhirpath.function;
 
 import static au.csiro.pathling.fhirpath.function.NamedFunction.checkNoArguments;
 import static au.csiro.pathling.fhirpath.function.NamedFunction.expressionFromInput;
+import static org.apache.spark.sql.functions.element_at;
+import static org.apache.spark.sql.functions.filter;
 import static org.apache.spark.sql.functions.first;
 
 import au.csiro.pathling.fhirpath.FhirPath;
+import au.csiro.pathling.fhirpath.NestedArray;
 import au.csiro.pathling.fhirpath.NonLiteralPath;
+import java.util.Optional;
 import javax.annotation.Nonnull;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
@@ -37,8 +41,18 @@ public class FirstFunction extends AggregateFunction implements NamedFunction {
     checkNoArguments("first", input);
 
     final NonLiteralPath inputPath = input.getInput();
-    final Dataset<Row> dataset = inputPath.getOrderedDataset();
     final String expression = expressionFromInput(input, NAME);
+
+    // If the input was exploded from an array, we can take the first non-null element of the array.
+    final Optional<NestedArray> nestedArray = getNestedArray(input.getContext(), inputPath);
+    if (nestedArray.isPresent()) {
+      final Column valueColumn = element_at(filter(nestedArray.get().getArray(),
+          Column::isNotNull), 1);
+      return buildAggregateResult(nestedArray.get(), input.getContext(), inputPath, valueColumn,
+          expression);
+    }
+
+    final Dataset<Row> dataset = inputPath.getOrderedDataset();
     final Column finalValueColumn = first(inputPath.getValueColumn(), true);
 
     return buildAggregateResult(dataset, input.getContext(), inputPath, finalValueColumn,
@@ -8,6 +8,7 @@ package au.csiro.pathling.fhirpath.function;
 
 import static au.csiro.pathling.QueryHelpers.join;
 import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
+import static org.apache.spark.sql.functions.lit;
 
 import au.csiro.pathling.QueryHelpers.JoinType;
 import au.csiro.pathling.fhirpath.FhirPath;
@@ -48,8 +49,12 @@ public class OfTypeFunction implements NamedFunction {
     final ResourcePath resourcePath = (ResourcePath) argumentPath;
 
     // Do a left outer join to the resource dataset using the reference in the untyped dataset - the
-    // result will be null in the rows that are not of the resource type nominated.
-    final Column joinCondition = inputPath.getResourceEquality(resourcePath);
+    // result will be null in the rows that are not of the resource type nominated. Only the rows
+    // with a reference prefixed with the nominated type can match, so they are filtered on the type
+    // column before being compared with the resource identities.
+    final Column joinCondition = inputPath.getTypeColumn()
+        .equalTo(lit(resourcePath.getResourceType().toCode()))
+        .and(inputPath.getResourceEquality(resourcePath));
     final Dataset<Row> dataset = join(inputPath.getDataset(), resourcePath.getDataset(),
         joinCondition, JoinType.LEFT_OUTER);
 
@@ -7,14 +7,12 @@
 package au.csiro.pathling.fhirpath.function;
 
 import static au.csiro.pathling.QueryHelpers.join;
-import static au.csiro.pathling.QueryHelpers.union;
 import static au.csiro.pathling.fhirpath.function.NamedFunction.checkNoArguments;
 import static au.csiro.pathling.fhirpath.function.NamedFunction.expressionFromInput;
 import static au.csiro.pathling.utilities.Preconditions.check;
-import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
-import static au.csiro.pathling.utilities.Strings.randomAlias;
-import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.regexp_extract;
+import static org.apache.spark.sql.functions.when;
 
 import au.csiro.pathling.QueryHelpers.JoinType;
 import au.csiro.pathling.fhir.FhirServer;
@@ -24,8 +22,8 @@ import au.csiro.pathling.fhirpath.UntypedResourcePath;
 import au.csiro.pathling.fhirpath.element.ReferencePath;
 import au.csiro.pathling.io.Database;
 import ca.uhn.fhir.context.FhirContext;
-import java.util.ArrayList;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.Optional;
 import java.util.Set;
 import javax.annotation.Nonnull;
@@ -71,7 +69,7 @@ public class ResolveFunction implements NamedFunction {
     final String expression = expressionFromInput(input, NAME);
 
     if (isPolymorphic) {
-      return resolvePolymorphicReference(input, database, referenceTypes, expression);
+      return resolvePolymorphicReference(input, referenceTypes, expression);
     } else {
       final FhirContext fhirContext = input.getContext().getFhirContext();
       return resolveMonomorphicReference(input, database, fhirContext, referenceTypes,
@@ -81,51 +79,29 @@ public class ResolveFunction implements NamedFunction {
 
   @Nonnull
   private static FhirPath resolvePolymorphicReference(@Nonnull final NamedFunctionInput input,
-      @Nonnull final Database database,
       @Nonnull final Iterable<ResourceType> referenceTypes, final String expression) {
     final ReferencePath referencePath = (ReferencePath) input.getInput();
-
-    // If this is a polymorphic reference, create a dataset for each reference type, and union
-    // them together to produce the target dataset. The dataset will not contain the resources
-    // themselves, only a type and identifier for later resolution.
-    final Collection<Dataset<Row>> typeDatasets = new ArrayList<>();
-    for (final ResourceType referenceType : referenceTypes) {
-      if (FhirServer.supportedResourceTypes().contains(referenceType)) {
-        // We can't include the full content of the resource, as you can't union two datasets with
-        // different schema. The content of the resource is added later, when ofType is invoked.
-        final Dataset<Row> typeDatasetWithColumns = database.read(referenceType);
-        final Column idColumn = typeDatasetWithColumns.col("id");
-        Dataset<Row> typeDataset = typeDatasetWithColumns
-            .withColumn("type", lit(referenceType.toCode()));
-        typeDataset = typeDataset.select(idColumn, typeDataset.col("type"));
-
-        typeDatasets.add(typeDataset);
-      }
-    }
-    checkUserInput(!typeDatasets.isEmpty(),
+    final Set<ResourceType> availableTypes = EnumSet.noneOf(ResourceType.class);
+    referenceTypes.forEach(availableTypes::add);
+    availableTypes.retainAll(FhirServer.supportedResourceTypes());
+    checkUserInput(!availableTypes.isEmpty(),
         "No types within reference are available, cannot resolve: " + referencePath
             .getExpression());
-    final String idColumnName = randomAlias();
-    final String targetColumnName = randomAlias();
-    Dataset<Row> targetDataset = union(typeDatasets);
-    Column targetId = targetDataset.col(targetDataset.columns()[0]);
-    Column targetType = targetDataset.col(targetDataset.columns()[1]);
-    targetDataset = targetDataset
-        .withColumn(idColumnName, targetId)
-        .withColumn(targetColumnName, targetType);
-    targetId = targetDataset.col(idColumnName);
-    targetType = targetDataset.col(targetColumnName);
-    targetDataset = targetDataset.select(targetId, targetType);
-
-    checkNotNull(targetId);
-    final Column joinCondition = referencePath.getResourceEquality(targetId, targetType);
-    final Dataset<Row> dataset = join(referencePath.getDataset(), targetDataset, joinCondition,
-        JoinType.LEFT_OUTER);
+
+    // If this is a polymorphic reference, we don't read any of the target tables here. The type of
+    // each target is taken from the prefix of the reference, and the content of the resource is
+    // added later by joining to the table of a single type, when ofType is invoked.
+    final Column typePrefix = regexp_extract(referencePath.getReferenceColumn(),
+        "^([A-Za-z]+)/[^/]+$", 1);
+    final Column targetType = when(typePrefix.isin(availableTypes.stream()
+        .map(ResourceType::toCode)
+        .toArray()), typePrefix);
 
     final Column inputId = referencePath.getIdColumn();
     final Optional<Column> inputEid = referencePath.getEidColumn();
     return UntypedResourcePath
-        .build(referencePath, expression, dataset, inputId, inputEid, targetType);
+        .build(referencePath, expression, referencePath.getDataset(), inputId, inputEid,
+            targetType);
   }
 
   @Nonnull
@@ -140,8 +116,12 @@ public class ResolveFunction implements NamedFunction {
     final ResourcePath resourcePath = ResourcePath
         .build(fhirContext, database, resourceType, expression, referencePath.isSingular());
 
-    // Join the resource dataset to the reference dataset.
-    final Column joinCondition = referencePath.getResourceEquality(resourcePath);
+    // Join the resource dataset to the reference dataset. If the reference identifies the patient
+    // of a resource partitioned by patient, we join on the patient key.
+    final Column joinCondition = Optional.of(resourceType)
+        .filter(ResourceType.PATIENT::equals)
+        .flatMap(type -> referencePath.getPatientKeyEquality(database, resourcePath.getIdColumn()))
+        .orElseGet(() -> referencePath.getResourceEquality(resourcePath));
     final Dataset<Row> dataset = join(referencePath.getDataset(), resourcePath.getDataset(),
         joinCondition, JoinType.LEFT_OUTER);
 
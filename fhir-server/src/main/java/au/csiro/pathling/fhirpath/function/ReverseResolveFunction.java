@@ -6,19 +6,23 @@
 
 package au.csiro.pathling.fhirpath.function;
 
+import static au.csiro.pathling.QueryHelpers.createColumns;
 import static au.csiro.pathling.QueryHelpers.join;
 import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
+import static org.apache.spark.sql.functions.col;
 import static org.apache.spark.sql.functions.lit;
 import static org.apache.spark.sql.functions.row_number;
 import static org.apache.spark.sql.functions.when;
 
 import au.csiro.pathling.QueryHelpers;
 import au.csiro.pathling.QueryHelpers.DatasetWithColumn;
+import au.csiro.pathling.QueryHelpers.DatasetWithColumnMap;
 import au.csiro.pathling.QueryHelpers.JoinType;
 import au.csiro.pathling.fhirpath.FhirPath;
 import au.csiro.pathling.fhirpath.NonLiteralPath;
 import au.csiro.pathling.fhirpath.ResourcePath;
 import au.csiro.pathling.fhirpath.element.ReferencePath;
+import au.csiro.pathling.io.Database;
 import java.util.Optional;
 import java.util.Set;
 import javax.annotation.Nonnull;
@@ -62,12 +66,6 @@ public class ReverseResolveFunction implements NamedFunction {
         "Reference in argument to reverseResolve does not support input resource type: "
             + expression);
 
-    // Do a left outer join from the input to the argument dataset using the reference field in the
-    // argument.
-    final Column joinCondition = referencePath.getResourceEquality(inputPath);
-    final Dataset<Row> dataset = join(referencePath.getDataset(), inputPath.getDataset(),
-        joinCondition, JoinType.RIGHT_OUTER);
-
     // Check the argument for information about the current resource that it originated from - if it
     // is not present, reverse reference resolution will not be possible.
     final NonLiteralPath nonLiteralArgument = (NonLiteralPath) argument;
@@ -76,6 +74,38 @@ public class ReverseResolveFunction implements NamedFunction {
             + "target resource type: " + expression);
     final ResourcePath currentResource = nonLiteralArgument.getCurrentResource().get();
 
+    // Do a left outer join from the input to the argument dataset. If the reference identifies the
+    // patient of a resource partitioned by patient, we join on the patient key. If there is an edge
+    // table for the reference, we use it to find the referencing resources by ID. Otherwise, we use
+    // the reference field in the argument.
+    final Column targetId = inputPath.getCurrentResource()
+        .map(ResourcePath::getIdColumn)
+        .orElse(inputPath.getIdColumn());
+    final Database database = input.getContext().getDatabase();
+    final Optional<Column> patientKeyEquality = Optional.of(inputType)
+        .filter(ResourceType.PATIENT::equals)
+        .flatMap(type -> referencePath.getPatientKeyEquality(database, targetId));
+    final Optional<Dataset<Row>> edges = patientKeyEquality.isPresent()
+                                         ? Optional.empty()
+                                         : getEdges(input, referencePath, currentResource);
+    final Dataset<Row> dataset;
+    if (patientKeyEquality.isPresent()) {
+      dataset = join(referencePath.getDataset(), inputPath.getDataset(), patientKeyEquality.get(),
+          JoinType.RIGHT_OUTER);
+    } else if (edges.isPresent()) {
+      final DatasetWithColumnMap edgeColumns = createColumns(edges.get()
+          .where(col("targetType").equalTo(inputType.toCode())), col("id"), col("targetId"));
+      final Dataset<Row> targets = join(edgeColumns.getDataset(),
+          edgeColumns.getColumn(col("targetId")), inputPath.getDataset(), targetId,
+          JoinType.RIGHT_OUTER);
+      dataset = join(referencePath.getDataset(), referencePath.getIdColumn(), targets,
+          edgeColumns.getColumn(col("id")), JoinType.RIGHT_OUTER);
+    } else {
+      final Column joinCondition = referencePath.getResourceEquality(inputPath);
+      dataset = join(referencePath.getDataset(), inputPath.getDataset(), joinCondition,
+          JoinType.RIGHT_OUTER);
+    }
+
     final Optional<Column> thisColumn = inputPath.getThisColumn();
 
     // TODO: Consider removing in the future once we separate ordering from element ID.
@@ -101,4 +131,25 @@ public class ReverseResolveFunction implements NamedFunction {
     result.setCurrentResource(currentResource);
     return result;
   }
+
+  /**
+   * Gets the edge table for the reference, if it is a singular element at the root of the
+   * referencing resource.
+   */
+  @Nonnull
+  private static Optional<Dataset<Row>> getEdges(@Nonnull final NamedFunctionInput input,
+      @Nonnull final ReferencePath referencePath, @Nonnull final ResourcePath currentResource) {
+    final String prefix = currentResource.getExpression() + ".";
+    final String element = referencePath.getExpression().startsWith(prefix)
+                           ? referencePath.getExpression().substring(prefix.length())
+                           : "";
+    final boolean singular = referencePath.getDefinition()
+        .map(definition -> definition.getMaxCardinality() == 1)
+        .orElse(false);
+    if (!singular || !element.matches("[A-Za-z]+")) {
+      return Optional.empty();
+    }
+    return input.getContext().getDatabase().readEdges(currentResource.getResourceType(), element);
+  }
+
 }
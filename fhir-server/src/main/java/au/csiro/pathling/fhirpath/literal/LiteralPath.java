@@ -112,11 +112,28 @@ public abstract class LiteralPath implements FhirPath {
       @Nonnull final Column idColumn, @Nonnull final Type literalValue) {
     final Class<? extends LiteralPath> literalPathClass = FHIR_TYPE_TO_FHIRPATH_TYPE
         .get(FHIRDefinedType.fromCode(literalValue.fhirType()));
+    return build(literalPathClass, dataset, idColumn, literalValue).getExpression();
+  }
+
+  /**
+   * Creates a copy of this literal that is evaluated within the context of a different dataset.
+   *
+   * @param dataset the new context dataset, which must contain the same identity column
+   * @return a new instance of this literal
+   */
+  @Nonnull
+  public LiteralPath withDataset(@Nonnull final Dataset<Row> dataset) {
+    return build(getClass(), dataset, idColumn, literalValue);
+  }
+
+  @Nonnull
+  private static LiteralPath build(@Nonnull final Class<? extends LiteralPath> literalPathClass,
+      @Nonnull final Dataset<Row> dataset, @Nonnull final Column idColumn,
+      @Nonnull final Type literalValue) {
     try {
       final Constructor<? extends LiteralPath> constructor = literalPathClass
           .getDeclaredConstructor(Dataset.class, Column.class, Type.class);
-      final LiteralPath literalPath = constructor.newInstance(dataset, idColumn, literalValue);
-      return literalPath.getExpression();
+      return constructor.newInstance(dataset, idColumn, literalValue);
     } catch (final NoSuchMethodException | InstantiationException | IllegalAccessException |
                    InvocationTargetException e) {
       throw new RuntimeException("Problem building a LiteralPath class", e);
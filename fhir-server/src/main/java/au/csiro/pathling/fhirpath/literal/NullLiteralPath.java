@@ -48,6 +48,12 @@ public class NullLiteralPath extends LiteralPath implements Comparable {
     return new NullLiteralPath(context.getDataset(), context.getIdColumn());
   }
 
+  @Nonnull
+  @Override
+  public LiteralPath withDataset(@Nonnull final Dataset<Row> dataset) {
+    return new NullLiteralPath(dataset, idColumn);
+  }
+
   @Nonnull
   @Override
   public String getExpression() {
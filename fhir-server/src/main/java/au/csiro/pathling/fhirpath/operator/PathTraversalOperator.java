@@ -14,6 +14,7 @@ import static org.apache.spark.sql.functions.when;
 import au.csiro.pathling.QueryHelpers.DatasetWithColumnMap;
 import au.csiro.pathling.encoders.ExtensionSupport;
 import au.csiro.pathling.fhirpath.FhirPath;
+import au.csiro.pathling.fhirpath.NestedArray;
 import au.csiro.pathling.fhirpath.NonLiteralPath;
 import au.csiro.pathling.fhirpath.ResourcePath;
 import au.csiro.pathling.fhirpath.element.ElementDefinition;
@@ -104,9 +105,16 @@ public class PathTraversalOperator {
     // be used within joins in certain situations, e.g. extract.
     eidColumn.ifPresent(c -> input.getContext().getNodeIdColumns().putIfAbsent(expression, c));
 
-    return ElementPath
+    final ElementPath result = ElementPath
         .build(expression, resultDataset, left.getIdColumn(), eidColumn, valueColumn,
             resultSingular, left.getCurrentResource(), left.getThisColumn(), childDefinition);
+
+    // Record the array that the result was exploded from, so that aggregations over the result can
+    // be evaluated upon the array instead of the exploded rows.
+    if (!maxCardinalityOfOne) {
+      input.getContext().getNestedArrays().put(result, new NestedArray(left, field));
+    }
+    return result;
   }
 
   @Nonnull
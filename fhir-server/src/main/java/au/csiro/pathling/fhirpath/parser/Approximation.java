@@ -0,0 +1,42 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhirpath.parser;
+
+import lombok.Getter;
+
+/**
+ * Allows aggregations within a query to be evaluated as estimates, and records whether any of them
+ * actually were. The same instance is shared by all the parser contexts used for a query.
+ */
+@Getter
+public class Approximation {
+
+  /**
+   * The relative standard deviation that estimates are allowed to have.
+   */
+  private final double relativeError;
+
+  /**
+   * Whether any part of the query has been evaluated as an estimate.
+   */
+  private boolean used = false;
+
+  /**
+   * @param relativeError the relative standard deviation that estimates are allowed to have
+   */
+  public Approximation(final double relativeError) {
+    this.relativeError = relativeError;
+  }
+
+  /**
+   * Records that part of the query has been evaluated as an estimate.
+   */
+  public void markUsed() {
+    used = true;
+  }
+
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhirpath.parser;
+
+import java.util.List;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+
+/**
+ * The tokens of an expression that is being parsed, excluding whitespace and comments.
+ * <p>
+ * Expressions that differ only in the values of their literals share the same parse tree (see
+ * {@link Parser}), so the text of a node within a tree must always be taken from the tokens of the
+ * expression that is being evaluated, rather than from the tree itself.
+ */
+class ExpressionTokens {
+
+  @Nonnull
+  private final List<Token> tokens;
+
+  /**
+   * @param tokens the tokens of the expression, in the order that they were used to build the
+   * parse tree
+   */
+  ExpressionTokens(@Nonnull final List<Token> tokens) {
+    this.tokens = tokens;
+  }
+
+  /**
+   * @param ctx a node within the parse tree of the expression
+   * @return the text of the node, without whitespace
+   */
+  @Nonnull
+  String getText(@Nonnull final ParserRuleContext ctx) {
+    @Nullable final Token start = ctx.getStart();
+    @Nullable final Token stop = ctx.getStop();
+    if (start == null || stop == null || stop.getTokenIndex() < start.getTokenIndex()) {
+      return "";
+    }
+    return tokens.subList(start.getTokenIndex(), stop.getTokenIndex() + 1).stream()
+        .map(Token::getText)
+        .collect(Collectors.joining());
+  }
+
+}
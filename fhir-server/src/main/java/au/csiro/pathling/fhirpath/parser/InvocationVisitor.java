@@ -44,6 +44,9 @@ class InvocationVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Nonnull
   private final ParserContext context;
 
+  @Nonnull
+  private final ExpressionTokens tokens;
+
   @Nullable
   private final FhirPath invoker;
 
@@ -53,9 +56,12 @@ class InvocationVisitor extends FhirPathBaseVisitor<FhirPath> {
    * be either the root node, or the `$this` node in the context of functions that support it.
    *
    * @param context The {@link ParserContext} to use when parsing the invocation
+   * @param tokens The {@link ExpressionTokens} of the expression being parsed
    */
-  InvocationVisitor(@Nonnull final ParserContext context) {
+  InvocationVisitor(@Nonnull final ParserContext context,
+      @Nonnull final ExpressionTokens tokens) {
     this.context = context;
+    this.tokens = tokens;
     this.invoker = null;
   }
 
@@ -64,10 +70,13 @@ class InvocationVisitor extends FhirPathBaseVisitor<FhirPath> {
    * notation.
    *
    * @param context The {@link ParserContext} to use when parsing the invocation
+   * @param tokens The {@link ExpressionTokens} of the expression being parsed
    * @param invoker A {@link FhirPath} representing the invoking expression
    */
-  InvocationVisitor(@Nonnull final ParserContext context, @Nonnull final FhirPath invoker) {
+  InvocationVisitor(@Nonnull final ParserContext context, @Nonnull final ExpressionTokens tokens,
+      @Nonnull final FhirPath invoker) {
     this.context = context;
+    this.tokens = tokens;
     this.invoker = invoker;
   }
 
@@ -81,9 +90,20 @@ class InvocationVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitMemberInvocation(@Nullable final MemberInvocationContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
 
+    // Traversals are remembered along with function invocations, so that functions invoked upon
+    // identical traversals can also be reused.
+    final FhirPath input = invoker == null
+                           ? context.getThisContext().orElse(context.getInputContext())
+                           : invoker;
+    return context.getSubexpressionCache().get(context, input, fhirPath,
+        () -> invokeMember(fhirPath));
+  }
+
+  @Nonnull
+  private FhirPath invokeMember(@Nonnull final String fhirPath) {
     if (invoker != null) {
       // If there is an invoker, we treat this as a path traversal from the invoker.
       final PathTraversalInput pathTraversalInput = new PathTraversalInput(context, invoker,
@@ -148,16 +168,26 @@ class InvocationVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitFunctionInvocation(@Nullable final FunctionInvocationContext ctx) {
-    @Nullable final String functionIdentifier = checkNotNull(ctx).function().identifier().getText();
-    checkNotNull(functionIdentifier);
-    final NamedFunction function = NamedFunction.getInstance(functionIdentifier);
-
     // If there is no invoker, we use either the input context or the this context, depending on
     // whether we are in the context of function arguments.
     final FhirPath input = invoker == null
                            ? context.getThisContext().orElse(context.getInputContext())
                            : invoker;
 
+    // The text of the invocation excludes whitespace, so that invocations that differ only in their
+    // formatting are treated as identical.
+    final String invocation = tokens.getText(checkNotNull(ctx));
+    return context.getSubexpressionCache().get(context, input, invocation,
+        () -> invokeFunction(ctx, input));
+  }
+
+  @Nonnull
+  private FhirPath invokeFunction(@Nonnull final FunctionInvocationContext ctx,
+      @Nonnull final FhirPath input) {
+    @Nullable final String functionIdentifier = tokens.getText(ctx.function().identifier());
+    checkNotNull(functionIdentifier);
+    final NamedFunction function = NamedFunction.getInstance(functionIdentifier);
+
     // A literal cannot be used as a function input.
     checkUserInput(input instanceof NonLiteralPath,
         "Literal expression cannot be used as input to a function invocation: " + input
@@ -187,13 +217,15 @@ class InvocationVisitor extends FhirPathBaseVisitor<FhirPath> {
       // expression.
       final ParserContext argumentContext = new ParserContext(context.getInputContext(),
           context.getFhirContext(), context.getSparkSession(), context.getDatabase(),
-          context.getTerminologyServiceFactory(), argumentGroupings, context.getNodeIdColumns());
+          context.getTerminologyServiceFactory(), argumentGroupings, context.getNodeIdColumns(),
+          context.getSubexpressionCache());
       argumentContext.setThisContext(thisPath);
+      context.getApproximation().ifPresent(argumentContext::setApproximation);
 
       // Parse each of the expressions passed as arguments to the function.
       arguments.addAll(
           paramList.expression().stream()
-              .map(expression -> new Visitor(argumentContext).visit(expression))
+              .map(expression -> new Visitor(argumentContext, tokens).visit(expression))
               .collect(Collectors.toList())
       );
     }
@@ -43,14 +43,19 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Nonnull
   private final ParserContext context;
 
-  LiteralTermVisitor(@Nonnull final ParserContext context) {
+  @Nonnull
+  private final ExpressionTokens tokens;
+
+  LiteralTermVisitor(@Nonnull final ParserContext context,
+      @Nonnull final ExpressionTokens tokens) {
     this.context = context;
+    this.tokens = tokens;
   }
 
   @Override
   @Nonnull
   public FhirPath visitCodingLiteral(@Nullable final CodingLiteralContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
     try {
       return CodingLiteralPath.fromString(fhirPath,
@@ -63,7 +68,7 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitStringLiteral(@Nullable final StringLiteralContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
     return StringLiteralPath.fromString(fhirPath,
         context.getThisContext().orElse(context.getInputContext()));
@@ -71,7 +76,7 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
 
   @Override
   public FhirPath visitDateLiteral(@Nullable final DateLiteralContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
     try {
       return DateLiteralPath.fromString(fhirPath,
@@ -84,7 +89,7 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitDateTimeLiteral(@Nullable final DateTimeLiteralContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
     try {
       return DateTimeLiteralPath.fromString(fhirPath,
@@ -97,7 +102,7 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitTimeLiteral(@Nullable final TimeLiteralContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
     return TimeLiteralPath.fromString(fhirPath,
         context.getThisContext().orElse(context.getInputContext()));
@@ -106,7 +111,7 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitNumberLiteral(@Nullable final NumberLiteralContext ctx) {
-    @Nullable final String fhirPath = checkNotNull(ctx).getText();
+    @Nullable final String fhirPath = tokens.getText(checkNotNull(ctx));
     checkNotNull(fhirPath);
     // The FHIRPath grammar lumps these two types together, so we tease them apart by trying to 
     // parse them. A better way of doing this would be to modify the grammar.
@@ -127,7 +132,7 @@ class LiteralTermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Nonnull
   public FhirPath visitBooleanLiteral(@Nullable final BooleanLiteralContext ctx) {
     checkNotNull(ctx);
-    @Nullable final String fhirPath = ctx.getText();
+    @Nullable final String fhirPath = tokens.getText(ctx);
     checkNotNull(fhirPath);
     return BooleanLiteralPath.fromString(fhirPath,
         context.getThisContext().orElse(context.getInputContext()));
@@ -9,21 +9,67 @@ package au.csiro.pathling.fhirpath.parser;
 import au.csiro.pathling.fhirpath.FhirPath;
 import au.csiro.pathling.fhirpath.parser.generated.FhirPathLexer;
 import au.csiro.pathling.fhirpath.parser.generated.FhirPathParser;
+import au.csiro.pathling.fhirpath.parser.generated.FhirPathParser.ExpressionContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
 
 /**
  * This is an ANTLR-based parser for processing a FHIRPath expression, and aggregating the results
  * into a FhirPath object. It delegates processing to a number of visitor classes, which contain the
  * logic for parsing specific parts of the grammar.
+ * <p>
+ * Parse trees are cached, keyed by the tokens of the expression with the values of any literals
+ * left out. An expression that differs from a previously parsed expression only in the values of
+ * its literals reuses the same parse tree, and the values are read from its own tokens when the
+ * tree is visited.
  *
  * @author John Grimes
  */
 @Getter
+@Slf4j
 public class Parser {
 
+  /**
+   * The maximum number of parse trees that are kept in the cache.
+   */
+  private static final int MAX_CACHED_TREES = 1000;
+
+  /**
+   * The types of the tokens that carry the values of literals. These do not affect the structure of
+   * the parse tree.
+   */
+  private static final Set<Integer> LITERAL_TOKEN_TYPES = Set.of(FhirPathLexer.STRING,
+      FhirPathLexer.NUMBER, FhirPathLexer.DATE, FhirPathLexer.DATETIME, FhirPathLexer.TIME,
+      FhirPathLexer.CODING);
+
+  /**
+   * A placeholder for the value of a literal within a cache key, which cannot appear within a
+   * token.
+   */
+  private static final String LITERAL_PLACEHOLDER = "\u0000";
+
+  @Nonnull
+  private static final Map<String, ExpressionContext> PARSE_TREES = Collections.synchronizedMap(
+      new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(final Map.Entry<String, ExpressionContext> eldest) {
+          return size() > MAX_CACHED_TREES;
+        }
+      });
+
   @Nonnull
   private final ParserContext context;
 
@@ -42,20 +88,58 @@ public class Parser {
    */
   @Nonnull
   public FhirPath parse(@Nonnull final String expression) {
-    final FhirPathLexer lexer = new FhirPathLexer(CharStreams.fromString(expression));
-    final CommonTokenStream tokens = new CommonTokenStream(lexer);
-    final FhirPathParser parser = new FhirPathParser(tokens);
+    final List<Token> tokens = tokenize(expression);
+    final String key = tokens.stream()
+        .map(token -> LITERAL_TOKEN_TYPES.contains(token.getType())
+                      ? LITERAL_PLACEHOLDER + token.getType()
+                      : token.getText())
+        .collect(Collectors.joining(" "));
+
+    @Nullable ExpressionContext tree = PARSE_TREES.get(key);
+    if (tree == null) {
+      tree = buildTree(tokens);
+      PARSE_TREES.put(key, tree);
+    } else {
+      log.debug("Reusing parse tree for expression: {}", expression);
+    }
+
+    final Visitor visitor = new Visitor(context, new ExpressionTokens(tokens));
+    return visitor.visit(tree);
+  }
 
+  /**
+   * @return the tokens of the expression, excluding whitespace and comments, and ending with the
+   * end of file token
+   */
+  @Nonnull
+  private static List<Token> tokenize(@Nonnull final String expression) {
+    final FhirPathLexer lexer = new FhirPathLexer(CharStreams.fromString(expression));
     lexer.removeErrorListeners();
     lexer.addErrorListener(new ParserErrorListener());
+    final List<Token> tokens = new ArrayList<>();
+    Token token;
+    do {
+      token = lexer.nextToken();
+      if (token.getChannel() == Token.DEFAULT_CHANNEL) {
+        tokens.add(token);
+      }
+    } while (token.getType() != Token.EOF);
+    return tokens;
+  }
+
+  @Nonnull
+  private static ExpressionContext buildTree(@Nonnull final List<Token> tokens) {
+    // The index of each token within the stream is its position within the list, which is used to
+    // look up the text of the nodes within the tree.
+    final CommonTokenStream tokenStream = new CommonTokenStream(new ListTokenSource(tokens));
+    final FhirPathParser parser = new FhirPathParser(tokenStream);
 
     // Remove the default console error reporter, and add a listener that wraps each parse error in
     // an invalid request exception.
     parser.removeErrorListeners();
     parser.addErrorListener(new ParserErrorListener());
 
-    final Visitor visitor = new Visitor(context);
-    return visitor.visit(parser.expression());
+    return parser.expression();
   }
 
 }
@@ -8,9 +8,11 @@ package au.csiro.pathling.fhirpath.parser;
 
 import au.csiro.pathling.fhir.TerminologyServiceFactory;
 import au.csiro.pathling.fhirpath.FhirPath;
+import au.csiro.pathling.fhirpath.NestedArray;
 import au.csiro.pathling.io.Database;
 import au.csiro.pathling.terminology.TerminologyService;
 import ca.uhn.fhir.context.FhirContext;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Optional;
@@ -90,6 +92,27 @@ public class ParserContext {
   @Nonnull
   private final Map<String, Column> nodeIdColumns;
 
+  /**
+   * Remembers the results of function invocations, so that they can be reused by identical
+   * subexpressions. This is shared between all the contexts used within a query.
+   */
+  @Nonnull
+  private final SubexpressionCache subexpressionCache;
+
+  /**
+   * Records the arrays that collections were exploded from during path traversal, so that
+   * aggregations over these collections can be evaluated upon the array without exploding it.
+   */
+  @Nonnull
+  private final Map<FhirPath, NestedArray> nestedArrays = new IdentityHashMap<>();
+
+  /**
+   * When present, aggregations may be evaluated as estimates rather than exact values where this is
+   * cheaper.
+   */
+  @Nonnull
+  private Optional<Approximation> approximation = Optional.empty();
+
   /**
    * @param inputContext the input context from which the FHIRPath is to be evaluated
    * @param fhirContext a {@link FhirContext} that can be used to do FHIR stuff
@@ -107,6 +130,30 @@ public class ParserContext {
       @Nonnull final Optional<TerminologyServiceFactory> terminologyServiceFactory,
       @Nonnull final List<Column> groupingColumns,
       @Nonnull final Map<String, Column> nodeIdColumns) {
+    this(inputContext, fhirContext, sparkSession, database, terminologyServiceFactory,
+        groupingColumns, nodeIdColumns, new SubexpressionCache());
+  }
+
+  /**
+   * @param inputContext the input context from which the FHIRPath is to be evaluated
+   * @param fhirContext a {@link FhirContext} that can be used to do FHIR stuff
+   * @param sparkSession a {@link SparkSession} that can be used to resolve Spark queries required
+   * for this expression
+   * @param database for retrieving data relating to resource references
+   * @param terminologyServiceFactory a factory for {@link TerminologyService} objects, used for
+   * parallel processing
+   * @param groupingColumns the list of columns to group on when aggregating
+   * @param nodeIdColumns columns relating to the identity of resources and elements for different
+   * paths parsed within this context
+   * @param subexpressionCache a {@link SubexpressionCache} shared with the other contexts used
+   * within the same query
+   */
+  public ParserContext(@Nonnull final FhirPath inputContext, @Nonnull final FhirContext fhirContext,
+      @Nonnull final SparkSession sparkSession, @Nonnull final Database database,
+      @Nonnull final Optional<TerminologyServiceFactory> terminologyServiceFactory,
+      @Nonnull final List<Column> groupingColumns,
+      @Nonnull final Map<String, Column> nodeIdColumns,
+      @Nonnull final SubexpressionCache subexpressionCache) {
     this.inputContext = inputContext;
     this.fhirContext = fhirContext;
     this.sparkSession = sparkSession;
@@ -114,10 +161,15 @@ public class ParserContext {
     this.terminologyServiceFactory = terminologyServiceFactory;
     this.groupingColumns = groupingColumns;
     this.nodeIdColumns = nodeIdColumns;
+    this.subexpressionCache = subexpressionCache;
   }
 
   public void setThisContext(@Nonnull final FhirPath thisContext) {
     this.thisContext = Optional.of(thisContext);
   }
 
+  public void setApproximation(@Nonnull final Approximation approximation) {
+    this.approximation = Optional.of(approximation);
+  }
+
 }
@@ -0,0 +1,165 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhirpath.parser;
+
+import au.csiro.pathling.fhirpath.FhirPath;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.sql.Column;
+
+/**
+ * Remembers the results of function invocations within the expressions of a single query, so that
+ * a subexpression that appears more than once (e.g. {@code reverseResolve(Condition.subject)}
+ * within several groupings) is only built once. Each use of the subexpression then shares the same
+ * dataset, which allows Spark to compute the joins that it requires once and reuse the result.
+ * <p>
+ * A result is only reused when it was built from the same invoker, within the same input context,
+ * {@code $this} context and grouping columns. Building a result can also record the identity
+ * columns of the nodes that it traversed, and these are recorded again each time the result is
+ * reused.
+ */
+@Slf4j
+public class SubexpressionCache {
+
+  @Nonnull
+  private final Map<Key, Entry> entries = new HashMap<>();
+
+  /**
+   * Returns the result of a previous identical invocation, or evaluates and remembers it.
+   *
+   * @param context the {@link ParserContext} that the invocation is evaluated within
+   * @param invoker the input to the invocation
+   * @param invocation the text of the invocation, as it appears within the expression
+   * @param evaluator a function that evaluates the invocation
+   * @return the result of the invocation
+   */
+  @Nonnull
+  FhirPath get(@Nonnull final ParserContext context, @Nonnull final FhirPath invoker,
+      @Nonnull final String invocation, @Nonnull final Supplier<FhirPath> evaluator) {
+    final Key key = new Key(invoker, invocation, context.getInputContext(),
+        context.getThisContext().orElse(null), context.getGroupingColumns());
+    final Map<String, Column> nodeIdColumns = context.getNodeIdColumns();
+
+    @Nullable final Entry existing = entries.get(key);
+    if (existing != null) {
+      log.debug("Reusing result of subexpression: {}", invocation);
+      existing.replay(nodeIdColumns);
+      return existing.getResult();
+    }
+
+    final Map<String, Column> before = new HashMap<>(nodeIdColumns);
+    final FhirPath result = evaluator.get();
+    // Record how the node identity columns were changed by the evaluation, so that the change can
+    // be made again when the result is reused.
+    final boolean cleared = !nodeIdColumns.keySet().containsAll(before.keySet());
+    final Map<String, Column> added = new HashMap<>(nodeIdColumns);
+    if (!cleared) {
+      added.keySet().removeAll(before.keySet());
+    }
+    entries.put(key, new Entry(result, cleared, added));
+    return result;
+  }
+
+  /**
+   * @return the number of results that have been remembered
+   */
+  public int size() {
+    return entries.size();
+  }
+
+  private static class Key {
+
+    @Nonnull
+    private final FhirPath invoker;
+
+    @Nonnull
+    private final String invocation;
+
+    @Nonnull
+    private final FhirPath inputContext;
+
+    @Nullable
+    private final FhirPath thisContext;
+
+    @Nonnull
+    private final List<Column> groupingColumns;
+
+    private Key(@Nonnull final FhirPath invoker, @Nonnull final String invocation,
+        @Nonnull final FhirPath inputContext, @Nullable final FhirPath thisContext,
+        @Nonnull final List<Column> groupingColumns) {
+      this.invoker = invoker;
+      this.invocation = invocation;
+      this.inputContext = inputContext;
+      this.thisContext = thisContext;
+      this.groupingColumns = List.copyOf(groupingColumns);
+    }
+
+    // Paths are compared by identity, as two paths with the same expression can be built upon
+    // different datasets.
+    @Override
+    public boolean equals(@Nullable final Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (o == null || getClass() != o.getClass()) {
+        return false;
+      }
+      final Key key = (Key) o;
+      return invoker == key.invoker
+          && invocation.equals(key.invocation)
+          && inputContext == key.inputContext
+          && thisContext == key.thisContext
+          && groupingColumns.equals(key.groupingColumns);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(System.identityHashCode(invoker), invocation,
+          System.identityHashCode(inputContext), System.identityHashCode(thisContext),
+          groupingColumns);
+    }
+
+  }
+
+  private static class Entry {
+
+    @Nonnull
+    private final FhirPath result;
+
+    private final boolean cleared;
+
+    @Nonnull
+    private final Map<String, Column> added;
+
+    private Entry(@Nonnull final FhirPath result, final boolean cleared,
+        @Nonnull final Map<String, Column> added) {
+      this.result = result;
+      this.cleared = cleared;
+      this.added = added;
+    }
+
+    @Nonnull
+    private FhirPath getResult() {
+      return result;
+    }
+
+    private void replay(@Nonnull final Map<String, Column> nodeIdColumns) {
+      if (cleared) {
+        nodeIdColumns.clear();
+      }
+      added.forEach(nodeIdColumns::putIfAbsent);
+    }
+
+  }
+
+}
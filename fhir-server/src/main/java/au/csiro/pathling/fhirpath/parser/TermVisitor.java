@@ -30,26 +30,30 @@ class TermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Nonnull
   private final ParserContext context;
 
-  TermVisitor(@Nonnull final ParserContext context) {
+  @Nonnull
+  private final ExpressionTokens tokens;
+
+  TermVisitor(@Nonnull final ParserContext context, @Nonnull final ExpressionTokens tokens) {
     this.context = context;
+    this.tokens = tokens;
   }
 
   @Override
   @Nonnull
   public FhirPath visitInvocationTerm(@Nullable final InvocationTermContext ctx) {
-    return new InvocationVisitor(context).visit(checkNotNull(ctx).invocation());
+    return new InvocationVisitor(context, tokens).visit(checkNotNull(ctx).invocation());
   }
 
   @Override
   @Nonnull
   public FhirPath visitLiteralTerm(@Nullable final LiteralTermContext ctx) {
-    return new LiteralTermVisitor(context).visit(checkNotNull(ctx).literal());
+    return new LiteralTermVisitor(context, tokens).visit(checkNotNull(ctx).literal());
   }
 
   @Override
   @Nonnull
   public FhirPath visitExternalConstantTerm(@Nullable final ExternalConstantTermContext ctx) {
-    @Nullable final String term = checkNotNull(ctx).getText();
+    @Nullable final String term = tokens.getText(checkNotNull(ctx));
     checkNotNull(term);
     checkUserInput(term.equals("%resource") || term.equals("%context"),
         "Unsupported environment variable: " + term);
@@ -69,7 +73,7 @@ class TermVisitor extends FhirPathBaseVisitor<FhirPath> {
   @Nonnull
   public FhirPath visitParenthesizedTerm(@Nullable final ParenthesizedTermContext ctx) {
     // Parentheses are ignored in the standalone term case.
-    final FhirPath result = new Visitor(context).visit(checkNotNull(ctx).expression());
+    final FhirPath result = new Visitor(context, tokens).visit(checkNotNull(ctx).expression());
     return result.withExpression("(" + result.getExpression() + ")");
   }
 
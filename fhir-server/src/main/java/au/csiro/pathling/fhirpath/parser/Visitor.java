@@ -43,8 +43,12 @@ class Visitor extends FhirPathBaseVisitor<FhirPath> {
   @Nonnull
   private final ParserContext context;
 
-  Visitor(@Nonnull final ParserContext context) {
+  @Nonnull
+  private final ExpressionTokens tokens;
+
+  Visitor(@Nonnull final ParserContext context, @Nonnull final ExpressionTokens tokens) {
     this.context = context;
+    this.tokens = tokens;
   }
 
   /**
@@ -56,7 +60,7 @@ class Visitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitTermExpression(@Nullable final TermExpressionContext ctx) {
-    return checkNotNull(ctx).term().accept(new TermVisitor(context));
+    return checkNotNull(ctx).term().accept(new TermVisitor(context, tokens));
   }
 
   /**
@@ -68,9 +72,10 @@ class Visitor extends FhirPathBaseVisitor<FhirPath> {
   @Override
   @Nonnull
   public FhirPath visitInvocationExpression(@Nullable final InvocationExpressionContext ctx) {
-    final FhirPath expressionResult = new Visitor(context).visit(checkNotNull(ctx).expression());
+    final FhirPath expressionResult = new Visitor(context, tokens)
+        .visit(checkNotNull(ctx).expression());
     // The input context is passed through to the invocation visitor as the invoker.
-    return ctx.invocation().accept(new InvocationVisitor(context, expressionResult));
+    return ctx.invocation().accept(new InvocationVisitor(context, tokens, expressionResult));
   }
 
   @Nonnull
@@ -79,8 +84,8 @@ class Visitor extends FhirPathBaseVisitor<FhirPath> {
     checkNotNull(operatorName);
 
     // Parse the left and right expressions.
-    final FhirPath left = new Visitor(context).visit(leftContext);
-    final FhirPath right = new Visitor(context).visit(rightContext);
+    final FhirPath left = new Visitor(context, tokens).visit(leftContext);
+    final FhirPath right = new Visitor(context, tokens).visit(rightContext);
 
     // Retrieve an Operator instance based upon the operator string.
     final Operator operator = Operator.getInstance(operatorName);
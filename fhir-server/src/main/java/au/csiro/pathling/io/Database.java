@@ -8,11 +8,19 @@ package au.csiro.pathling.io;
 
 import static au.csiro.pathling.QueryHelpers.createEmptyDataset;
 import static au.csiro.pathling.io.PersistenceScheme.convertS3ToS3aUrl;
+import static au.csiro.pathling.io.PersistenceScheme.getEdgeTableUrl;
 import static au.csiro.pathling.io.PersistenceScheme.getTableUrl;
+import static au.csiro.pathling.io.PersistenceScheme.getViewTableUrl;
+import static au.csiro.pathling.io.TableMaintenance.COMPACTION_OPERATION;
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
+import static au.csiro.pathling.utilities.Preconditions.checkPresent;
 import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
 import static org.apache.spark.sql.functions.asc;
+import static org.apache.spark.sql.functions.col;
 import static org.apache.spark.sql.functions.desc;
+import static org.apache.spark.sql.functions.explode;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.regexp_extract;
 
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.caching.Cacheable;
@@ -26,7 +34,11 @@ import java.net.URISyntaxException;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -35,14 +47,23 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
+import org.apache.spark.api.java.JavaRDD;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Encoder;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SaveMode;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.types.ArrayType;
+import org.apache.spark.sql.types.DataType;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.apache.spark.storage.StorageLevel;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.task.TaskRejectedException;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Component;
 
@@ -56,10 +77,45 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class Database implements Cacheable {
 
+  /**
+   * Matches a relative reference, capturing the type and ID of the target resource.
+   */
+  private static final String RELATIVE_REFERENCE = "^([A-Za-z]+)/([^/]+)$";
+
+  /**
+   * Matches a relative reference to a patient, capturing the ID of the patient.
+   */
+  private static final String PATIENT_REFERENCE = "^Patient/([^/]+)$";
+
+  /**
+   * The name of the column that is added to resource datasets that are partitioned by patient,
+   * containing the ID of the patient that each resource belongs to.
+   */
+  public static final String PATIENT_KEY_COLUMN = "_patient";
+
+  /**
+   * The names of the elements that are checked, in order, for a reference to the patient that a
+   * resource belongs to.
+   */
+  private static final List<String> PATIENT_KEY_ELEMENTS = List.of("patient", "subject");
+
+  private static final StructType ID_SCHEMA = new StructType()
+      .add("id", DataTypes.StringType, false);
+
   @Nonnull
   @Getter
   private Optional<String> cacheKey;
 
+  /**
+   * The latest data version of each table whose latest commit is a compaction, keyed by the URL of
+   * the table. Each value holds the version of the compaction commit followed by the data version.
+   */
+  @Nonnull
+  private final Map<String, long[]> dataVersions = new ConcurrentHashMap<>();
+
+  @Nonnull
+  private final List<Consumer<DatabaseUpdate>> updateListeners = new CopyOnWriteArrayList<>();
+
   @Nonnull
   private final String warehouseUrl;
 
@@ -78,21 +134,27 @@ public class Database implements Cacheable {
   @Nonnull
   protected final ThreadPoolTaskExecutor executor;
 
+  @Nonnull
+  protected final TableMaintenance tableMaintenance;
+
   /**
    * @param configuration a {@link Configuration} object which controls the behaviour of the reader
    * @param spark a {@link SparkSession} for interacting with Spark
    * @param fhirEncoders {@link FhirEncoders} object for creating empty datasets
    * @param executor a {@link ThreadPoolTaskExecutor} for executing asynchronous tasks
+   * @param tableMaintenance a {@link TableMaintenance} for compacting tables after they are updated
    */
   public Database(@Nonnull final Configuration configuration,
       @Nonnull final SparkSession spark, @Nonnull final FhirEncoders fhirEncoders,
-      @Nonnull final ThreadPoolTaskExecutor executor) {
+      @Nonnull final ThreadPoolTaskExecutor executor,
+      @Nonnull final TableMaintenance tableMaintenance) {
     this.configuration = configuration;
     this.spark = spark;
     this.warehouseUrl = convertS3ToS3aUrl(configuration.getStorage().getWarehouseUrl());
     this.databaseName = configuration.getStorage().getDatabaseName();
     this.fhirEncoders = fhirEncoders;
     this.executor = executor;
+    this.tableMaintenance = tableMaintenance;
     cacheKey = buildCacheKeyFromDatabase();
   }
 
@@ -105,10 +167,164 @@ public class Database implements Cacheable {
   @ResourceAccess(AccessType.READ)
   @Nonnull
   public Dataset<Row> read(@Nonnull final ResourceType resourceType) {
-    return attemptDeltaLoad(resourceType)
+    final Dataset<Row> resources = attemptDeltaLoad(resourceType)
         .map(DeltaTable::toDF)
         // If there is no existing table, we return an empty table with the right shape.
         .orElseGet(() -> createEmptyDataset(spark, fhirEncoders, resourceType));
+    return partitionByPatient(resourceType, resources);
+  }
+
+  /**
+   * Returns a key that identifies the subset of the resources that is visible to the current
+   * request, for use in keys that share results between requests. Requests with different keys
+   * cannot see the same resources, so they must not share results.
+   *
+   * @return a key that identifies the visible subset of the resources, or an empty value if all
+   * resources are visible
+   */
+  @Nonnull
+  public Optional<String> getScopeKey() {
+    return Optional.empty();
+  }
+
+  /**
+   * Registers a listener that is called after the resources of a type are changed. Listeners are
+   * called on the thread that updates the cache key, after the cache key has been updated, rather
+   * than within the request that made the change.
+   *
+   * @param listener a consumer of {@link DatabaseUpdate} objects
+   */
+  public void addUpdateListener(@Nonnull final Consumer<DatabaseUpdate> listener) {
+    updateListeners.add(listener);
+  }
+
+  /**
+   * Loads the table for a particular resource type, if it exists, and populates the cache if
+   * dataset caching is enabled. No data is returned, so this does not require authorization.
+   *
+   * @param resourceType the {@link ResourceType} to load
+   * @return true if the table exists
+   */
+  public boolean preload(@Nonnull final ResourceType resourceType) {
+    final Optional<DeltaTable> table = attemptDeltaLoad(resourceType);
+    if (table.isPresent() && configuration.getSpark().getCacheDatasets()) {
+      // Caching is lazy, so we need to run an action to populate it.
+      partitionByPatient(resourceType, table.get().toDF()).count();
+    }
+    return table.isPresent();
+  }
+
+  /**
+   * Reads the edge table for a reference element within a resource, if edge tables are enabled and
+   * the edge table is up-to-date with the table for the resource.
+   *
+   * @param resourceType the type of the resource that contains the reference element
+   * @param element the name of the reference element
+   * @return a {@link Dataset} containing the columns {@code id}, {@code targetType} and
+   * {@code targetId}, if an up-to-date edge table exists
+   */
+  @ResourceAccess(AccessType.READ)
+  @Nonnull
+  public Optional<Dataset<Row>> readEdges(@Nonnull final ResourceType resourceType,
+      @Nonnull final String element) {
+    if (!configuration.getStorage().isEdgeTables()) {
+      return Optional.empty();
+    }
+    final String tableUrl = getTableUrl(warehouseUrl, databaseName, resourceType);
+    final String edgeTableUrl = getEdgeTableUrl(warehouseUrl, databaseName, resourceType,
+        element);
+    if (!DeltaTable.isDeltaTable(spark, tableUrl)) {
+      return Optional.empty();
+    }
+
+    // Each edge table records the version of the resource table that it was built from. If the
+    // data within the resource table has been updated since, the edge table does not reflect its
+    // current contents. Compaction does not change the data, so it is not taken into account.
+    final Optional<Long> tableVersion = latestDataVersion(tableUrl);
+    if (tableVersion.isEmpty() || !tableVersion.equals(readEdgesVersion(edgeTableUrl))) {
+      log.debug("Edge table is not up-to-date: {}", edgeTableUrl);
+      return Optional.empty();
+    }
+
+    log.info("Loading edges {}.{} from: {}", resourceType.toCode(), element, edgeTableUrl);
+    final Dataset<Row> edges = DeltaTable.forPath(spark, edgeTableUrl).toDF();
+    if (configuration.getSpark().getCacheDatasets()) {
+      edges.cache();
+    }
+    return Optional.of(edges);
+  }
+
+  /**
+   * Reads the materialised result of an aggregate view, if it was computed from the specified
+   * version of the data.
+   *
+   * @param name the name of the view
+   * @param version the version of the data, as returned by {@link #getCacheKey()}
+   * @return a {@link Dataset} containing the result of the view, if an up-to-date result exists
+   */
+  @Nonnull
+  public Optional<Dataset<Row>> readView(@Nonnull final String name,
+      @Nonnull final String version) {
+    final String tableUrl = getViewTableUrl(warehouseUrl, databaseName, name);
+    if (!DeltaTable.isDeltaTable(spark, tableUrl)) {
+      return Optional.empty();
+    }
+
+    // Each view table records the version of the data that it was computed from. If the data has
+    // been updated since, the view does not reflect its current contents.
+    final Row history = latestHistory(tableUrl);
+    if (!version.equals(history.getString(1))) {
+      log.debug("View table is not up-to-date: {}", tableUrl);
+      return Optional.empty();
+    }
+
+    log.info("Loading view {} from: {}", name, tableUrl);
+    return Optional.of(spark.read()
+        .format("delta")
+        .option("versionAsOf", history.getLong(0))
+        .load(tableUrl));
+  }
+
+  /**
+   * Materialises the result of an aggregate view, replacing any previous result.
+   *
+   * @param name the name of the view
+   * @param result the result of the view
+   * @param version the version of the data that the result was computed from, as returned by
+   * {@link #getCacheKey()}
+   */
+  public void writeView(@Nonnull final String name, @Nonnull final Dataset<Row> result,
+      @Nonnull final String version) {
+    final String tableUrl = getViewTableUrl(warehouseUrl, databaseName, name);
+    log.debug("Writing view: {}", tableUrl);
+    result.write()
+        .format("delta")
+        .mode(SaveMode.Overwrite)
+        .option("overwriteSchema", "true")
+        .option("userMetadata", version)
+        .save(tableUrl);
+  }
+
+  /**
+   * Gets the element that identifies the patient that each resource of a particular type belongs
+   * to, if tables are partitioned by patient. Datasets returned by {@link #read} for this type will
+   * contain a {@link #PATIENT_KEY_COLUMN} column, holding the ID of the patient referred to by this
+   * element.
+   *
+   * @param resourceType the type of the resource
+   * @return the name of a singular reference element at the root of the resource
+   */
+  @Nonnull
+  public Optional<String> getPatientKeyElement(@Nonnull final ResourceType resourceType) {
+    if (!isPartitionedOnRead() || resourceType == ResourceType.PATIENT) {
+      return Optional.empty();
+    }
+    final StructType schema = fhirEncoders.of(resourceType.toCode()).schema();
+    final List<String> fieldNames = Arrays.asList(schema.fieldNames());
+    return PATIENT_KEY_ELEMENTS.stream()
+        .filter(fieldNames::contains)
+        .filter(element -> isReference(schema.apply(element).dataType()))
+        .findFirst();
   }
 
   /**
@@ -160,6 +376,8 @@ public class Database implements Cacheable {
   public void merge(@Nonnull final ResourceType resourceType,
       @Nonnull final Dataset<Row> updates) {
     final DeltaTable original = readDelta(resourceType);
+    final String tableUrl = getTableUrl(warehouseUrl, databaseName, resourceType);
+    final Optional<Long> previousVersion = latestDataVersion(tableUrl);
 
     log.debug("Writing updates: {}", resourceType.toCode());
     original
@@ -171,9 +389,14 @@ public class Database implements Cacheable {
         .insertAll()
         .execute();
 
-    final String tableUrl = getTableUrl(warehouseUrl, databaseName, resourceType);
-    invalidateCache(tableUrl);
-    compact(resourceType, original);
+    // The IDs of the changed resources are persisted as an RDD, so that they are not released when
+    // the dataset cache is cleared. They are released once the listeners have been notified.
+    final JavaRDD<Row> changedIdRows = updates.select("id").distinct().javaRDD()
+        .persist(StorageLevel.MEMORY_AND_DISK());
+    final Dataset<Row> changedIds = spark.createDataFrame(changedIdRows, ID_SCHEMA);
+    writeEdges(resourceType, tableUrl, previousVersion, Optional.of(changedIds));
+    invalidateCache(resourceType, tableUrl, previousVersion, Optional.of(changedIdRows));
+    compact(tableUrl, original);
   }
 
   /**
@@ -240,7 +463,9 @@ public class Database implements Cacheable {
     @Nullable final DeltaTable resources = DeltaTable.forPath(spark, tableUrl);
     checkNotNull(resources);
 
-    if (configuration.getSpark().getCacheDatasets()) {
+    // If tables are partitioned by patient, the partitioned dataset is cached when it is read.
+    if (configuration.getSpark().getCacheDatasets()
+        && configuration.getStorage().getPatientPartitions() == 0) {
       // Cache the raw resource data.
       log.debug("Caching resource dataset: {}", resourceType.toCode());
       resources.toDF().cache();
@@ -253,10 +478,22 @@ public class Database implements Cacheable {
       @Nonnull final Dataset<Row> resources) {
     final String tableUrl = getTableUrl(warehouseUrl, databaseName, resourceType);
 
+    final int patientPartitions = configuration.getStorage().getPatientPartitions();
+    final Dataset<Row> ordered;
+    if (patientPartitions > 0) {
+      // We cluster the resources by patient, so that the files of each table contain the resources
+      // of a similar set of patients.
+      final Column patientKey = getPatientKey(resourceType, resources).orElse(resources.col("id"));
+      ordered = resources
+          .repartition(patientPartitions, patientKey)
+          .sortWithinPartitions(patientKey, resources.col("id"));
+    } else {
+      // We order the resources here to reduce the amount of sorting necessary at query time.
+      ordered = resources.orderBy(asc("id"));
+    }
+
     log.debug("Overwriting: {}", tableUrl);
-    resources
-        // We order the resources here to reduce the amount of sorting necessary at query time.
-        .orderBy(asc("id"))
+    ordered
         .write()
         .format("delta")
         .mode(SaveMode.Overwrite)
@@ -267,7 +504,257 @@ public class Database implements Cacheable {
         .option("overwriteSchema", "true")
         .save(tableUrl);
 
-    invalidateCache(tableUrl);
+    writeEdges(resourceType, tableUrl, Optional.empty(), Optional.empty());
+    invalidateCache(resourceType, tableUrl, Optional.empty(), Optional.empty());
+  }
+
+  /**
+   * Writes an edge table for each reference element at the root of a resource, if edge tables are
+   * enabled. Each row of an edge table contains the ID of a resource, along with the type and ID of
+   * a resource that it refers to using a relative reference. References within backbone elements
+   * do not get an edge table, and are always resolved by comparing the reference itself.
+   * <p>
+   * If the resources that were changed are supplied, only the edges of those resources are merged
+   * into each edge table that was up-to-date with the previous version of the resource table. Any
+   * other edge table is rewritten in full. Delta does not support bucketing, so rewritten edge
+   * tables are instead range partitioned and sorted by the ID of the target resource.
+   * <p>
+   * The version of the resource table that an edge table reflects is recorded within the metadata
+   * of its latest commit.
+   *
+   * @param resourceType the type of the resource
+   * @param tableUrl the URL of the table for the resource
+   * @param previousVersion the data version of the resource table before it was changed, if it
+   * existed
+   * @param changedIds the IDs of the resources that were created or updated, or an empty value if
+   * the table was overwritten
+   */
+  private void writeEdges(@Nonnull final ResourceType resourceType,
+      @Nonnull final String tableUrl, @Nonnull final Optional<Long> previousVersion,
+      @Nonnull final Optional<Dataset<Row>> changedIds) {
+    if (!configuration.getStorage().isEdgeTables()) {
+      return;
+    }
+    // Read the exact version of the table that was just written, which also ensures that we do not
+    // read a cached copy of an earlier version.
+    final long version = checkPresent(latestDataVersion(tableUrl),
+        "Table has no history: " + tableUrl);
+    final Dataset<Row> resources = readVersion(tableUrl, version);
+    for (final StructField field : resources.schema().fields()) {
+      final DataType elementType = field.dataType() instanceof ArrayType
+                                   ? ((ArrayType) field.dataType()).elementType()
+                                   : field.dataType();
+      if (!isReference(elementType)) {
+        continue;
+      }
+      final String edgeTableUrl = getEdgeTableUrl(warehouseUrl, databaseName, resourceType,
+          field.name());
+      final Optional<Long> edgesVersion = readEdgesVersion(edgeTableUrl);
+      if (changedIds.isPresent() && edgesVersion.isPresent()
+          && edgesVersion.equals(previousVersion)) {
+        final Dataset<Row> changed = resources.join(changedIds.get(), "id");
+        mergeEdges(edgeTableUrl, buildEdges(changed, field), changedIds.get(), version);
+      } else {
+        log.debug("Writing edges: {}", edgeTableUrl);
+        buildEdges(resources, field)
+            .repartitionByRange(col("targetId"))
+            .sortWithinPartitions("targetId")
+            .write()
+            .format("delta")
+            .mode(SaveMode.Overwrite)
+            .option("overwriteSchema", "true")
+            .option("userMetadata", String.valueOf(version))
+            .save(edgeTableUrl);
+      }
+    }
+  }
+
+  /**
+   * Replaces the edges of the changed resources within an edge table. Edges that are no longer
+   * present are deleted and new edges are inserted, while unchanged edges are left alone.
+   * <p>
+   * The merge API does not accept commit metadata, so the version of the resource table is
+   * recorded by an empty commit that follows the merge. Until then, the latest commit does not
+   * carry the version and the edge table is not used.
+   */
+  private void mergeEdges(@Nonnull final String edgeTableUrl, @Nonnull final Dataset<Row> edges,
+      @Nonnull final Dataset<Row> changedIds, final long version) {
+    log.debug("Merging edges: {}", edgeTableUrl);
+    final DeltaTable edgeTable = DeltaTable.forPath(spark, edgeTableUrl);
+    final Dataset<Row> removed = edgeTable.toDF()
+        .join(changedIds, "id")
+        .except(edges);
+    final Dataset<Row> changes = edges.withColumn("removed", lit(false))
+        .unionByName(removed.withColumn("removed", lit(true)));
+    edgeTable
+        .as("original")
+        .merge(changes.as("changes"), "original.id = changes.id "
+            + "AND original.targetType = changes.targetType "
+            + "AND original.targetId = changes.targetId")
+        .whenMatched("changes.removed")
+        .delete()
+        .whenNotMatched("NOT changes.removed")
+        .insertExpr(Map.of(
+            "id", "changes.id",
+            "targetType", "changes.targetType",
+            "targetId", "changes.targetId"))
+        .execute();
+
+    spark.createDataFrame(Collections.emptyList(), edges.schema())
+        .write()
+        .format("delta")
+        .mode(SaveMode.Append)
+        .option("userMetadata", String.valueOf(version))
+        .save(edgeTableUrl);
+  }
+
+  /**
+   * @return a dataset containing each distinct relative reference within the specified reference
+   * element of the resources
+   */
+  @Nonnull
+  private static Dataset<Row> buildEdges(@Nonnull final Dataset<Row> resources,
+      @Nonnull final StructField field) {
+    final Column references = field.dataType() instanceof ArrayType
+                              ? explode(resources.col(field.name()))
+                              : resources.col(field.name());
+    final Column reference = col("target").getField("reference");
+    return resources
+        .select(resources.col("id"), references.alias("target"))
+        .select(col("id"),
+            regexp_extract(reference, RELATIVE_REFERENCE, 1).alias("targetType"),
+            regexp_extract(reference, RELATIVE_REFERENCE, 2).alias("targetId"))
+        // Anything other than a relative reference (e.g. a logical or contained reference) is
+        // left out of the edge table.
+        .where(col("targetId").notEqual(""))
+        .distinct();
+  }
+
+  /**
+   * @param edgeTableUrl the URL of an edge table
+   * @return the version of the resource table that the edge table reflects, if it exists and its
+   * latest commit records one
+   */
+  @Nonnull
+  private Optional<Long> readEdgesVersion(@Nonnull final String edgeTableUrl) {
+    if (!DeltaTable.isDeltaTable(spark, edgeTableUrl)) {
+      return Optional.empty();
+    }
+    return Optional.ofNullable(latestHistory(edgeTableUrl).getString(1))
+        .filter(metadata -> metadata.matches("\\d+"))
+        .map(Long::parseLong);
+  }
+
+  /**
+   * Hash partitions a resource dataset by the patient that each resource belongs to, if tables are
+   * partitioned by patient and dataset caching is enabled. Each dataset is split into the same
+   * number of partitions, and a
+   * dataset of patients is partitioned by its ID. This allows Spark to join a resource to its
+   * patient without shuffling either dataset.
+   * <p>
+   * Spark only carries partitioning through a projection when it refers to a column directly, so
+   * the ID of the patient is added to the dataset as the {@link #PATIENT_KEY_COLUMN} column.
+   *
+   * @param resourceType the type of the resource
+   * @param resources the dataset containing the resources
+   * @return the partitioned and cached dataset, or the original dataset if it is not partitioned
+   */
+  @Nonnull
+  private Dataset<Row> partitionByPatient(@Nonnull final ResourceType resourceType,
+      @Nonnull final Dataset<Row> resources) {
+    if (!isPartitionedOnRead()) {
+      return resources;
+    }
+    final int patientPartitions = configuration.getStorage().getPatientPartitions();
+    final Dataset<Row> partitioned;
+    if (resourceType == ResourceType.PATIENT) {
+      partitioned = resources.repartition(patientPartitions, resources.col("id"));
+    } else {
+      final Optional<Column> patientKey = getPatientKey(resourceType, resources);
+      if (patientKey.isEmpty()) {
+        return resources;
+      }
+      final Dataset<Row> withKey = resources.withColumn(PATIENT_KEY_COLUMN, patientKey.get());
+      partitioned = withKey.repartition(patientPartitions, withKey.col(PATIENT_KEY_COLUMN));
+    }
+    log.debug("Caching partitioned resource dataset: {}", resourceType.toCode());
+    partitioned.cache();
+    return partitioned;
+  }
+
+  /**
+   * Resources are only partitioned by patient when they are read if dataset caching is enabled, so
+   * that the partitioned dataset can be reused. Otherwise every query would shuffle every table that
+   * it reads, including queries that never join resources by patient.
+   */
+  private boolean isPartitionedOnRead() {
+    return configuration.getStorage().getPatientPartitions() > 0
+        && configuration.getSpark().getCacheDatasets();
+  }
+
+  /**
+   * @return a column containing the ID of the patient referred to by the patient key element of
+   * the resource, or an empty string if it does not refer to a patient
+   */
+  @Nonnull
+  private Optional<Column> getPatientKey(@Nonnull final ResourceType resourceType,
+      @Nonnull final Dataset<Row> resources) {
+    return getPatientKeyElement(resourceType)
+        .map(element -> regexp_extract(resources.col(element).getField("reference"),
+            PATIENT_REFERENCE, 1));
+  }
+
+  /**
+   * @param tableUrl the URL of a Delta table
+   * @return the version, user metadata and operation of the latest commit to the table
+   */
+  @Nonnull
+  private Row latestHistory(@Nonnull final String tableUrl) {
+    return DeltaTable.forPath(spark, tableUrl).history(1)
+        .select("version", "userMetadata", "operation")
+        .first();
+  }
+
+  /**
+   * @param tableUrl the URL of a Delta table
+   * @return the version of the latest commit to the table that changed its data, ignoring the
+   * commits made by {@link TableMaintenance}
+   */
+  @Nonnull
+  private Optional<Long> latestDataVersion(@Nonnull final String tableUrl) {
+    final Row latest = latestHistory(tableUrl);
+    final long latestVersion = latest.getLong(0);
+    if (!COMPACTION_OPERATION.equals(latest.getString(2))) {
+      return Optional.of(latestVersion);
+    }
+    // The latest commit is a compaction, so the history needs to be searched for the commit before
+    // it. The result is kept until the table is next changed.
+    final Optional<Long> cached = Optional.ofNullable(dataVersions.get(tableUrl))
+        .filter(versions -> versions[0] == latestVersion)
+        .map(versions -> versions[1]);
+    if (cached.isPresent()) {
+      return cached;
+    }
+    final Optional<Long> dataVersion = DeltaTable.forPath(spark, tableUrl).history()
+        .where(col("operation").notEqual(COMPACTION_OPERATION))
+        .orderBy(desc("version"))
+        .select("version")
+        .limit(1)
+        .collectAsList()
+        .stream()
+        .findFirst()
+        .map(row -> row.getLong(0));
+    dataVersion.ifPresent(version -> dataVersions.put(tableUrl, new long[]{latestVersion, version}));
+    return dataVersion;
+  }
+
+  private static boolean isReference(@Nonnull final DataType dataType) {
+    if (!(dataType instanceof StructType)) {
+      return false;
+    }
+    // References are encoded with only their reference and display elements.
+    final List<String> fieldNames = Arrays.asList(((StructType) dataType).fieldNames());
+    return fieldNames.containsAll(List.of("reference", "display"));
   }
 
   @Nonnull
@@ -281,43 +768,83 @@ public class Database implements Cacheable {
   }
 
   /**
-   * Compacts the table if it has a number of partitions that exceed the configured threshold.
+   * Requests compaction of the table if it has a number of partitions that exceed the configured
+   * threshold.
    *
-   * @param resourceType the resource type of the table to compact
+   * @param tableUrl the URL of the table to compact
    * @param table the Delta table for which to check the number of partitions
-   * @see <a href="https://docs.delta.io/latest/best-practices.html#compact-files">Delta Lake
-   * Documentation - Compact files</a>
+   * @see TableMaintenance
    */
-  private void compact(final @Nonnull ResourceType resourceType, final DeltaTable table) {
+  private void compact(final @Nonnull String tableUrl, final DeltaTable table) {
     final int threshold = configuration.getSpark().getCompactionThreshold();
     final int numPartitions = table.toDF().rdd().getNumPartitions();
     if (numPartitions > threshold) {
-      final String tableUrl = getTableUrl(warehouseUrl, databaseName, resourceType);
-      log.debug("Scheduling table compaction (number of partitions: {}, threshold: {}): {}",
-          numPartitions,
-          threshold, tableUrl);
-      executor.submit(() -> {
-        log.debug("Commencing compaction: {}", tableUrl);
-        read(resourceType)
-            .repartition()
-            .write()
-            .option("dataChange", "false")
-            .format("delta")
-            .mode(SaveMode.Overwrite)
-            .save(tableUrl);
-        log.debug("Compaction complete: {}", tableUrl);
-      });
+      log.debug("Requesting table compaction (number of partitions: {}, threshold: {}): {}",
+          numPartitions, threshold, tableUrl);
+      tableMaintenance.requestCompaction(tableUrl);
     } else {
       log.debug("Compaction not needed (number of partitions: {}, threshold: {})", numPartitions,
           threshold);
     }
   }
 
-  private void invalidateCache(final String tableUrl) {
-    executor.execute(() -> {
+  private void invalidateCache(@Nonnull final ResourceType resourceType,
+      @Nonnull final String tableUrl, @Nonnull final Optional<Long> previousVersion,
+      @Nonnull final Optional<JavaRDD<Row>> changedIdRows) {
+    final Runnable invalidation = () -> {
+      final Optional<String> previousCacheKey = cacheKey;
       cacheKey = buildCacheKeyFromTable(tableUrl);
       spark.sqlContext().clearCache();
-    });
+      try {
+        notifyUpdateListeners(resourceType, tableUrl, previousCacheKey, previousVersion,
+            changedIdRows.map(rows -> spark.createDataFrame(rows, ID_SCHEMA)));
+      } finally {
+        changedIdRows.ifPresent(JavaRDD::unpersist);
+      }
+    };
+    try {
+      executor.execute(invalidation);
+    } catch (final TaskRejectedException e) {
+      // The data has already been written, so the cache must not be left stale when the executor
+      // is busy.
+      log.debug("Executor is busy, invalidating cache on the calling thread");
+      invalidation.run();
+    }
+  }
+
+  /**
+   * Tells each of the update listeners about a change to a table. If the change was a merge, the
+   * listeners are given the previous and current versions of the resources that it changed.
+   */
+  private void notifyUpdateListeners(@Nonnull final ResourceType resourceType,
+      @Nonnull final String tableUrl, @Nonnull final Optional<String> previousCacheKey,
+      @Nonnull final Optional<Long> previousVersion,
+      @Nonnull final Optional<Dataset<Row>> changedIds) {
+    if (updateListeners.isEmpty()) {
+      return;
+    }
+    final Optional<Long> version = latestDataVersion(tableUrl);
+    final Optional<Dataset<Row>> before = changedIds.flatMap(ids -> previousVersion
+        .map(v -> readVersion(tableUrl, v).join(ids, "id")));
+    final Optional<Dataset<Row>> after = changedIds.flatMap(ids -> version
+        .map(v -> readVersion(tableUrl, v).join(ids, "id")));
+    final DatabaseUpdate update = new DatabaseUpdate(resourceType, previousCacheKey, cacheKey,
+        before, after);
+    for (final Consumer<DatabaseUpdate> listener : updateListeners) {
+      try {
+        listener.accept(update);
+      } catch (final RuntimeException e) {
+        log.warn("Update listener failed: {}", tableUrl, e);
+      }
+    }
+  }
+
+  @Nonnull
+  private Dataset<Row> readVersion(@Nonnull final String tableUrl, final long version) {
+    return spark.read()
+        .format("delta")
+        .option("versionAsOf", version)
+        .load(tableUrl);
   }
 
   private Optional<String> buildCacheKeyFromDatabase() {
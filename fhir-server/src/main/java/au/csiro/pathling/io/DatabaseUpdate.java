@@ -0,0 +1,55 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.io;
+
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import lombok.Value;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+
+/**
+ * Describes a change to the resources of one type within the {@link Database}, for components that
+ * maintain data derived from them.
+ */
+@Value
+public class DatabaseUpdate {
+
+  /**
+   * The type of the resources that were changed.
+   */
+  @Nonnull
+  ResourceType resourceType;
+
+  /**
+   * The cache key of the database before the change.
+   */
+  @Nonnull
+  Optional<String> previousCacheKey;
+
+  /**
+   * The cache key of the database after the change.
+   */
+  @Nonnull
+  Optional<String> cacheKey;
+
+  /**
+   * The resources that were changed, as they were before the change. This is only present if the
+   * change was a merge, and does not contain the resources that it created.
+   */
+  @Nonnull
+  Optional<Dataset<Row>> before;
+
+  /**
+   * The resources that were changed, as they are after the change. This is only present if the
+   * change was a merge.
+   */
+  @Nonnull
+  Optional<Dataset<Row>> after;
+
+}
@@ -37,6 +37,33 @@ public abstract class PersistenceScheme {
     return resourceType.toCode() + ".parquet";
   }
 
+  /**
+   * @param warehouseUrl the URL of the warehouse location
+   * @param databaseName the name of the database within the warehouse
+   * @param resourceType the resource type that contains the reference element
+   * @param element the name of the reference element
+   * @return the URL of the edge table for the reference element within the warehouse
+   */
+  @Nonnull
+  public static String getEdgeTableUrl(@Nonnull final String warehouseUrl,
+      @Nonnull final String databaseName, @Nonnull final ResourceType resourceType,
+      @Nonnull final String element) {
+    return String.join("/", warehouseUrl, databaseName,
+        resourceType.toCode() + "." + element + ".edges.parquet");
+  }
+
+  /**
+   * @param warehouseUrl the URL of the warehouse location
+   * @param databaseName the name of the database within the warehouse
+   * @param name the name of the aggregate view
+   * @return the URL of the table containing the materialised result of the aggregate view
+   */
+  @Nonnull
+  public static String getViewTableUrl(@Nonnull final String warehouseUrl,
+      @Nonnull final String databaseName, @Nonnull final String name) {
+    return String.join("/", warehouseUrl, databaseName, name + ".view.parquet");
+  }
+
   /**
    * @param s3Url The S3 URL that should be converted
    * @return A S3A URL
@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.io;
+
+import java.util.Map;
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import lombok.Getter;
+
+/**
+ * The formats that results can be written in.
+ */
+public enum ResultFormat {
+  /**
+   * Comma-separated values, without a header row.
+   */
+  CSV("csv", "text/csv", "csv", "csv",
+      Map.of("none", "", "gzip", ".gz", "bzip2", ".bz2")),
+
+  /**
+   * Newline-delimited JSON, with one object per row.
+   */
+  NDJSON("ndjson", "application/x-ndjson", "json", "ndjson",
+      Map.of("none", "", "gzip", ".gz", "bzip2", ".bz2")),
+
+  /**
+   * Apache Parquet. Compression is applied within the file, so it does not affect the extension.
+   */
+  PARQUET("parquet", "application/vnd.apache.parquet", "parquet", "parquet",
+      Map.of("none", "", "snappy", "", "gzip", "", "zstd", ""));
+
+  /**
+   * The code used to request this format.
+   */
+  @Nonnull
+  @Getter
+  private final String code;
+
+  /**
+   * The MIME type used when serving results in this format.
+   */
+  @Nonnull
+  @Getter
+  private final String mimeType;
+
+  /**
+   * The name of the Spark data source used to write this format.
+   */
+  @Nonnull
+  @Getter
+  private final String sparkFormat;
+
+  @Nonnull
+  private final String extension;
+
+  /**
+   * A map of the supported compression codecs to the suffix that they add to the file extension.
+   */
+  @Nonnull
+  private final Map<String, String> compressionSuffixes;
+
+  ResultFormat(@Nonnull final String code, @Nonnull final String mimeType,
+      @Nonnull final String sparkFormat, @Nonnull final String extension,
+      @Nonnull final Map<String, String> compressionSuffixes) {
+    this.code = code;
+    this.mimeType = mimeType;
+    this.sparkFormat = sparkFormat;
+    this.extension = extension;
+    this.compressionSuffixes = compressionSuffixes;
+  }
+
+  /**
+   * @param compression the name of a compression codec
+   * @return true if the codec can be used with this format
+   */
+  public boolean supportsCompression(@Nonnull final String compression) {
+    return compressionSuffixes.containsKey(compression);
+  }
+
+  /**
+   * @param compression the name of the compression codec used to write the file
+   * @return the extension to use for files written in this format, e.g. {@code csv.gz}
+   */
+  @Nonnull
+  public String getFileExtension(@Nonnull final String compression) {
+    return extension + compressionSuffixes.getOrDefault(compression, "");
+  }
+
+  /**
+   * @param compression the name of the compression codec used to write the file
+   * @return the HTTP content coding that can be used to serve a file written with the codec, if
+   * there is one
+   */
+  @Nonnull
+  public Optional<String> getContentEncoding(@Nonnull final String compression) {
+    return ".gz".equals(compressionSuffixes.get(compression))
+           ? Optional.of("gzip")
+           : Optional.empty();
+  }
+
+  /**
+   * @param compression the name of the compression codec used to write the file
+   * @return the MIME type to use when serving a file written with the codec
+   */
+  @Nonnull
+  public String getMimeType(@Nonnull final String compression) {
+    return ".bz2".equals(compressionSuffixes.get(compression))
+           ? "application/x-bzip2"
+           : mimeType;
+  }
+
+  @Nullable
+  public static ResultFormat fromCode(@Nonnull final String code) {
+    for (final ResultFormat format : values()) {
+      if (format.code.equals(code)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+}
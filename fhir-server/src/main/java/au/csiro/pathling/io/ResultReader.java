@@ -9,15 +9,17 @@ package au.csiro.pathling.io;
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 
 import au.csiro.pathling.extract.Result;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.Optional;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.spark.sql.SparkSession;
@@ -46,34 +48,74 @@ public class ResultReader {
 
   /**
    * @param result the URL of a result file
-   * @return an {@link InputStream} containing the contents of the file
+   * @return a seekable {@link FSDataInputStream} containing the contents of the file
    */
-  public InputStream read(@Nonnull final Result result) {
+  @Nonnull
+  public FSDataInputStream read(@Nonnull final Result result) {
+    // Open up an input stream from the result.
+    final FSDataInputStream inputStream;
+    try {
+      inputStream = getFileSystem(result).open(getPath(result));
+      log.info("Opened stream from: {}", result);
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem reading result: " + result, e);
+    }
+    return inputStream;
+  }
+
+  /**
+   * @param result the URL of a result file
+   * @return a {@link FileStatus} describing the file, including its length and modification time
+   */
+  @Nonnull
+  public FileStatus getStatus(@Nonnull final Result result) {
+    try {
+      return getFileSystem(result).getFileStatus(getPath(result));
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem accessing result: " + result, e);
+    }
+  }
+
+  /**
+   * @param result the URL of a result file
+   * @return the {@link File} that the result is stored in, if it is stored on the local
+   * filesystem
+   */
+  @Nonnull
+  public Optional<File> getLocalFile(@Nonnull final Result result) {
+    final URI resultUri = getUri(result);
+    return "file".equals(resultUri.getScheme())
+           ? Optional.of(new File(resultUri))
+           : Optional.empty();
+  }
+
+  @Nonnull
+  private FileSystem getFileSystem(@Nonnull final Result result) {
     // Initialise a Hadoop FileSystem instance centred on the result URL.
     @Nullable final Configuration hadoopConfiguration = spark.sparkContext().hadoopConfiguration();
     checkNotNull(hadoopConfiguration);
     @Nullable final FileSystem resultLocation;
-    final URI resultUri;
     try {
-      resultUri = new URI(result.getUrl());
-      resultLocation = FileSystem.get(resultUri, hadoopConfiguration);
+      resultLocation = FileSystem.get(getUri(result), hadoopConfiguration);
     } catch (final IOException e) {
       throw new RuntimeException("Problem accessing result: " + result, e);
-    } catch (final URISyntaxException e) {
-      throw new RuntimeException("Problem parsing result URL: " + result, e);
     }
     checkNotNull(resultLocation);
+    return resultLocation;
+  }
 
-    // Open up an input stream from the result.
-    final Path path = new Path(resultUri);
-    final FSDataInputStream inputStream;
+  @Nonnull
+  private static Path getPath(@Nonnull final Result result) {
+    return new Path(getUri(result));
+  }
+
+  @Nonnull
+  private static URI getUri(@Nonnull final Result result) {
     try {
-      inputStream = resultLocation.open(path);
-      log.info("Opened stream from: {}", result);
-    } catch (final IOException e) {
-      throw new RuntimeException("Problem reading result: " + result, e);
+      return new URI(result.getUrl());
+    } catch (final URISyntaxException e) {
+      throw new RuntimeException("Problem parsing result URL: " + result, e);
     }
-    return inputStream;
   }
 
 }
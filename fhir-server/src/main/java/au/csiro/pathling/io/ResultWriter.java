@@ -7,13 +7,18 @@
 package au.csiro.pathling.io;
 
 import static au.csiro.pathling.io.PersistenceScheme.convertS3ToS3aUrl;
+import static au.csiro.pathling.utilities.Preconditions.check;
+import static au.csiro.pathling.utilities.Preconditions.checkArgument;
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 
 import au.csiro.pathling.config.Configuration;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import lombok.extern.slf4j.Slf4j;
@@ -36,6 +41,13 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class ResultWriter {
 
+  /**
+   * The value of the compression option that disables compression.
+   */
+  public static final String NO_COMPRESSION = "none";
+
+  private static final String PARTITION_FILE_PREFIX = "part-";
+
   @Nonnull
   private final Configuration configuration;
 
@@ -73,6 +85,33 @@ public class ResultWriter {
    */
   public String write(@Nonnull final Dataset<?> result, @Nonnull final String name,
       @Nonnull final SaveMode saveMode) {
+    final List<String> urls = write(result, name, ResultFormat.CSV, NO_COMPRESSION, false,
+        saveMode);
+    check(urls.size() == 1);
+    return urls.get(0);
+  }
+
+  /**
+   * Writes a result to the configured result storage area, in the requested format.
+   * <p>
+   * If the result is not partitioned, it is coalesced into a single file. Otherwise each partition
+   * of the result is written in parallel to its own file, and the URL of each of these files is
+   * returned.
+   *
+   * @param result the {@link Dataset} containing the result
+   * @param name a name to use as the filename
+   * @param format the {@link ResultFormat} to write the result in
+   * @param compression the compression codec to use, or {@code none}
+   * @param partitioned whether the result should be written as multiple files
+   * @param saveMode the {@link SaveMode} to use
+   * @return the URLs of the files that make up the result
+   */
+  @Nonnull
+  public List<String> write(@Nonnull final Dataset<?> result, @Nonnull final String name,
+      @Nonnull final ResultFormat format, @Nonnull final String compression,
+      final boolean partitioned, @Nonnull final SaveMode saveMode) {
+    checkArgument(format.supportsCompression(compression),
+        "Unsupported compression for format " + format.getCode() + ": " + compression);
     final String warehouseUrl = convertS3ToS3aUrl(configuration.getStorage().getWarehouseUrl());
 
     // Get a handle for the Hadoop FileSystem representing the result location, and check that it
@@ -94,33 +133,49 @@ public class ResultWriter {
     final String resultFileUrl = warehouseUrl + "/results/" + name;
     log.info("Writing result: " + resultFileUrl);
     try {
-      result.coalesce(1)
+      (partitioned
+       ? result
+       : result.coalesce(1))
           .write()
           .mode(saveMode)
-          .csv(resultFileUrl);
+          .format(format.getSparkFormat())
+          .option("compression", compression)
+          .save(resultFileUrl);
     } catch (final Exception e) {
       throw new RuntimeException("Problem writing to file: " + resultFileUrl, e);
     }
 
-    // Find the single file and copy it into the final location.
-    final String targetUrl = resultFileUrl + ".csv";
+    // Find the partition files and move them into their final locations.
+    final String extension = format.getFileExtension(compression);
+    final List<String> targetUrls = new ArrayList<>();
     try {
       final Path resultPath = new Path(resultFileUrl);
       final FileStatus[] partitionFiles = warehouseLocation.listStatus(resultPath);
-      final String targetFile = Arrays.stream(partitionFiles)
+      final List<String> sourceFiles = Arrays.stream(partitionFiles)
           .map(f -> f.getPath().toString())
-          .filter(f -> f.endsWith(".csv"))
-          .findFirst()
-          .orElseThrow(() -> new IOException("Partition file not found"));
-      log.info("Renaming result to: " + targetUrl);
-      warehouseLocation.rename(new Path(targetFile), new Path(targetUrl));
+          .filter(f -> f.substring(f.lastIndexOf('/') + 1).startsWith(PARTITION_FILE_PREFIX))
+          .sorted()
+          .collect(Collectors.toList());
+      if (sourceFiles.isEmpty()) {
+        throw new IOException("Partition file not found");
+      }
+      for (int i = 0; i < sourceFiles.size(); i++) {
+        // A result consisting of a single file keeps the simple name, so that its URL does not
+        // depend upon whether partitioning was requested.
+        final String targetUrl = sourceFiles.size() == 1
+                                 ? resultFileUrl + "." + extension
+                                 : resultFileUrl + "-" + i + "." + extension;
+        log.info("Renaming result to: " + targetUrl);
+        warehouseLocation.rename(new Path(sourceFiles.get(i)), new Path(targetUrl));
+        targetUrls.add(targetUrl);
+      }
       log.info("Cleaning up: " + resultFileUrl);
       warehouseLocation.delete(resultPath, true);
     } catch (final IOException e) {
       throw new RuntimeException("Problem copying partition file", e);
     }
 
-    return targetUrl;
+    return targetUrls;
   }
 
 }
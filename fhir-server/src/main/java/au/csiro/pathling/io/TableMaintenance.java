@@ -0,0 +1,331 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.io;
+
+import static au.csiro.pathling.io.PersistenceScheme.convertS3ToS3aUrl;
+import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.MaintenanceConfiguration;
+import io.delta.tables.DeltaTable;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.time.Duration;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.delta.DeltaLog;
+import org.apache.spark.sql.delta.DeltaOperations;
+import org.apache.spark.sql.delta.OptimisticTransaction;
+import org.apache.spark.sql.delta.actions.Action;
+import org.apache.spark.sql.delta.actions.AddFile;
+import org.apache.spark.sql.delta.actions.FileAction;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import scala.Option;
+import scala.collection.JavaConverters;
+
+/**
+ * Performs background maintenance of the tables within the warehouse.
+ * <p>
+ * Compaction rewrites the small files of a table into files of a target size, once it contains
+ * more than one of them. Files that are not small are left as they are, and the number of bytes
+ * that each compaction rewrites is limited. Requests to compact a table are coalesced, so that a
+ * burst of updates results in a single compaction. Files that are no longer referenced by a table
+ * are deleted on a schedule.
+ * <p>
+ * Maintenance tasks run one at a time, within the configured maintenance window, and within their
+ * own Spark scheduler pool.
+ *
+ * @see <a href="https://docs.delta.io/latest/best-practices.html#compact-files">Delta Lake
+ * Documentation - Compact files</a>
+ * @see <a href="https://docs.delta.io/latest/delta-utility.html#remove-files-no-longer-referenced-by-a-delta-table">Delta
+ * Lake Documentation - Remove files no longer referenced by a Delta table</a>
+ */
+@Component
+@Profile("core | import")
+@Slf4j
+public class TableMaintenance {
+
+  private static final String SCHEDULER_POOL_PROPERTY = "spark.scheduler.pool";
+
+  /**
+   * The operation that is recorded against the commits made by compaction, so that they can be
+   * distinguished from commits that change the data within a table.
+   */
+  public static final String COMPACTION_OPERATION = "OPTIMIZE";
+
+  @Nonnull
+  private final MaintenanceConfiguration configuration;
+
+  @Nonnull
+  private final SparkSession spark;
+
+  @Nonnull
+  private final String databaseUrl;
+
+  @Nonnull
+  private final Set<String> pendingCompactions = ConcurrentHashMap.newKeySet();
+
+  @Nonnull
+  private final AtomicBoolean vacuumPending = new AtomicBoolean(false);
+
+  @Nonnull
+  private final ScheduledExecutorService executor;
+
+  /**
+   * @param configuration a {@link Configuration} object containing the maintenance settings
+   * @param spark the {@link SparkSession} that the maintenance session is derived from
+   */
+  public TableMaintenance(@Nonnull final Configuration configuration,
+      @Nonnull final SparkSession spark) {
+    this.configuration = configuration.getStorage().getMaintenance();
+    this.databaseUrl = convertS3ToS3aUrl(configuration.getStorage().getWarehouseUrl()) + "/"
+        + configuration.getStorage().getDatabaseName();
+
+    // Maintenance uses its own session, so that setting its scheduler pool does not affect queries.
+    this.spark = spark.newSession();
+
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      final Thread thread = new Thread(runnable, "table-maintenance");
+      thread.setDaemon(true);
+      return thread;
+    });
+    final int vacuumInterval = this.configuration.getVacuumInterval();
+    if (vacuumInterval > 0) {
+      executor.scheduleWithFixedDelay(this::requestVacuum, vacuumInterval, vacuumInterval,
+          TimeUnit.HOURS);
+    }
+  }
+
+  /**
+   * Requests that the small files within a table be compacted. If a compaction of the table is
+   * already pending, this request is combined with it.
+   *
+   * @param tableUrl the URL of the Delta table
+   */
+  public void requestCompaction(@Nonnull final String tableUrl) {
+    if (pendingCompactions.add(tableUrl)) {
+      log.debug("Scheduling table compaction: {}", tableUrl);
+      executor.execute(() -> compact(tableUrl));
+    } else {
+      log.debug("Table compaction already pending: {}", tableUrl);
+    }
+  }
+
+  /**
+   * Requests that the files that are no longer referenced by any table be deleted.
+   */
+  public void requestVacuum() {
+    if (vacuumPending.compareAndSet(false, true)) {
+      executor.execute(this::vacuum);
+    }
+  }
+
+  /**
+   * @return true if there is maintenance that has been requested but not yet started
+   */
+  public boolean isPending() {
+    return !pendingCompactions.isEmpty() || vacuumPending.get();
+  }
+
+  void compact(@Nonnull final String tableUrl) {
+    if (deferUntilWindow(() -> compact(tableUrl))) {
+      return;
+    }
+    // The request is removed before the compaction starts, so that updates made while it is
+    // running can request another.
+    pendingCompactions.remove(tableUrl);
+    try {
+      binPack(tableUrl);
+    } catch (final RuntimeException e) {
+      // Compaction can conflict with a concurrent update, in which case it will be requested again
+      // by a subsequent update.
+      log.warn("Problem compacting table: {}", tableUrl, e);
+    }
+  }
+
+  /**
+   * Rewrites the small files within a table into files of the target size, if there are more than
+   * one of them. The smallest files are rewritten first, up to the configured number of bytes, and
+   * any that remain are left to the next compaction. The rows are clustered by ID, and the rewrite
+   * is marked as not changing the data, so it does not affect readers of the table.
+   */
+  private void binPack(@Nonnull final String tableUrl) {
+    final DeltaLog deltaLog = DeltaLog.forTable(spark, tableUrl);
+    final OptimisticTransaction transaction = deltaLog.startTransaction();
+    final List<AddFile> smallFiles = JavaConverters.seqAsJavaList(transaction.filterFiles())
+        .stream()
+        .filter(file -> file.size() < configuration.getMinFileSize())
+        .sorted(Comparator.comparingLong(AddFile::size))
+        .collect(Collectors.toList());
+    final List<AddFile> selected = new ArrayList<>();
+    long selectedBytes = 0;
+    for (final AddFile file : smallFiles) {
+      if (selectedBytes + file.size() > configuration.getCompactionBudget()) {
+        break;
+      }
+      selected.add(file);
+      selectedBytes += file.size();
+    }
+    if (selected.size() < 2) {
+      log.debug("Compaction not needed (small files: {}, within budget: {}): {}",
+          smallFiles.size(), selected.size(), tableUrl);
+      return;
+    }
+    final int numFiles = (int) Math.max(1,
+        (selectedBytes + configuration.getMaxFileSize() - 1) / configuration.getMaxFileSize());
+    log.debug("Commencing compaction (small files: {}, rewritten: {}, target files: {}): {}",
+        smallFiles.size(), selected.size(), numFiles, tableUrl);
+    // Maintenance runs within its own scheduler pool, to limit its share of the cluster.
+    spark.sparkContext().setLocalProperty(SCHEDULER_POOL_PROPERTY, configuration.getPool());
+    try {
+      final Dataset<Row> rows = deltaLog.createDataFrame(transaction.snapshot(),
+          JavaConverters.asScalaBuffer(selected).toSeq(), false, Option.empty());
+      final Dataset<Row> clustered = rows.repartitionByRange(numFiles, rows.col("id"))
+          .sortWithinPartitions("id");
+      // The new files replace the selected ones within a single commit, which Delta checks for
+      // conflicts with any update that has been made to the table in the meantime.
+      final List<Action> actions = new ArrayList<>();
+      for (final FileAction written : JavaConverters.seqAsJavaList(
+          transaction.writeFiles(clustered))) {
+        final AddFile added = (AddFile) written;
+        actions.add(added.copy(added.path(), added.partitionValues(), added.size(),
+            added.modificationTime(), false, added.stats(), added.tags()));
+      }
+      final long now = System.currentTimeMillis();
+      selected.forEach(file -> actions.add(file.removeWithTimestamp(now, false)));
+      transaction.commit(JavaConverters.asScalaBuffer(actions).toSeq(),
+          new DeltaOperations.Optimize(JavaConverters.asScalaBuffer(
+              Collections.<String>emptyList()).toSeq()));
+    } finally {
+      spark.sparkContext().setLocalProperty(SCHEDULER_POOL_PROPERTY, null);
+    }
+    log.debug("Compaction complete: {}", tableUrl);
+  }
+
+  void vacuum() {
+    if (deferUntilWindow(this::vacuum)) {
+      return;
+    }
+    vacuumPending.set(false);
+    final double retention = configuration.getVacuumRetention();
+    for (final String tableUrl : listTables()) {
+      log.debug("Commencing vacuum: {}", tableUrl);
+      try {
+        DeltaTable.forPath(spark, tableUrl).vacuum(retention);
+        log.debug("Vacuum complete: {}", tableUrl);
+      } catch (final RuntimeException e) {
+        log.warn("Problem vacuuming table: {}", tableUrl, e);
+      }
+    }
+  }
+
+  /**
+   * Schedules a task to run when the maintenance window next opens, if it is currently closed.
+   *
+   * @return true if the task has been deferred
+   */
+  private boolean deferUntilWindow(@Nonnull final Runnable task) {
+    final Optional<Duration> delay = configuration.getWindow()
+        .map(window -> untilWindowOpens(window, LocalTime.now()))
+        .filter(duration -> !duration.isZero());
+    delay.ifPresent(duration -> {
+      log.debug("Deferring maintenance until window opens, in {}", duration);
+      executor.schedule(task, duration.toMillis(), TimeUnit.MILLISECONDS);
+    });
+    return delay.isPresent();
+  }
+
+  @Nonnull
+  private List<String> listTables() {
+    try {
+      final FileSystem warehouse = getFileSystem(databaseUrl);
+      final Path databasePath = new Path(databaseUrl);
+      if (!warehouse.exists(databasePath)) {
+        return Collections.emptyList();
+      }
+      final FileStatus[] fileStatuses = warehouse.listStatus(databasePath);
+      return Arrays.stream(fileStatuses)
+          .map(FileStatus::getPath)
+          .filter(path -> path.getName().endsWith(".parquet"))
+          .map(Path::toString)
+          .filter(path -> DeltaTable.isDeltaTable(spark, path))
+          .collect(Collectors.toList());
+    } catch (final IOException | RuntimeException e) {
+      log.warn("Unable to list tables for maintenance: {}", databaseUrl, e);
+      return Collections.emptyList();
+    }
+  }
+
+  @Nonnull
+  private FileSystem getFileSystem(@Nonnull final String url) {
+    @Nullable final org.apache.hadoop.conf.Configuration hadoopConfiguration = spark.sparkContext()
+        .hadoopConfiguration();
+    checkNotNull(hadoopConfiguration);
+    try {
+      return FileSystem.get(new URI(url), hadoopConfiguration);
+    } catch (final IOException | URISyntaxException e) {
+      throw new RuntimeException("Unable to access file system: " + url, e);
+    }
+  }
+
+  /**
+   * Calculates how long it is until a maintenance window opens.
+   *
+   * @param window the window, in the form {@code HH:mm-HH:mm}, which may span midnight
+   * @param now the current time of day
+   * @return the time until the window opens, or zero if it is already open
+   */
+  @Nonnull
+  static Duration untilWindowOpens(@Nonnull final String window, @Nonnull final LocalTime now) {
+    final String[] bounds = window.split("-");
+    final LocalTime start = LocalTime.parse(bounds[0]);
+    final LocalTime end = LocalTime.parse(bounds[1]);
+    final boolean open = start.isBefore(end)
+                         ? !now.isBefore(start) && now.isBefore(end)
+                         : !now.isBefore(start) || now.isBefore(end);
+    if (open) {
+      return Duration.ZERO;
+    }
+    final Duration untilStart = Duration.between(now, start);
+    return untilStart.isNegative()
+           ? untilStart.plusDays(1)
+           : untilStart;
+  }
+
+  /**
+   * Stops performing maintenance.
+   */
+  @PreDestroy
+  public void shutdown() {
+    executor.shutdownNow();
+  }
+
+}
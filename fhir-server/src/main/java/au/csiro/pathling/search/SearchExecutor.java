@@ -12,6 +12,8 @@ import static au.csiro.pathling.utilities.Preconditions.checkUserInput;
 import static au.csiro.pathling.utilities.Strings.randomAlias;
 import static org.apache.spark.sql.functions.col;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.QueryExecutor;
 import au.csiro.pathling.encoders.FhirEncoders;
@@ -32,6 +34,7 @@ import ca.uhn.fhir.rest.param.StringParam;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
 import java.util.Optional;
@@ -67,6 +70,12 @@ public class SearchExecutor extends QueryExecutor implements IBundleProvider {
   @Nonnull
   private final Optional<StringAndListParam> filters;
 
+  @Nonnull
+  private final AdmissionController admissionController;
+
+  @Nonnull
+  private final RequestCoalescer requestCoalescer;
+
   @Nonnull
   private final Dataset<Row> result;
 
@@ -84,17 +93,25 @@ public class SearchExecutor extends QueryExecutor implements IBundleProvider {
    * objects
    * @param subjectResource The type of resource that is the subject for this query
    * @param filters A list of filters that should be applied within queries
+   * @param admissionController An {@link AdmissionController} for checking the cost of queries
+   * before they are executed
+   * @param requestCoalescer A {@link RequestCoalescer} for sharing the results of identical
+   * requests
    */
   public SearchExecutor(@Nonnull final Configuration configuration,
       @Nonnull final FhirContext fhirContext, @Nonnull final SparkSession sparkSession,
       @Nonnull final Database database,
       @Nonnull final Optional<TerminologyServiceFactory> terminologyServiceFactory,
       @Nonnull final FhirEncoders fhirEncoders, @Nonnull final ResourceType subjectResource,
-      @Nonnull final Optional<StringAndListParam> filters) {
+      @Nonnull final Optional<StringAndListParam> filters,
+      @Nonnull final AdmissionController admissionController,
+      @Nonnull final RequestCoalescer requestCoalescer) {
     super(configuration, fhirContext, sparkSession, database, terminologyServiceFactory);
     this.fhirEncoders = fhirEncoders;
     this.subjectResource = subjectResource;
     this.filters = filters;
+    this.admissionController = admissionController;
+    this.requestCoalescer = requestCoalescer;
     this.result = initializeDataset();
     this.count = Optional.empty();
 
@@ -220,13 +237,40 @@ public class SearchExecutor extends QueryExecutor implements IBundleProvider {
       resources = resources.limit(theToIndex - theFromIndex);
     }
 
-    // The requested resources are encoded into HAPI FHIR objects, and then collected.
+    // The requested resources are collected, and then decoded into HAPI FHIR objects.
     @Nullable final ExpressionEncoder<IBaseResource> encoder = fhirEncoders
         .of(subjectResource.toCode());
     checkNotNull(encoder);
     reportQueryPlan(resources);
 
-    return resources.as(encoder).collectAsList();
+    // Search results are returned synchronously as pages, so heavy queries cannot be deferred to an
+    // asynchronous job.
+    final Dataset<Row> page = resources;
+    final List<Object> key = buildRequestKey("search", subjectResource, canonicalizeSearchFilters(),
+        theFromIndex, theToIndex);
+    final List<Row> rows = requestCoalescer.execute(key,
+        () -> admissionController.execute(page, false, page::collectAsList));
+
+    // The rows may be shared with identical requests, so each request decodes its own copy of the
+    // resources, as they may be modified while the response is being built. Decoding a local
+    // relation does not require a Spark job.
+    return getSparkSession().createDataFrame(rows, page.schema()).as(encoder).collectAsList();
+  }
+
+  /**
+   * @return the filters of this search, with each set of alternatives and the sets themselves
+   * sorted into a canonical order
+   */
+  @Nonnull
+  private List<List<String>> canonicalizeSearchFilters() {
+    return filters.map(andParam -> andParam.getValuesAsQueryTokens().stream()
+            .map(orParam -> canonicalizeFilters(orParam.getValuesAsQueryTokens().stream()
+                .map(StringParam::getValue)
+                .collect(Collectors.toList())))
+            .distinct()
+            .sorted(Comparator.comparing(Object::toString))
+            .collect(Collectors.toList()))
+        .orElse(Collections.emptyList());
   }
 
   private void reportQueryPlan(@Nonnull final Dataset<Row> resources) {
@@ -253,7 +297,10 @@ public class SearchExecutor extends QueryExecutor implements IBundleProvider {
   public Integer size() {
     if (count.isEmpty()) {
       reportQueryPlan(result);
-      count = Optional.of(Math.toIntExact(result.count()));
+      final List<Object> key = buildRequestKey("search-count", subjectResource,
+          canonicalizeSearchFilters());
+      count = Optional.of(Math.toIntExact(requestCoalescer.execute(key,
+          () -> admissionController.execute(result, false, result::count))));
     }
     return count.get();
   }
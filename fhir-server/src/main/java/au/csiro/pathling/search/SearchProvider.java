@@ -8,6 +8,8 @@ package au.csiro.pathling.search;
 
 import static au.csiro.pathling.fhir.FhirServer.resourceTypeFromClass;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.encoders.FhirEncoders;
 import au.csiro.pathling.fhir.TerminologyServiceFactory;
@@ -71,6 +73,12 @@ public class SearchProvider implements IResourceProvider {
   @Nonnull
   private final FhirEncoders fhirEncoders;
 
+  @Nonnull
+  private final AdmissionController admissionController;
+
+  @Nonnull
+  private final RequestCoalescer requestCoalescer;
+
   @Nonnull
   private final Class<? extends IBaseResource> resourceClass;
 
@@ -88,13 +96,19 @@ public class SearchProvider implements IResourceProvider {
    * objects
    * @param resourceClass A Class that extends {@link IBaseResource} that represents the type of
    * resource to be searched
+   * @param admissionController An {@link AdmissionController} for checking the cost of queries
+   * before they are executed
+   * @param requestCoalescer A {@link RequestCoalescer} for sharing the results of identical
+   * requests
    */
   public SearchProvider(@Nonnull final Configuration configuration,
       @Nonnull final FhirContext fhirContext, @Nonnull final SparkSession sparkSession,
       @Nonnull final Database database,
       @Nonnull final Optional<TerminologyServiceFactory> terminologyServiceFactory,
       @Nonnull final FhirEncoders fhirEncoders,
-      @Nonnull final Class<? extends IBaseResource> resourceClass) {
+      @Nonnull final Class<? extends IBaseResource> resourceClass,
+      @Nonnull final AdmissionController admissionController,
+      @Nonnull final RequestCoalescer requestCoalescer) {
     this.configuration = configuration;
     this.fhirContext = fhirContext;
     this.sparkSession = sparkSession;
@@ -102,6 +116,8 @@ public class SearchProvider implements IResourceProvider {
     this.terminologyServiceFactory = terminologyServiceFactory;
     this.fhirEncoders = fhirEncoders;
     this.resourceClass = resourceClass;
+    this.admissionController = admissionController;
+    this.requestCoalescer = requestCoalescer;
     resourceType = resourceTypeFromClass(resourceClass);
   }
 
@@ -144,7 +160,8 @@ public class SearchProvider implements IResourceProvider {
   private IBundleProvider buildSearchExecutor(@Nonnull final ResourceType subjectResource,
       @Nonnull final Optional<StringAndListParam> filters) {
     return new SearchExecutor(configuration, fhirContext, sparkSession, database,
-        terminologyServiceFactory, fhirEncoders, subjectResource, filters);
+        terminologyServiceFactory, fhirEncoders, subjectResource, filters, admissionController,
+        requestCoalescer);
   }
 
 }
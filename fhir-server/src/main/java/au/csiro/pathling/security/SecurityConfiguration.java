@@ -56,7 +56,8 @@ public class SecurityConfiguration {
           .mvcMatchers(HttpMethod.GET,
               "/metadata",   // Server capabilities operation
               "/OperationDefinition/**",  // GET on OperationDefinition resources
-              "/.well-known/**")          // SMART configuration endpoint
+              "/.well-known/**",          // SMART configuration endpoint
+              "/health")                  // Health endpoint
           .permitAll()
           // Anything else needs to be authenticated.
           .anyRequest()
@@ -6,8 +6,16 @@
 
 package au.csiro.pathling.security.ga4gh;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
 import java.util.HashMap;
+import java.util.Map.Entry;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import javax.annotation.Nonnull;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.springframework.context.annotation.Profile;
 import org.springframework.context.annotation.Scope;
@@ -28,4 +36,30 @@ public class PassportScope extends HashMap<ResourceType, Set<String>> {
 
   private static final long serialVersionUID = -6584811334567819168L;
 
+  /**
+   * Returns a digest of the filters within this scope. The digest does not depend upon the order in
+   * which the filters were added, so any two scopes that contain the same filters have the same
+   * digest.
+   *
+   * @return a Base64-encoded SHA-256 digest of the filters
+   */
+  @Nonnull
+  public String getDigest() {
+    final MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (final NoSuchAlgorithmException e) {
+      throw new RuntimeException("Problem creating passport scope digest", e);
+    }
+    for (final Entry<ResourceType, Set<String>> entry : new TreeMap<>(this).entrySet()) {
+      for (final String filter : new TreeSet<>(entry.getValue())) {
+        // Each value is terminated with a null character, so that the boundaries between them are
+        // unambiguous.
+        digest.update((entry.getKey().toCode() + '\0' + filter + '\0')
+            .getBytes(StandardCharsets.UTF_8));
+      }
+    }
+    return Base64.getEncoder().encodeToString(digest.digest());
+  }
+
 }
@@ -10,6 +10,7 @@ import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.encoders.FhirEncoders;
 import au.csiro.pathling.fhir.TerminologyServiceFactory;
 import au.csiro.pathling.io.Database;
+import au.csiro.pathling.io.TableMaintenance;
 import ca.uhn.fhir.context.FhirContext;
 import java.util.Optional;
 import javax.annotation.Nonnull;
@@ -54,6 +55,7 @@ public class ScopeAwareDatabase extends Database {
    * queries
    * @param passportScope a {@link PassportScope} that can be used to limit the scope of resources,
    * @param executor a {@link ThreadPoolTaskExecutor} for executing background tasks
+   * @param tableMaintenance a {@link TableMaintenance} for compacting tables after they are updated
    */
   @SuppressWarnings("WeakerAccess")
   public ScopeAwareDatabase(@Nonnull final Configuration configuration,
@@ -62,8 +64,9 @@ public class ScopeAwareDatabase extends Database {
       @Nonnull final FhirEncoders fhirEncoders,
       @Nonnull final Optional<TerminologyServiceFactory> terminologyServiceFactory,
       @Nonnull final Optional<PassportScope> passportScope,
-      @Nonnull final ThreadPoolTaskExecutor executor) {
-    super(configuration, spark, fhirEncoders, executor);
+      @Nonnull final ThreadPoolTaskExecutor executor,
+      @Nonnull final TableMaintenance tableMaintenance) {
+    super(configuration, spark, fhirEncoders, executor, tableMaintenance);
     log.debug("Initializing passport scope-aware resource reader");
 
     this.configuration = configuration;
@@ -84,7 +87,8 @@ public class ScopeAwareDatabase extends Database {
         .map(scope -> {
           // We need to create a non-scope-aware reader here for the parsing of the filters, so that
           // we don't have recursive application of the filters.
-          final Database database = new Database(configuration, spark, fhirEncoders, executor);
+          final Database database = new Database(configuration, spark, fhirEncoders, executor,
+              tableMaintenance);
           final PassportScopeEnforcer scopeEnforcer = new PassportScopeEnforcer(configuration,
               fhirContext, spark, database, terminologyServiceFactory, scope);
           return scopeEnforcer.enforce(resourceType, resources);
@@ -92,4 +96,41 @@ public class ScopeAwareDatabase extends Database {
         .orElse(resources);
   }
 
+  @Nonnull
+  @Override
+  public Optional<String> getScopeKey() {
+    return passportScope.map(PassportScope::getDigest);
+  }
+
+  @Nonnull
+  @Override
+  public Optional<Dataset<Row>> readEdges(@Nonnull final ResourceType resourceType,
+      @Nonnull final String element) {
+    // Edge tables are not subject to the filters within the passport scope, so they are not used
+    // when a scope is present.
+    return passportScope.isPresent()
+           ? Optional.empty()
+           : super.readEdges(resourceType, element);
+  }
+
+  @Nonnull
+  @Override
+  public Optional<Dataset<Row>> readView(@Nonnull final String name,
+      @Nonnull final String version) {
+    // Views are computed from all the resources, so they are not used when a scope is present.
+    return passportScope.isPresent()
+           ? Optional.empty()
+           : super.readView(name, version);
+  }
+
+  @Override
+  public void writeView(@Nonnull final String name, @Nonnull final Dataset<Row> result,
+      @Nonnull final String version) {
+    // A view computed within a scope would be read by requests with other scopes, so it is not
+    // written.
+    if (passportScope.isEmpty()) {
+      super.writeView(name, result, version);
+    }
+  }
+
 }
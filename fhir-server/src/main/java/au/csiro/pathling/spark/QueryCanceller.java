@@ -0,0 +1,257 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.spark;
+
+import au.csiro.pathling.config.Configuration;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.SparkContext;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Cancels the Spark jobs that are running on behalf of a request, identified by their job group.
+ * <p>
+ * Cancelling a job group only affects the jobs that are running at the time, so a query that is
+ * cancelled before it has submitted its first job would otherwise go on to run. Cancelled job
+ * groups are therefore cancelled again at a regular interval, until the request that they belong
+ * to has completed.
+ * <p>
+ * The output stream of a synchronous request can also be watched, so that the request is cancelled
+ * when a write to its client fails. The servlet container only detects that a client has gone away
+ * when the response is written to, so this is limited to responses that are written while their
+ * query is running, such as streamed results.
+ * <p>
+ * Work that is shared between several requests runs within a job group of its own. Cancelling one
+ * of those requests only cancels the shared work once none of the other requests are still waiting
+ * for it.
+ */
+@Component
+@Profile("server")
+@Slf4j
+public class QueryCanceller {
+
+  @Nonnull
+  private final SparkSession spark;
+
+  private static final String JOB_GROUP_PROPERTY = "spark.jobGroup.id";
+
+  private static final String JOB_DESCRIPTION_PROPERTY = "spark.job.description";
+
+  private static final String JOB_INTERRUPT_PROPERTY = "spark.job.interruptOnCancel";
+
+  @Nonnull
+  private final Set<String> cancelledGroups = ConcurrentHashMap.newKeySet();
+
+  /**
+   * The job groups of the requests that are waiting for each shared job group.
+   */
+  @Nonnull
+  private final Map<String, Set<String>> sharedGroups = new ConcurrentHashMap<>();
+
+  @Nullable
+  private final ScheduledExecutorService executor;
+
+  /**
+   * @param configuration a {@link Configuration} object containing the check interval
+   * @param spark the {@link SparkSession} that queries are run within
+   */
+  public QueryCanceller(@Nonnull final Configuration configuration,
+      @Nonnull final SparkSession spark) {
+    this.spark = spark;
+    final int interval = configuration.getSpark().getCancellationCheckInterval();
+    if (interval > 0) {
+      executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "query-canceller");
+        thread.setDaemon(true);
+        return thread;
+      });
+      executor.scheduleWithFixedDelay(this::check, interval, interval, TimeUnit.MILLISECONDS);
+    } else {
+      executor = null;
+    }
+  }
+
+  /**
+   * Cancels all the Spark jobs within a job group, including any that are submitted to the group
+   * before it is released.
+   *
+   * @param jobGroup the ID of the job group
+   */
+  public void cancel(@Nonnull final String jobGroup) {
+    log.info("Cancelling query: {}", jobGroup);
+    cancelledGroups.add(jobGroup);
+    spark.sparkContext().cancelJobGroup(jobGroup);
+
+    // The request no longer waits for any shared work, which is cancelled if it was the last one
+    // waiting for it.
+    for (final String sharedGroup : sharedGroups.keySet()) {
+      final AtomicBoolean abandoned = new AtomicBoolean(false);
+      sharedGroups.computeIfPresent(sharedGroup, (key, waiters) -> {
+        abandoned.set(waiters.remove(jobGroup) && waiters.isEmpty());
+        return waiters;
+      });
+      if (abandoned.get()) {
+        cancel(sharedGroup);
+      }
+    }
+  }
+
+  /**
+   * Runs an action within a shared job group, which is only cancelled once every request that is
+   * waiting for it has been cancelled. The request on the current thread is the first to wait for
+   * it.
+   *
+   * @param sharedGroup the ID of the shared job group, which must be unique
+   * @param action the action to run
+   * @param <T> the type of the result
+   * @return the result of the action
+   */
+  public <T> T runShared(@Nonnull final String sharedGroup, @Nonnull final Supplier<T> action) {
+    final SparkContext sparkContext = spark.sparkContext();
+    final String jobGroup = sparkContext.getLocalProperty(JOB_GROUP_PROPERTY);
+    final String description = sparkContext.getLocalProperty(JOB_DESCRIPTION_PROPERTY);
+    final String interrupt = sparkContext.getLocalProperty(JOB_INTERRUPT_PROPERTY);
+    final Set<String> waiters = ConcurrentHashMap.newKeySet();
+    Optional.ofNullable(jobGroup).ifPresent(waiters::add);
+    sharedGroups.put(sharedGroup, waiters);
+    sparkContext.setJobGroup(sharedGroup, sharedGroup, true);
+    try {
+      return action.get();
+    } finally {
+      sparkContext.setLocalProperty(JOB_GROUP_PROPERTY, jobGroup);
+      sparkContext.setLocalProperty(JOB_DESCRIPTION_PROPERTY, description);
+      sparkContext.setLocalProperty(JOB_INTERRUPT_PROPERTY, interrupt);
+      sharedGroups.remove(sharedGroup);
+      release(sharedGroup);
+    }
+  }
+
+  /**
+   * Records that the request on the current thread is waiting for the work within a shared job
+   * group, so that the shared work is not cancelled while it still needs it. This has no effect if
+   * the shared work has already completed.
+   *
+   * @param sharedGroup the ID of the shared job group
+   */
+  public void waitFor(@Nonnull final String sharedGroup) {
+    Optional.ofNullable(spark.sparkContext().getLocalProperty(JOB_GROUP_PROPERTY))
+        .ifPresent(jobGroup -> sharedGroups.computeIfPresent(sharedGroup, (key, waiters) -> {
+          waiters.add(jobGroup);
+          return waiters;
+        }));
+  }
+
+  /**
+   * Records that the request on the current thread is no longer waiting for the work within a
+   * shared job group.
+   *
+   * @param sharedGroup the ID of the shared job group
+   */
+  public void stopWaitingFor(@Nonnull final String sharedGroup) {
+    Optional.ofNullable(spark.sparkContext().getLocalProperty(JOB_GROUP_PROPERTY))
+        .ifPresent(jobGroup -> sharedGroups.computeIfPresent(sharedGroup, (key, waiters) -> {
+          waiters.remove(jobGroup);
+          return waiters;
+        }));
+  }
+
+  /**
+   * Wraps the output stream of a response, so that the job group is cancelled if a write to the
+   * client fails.
+   *
+   * @param jobGroup the ID of the job group that the request runs within
+   * @param outputStream the {@link OutputStream} of the response
+   * @return an {@link OutputStream} that cancels the job group when a write or flush fails
+   */
+  @Nonnull
+  public OutputStream watch(@Nonnull final String jobGroup,
+      @Nonnull final OutputStream outputStream) {
+    return new FilterOutputStream(outputStream) {
+      @Override
+      public void write(@Nonnull final byte[] b, final int off, final int len)
+          throws IOException {
+        try {
+          out.write(b, off, len);
+        } catch (final IOException e) {
+          abandon(jobGroup);
+          throw e;
+        }
+      }
+
+      @Override
+      public void write(final int b) throws IOException {
+        try {
+          out.write(b);
+        } catch (final IOException e) {
+          abandon(jobGroup);
+          throw e;
+        }
+      }
+
+      @Override
+      public void flush() throws IOException {
+        try {
+          out.flush();
+        } catch (final IOException e) {
+          abandon(jobGroup);
+          throw e;
+        }
+      }
+    };
+  }
+
+  /**
+   * Stops cancelling a job group, once the request that it belongs to has completed.
+   *
+   * @param jobGroup the ID of the job group
+   */
+  public void release(@Nonnull final String jobGroup) {
+    cancelledGroups.remove(jobGroup);
+  }
+
+  private void abandon(@Nonnull final String jobGroup) {
+    if (!cancelledGroups.contains(jobGroup)) {
+      log.info("Client disconnected, abandoning request: {}", jobGroup);
+      cancel(jobGroup);
+    }
+  }
+
+  void check() {
+    try {
+      for (final String jobGroup : cancelledGroups) {
+        spark.sparkContext().cancelJobGroup(jobGroup);
+      }
+    } catch (final RuntimeException e) {
+      log.warn("Problem checking for cancelled queries", e);
+    }
+  }
+
+  /**
+   * Stops checking for cancelled queries.
+   */
+  @PreDestroy
+  public void shutdown() {
+    Optional.ofNullable(executor).ifPresent(ScheduledExecutorService::shutdownNow);
+  }
+
+}
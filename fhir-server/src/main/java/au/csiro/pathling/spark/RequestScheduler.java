@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.spark;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.SchedulerConfiguration.Pool;
+import ca.uhn.fhir.rest.server.exceptions.InternalErrorException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Optional;
+import java.util.concurrent.Semaphore;
+import javax.annotation.Nonnull;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.sql.SparkSession;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+
+/**
+ * Assigns the Spark jobs that are run on behalf of a request to a FAIR scheduler pool, based upon
+ * the operation and the user that made the request. This allows interactive requests to be given a
+ * greater share of the cluster than long-running batch requests.
+ * <p>
+ * The pool is set as a local property of the current thread, so it applies to all Spark jobs that
+ * are submitted from the thread until the request has been completed.
+ */
+@Component
+@Profile("server")
+@Slf4j
+public class RequestScheduler {
+
+  /**
+   * The name of the pool that is used for requests that do not match any other pool.
+   */
+  public static final String DEFAULT_POOL = "default";
+
+  private static final String POOL_PROPERTY = "spark.scheduler.pool";
+
+  @Nonnull
+  private final SparkSession spark;
+
+  @Nonnull
+  private final Map<String, Pool> pools;
+
+  @Nonnull
+  private final Map<String, Semaphore> concurrencyLimits = new HashMap<>();
+
+  /**
+   * @param configuration a {@link Configuration} object containing the pool definitions
+   * @param spark the {@link SparkSession} that requests are run within
+   */
+  public RequestScheduler(@Nonnull final Configuration configuration,
+      @Nonnull final SparkSession spark) {
+    this.spark = spark;
+    this.pools = configuration.getSpark().getScheduler().getPools();
+    for (final Entry<String, Pool> entry : pools.entrySet()) {
+      final int maxConcurrency = entry.getValue().getMaxConcurrency();
+      if (maxConcurrency > 0) {
+        concurrencyLimits.put(entry.getKey(), new Semaphore(maxConcurrency, true));
+      }
+    }
+  }
+
+  /**
+   * Determines the pool that a request belongs to. A pool that lists the user takes precedence
+   * over a pool that lists the operation.
+   *
+   * @param operation the name of the operation, e.g. {@code aggregate}
+   * @param userId the identity of the user, if authenticated
+   * @return the name of the pool
+   */
+  @Nonnull
+  public String resolvePool(@Nonnull final String operation,
+      @Nonnull final Optional<String> userId) {
+    if (userId.isPresent()) {
+      for (final Entry<String, Pool> entry : pools.entrySet()) {
+        if (entry.getValue().getUsers().contains(userId.get())) {
+          return entry.getKey();
+        }
+      }
+    }
+    for (final Entry<String, Pool> entry : pools.entrySet()) {
+      if (entry.getValue().getOperations().contains(operation)) {
+        return entry.getKey();
+      }
+    }
+    return DEFAULT_POOL;
+  }
+
+  /**
+   * Assigns the current thread to the pool for a request, waiting if the pool has reached its
+   * concurrency limit.
+   *
+   * @param operation the name of the operation, e.g. {@code aggregate}
+   * @param userId the identity of the user, if authenticated
+   * @return the name of the pool, which must be passed to {@link #exit} once the request is
+   * complete
+   */
+  @Nonnull
+  public String enter(@Nonnull final String operation, @Nonnull final Optional<String> userId) {
+    final String pool = resolvePool(operation, userId);
+    final Semaphore limit = concurrencyLimits.get(pool);
+    if (limit != null) {
+      try {
+        if (!limit.tryAcquire()) {
+          log.info("Waiting for capacity within scheduler pool: {}", pool);
+          limit.acquire();
+        }
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InternalErrorException("Interrupted while waiting for scheduler pool: " + pool,
+            e);
+      }
+    }
+    log.debug("Assigning {} request to scheduler pool: {}", operation, pool);
+    spark.sparkContext().setLocalProperty(POOL_PROPERTY, pool);
+    return pool;
+  }
+
+  /**
+   * Removes the current thread from a pool, allowing waiting requests to proceed.
+   *
+   * @param pool the name of the pool returned by {@link #enter}
+   */
+  public void exit(@Nonnull final String pool) {
+    spark.sparkContext().setLocalProperty(POOL_PROPERTY, null);
+    final Semaphore limit = concurrencyLimits.get(pool);
+    if (limit != null) {
+      limit.release();
+    }
+  }
+
+}
@@ -7,11 +7,17 @@
 package au.csiro.pathling.spark;
 
 import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.SchedulerConfiguration;
+import au.csiro.pathling.config.SchedulerConfiguration.Pool;
 import au.csiro.pathling.config.StorageConfiguration.Aws;
 import au.csiro.pathling.async.SparkListener;
 import au.csiro.pathling.sql.CodingToLiteral;
 import au.csiro.pathling.sql.PathlingStrategy;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.Arrays;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import javax.annotation.Nonnull;
@@ -38,6 +44,8 @@ import org.springframework.stereotype.Component;
 @Slf4j
 public class Spark {
 
+  private static final String ALLOCATION_FILE_PROPERTY = "spark.scheduler.allocation.file";
+
   /**
    * @param configuration a {@link Configuration} object containing the parameters to use in the
    * creation
@@ -53,6 +61,7 @@ public class Spark {
       @Nonnull final Optional<SparkListener> sparkListener) {
     log.debug("Creating Spark session");
     resolveSparkConfiguration(environment);
+    configureSchedulerPools(configuration.getSpark().getScheduler());
 
     final SparkSession spark = SparkSession.builder()
         .appName(configuration.getSpark().getAppName())
@@ -100,6 +109,56 @@ public class Spark {
         });
   }
 
+  private static void configureSchedulerPools(
+      @Nonnull final SchedulerConfiguration schedulerConfiguration) {
+    final Map<String, Pool> pools = schedulerConfiguration.getPools();
+    if (pools.isEmpty()) {
+      return;
+    }
+    // An allocation file that has been explicitly configured takes precedence over the pools
+    // within the Pathling configuration.
+    if (System.getProperty(ALLOCATION_FILE_PROPERTY) != null) {
+      log.info("Using scheduler allocation file: {}",
+          System.getProperty(ALLOCATION_FILE_PROPERTY));
+      return;
+    }
+
+    // Spark only reads pool definitions from an allocation file, so we generate one from the
+    // configured pools.
+    final StringBuilder allocations = new StringBuilder("<?xml version=\"1.0\"?>\n<allocations>\n");
+    if (!pools.containsKey(RequestScheduler.DEFAULT_POOL)) {
+      appendPool(allocations, RequestScheduler.DEFAULT_POOL, new Pool());
+    }
+    pools.forEach((name, pool) -> appendPool(allocations, name, pool));
+    allocations.append("</allocations>\n");
+    try {
+      final File allocationFile = File.createTempFile("pathling-fairscheduler", ".xml");
+      allocationFile.deleteOnExit();
+      Files.writeString(allocationFile.toPath(), allocations);
+      System.setProperty(ALLOCATION_FILE_PROPERTY, allocationFile.getAbsolutePath());
+      log.debug("Wrote scheduler allocation file: {}", allocationFile);
+    } catch (final IOException e) {
+      throw new RuntimeException("Problem writing scheduler allocation file", e);
+    }
+  }
+
+  private static void appendPool(@Nonnull final StringBuilder allocations,
+      @Nonnull final String name, @Nonnull final Pool pool) {
+    allocations.append("  <pool name=\"").append(escapeXml(name)).append("\">\n")
+        .append("    <schedulingMode>FAIR</schedulingMode>\n")
+        .append("    <weight>").append(pool.getWeight()).append("</weight>\n")
+        .append("    <minShare>").append(pool.getMinShare()).append("</minShare>\n")
+        .append("  </pool>\n");
+  }
+
+  @Nonnull
+  private static String escapeXml(@Nonnull final String value) {
+    return value.replace("&", "&amp;")
+        .replace("<", "&lt;")
+        .replace(">", "&gt;")
+        .replace("\"", "&quot;");
+  }
+
   private static void resolveSparkConfiguration(@Nonnull final PropertyResolver resolver) {
     // This goes through the properties within the Spring configuration and copies the Spark
     // configuration into Java system properties, which Spark will then pick up.
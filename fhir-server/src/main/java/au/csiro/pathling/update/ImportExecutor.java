@@ -16,10 +16,16 @@ import au.csiro.pathling.fhir.FhirContextFactory;
 import au.csiro.pathling.io.AccessRules;
 import au.csiro.pathling.io.Database;
 import au.csiro.pathling.io.PersistenceScheme;
+import au.csiro.pathling.library.FhirMimeTypes;
+import au.csiro.pathling.library.SplitBundleMapPartitionsFunc;
+import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.rest.annotation.ResourceParam;
 import java.net.URLDecoder;
 import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.stream.Collectors;
 import javax.annotation.Nonnull;
@@ -28,9 +34,15 @@ import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.api.java.function.FilterFunction;
 import org.apache.spark.api.java.function.MapFunction;
+import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Encoders;
+import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
 import org.apache.spark.sql.catalyst.encoders.ExpressionEncoder;
+import org.apache.spark.sql.catalyst.encoders.RowEncoder;
+import org.apache.spark.storage.StorageLevel;
+import org.hl7.fhir.exceptions.FHIRException;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.hl7.fhir.r4.model.CodeType;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
@@ -70,6 +82,9 @@ public class ImportExecutor {
   @Nonnull
   private final Optional<AccessRules> accessRules;
 
+  @Nonnull
+  private final FhirVersionEnum fhirVersion;
+
   /**
    * @param spark a {@link SparkSession} for resolving Spark queries
    * @param database a {@link Database} for writing resources
@@ -88,6 +103,7 @@ public class ImportExecutor {
     this.fhirEncoders = fhirEncoders;
     this.fhirContextFactory = fhirContextFactory;
     this.accessRules = accessRules;
+    fhirVersion = fhirEncoders.getFhirVersion();
   }
 
   /**
@@ -129,27 +145,23 @@ public class ImportExecutor {
       final String resourceCode = ((CodeType) resourceTypeParam.getValue()).getCode();
       final ResourceType resourceType = ResourceType.fromCode(resourceCode);
 
-      // Get an encoder based on the declared resource type within the source parameter.
-      final ExpressionEncoder<IBaseResource> fhirEncoder;
-      try {
-        fhirEncoder = fhirEncoders.of(resourceType.toCode());
-      } catch (final UnsupportedResourceError e) {
-        throw new InvalidUserInputError("Unsupported resource type: " + resourceCode);
+      if (resourceType == ResourceType.BUNDLE) {
+        // Bundles are split up into their entries, and each type of resource found within them is
+        // imported into its own table.
+        importBundles(readStringsFromUrl(urlParam), importMode);
+        continue;
       }
 
+      // Get an encoder based on the declared resource type within the source parameter.
+      final ExpressionEncoder<IBaseResource> fhirEncoder = getEncoder(resourceType);
+
       // Read the resources from the source URL into a dataset of strings.
       final Dataset<String> jsonStrings = readStringsFromUrl(urlParam);
 
       // Parse each line into a HAPI FHIR object, then encode to a Spark dataset.
       final Dataset<IBaseResource> resources = jsonStrings.map(jsonToResourceConverter(),
           fhirEncoder);
-
-      log.info("Importing {} resources (mode: {})", resourceType.toCode(), importMode.getCode());
-      if (importMode == ImportMode.OVERWRITE) {
-        database.overwrite(resourceType, resources.toDF());
-      } else {
-        database.merge(resourceType, resources.toDF());
-      }
+      writeResources(resourceType, resources, importMode);
     }
 
     // We return 200, as this operation is currently synchronous.
@@ -165,6 +177,72 @@ public class ImportExecutor {
     return opOutcome;
   }
 
+  /**
+   * Imports the resources contained within a dataset of bundles. Each bundle is parsed only once,
+   * and its entries are cached as JSON strings tagged with their resource type. Every type found
+   * within the bundles is checked before any of the tables are written, and the cached entries are
+   * then filtered by type to populate each of the resource tables.
+   */
+  private void importBundles(@Nonnull final Dataset<String> bundleStrings,
+      @Nonnull final ImportMode importMode) {
+    final Dataset<Row> entries = bundleStrings
+        .mapPartitions(new SplitBundleMapPartitionsFunc(fhirVersion, FhirMimeTypes.FHIR_JSON, true),
+            RowEncoder.apply(SplitBundleMapPartitionsFunc.SCHEMA))
+        .persist(StorageLevel.MEMORY_AND_DISK());
+    try {
+      final Column typeColumn = entries.col(SplitBundleMapPartitionsFunc.RESOURCE_TYPE_COLUMN);
+      final List<String> resourceCodes = entries.select(typeColumn)
+          .distinct()
+          .as(Encoders.STRING())
+          .collectAsList();
+      log.info("Found resource types within bundles: {}", resourceCodes);
+
+      // Check that every type is supported before anything is written, so that an unsupported type
+      // does not leave the import partially complete.
+      final Map<ResourceType, ExpressionEncoder<IBaseResource>> encoders = new LinkedHashMap<>();
+      for (final String resourceCode : resourceCodes) {
+        final ResourceType resourceType;
+        try {
+          resourceType = ResourceType.fromCode(resourceCode);
+        } catch (final FHIRException e) {
+          throw new InvalidUserInputError("Unsupported resource type: " + resourceCode, e);
+        }
+        encoders.put(resourceType, getEncoder(resourceType));
+      }
+
+      for (final Entry<ResourceType, ExpressionEncoder<IBaseResource>> encoder :
+          encoders.entrySet()) {
+        final Dataset<IBaseResource> resources = entries
+            .filter(typeColumn.equalTo(encoder.getKey().toCode()))
+            .select(SplitBundleMapPartitionsFunc.RESOURCE_COLUMN)
+            .as(Encoders.STRING())
+            .map(jsonToResourceConverter(), encoder.getValue());
+        writeResources(encoder.getKey(), resources, importMode);
+      }
+    } finally {
+      entries.unpersist();
+    }
+  }
+
+  private void writeResources(@Nonnull final ResourceType resourceType,
+      @Nonnull final Dataset<IBaseResource> resources, @Nonnull final ImportMode importMode) {
+    log.info("Importing {} resources (mode: {})", resourceType.toCode(), importMode.getCode());
+    if (importMode == ImportMode.OVERWRITE) {
+      database.overwrite(resourceType, resources.toDF());
+    } else {
+      database.merge(resourceType, resources.toDF());
+    }
+  }
+
+  @Nonnull
+  private ExpressionEncoder<IBaseResource> getEncoder(@Nonnull final ResourceType resourceType) {
+    try {
+      return fhirEncoders.of(resourceType.toCode());
+    } catch (final UnsupportedResourceError e) {
+      throw new InvalidUserInputError("Unsupported resource type: " + resourceType.toCode());
+    }
+  }
+
   @Nonnull
   private Dataset<String> readStringsFromUrl(@Nonnull final ParametersParameterComponent urlParam) {
     final String url = ((UrlType) urlParam.getValue()).getValueAsString();
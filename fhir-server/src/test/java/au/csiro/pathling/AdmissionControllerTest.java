@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import au.csiro.pathling.AdmissionController.QueryCost;
+import au.csiro.pathling.async.AsyncAspect;
+import au.csiro.pathling.config.AdmissionConfiguration;
+import au.csiro.pathling.config.AsyncConfiguration;
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.ThreadConfiguration;
+import au.csiro.pathling.errors.AsyncRequiredError;
+import au.csiro.pathling.errors.InvalidUserInputError;
+import au.csiro.pathling.errors.ServerBusyError;
+import java.math.BigInteger;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nonnull;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SparkSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+
+@SpringBootTest
+@Tag("UnitTest")
+class AdmissionControllerTest {
+
+  @Autowired
+  SparkSession spark;
+
+  @AfterEach
+  void tearDown() {
+    spark.sparkContext().setLocalProperty(AsyncAspect.ASYNC_JOB_PROPERTY, null);
+  }
+
+  @Test
+  void estimatesCostFromPlan() {
+    final Dataset<Row> left = spark.range(100).toDF("id");
+    final Dataset<Row> right = spark.range(100).toDF("otherId");
+
+    final QueryCost scanCost = AdmissionController.estimateCost(left);
+    assertEquals(0, scanCost.getJoins());
+    assertTrue(scanCost.getScanBytes().signum() > 0);
+    assertEquals(scanCost.getScanBytes(), scanCost.getCost());
+
+    final Dataset<Row> joined = left.join(right, left.col("id").equalTo(right.col("otherId")));
+    final QueryCost joinCost = AdmissionController.estimateCost(joined);
+    assertEquals(1, joinCost.getJoins());
+    assertTrue(joinCost.getJoinBytes().signum() > 0);
+    assertEquals(joinCost.getScanBytes().add(joinCost.getJoinBytes()), joinCost.getCost());
+  }
+
+  @Test
+  void estimatesFanOutOfJoins() {
+    final Dataset<Row> patients = spark.range(10).toDF("id");
+    final Dataset<Row> conditions = spark.range(1000).toDF("subject");
+    final Dataset<Row> joined = patients.join(conditions,
+        patients.col("id").equalTo(conditions.col("subject")), "left_outer");
+
+    // Each of the conditions is assumed to match a patient, and each row of the result contains
+    // two longs.
+    final QueryCost cost = AdmissionController.estimateCost(joined);
+    assertEquals(BigInteger.valueOf(1000 * 16), cost.getJoinBytes());
+  }
+
+  @Test
+  void rejectsHeavyQueriesWhenQueueIsFull() throws Exception {
+    final AdmissionController controller = buildController(1, 0, 0, 60);
+    final Dataset<Row> query = spark.range(100).toDF();
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      // The only slot is taken by a query that is still running.
+      final Future<Long> first = executor.submit(() -> controller.execute(query, false, () -> {
+        running.countDown();
+        await(release);
+        return query.count();
+      }));
+      running.await(10, TimeUnit.SECONDS);
+
+      // There is no room in the queue, so the next heavy query is rejected straight away.
+      final ServerBusyError error = assertThrows(ServerBusyError.class,
+          () -> controller.execute(query, false, query::count));
+      assertEquals(10, error.getRetryAfter());
+
+      release.countDown();
+      assertEquals(100L, first.get(10, TimeUnit.SECONDS));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void rejectsHeavyQueriesAfterTimeout() throws Exception {
+    final AdmissionController controller = buildController(1, 0, 1, 1);
+    final Dataset<Row> query = spark.range(100).toDF();
+    final CountDownLatch running = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      final Future<Long> first = executor.submit(() -> controller.execute(query, false, () -> {
+        running.countDown();
+        await(release);
+        return query.count();
+      }));
+      running.await(10, TimeUnit.SECONDS);
+
+      // The query waits in the queue, but the running query does not complete in time.
+      assertThrows(ServerBusyError.class, () -> controller.execute(query, false, query::count));
+
+      release.countDown();
+      assertEquals(100L, first.get(10, TimeUnit.SECONDS));
+      // Once the slot is free, heavy queries run again.
+      assertEquals(100L, controller.execute(query, false, query::count));
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  void rejectsQueriesAboveMaximumCost() {
+    final AdmissionController controller = buildController(0, 1);
+    final Dataset<Row> query = spark.range(100).toDF();
+    assertThrows(InvalidUserInputError.class, () -> controller.execute(query, true, query::count));
+  }
+
+  @Test
+  void requiresHeavyQueriesToRunAsynchronously() {
+    final AdmissionController controller = buildController(1, 0);
+    final Dataset<Row> query = spark.range(100).toDF();
+    assertThrows(AsyncRequiredError.class, () -> controller.execute(query, true, query::count));
+
+    // Operations that do not support asynchronous processing are queued instead.
+    assertEquals(100L, controller.execute(query, false, query::count));
+
+    // Queries that are already running asynchronously are allowed to proceed.
+    spark.sparkContext().setLocalProperty(AsyncAspect.ASYNC_JOB_PROPERTY, "true");
+    assertEquals(100L, controller.execute(query, true, query::count));
+  }
+
+  @Test
+  void admitsLightQueries() {
+    final AdmissionController controller = buildController(Long.MAX_VALUE, 0);
+    final Dataset<Row> query = spark.range(100).toDF();
+    assertEquals(100L, controller.execute(query, true, query::count));
+  }
+
+  private AdmissionController buildController(final long heavyQueryThreshold,
+      final long maxQueryCost) {
+    return buildController(heavyQueryThreshold, maxQueryCost, 10, 60);
+  }
+
+  private AdmissionController buildController(final long heavyQueryThreshold,
+      final long maxQueryCost, final int maxQueuedHeavyQueries, final int heavyQueryTimeout) {
+    final AdmissionConfiguration admission = new AdmissionConfiguration();
+    admission.setHeavyQueryThreshold(heavyQueryThreshold);
+    admission.setMaxConcurrentHeavyQueries(1);
+    admission.setMaxQueuedHeavyQueries(maxQueuedHeavyQueries);
+    admission.setHeavyQueryTimeout(heavyQueryTimeout);
+    admission.setAsyncHeavyQueries(true);
+    admission.setMaxQueryCost(maxQueryCost);
+    final AsyncConfiguration async = new AsyncConfiguration();
+    async.setEnabled(true);
+    final ThreadConfiguration threads = new ThreadConfiguration();
+    threads.setRetryAfter(10);
+    final Configuration configuration = new Configuration();
+    configuration.setAdmission(admission);
+    configuration.setAsync(async);
+    configuration.setThreads(threads);
+    return new AdmissionController(configuration, spark);
+  }
+
+  private static void await(@Nonnull final CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.autoconfigure.task.TaskExecutionProperties;
+import org.springframework.core.task.TaskRejectedException;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+
+@Tag("UnitTest")
+class ElasticThreadingTest {
+
+  @Test
+  void runsEachTaskOnItsOwnThread() throws InterruptedException {
+    final ThreadPoolTaskExecutor executor = buildExecutor(50, 1);
+    final CountDownLatch release = new CountDownLatch(1);
+    try {
+      final CountDownLatch started = new CountDownLatch(50);
+      for (int i = 0; i < 50; i++) {
+        executor.execute(() -> {
+          started.countDown();
+          awaitQuietly(release);
+        });
+      }
+      // All the tasks run at the same time, rather than waiting in a queue.
+      assertTrue(started.await(10, TimeUnit.SECONDS));
+      assertEquals(50, executor.getActiveCount());
+
+      // Tasks beyond the maximum wait within the queue.
+      final CountDownLatch queued = new CountDownLatch(1);
+      executor.execute(queued::countDown);
+      assertEquals(1, executor.getThreadPoolExecutor().getQueue().size());
+
+      // Once the queue is full, tasks are rejected rather than being run by the thread that
+      // submitted them.
+      final AtomicBoolean ran = new AtomicBoolean(false);
+      assertThrows(TaskRejectedException.class, () -> executor.execute(() -> ran.set(true)));
+      assertFalse(ran.get());
+
+      release.countDown();
+      assertTrue(queued.await(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  private static ThreadPoolTaskExecutor buildExecutor(final int maxSize, final int queueCapacity) {
+    final TaskExecutionProperties properties = new TaskExecutionProperties();
+    properties.getPool().setMaxSize(maxSize);
+    properties.getPool().setQueueCapacity(queueCapacity);
+    properties.getPool().setKeepAlive(Duration.ofSeconds(1));
+    final ThreadPoolTaskExecutor executor = ElasticThreading.elasticTaskExecutor(properties);
+    executor.initialize();
+    return executor;
+  }
+
+  private static void awaitQuietly(final CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
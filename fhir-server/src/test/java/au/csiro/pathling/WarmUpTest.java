@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+import au.csiro.pathling.config.AuthorizationConfiguration;
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.WarmUpConfiguration;
+import au.csiro.pathling.encoders.FhirEncoders;
+import au.csiro.pathling.io.Database;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nonnull;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.boot.DefaultApplicationArguments;
+import org.springframework.mock.env.MockEnvironment;
+
+@Tag("UnitTest")
+class WarmUpTest {
+
+  @Test
+  void loadsConfiguredResourceTypes() {
+    final WarmUpConfiguration warmUp = new WarmUpConfiguration();
+    warmUp.setEnabled(true);
+    warmUp.setResourceTypes(List.of("Patient", "Condition"));
+    warmUp.setEncoders(true);
+    warmUp.setParallelism(2);
+    final Configuration configuration = new Configuration();
+    configuration.setWarmUp(warmUp);
+    configuration.setAuth(new AuthorizationConfiguration());
+
+    final Database database = mock(Database.class);
+    when(database.preload(any())).thenReturn(true);
+    final FhirEncoders fhirEncoders = FhirEncoders.forR4().getOrCreate();
+
+    new WarmUp(configuration, database, fhirEncoders, new MockEnvironment())
+        .run(new DefaultApplicationArguments());
+
+    verify(database).preload(ResourceType.PATIENT);
+    verify(database).preload(ResourceType.CONDITION);
+    verifyNoMoreInteractions(database);
+  }
+
+  @Test
+  void replaysQueriesOnlyWithoutAuthorization(@TempDir final Path tempDir) throws IOException {
+    final Path queries = tempDir.resolve("warm-up.txt");
+    Files.writeString(queries, "# A comment\nPatient/$aggregate?aggregation=count()\n");
+    final AtomicInteger received = new AtomicInteger();
+    final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+    server.createContext("/fhir/", exchange -> {
+      received.incrementAndGet();
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+    });
+    server.start();
+    try {
+      final MockEnvironment environment = new MockEnvironment()
+          .withProperty("local.server.port", String.valueOf(server.getAddress().getPort()));
+
+      runWithQueries(queries, false, environment);
+      assertEquals(1, received.get());
+
+      // The queries would be rejected without credentials, so they should not be sent at all.
+      runWithQueries(queries, true, environment);
+      assertEquals(1, received.get());
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static void runWithQueries(@Nonnull final Path queries, final boolean authEnabled,
+      @Nonnull final MockEnvironment environment) {
+    final WarmUpConfiguration warmUp = new WarmUpConfiguration();
+    warmUp.setEnabled(true);
+    warmUp.setResourceTypes(List.of("Patient"));
+    warmUp.setEncoders(false);
+    warmUp.setQueries(queries.toString());
+    warmUp.setParallelism(1);
+    final AuthorizationConfiguration auth = new AuthorizationConfiguration();
+    auth.setEnabled(authEnabled);
+    final Configuration configuration = new Configuration();
+    configuration.setWarmUp(warmUp);
+    configuration.setAuth(auth);
+
+    new WarmUp(configuration, mock(Database.class), FhirEncoders.forR4().getOrCreate(),
+        environment).run(new DefaultApplicationArguments());
+  }
+
+}
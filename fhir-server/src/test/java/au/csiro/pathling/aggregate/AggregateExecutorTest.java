@@ -10,6 +10,8 @@ import static au.csiro.pathling.test.TestResources.assertJson;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.aggregate.AggregateResponse.Grouping;
 import au.csiro.pathling.encoders.FhirEncoders;
@@ -75,7 +77,8 @@ abstract class AggregateExecutorTest {
     SharedMocks.resetAll();
     database = mock(Database.class);
     executor = new AggregateExecutor(configuration, fhirContext, spark, database,
-        Optional.of(terminologyServiceFactory));
+        Optional.of(terminologyServiceFactory), new AdmissionController(configuration, spark),
+        new RequestCoalescer(Optional.empty()));
   }
 
   /**
@@ -98,7 +101,8 @@ abstract class AggregateExecutorTest {
         filters.addAnd(new StringParam(drillDown));
         final IBundleProvider searchExecutor = new SearchExecutor(configuration, fhirContext, spark,
             database, Optional.of(terminologyServiceFactory),
-            fhirEncoders, subjectResource, Optional.of(filters));
+            fhirEncoders, subjectResource, Optional.of(filters),
+            new AdmissionController(configuration, spark), new RequestCoalescer(Optional.empty()));
         final List<IBaseResource> resources = searchExecutor.getResources(0, 100);
         assertTrue(resources.size() > 0);
       }
@@ -9,20 +9,39 @@ package au.csiro.pathling.aggregate;
 import static au.csiro.pathling.test.TestResources.getResourceAsStream;
 import static au.csiro.pathling.test.helpers.TerminologyHelpers.setOfSimpleFrom;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.errors.InvalidUserInputError;
 import au.csiro.pathling.test.TimingExtension;
 import au.csiro.pathling.test.fixtures.RelationBuilder;
 import au.csiro.pathling.test.helpers.TerminologyHelpers;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Supplier;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.spark.sql.catalyst.plans.logical.Aggregate;
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.hl7.fhir.r4.model.ValueSet;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.ArgumentMatchers;
+import org.springframework.security.core.context.SecurityContextHolder;
+import org.springframework.security.oauth2.jwt.Jwt;
+import org.springframework.security.oauth2.server.resource.authentication.JwtAuthenticationToken;
+import scala.runtime.BoxedUnit;
 
 /**
  * @author John Grimes
@@ -50,6 +69,97 @@ class AggregateQueryTest extends AggregateExecutorTest {
     assertResponse("AggregateQueryTest/simpleQuery.Parameters.json", response);
   }
 
+  @Test
+  void requestsWithDifferentScopesAreNotCoalesced() {
+    final RequestCoalescer requestCoalescer = mock(RequestCoalescer.class);
+    final AggregateExecutor executor = new AggregateExecutor(configuration, fhirContext, spark,
+        database, Optional.empty(), new AdmissionController(configuration, spark),
+        requestCoalescer);
+    when(database.getScopeKey()).thenReturn(Optional.of("scope1"))
+        .thenReturn(Optional.of("scope2"));
+
+    final AggregateRequest request = new AggregateRequestBuilder(ResourceType.PATIENT)
+        .withAggregation("count()")
+        .withGrouping("gender")
+        .build();
+    executor.execute(request);
+    executor.execute(request);
+
+    final ArgumentCaptor<Object> keys = ArgumentCaptor.forClass(Object.class);
+    verify(requestCoalescer, times(2)).execute(keys.capture(),
+        ArgumentMatchers.<Supplier<Object>>any());
+    assertNotEquals(keys.getAllValues().get(0), keys.getAllValues().get(1));
+  }
+
+  @Test
+  void requestsFromDifferentUsersWithSameScopeAreCoalesced() {
+    final RequestCoalescer requestCoalescer = mock(RequestCoalescer.class);
+    final AggregateExecutor executor = new AggregateExecutor(configuration, fhirContext, spark,
+        database, Optional.empty(), new AdmissionController(configuration, spark),
+        requestCoalescer);
+    when(database.getScopeKey()).thenReturn(Optional.of("scope1"));
+
+    final AggregateRequest request = new AggregateRequestBuilder(ResourceType.PATIENT)
+        .withAggregation("count()")
+        .withGrouping("gender")
+        .build();
+    try {
+      for (final String user : List.of("user1", "user2")) {
+        final Jwt jwt = Jwt.withTokenValue("token")
+            .header("alg", "none")
+            .subject(user)
+            .build();
+        SecurityContextHolder.getContext().setAuthentication(new JwtAuthenticationToken(jwt));
+        executor.execute(request);
+      }
+    } finally {
+      SecurityContextHolder.clearContext();
+    }
+
+    final ArgumentCaptor<Object> keys = ArgumentCaptor.forClass(Object.class);
+    verify(requestCoalescer, times(2)).execute(keys.capture(),
+        ArgumentMatchers.<Supplier<Object>>any());
+    assertEquals(keys.getAllValues().get(0), keys.getAllValues().get(1));
+  }
+
+  @Test
+  void approximateQuery() {
+    subjectResource = ResourceType.PATIENT;
+    mockResource(subjectResource);
+
+    final AggregateRequest request = new AggregateRequestBuilder(subjectResource)
+        .withAggregation("count()")
+        .withGrouping("gender")
+        .approximate()
+        .build();
+
+    // The count of distinct patients should be estimated.
+    final LogicalPlan plan = executor.buildQuery(request).getDataset().queryExecution()
+        .analyzed();
+    assertTrue(plan.toString().contains("approx_count_distinct"));
+
+    response = executor.execute(request);
+    assertResponse("AggregateQueryTest/approximateQuery.Parameters.json", response);
+  }
+
+  @Test
+  void approximateQueryWithoutEstimates() {
+    subjectResource = ResourceType.PATIENT;
+    mockResource(subjectResource);
+
+    final AggregateRequest request = new AggregateRequestBuilder(subjectResource)
+        .withAggregation("name.count()")
+        .withGrouping("gender")
+        .approximate()
+        .build();
+
+    // Counts of elements other than the subject resource are not estimated, so the response should
+    // not report a relative error.
+    response = executor.execute(request);
+    assertTrue(response.toParameters().getParameter().stream()
+        .noneMatch(parameter -> parameter.getName().equals("relativeError")));
+  }
+
   @Test
   void multipleGroupingsAndAggregations() {
     subjectResource = ResourceType.ENCOUNTER;
@@ -86,6 +196,67 @@ class AggregateQueryTest extends AggregateExecutorTest {
         response);
   }
 
+  @Test
+  void multipleAggregationsOfSameInput() {
+    subjectResource = ResourceType.PATIENT;
+    mockResource(subjectResource);
+
+    final AggregateRequest request = new AggregateRequestBuilder(subjectResource)
+        .withAggregation("count()")
+        .withAggregation("id.count()")
+        .withAggregation("(maritalStatus.coding.count() > 0).not()")
+        .withGrouping("gender")
+        .build();
+
+    // The first two aggregations share the same input, so they should be computed within a single
+    // aggregation. The third requires the input to be exploded first, so it is computed separately.
+    final LogicalPlan plan = executor.buildQuery(request).getDataset().queryExecution()
+        .analyzed();
+    final List<LogicalPlan> aggregates = new ArrayList<>();
+    plan.foreach(node -> {
+      if (node instanceof Aggregate) {
+        aggregates.add(node);
+      }
+      return BoxedUnit.UNIT;
+    });
+    assertEquals(2, aggregates.size());
+
+    response = executor.execute(request);
+    assertResponse(
+        "AggregateQueryTest/multipleAggregationsOfSameInput.Parameters.json",
+        response);
+  }
+
+  @Test
+  void multipleAggregationsOfSameInputWithNullGroupings() {
+    subjectResource = ResourceType.PATIENT;
+    mockResource(subjectResource);
+
+    final AggregateRequest request = new AggregateRequestBuilder(subjectResource)
+        .withAggregation("count()")
+        .withAggregation("id.count()")
+        .withGrouping("deceasedDateTime")
+        .build();
+
+    // The patients that are not deceased should be counted once within a single grouping, by both
+    // aggregations.
+    final LogicalPlan plan = executor.buildQuery(request).getDataset().queryExecution()
+        .analyzed();
+    final List<LogicalPlan> aggregates = new ArrayList<>();
+    plan.foreach(node -> {
+      if (node instanceof Aggregate) {
+        aggregates.add(node);
+      }
+      return BoxedUnit.UNIT;
+    });
+    assertEquals(1, aggregates.size());
+
+    response = executor.execute(request);
+    assertResponse(
+        "AggregateQueryTest/multipleAggregationsOfSameInputWithNullGroupings.Parameters.json",
+        response);
+  }
+
   @Test
   void queryWithIntegerGroupings() {
     subjectResource = ResourceType.CLAIM;
@@ -29,6 +29,8 @@ public class AggregateRequestBuilder {
   @Nonnull
   private final List<String> filters;
 
+  private boolean approximate;
+
   public AggregateRequestBuilder(@Nonnull final ResourceType subjectResource) {
     this.subjectResource = subjectResource;
     aggregations = new ArrayList<>();
@@ -51,9 +53,14 @@ public class AggregateRequestBuilder {
     return this;
   }
 
+  public AggregateRequestBuilder approximate() {
+    approximate = true;
+    return this;
+  }
+
   public AggregateRequest build() {
     return new AggregateRequest(subjectResource, Optional.of(aggregations), Optional.of(groupings),
-        Optional.of(filters));
+        Optional.of(filters), approximate);
   }
 
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.aggregate;
+
+import static org.apache.spark.sql.functions.lit;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
+import au.csiro.pathling.io.Database;
+import au.csiro.pathling.security.ga4gh.PassportScope;
+import au.csiro.pathling.security.ga4gh.ScopeAwareDatabase;
+import au.csiro.pathling.test.WarehouseTest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.hl7.fhir.r4.model.PrimitiveType;
+import org.hl7.fhir.r4.model.Type;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = {
+    "pathling.aggregateViews.patientsByGender.subjectResource=Patient",
+    "pathling.aggregateViews.patientsByGender.aggregations[0]=count()",
+    "pathling.aggregateViews.patientsByGender.groupings[0]=gender"})
+class AggregateViewTest extends WarehouseTest {
+
+  static final String VIEW_NAME = "patientsByGender";
+
+  AggregateExecutor executor;
+
+  @BeforeEach
+  void setUp() {
+    executor = new AggregateExecutor(configuration, fhirContext, spark, database, Optional.empty(),
+        new AdmissionController(configuration, spark), new RequestCoalescer(Optional.empty()));
+
+    database.merge(ResourceType.PATIENT, List.of(
+        patient("1", AdministrativeGender.MALE),
+        patient("2", AdministrativeGender.MALE),
+        patient("3", AdministrativeGender.FEMALE)));
+  }
+
+  @Test
+  void materialisesViewAfterUpdate() {
+    assertTrue(isMaterialised());
+    assertEquals(List.of("female|1", "male|2"), readView());
+  }
+
+  @Test
+  void answersMatchingRequestFromView() {
+    final AggregateRequest request = new AggregateRequestBuilder(ResourceType.PATIENT)
+        .withAggregation("count()")
+        .withGrouping(" gender ")
+        .build();
+    assertEquals(List.of("female|1", "male|2"), execute(request));
+
+    // Replace the counts within the view, to show that the result is read from it.
+    final String version = database.getCacheKey().orElseThrow();
+    final Dataset<Row> view = database.readView(VIEW_NAME, version).orElseThrow();
+    database.writeView(VIEW_NAME, view.withColumn("aggregation0",
+        lit(5).cast(view.schema().apply("aggregation0").dataType())), version);
+    assertEquals(List.of("female|5", "male|5"), execute(request));
+  }
+
+  @Test
+  void rollsUpViewWithAdditionalGroupings() {
+    final AggregateRequest request = new AggregateRequestBuilder(ResourceType.PATIENT)
+        .withAggregation("count()")
+        .build();
+
+    assertEquals(List.of("3"), execute(request));
+  }
+
+  @Test
+  void doesNotUseViewWithDifferentFilters() {
+    final AggregateRequest request = new AggregateRequestBuilder(ResourceType.PATIENT)
+        .withAggregation("count()")
+        .withGrouping("gender")
+        .withFilter("gender = 'male'")
+        .build();
+
+    assertEquals(List.of("male|2"), execute(request));
+  }
+
+  @Test
+  void updatesViewIncrementallyAfterMerge() {
+    database.merge(ResourceType.PATIENT, List.of(
+        patient("1", AdministrativeGender.FEMALE),
+        patient("4", AdministrativeGender.FEMALE)));
+    assertTrue(isMaterialised());
+    assertEquals(List.of("female|3", "male|1"), readView());
+
+    database.merge(ResourceType.PATIENT, patient("2", AdministrativeGender.OTHER));
+    assertEquals(List.of("female|3", "other|1"), readView());
+  }
+
+  @Test
+  void carriesViewOverAfterUpdateToOtherResources() {
+    database.merge(ResourceType.CONDITION, condition("a", "Patient/1"));
+    assertTrue(isMaterialised());
+    assertEquals(List.of("female|1", "male|2"), readView());
+  }
+
+  @Test
+  void doesNotUseViewWithinPassportScope() {
+    final AggregateRequest request = new AggregateRequestBuilder(ResourceType.PATIENT)
+        .withAggregation("count()")
+        .withGrouping("gender")
+        .build();
+
+    assertEquals(List.of("male|2"), execute(scopedExecutor("gender = 'male'"), request));
+    assertEquals(List.of("female|1"), execute(scopedExecutor("gender = 'female'"), request));
+    assertEquals(List.of("female|1", "male|2"), execute(request));
+  }
+
+  private AggregateExecutor scopedExecutor(final String filter) {
+    final PassportScope scope = new PassportScope();
+    scope.put(ResourceType.PATIENT, Set.of(filter));
+    final Database scopedDatabase = new ScopeAwareDatabase(configuration, fhirContext, spark,
+        fhirEncoders, Optional.empty(), Optional.of(scope), threadPoolTaskExecutor,
+        tableMaintenance);
+    return new AggregateExecutor(configuration, fhirContext, spark, scopedDatabase,
+        Optional.empty(), new AdmissionController(configuration, spark),
+        new RequestCoalescer(Optional.empty()));
+  }
+
+  private List<String> execute(final AggregateRequest request) {
+    return execute(executor, request);
+  }
+
+  private static List<String> execute(final AggregateExecutor executor,
+      final AggregateRequest request) {
+    return executor.execute(request).getGroupings().stream()
+        .map(grouping -> {
+          final List<Optional<Type>> values = new ArrayList<>(grouping.getLabels());
+          values.addAll(grouping.getResults());
+          return values.stream()
+              .map(value -> value.map(v -> ((PrimitiveType<?>) v).getValueAsString())
+                  .orElse("null"))
+              .collect(Collectors.joining("|"));
+        })
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private List<String> readView() {
+    return database.readView(VIEW_NAME, database.getCacheKey().orElseThrow()).orElseThrow()
+        .collectAsList().stream()
+        .map(row -> row.get(0) + "|" + row.get(1))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private boolean isMaterialised() {
+    return database.readView(VIEW_NAME, database.getCacheKey().orElseThrow()).isPresent();
+  }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.async;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+import au.csiro.pathling.config.AsyncConfiguration;
+import au.csiro.pathling.config.AuthorizationConfiguration;
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.spark.QueryCanceller;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class JobProviderTest {
+
+  QueryCanceller queryCanceller;
+  JobRegistry jobRegistry;
+  JobProvider jobProvider;
+  ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    final AsyncConfiguration async = new AsyncConfiguration();
+    async.setRetention(60);
+    async.setMaxJobs(10);
+    final Configuration configuration = new Configuration();
+    configuration.setAsync(async);
+    configuration.setAuth(new AuthorizationConfiguration());
+
+    queryCanceller = mock(QueryCanceller.class);
+    jobRegistry = new JobRegistry(configuration);
+    jobProvider = new JobProvider(configuration, jobRegistry, queryCanceller);
+    executor = Executors.newSingleThreadExecutor();
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void releasesQueuedJobWhenDeleted() throws Exception {
+    // Occupy the only thread, so that the job stays in the queue.
+    final CountDownLatch blocker = new CountDownLatch(1);
+    executor.execute(() -> {
+      try {
+        blocker.await();
+      } catch (final InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    });
+    final AtomicBoolean ran = new AtomicBoolean();
+    final JobTask task = new JobTask(() -> {
+      ran.set(true);
+      return null;
+    }, () -> queryCanceller.release("queued"));
+    executor.execute(task);
+    jobRegistry.put("queued", new Job("extract", task, Optional.empty()));
+
+    jobProvider.deleteJob("queued");
+    verify(queryCanceller).cancel("queued");
+    verify(queryCanceller).release("queued");
+
+    blocker.countDown();
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(10, TimeUnit.SECONDS));
+    assertFalse(ran.get());
+  }
+
+  @Test
+  void leavesRunningJobToReleaseItself() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final JobTask task = new JobTask(() -> {
+      started.countDown();
+      new CountDownLatch(1).await();
+      return null;
+    }, () -> queryCanceller.release("running"));
+    executor.execute(task);
+    jobRegistry.put("running", new Job("extract", task, Optional.empty()));
+    assertTrue(started.await(10, TimeUnit.SECONDS));
+
+    jobProvider.deleteJob("running");
+    verify(queryCanceller).cancel("running");
+    verify(queryCanceller, never()).release("running");
+  }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.async;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.Mockito.mock;
+
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class JobTest {
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void reportsTaskProgressAndEstimate() {
+    final Job job = new Job("aggregate", mock(Future.class), Optional.empty(), 0);
+    assertEquals(0, job.getProgressPercentage());
+    assertEquals(Optional.empty(), job.getEstimatedSecondsRemaining(1000));
+
+    job.stageSubmitted(3);
+    job.stageSubmitted(1);
+    job.taskCompleted(100);
+    assertEquals(25, job.getProgressPercentage());
+    assertEquals(100, job.getBytesProcessed());
+    // One task took 10 seconds, so the remaining three are estimated to take 30 seconds.
+    assertEquals(Optional.of(30L), job.getEstimatedSecondsRemaining(10000));
+
+    job.taskCompleted(50);
+    job.taskCompleted(50);
+    job.taskCompleted(0);
+    job.stageCompleted();
+    job.stageCompleted();
+    assertEquals(100, job.getProgressPercentage());
+    assertEquals(200, job.getBytesProcessed());
+    assertEquals(2, job.getCompletedStages());
+    assertEquals(Optional.of(0L), job.getEstimatedSecondsRemaining(20000));
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  void countsConcurrentUpdates() throws Exception {
+    final Job job = new Job("extract", mock(Future.class), Optional.empty());
+    final ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      for (int i = 0; i < 4; i++) {
+        executor.submit(() -> {
+          for (int j = 0; j < 1000; j++) {
+            job.stageSubmitted(1);
+            job.taskCompleted(1);
+          }
+        });
+      }
+      executor.shutdown();
+      executor.awaitTermination(10, TimeUnit.SECONDS);
+    } finally {
+      executor.shutdownNow();
+    }
+    assertEquals(4000, job.getTotalStages());
+    assertEquals(4000, job.getCompletedTasks());
+    assertEquals(4000, job.getBytesProcessed());
+  }
+
+  @Test
+  void removesStagesOfJob() {
+    final StageMap stageMap = new StageMap();
+    stageMap.put(1, "a");
+    stageMap.put(2, "a");
+    stageMap.put(3, "b");
+    stageMap.removeJob("a");
+    assertNull(stageMap.get(1));
+    assertNull(stageMap.get(2));
+    assertEquals("b", stageMap.get(3));
+    assertEquals(1, stageMap.size());
+  }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.caching;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nonnull;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class ExpiringRegistryTest {
+
+  AtomicLong time;
+  List<String> evicted;
+  Set<String> pinned;
+  ExpiringRegistry<String> registry;
+
+  @BeforeEach
+  void setUp() {
+    time = new AtomicLong(0);
+    evicted = new ArrayList<>();
+    pinned = new HashSet<>();
+    registry = new ExpiringRegistry<>(10, 3, time::get) {
+      @Override
+      protected boolean isEvictable(@Nonnull final String value) {
+        return !pinned.contains(value);
+      }
+
+      @Override
+      protected void onEviction(@Nonnull final String key, @Nonnull final String value) {
+        evicted.add(key);
+      }
+    };
+  }
+
+  @Test
+  void expiresValuesAfterRetentionPeriod() {
+    registry.put("a", "1");
+    time.set(9_999);
+    assertEquals("1", registry.get("a"));
+    time.set(10_000);
+    assertNull(registry.get("a"));
+    assertEquals(List.of("a"), evicted);
+  }
+
+  @Test
+  void evictsExpiredValuesWhenAdding() {
+    registry.put("a", "1");
+    time.set(10_000);
+    registry.put("b", "2");
+    assertEquals(1, registry.size());
+    assertEquals(List.of("a"), evicted);
+  }
+
+  @Test
+  void evictsOldestValuesWhenFull() {
+    registry.put("a", "1");
+    time.set(1);
+    registry.put("b", "2");
+    time.set(2);
+    registry.put("c", "3");
+    time.set(3);
+    registry.put("d", "4");
+    assertEquals(3, registry.size());
+    assertNull(registry.get("a"));
+    assertEquals(List.of("a"), evicted);
+  }
+
+  @Test
+  void retainsValuesThatAreNotEvictable() {
+    pinned.add("1");
+    registry.put("a", "1");
+    time.set(20_000);
+    registry.evict();
+    assertEquals("1", registry.get("a"));
+
+    // The retention period starts again once the value becomes evictable.
+    pinned.clear();
+    time.set(29_999);
+    assertEquals("1", registry.get("a"));
+    time.set(30_000);
+    assertNull(registry.get("a"));
+  }
+
+}
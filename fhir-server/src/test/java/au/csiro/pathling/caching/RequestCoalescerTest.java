@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.caching;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class RequestCoalescerTest {
+
+  RequestCoalescer coalescer;
+  ExecutorService executor;
+
+  @BeforeEach
+  void setUp() {
+    coalescer = new RequestCoalescer(Optional.empty());
+    executor = Executors.newFixedThreadPool(2);
+  }
+
+  @AfterEach
+  void tearDown() {
+    executor.shutdownNow();
+  }
+
+  @Test
+  void followersShareResultOfLeader() throws Exception {
+    final AtomicInteger executions = new AtomicInteger();
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Future<String> leader = executor.submit(() -> coalescer.execute(List.of("a", 1), () -> {
+      executions.incrementAndGet();
+      started.countDown();
+      await(release);
+      return "result";
+    }));
+    started.await(10, TimeUnit.SECONDS);
+    final Future<String> follower = executor.submit(() -> coalescer.execute(List.of("a", 1),
+        () -> {
+          executions.incrementAndGet();
+          return "other";
+        }));
+    // Wait for the follower to join the flight before releasing the leader.
+    Thread.sleep(200);
+    release.countDown();
+
+    assertEquals("result", leader.get(10, TimeUnit.SECONDS));
+    assertEquals("result", follower.get(10, TimeUnit.SECONDS));
+    assertEquals(1, executions.get());
+    assertEquals(0, coalescer.getInFlightCount());
+  }
+
+  @Test
+  void differentKeysAreNotCoalesced() {
+    assertEquals("a", coalescer.execute(List.of("a"), () -> "a"));
+    assertEquals("b", coalescer.execute(List.of("b"), () -> "b"));
+    // Results are not retained once a request has completed.
+    assertEquals("c", coalescer.execute(List.of("a"), () -> "c"));
+  }
+
+  @Test
+  void followerRetriesWhenLeaderFails() throws Exception {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+
+    final Future<String> leader = executor.submit(() -> coalescer.execute("key", () -> {
+      started.countDown();
+      await(release);
+      throw new IllegalStateException("cancelled");
+    }));
+    started.await(10, TimeUnit.SECONDS);
+    final Future<String> follower = executor.submit(() -> coalescer.execute("key",
+        () -> "retried"));
+    Thread.sleep(200);
+    release.countDown();
+
+    final ExecutionException error = assertThrows(ExecutionException.class,
+        () -> leader.get(10, TimeUnit.SECONDS));
+    assertEquals(IllegalStateException.class, error.getCause().getClass());
+    assertEquals("retried", follower.get(10, TimeUnit.SECONDS));
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
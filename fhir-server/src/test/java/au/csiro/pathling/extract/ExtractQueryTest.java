@@ -9,26 +9,36 @@ package au.csiro.pathling.extract;
 import static au.csiro.pathling.test.assertions.Assertions.assertThat;
 import static au.csiro.pathling.test.helpers.TestHelpers.mockEmptyResource;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.encoders.FhirEncoders;
 import au.csiro.pathling.errors.InvalidUserInputError;
 import au.csiro.pathling.fhir.TerminologyServiceFactory;
 import au.csiro.pathling.io.Database;
+import au.csiro.pathling.io.ResultFormat;
 import au.csiro.pathling.io.ResultWriter;
 import au.csiro.pathling.test.SharedMocks;
 import au.csiro.pathling.test.TimingExtension;
 import au.csiro.pathling.test.helpers.TestHelpers;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.parser.IParser;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.plans.logical.GlobalLimit;
+import org.apache.spark.sql.catalyst.plans.logical.Join;
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan;
+import org.apache.spark.sql.catalyst.plans.logical.Sort;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Tag;
@@ -36,6 +46,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import scala.runtime.BoxedUnit;
 
 /**
  * @author John Grimes
@@ -77,7 +88,8 @@ class ExtractQueryTest {
     final ResultWriter resultWriter = mock(ResultWriter.class);
     final ResultRegistry resultRegistry = mock(ResultRegistry.class);
     executor = new ExtractExecutor(configuration, fhirContext, spark, database,
-        Optional.ofNullable(terminologyServiceFactory), resultWriter, resultRegistry);
+        Optional.ofNullable(terminologyServiceFactory), resultWriter, resultRegistry,
+        new AdmissionController(configuration, spark), new RequestCoalescer(Optional.empty()));
   }
 
   @Test
@@ -234,6 +246,59 @@ class ExtractQueryTest {
         .hasRows(spark, "responses/ExtractQueryTest/limit.csv");
   }
 
+  @Test
+  void limitAppliedBeforeColumnsAreJoined() {
+    subjectResource = ResourceType.PATIENT;
+    mockResource(ResourceType.PATIENT, ResourceType.CONDITION);
+
+    final ExtractRequest request = new ExtractRequestBuilder(subjectResource)
+        .withColumn("id")
+        .withColumn("gender")
+        .withFilter("gender = 'female'")
+        .withLimit(3)
+        .build();
+
+    final Dataset<Row> result = executor.buildQuery(request);
+    final LogicalPlan plan = result.queryExecution().analyzed();
+    final List<LogicalPlan> limitsBelowJoins = new ArrayList<>();
+    plan.foreach(node -> {
+      if (node instanceof Join) {
+        node.foreach(child -> {
+          if (child instanceof GlobalLimit) {
+            limitsBelowJoins.add(child);
+          }
+          return BoxedUnit.UNIT;
+        });
+      }
+      return BoxedUnit.UNIT;
+    });
+    assertFalse(limitsBelowJoins.isEmpty());
+    // The limited IDs are only read once, so they do not need to be sorted.
+    assertTrue(plan.find(node -> node instanceof Sort).isEmpty());
+    assertThat(result)
+        .hasRows(spark, "responses/ExtractQueryTest/limit.csv");
+  }
+
+  @Test
+  void limitWithLiteralColumn() {
+    subjectResource = ResourceType.PATIENT;
+    mockResource(ResourceType.PATIENT, ResourceType.CONDITION);
+
+    final ExtractRequest request = new ExtractRequestBuilder(subjectResource)
+        .withColumn("'female'")
+        .withColumn("gender")
+        .withFilter("gender = 'female'")
+        .withLimit(3)
+        .build();
+
+    final List<Row> rows = executor.buildQuery(request).collectAsList();
+    assertEquals(3, rows.size());
+    for (final Row row : rows) {
+      assertEquals("female", row.getString(0));
+      assertEquals("female", row.getString(1));
+    }
+  }
+
   @Test
   void eliminatesTrailingNulls() {
     subjectResource = ResourceType.PATIENT;
@@ -355,6 +420,25 @@ class ExtractQueryTest {
     }
   }
 
+  @Test
+  void unknownFormat() {
+    final InvalidUserInputError error = assertThrows(
+        InvalidUserInputError.class,
+        () -> new ExtractRequestBuilder(ResourceType.PATIENT)
+            .withColumn("id")
+            .withFormat("xml")
+            .build());
+    assertEquals("Unsupported format: xml", error.getMessage());
+  }
+
+  @Test
+  void defaultFormat() {
+    final ExtractRequest request = new ExtractRequestBuilder(ResourceType.PATIENT)
+        .withColumn("id")
+        .build();
+    assertEquals(ResultFormat.CSV, request.getFormat());
+  }
+
   void mockResource(final ResourceType... resourceTypes) {
     TestHelpers.mockResource(database, spark, resourceTypes);
   }
@@ -34,12 +34,16 @@ public class ExtractRequestBuilder {
   @Nonnull
   private String requestId;
 
+  @Nullable
+  private String format;
+
   public ExtractRequestBuilder(@Nonnull final ResourceType subjectResource) {
     this.subjectResource = subjectResource;
     columns = new ArrayList<>();
     filters = new ArrayList<>();
     limit = null;
     requestId = UUID.randomUUID().toString();
+    format = null;
   }
 
   public ExtractRequestBuilder withColumn(@Nonnull final String expression) {
@@ -57,6 +61,11 @@ public class ExtractRequestBuilder {
     return this;
   }
 
+  public ExtractRequestBuilder withFormat(@Nonnull final String format) {
+    this.format = format;
+    return this;
+  }
+
   @SuppressWarnings("unused")
   public ExtractRequestBuilder withRequestId(@Nonnull final String requestId) {
     this.requestId = requestId;
@@ -65,7 +74,8 @@ public class ExtractRequestBuilder {
 
   public ExtractRequest build() {
     return new ExtractRequest(subjectResource, Optional.of(columns), Optional.of(filters),
-        Optional.ofNullable(limit), requestId);
+        Optional.ofNullable(limit), requestId, Optional.ofNullable(format), Optional.empty(),
+        false);
   }
 
 }
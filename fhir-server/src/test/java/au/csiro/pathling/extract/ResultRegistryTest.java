@@ -0,0 +1,126 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.extract;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import au.csiro.pathling.config.ResultConfiguration;
+import au.csiro.pathling.test.WarehouseTest;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Optional;
+import javax.annotation.Nonnull;
+import org.apache.hadoop.fs.FileSystem;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class ResultRegistryTest extends WarehouseTest {
+
+  ResultConfiguration results;
+  Integer retention;
+  Integer maxEntries;
+  boolean persistent;
+
+  @BeforeEach
+  void setUp() {
+    results = configuration.getResults();
+    retention = results.getRetention();
+    maxEntries = results.getMaxEntries();
+    persistent = results.isPersistent();
+    results.setPersistent(true);
+  }
+
+  @AfterEach
+  void tearDown() {
+    results.setRetention(retention);
+    results.setMaxEntries(maxEntries);
+    results.setPersistent(persistent);
+  }
+
+  @Test
+  void sweepRemovesExpiredResultsFromMemory() throws IOException {
+    results.setRetention(10);
+    results.setMaxEntries(100);
+    final ResultRegistry registry = new ResultRegistry(configuration, spark);
+    try {
+      final Path file = putResult(registry, "a");
+      ageMetadata("a", 20_000);
+      assertNotNull(registry.get("a"));
+
+      // The result is evicted from memory along with its file, so it is no longer found.
+      registry.sweep();
+      assertNull(registry.get("a"));
+      assertFalse(Files.exists(file));
+    } finally {
+      registry.shutdown();
+    }
+  }
+
+  @Test
+  void sweepLimitsPersistedResultsWithoutRetention() throws IOException {
+    results.setRetention(0);
+    results.setMaxEntries(3);
+    final ResultRegistry writer = new ResultRegistry(configuration, spark);
+    final Path oldest;
+    try {
+      oldest = putResult(writer, "a");
+      ageMetadata("a", 3_000);
+      putResult(writer, "b");
+      ageMetadata("b", 2_000);
+      putResult(writer, "c");
+      ageMetadata("c", 1_000);
+    } finally {
+      writer.shutdown();
+    }
+
+    // Another server with a lower limit finds the results within the warehouse, and deletes the
+    // oldest of them.
+    results.setMaxEntries(2);
+    final ResultRegistry reader = new ResultRegistry(configuration, spark);
+    try {
+      reader.sweep();
+      assertNull(reader.get("a"));
+      assertFalse(Files.exists(oldest));
+      assertNotNull(reader.get("b"));
+      assertNotNull(reader.get("c"));
+    } finally {
+      reader.shutdown();
+    }
+  }
+
+  @Nonnull
+  private Path putResult(@Nonnull final ResultRegistry registry, @Nonnull final String key)
+      throws IOException {
+    final Path file = Path.of(URI.create(warehouseUrl() + "/results/" + key + ".csv"));
+    Files.createDirectories(file.getParent());
+    Files.writeString(file, "id\n1\n");
+    registry.put(key, new Result(file.toUri().toString(), Optional.empty(), "text/csv",
+        Optional.empty()));
+    assertTrue(Files.exists(file));
+    return file;
+  }
+
+  private void ageMetadata(@Nonnull final String key, final long age) throws IOException {
+    final String metadataUrl = warehouseUrl() + "/results/.registry/" + key + ".properties";
+    final FileSystem fileSystem = FileSystem.get(URI.create(metadataUrl),
+        spark.sparkContext().hadoopConfiguration());
+    fileSystem.setTimes(new org.apache.hadoop.fs.Path(metadataUrl),
+        System.currentTimeMillis() - age, -1);
+  }
+
+  @Nonnull
+  private String warehouseUrl() {
+    return configuration.getStorage().getWarehouseUrl();
+  }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.fhir;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.availability.ApplicationAvailability;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+@Tag("UnitTest")
+class HealthInterceptorTest {
+
+  @Test
+  void reportsReadiness() throws IOException {
+    final ApplicationAvailability availability = mock(ApplicationAvailability.class);
+    final HealthInterceptor interceptor = new HealthInterceptor(availability);
+
+    when(availability.getReadinessState()).thenReturn(ReadinessState.REFUSING_TRAFFIC);
+    MockHttpServletResponse response = new MockHttpServletResponse();
+    assertFalse(interceptor.serveHealth(healthRequest(), response));
+    assertEquals(503, response.getStatus());
+
+    when(availability.getReadinessState()).thenReturn(ReadinessState.ACCEPTING_TRAFFIC);
+    response = new MockHttpServletResponse();
+    assertFalse(interceptor.serveHealth(healthRequest(), response));
+    assertEquals(200, response.getStatus());
+    assertEquals("{\"status\":\"UP\"}", response.getContentAsString());
+  }
+
+  @Test
+  void ignoresOtherRequests() throws IOException {
+    final HealthInterceptor interceptor = new HealthInterceptor(
+        mock(ApplicationAvailability.class));
+    final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/fhir/metadata");
+    request.setPathInfo("/metadata");
+    assertTrue(interceptor.serveHealth(request, new MockHttpServletResponse()));
+  }
+
+  private static MockHttpServletRequest healthRequest() {
+    final MockHttpServletRequest request = new MockHttpServletRequest("GET", "/fhir/health");
+    request.setPathInfo("/health");
+    return request;
+  }
+
+}
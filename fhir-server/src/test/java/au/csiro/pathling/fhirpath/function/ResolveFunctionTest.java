@@ -11,7 +11,10 @@ import static au.csiro.pathling.test.builders.DatasetBuilder.makeEid;
 import static au.csiro.pathling.test.helpers.SparkHelpers.referenceStructType;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import au.csiro.pathling.encoders.FhirEncoders;
@@ -262,6 +265,55 @@ class ResolveFunctionTest {
   }
 
 
+  @Test
+  void polymorphicResolveDoesNotReadTables() {
+    final Optional<ElementDefinition> optionalDefinition = FhirHelpers
+        .getChildOfResource(fhirContext, "Encounter", "subject");
+    assertTrue(optionalDefinition.isPresent());
+    final ElementDefinition definition = optionalDefinition.get();
+
+    final Dataset<Row> referenceDataset = new DatasetBuilder(spark)
+        .withIdColumn()
+        .withStructTypeColumns(referenceStructType())
+        .withRow("encounter-1", RowFactory.create(null, "Patient/patient-1", null))
+        .withRow("encounter-2", RowFactory.create(null, "Group/group-1", null))
+        .withRow("encounter-3", RowFactory.create(null, "Location/location-1", null))
+        .withRow("encounter-4", RowFactory.create(null, "Patient/patient-1/_history/1", null))
+        .withRow("encounter-5", null)
+        .buildWithStructValue();
+    final ElementPath referencePath = new ElementPathBuilder(spark)
+        .expression("Encounter.subject")
+        .dataset(referenceDataset)
+        .idAndValueColumns()
+        .singular(true)
+        .definition(definition)
+        .buildDefined();
+
+    final NamedFunctionInput resolveInput = buildFunctionInput(referencePath);
+    final FhirPath result = invokeResolve(resolveInput);
+
+    assertTrue(result instanceof UntypedResourcePath);
+    // The tables of the target types are only read when ofType is invoked.
+    verify(database, never()).read(any());
+
+    // Only the references prefixed with one of the types allowed by the element are given a type.
+    final Dataset<Row> expectedDataset = new DatasetBuilder(spark)
+        .withIdColumn()
+        .withTypeColumn()
+        .withStructTypeColumns(referenceStructType())
+        .withRow("encounter-1", "Patient", RowFactory.create(null, "Patient/patient-1", null))
+        .withRow("encounter-2", "Group", RowFactory.create(null, "Group/group-1", null))
+        .withRow("encounter-3", null, RowFactory.create(null, "Location/location-1", null))
+        .withRow("encounter-4", null,
+            RowFactory.create(null, "Patient/patient-1/_history/1", null))
+        .withRow("encounter-5", null, null)
+        .buildWithStructValue();
+    assertThat((UntypedResourcePath) result)
+        .selectUntypedResourceResult()
+        .hasRows(expectedDataset);
+  }
+
+
   @Test
   void throwExceptionWhenInputNotReference() {
     final Dataset<Row> patientDataset = new DatasetBuilder(spark)
@@ -18,15 +18,27 @@ import static au.csiro.pathling.test.fixtures.PatientListBuilder.allPatientsWith
 import static au.csiro.pathling.test.helpers.TerminologyHelpers.CD_SNOMED_284551006;
 import static au.csiro.pathling.test.helpers.TerminologyHelpers.CD_SNOMED_403190006;
 import static au.csiro.pathling.test.helpers.TerminologyHelpers.setOfSimpleFrom;
+import static au.csiro.pathling.test.helpers.TestHelpers.getDatasetForResourceType;
 import static au.csiro.pathling.test.helpers.TestHelpers.mockEmptyResource;
+import static org.apache.spark.sql.functions.array;
+import static org.apache.spark.sql.functions.concat;
+import static org.apache.spark.sql.functions.filter;
+import static org.apache.spark.sql.functions.lit;
+import static org.apache.spark.sql.functions.when;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.when;
 
 import au.csiro.pathling.encoders.FhirEncoders;
 import au.csiro.pathling.errors.InvalidUserInputError;
+import au.csiro.pathling.fhirpath.FhirPath;
 import au.csiro.pathling.fhirpath.ResourcePath;
 import au.csiro.pathling.fhirpath.element.BooleanPath;
 import au.csiro.pathling.fhirpath.element.DatePath;
@@ -49,6 +61,17 @@ import au.csiro.pathling.test.fixtures.RelationBuilder;
 import au.csiro.pathling.test.helpers.TerminologyHelpers;
 import java.sql.Date;
 import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import javax.annotation.Nonnull;
+import org.apache.spark.sql.Column;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.catalyst.plans.logical.Aggregate;
+import org.apache.spark.sql.catalyst.plans.logical.Generate;
+import org.apache.spark.sql.catalyst.plans.logical.Join;
+import org.apache.spark.sql.catalyst.plans.logical.LogicalPlan;
+import org.apache.spark.sql.types.ArrayType;
 import org.apache.spark.sql.types.DataTypes;
 import org.hl7.fhir.r4.model.Coding;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
@@ -714,5 +737,95 @@ public class ParserTest extends AbstractParserTest {
         expression);
     assertEquals("No such child: " + expression, error.getMessage());
   }
- 
+
+  @Test
+  void testIdenticalSubexpressionsAreReused() {
+    final FhirPath first = parser.parse("reverseResolve(Encounter.subject)");
+    final FhirPath second = parser.parse("reverseResolve( Encounter.subject )");
+    final FhirPath other = parser.parse("reverseResolve(Condition.subject)");
+    assertSame(first.getDataset(), second.getDataset());
+    assertNotSame(first.getDataset(), other.getDataset());
+  }
+
+  @Test
+  void testExpressionsDifferingOnlyInLiteralsAreEvaluatedSeparately() {
+    final FhirPath official = parser.parse("name.where(use = 'official').given");
+    final FhirPath maiden = parser.parse("name.where(use='maiden').given");
+    assertEquals("name.where($this.use = 'official').given", official.getExpression());
+    assertEquals("name.where($this.use = 'maiden').given", maiden.getExpression());
+    assertNotSame(official.getDataset(), maiden.getDataset());
+    assertNotEquals(official.getDataset().where(official.getValueColumn().isNotNull()).count(),
+        maiden.getDataset().where(maiden.getValueColumn().isNotNull()).count());
+  }
+
+  @Test
+  void testOperandsWithSameLineageAreNotJoined() {
+    final FhirPath result = parser.parse("gender = 'female' and active");
+    final LogicalPlan plan = result.getDataset().queryExecution().analyzed();
+    assertTrue(plan.find(node -> node instanceof Join).isEmpty());
+    assertEquals(database.read(ResourceType.PATIENT).count(), result.getDataset().count());
+  }
+
+  @Test
+  void testAggregationOverArrayIsNotExploded() {
+    final FhirPath result = parser.parse("name.count() > 1 and name.first().given.empty()");
+    final LogicalPlan plan = result.getDataset().queryExecution().analyzed();
+    assertTrue(plan.find(node -> node instanceof Generate || node instanceof Aggregate).isEmpty());
+  }
+
+  @Test
+  void testAggregationOverArrayMatchesExplodedResult() {
+    // Give one patient a null array of names, another an empty array, and another a null element
+    // before its first name.
+    final Dataset<Row> patients = getDatasetForResourceType(spark, ResourceType.PATIENT);
+    final Column id = patients.col("id");
+    final Column name = patients.col("name");
+    final ArrayType nameType = (ArrayType) patients.schema().apply("name").dataType();
+    final Dataset<Row> dataset = patients.withColumn("name",
+        when(id.equalTo(PATIENT_ID_121503c8), lit(null).cast(nameType))
+            .when(id.equalTo(PATIENT_ID_2b36c1e2), filter(name, element -> lit(false)))
+            .when(id.equalTo(PATIENT_ID_7001ad9c),
+                concat(array(lit(null).cast(nameType.elementType())), name))
+            .otherwise(name));
+    when(database.read(ResourceType.PATIENT)).thenReturn(dataset);
+
+    for (final String expression : List.of("name.count()", "name.empty()", "name.first().family",
+        "name.first().given.count()", "name.first().given.first()")) {
+      final FhirPath arrayResult = parseForPatient(expression, true);
+      final FhirPath explodedResult = parseForPatient(expression, false);
+      assertTrue(arrayResult.getDataset().queryExecution().analyzed()
+          .find(node -> node instanceof Generate).isEmpty(), expression);
+      assertTrue(explodedResult.getDataset().queryExecution().analyzed()
+          .find(node -> node instanceof Generate).isDefined(), expression);
+      assertThat(arrayResult)
+          .selectResult()
+          .hasRowsUnordered(explodedResult.getDataset()
+              .select(explodedResult.getIdColumn(), explodedResult.getValueColumn()));
+    }
+  }
+
+  /**
+   * Parses an expression against the patient resource, optionally preventing aggregations from
+   * being evaluated upon the arrays that collections were exploded from.
+   */
+  @Nonnull
+  private FhirPath parseForPatient(@Nonnull final String expression,
+      final boolean useNestedArrays) {
+    final ResourcePath subjectResource = ResourcePath
+        .build(fhirContext, database, ResourceType.PATIENT, ResourceType.PATIENT.toCode(), true);
+    ParserContext parserContext = new ParserContextBuilder(spark, fhirContext)
+        .terminologyClientFactory(terminologyServiceFactory)
+        .database(database)
+        .inputContext(subjectResource)
+        .groupingColumns(Collections.singletonList(subjectResource.getIdColumn()))
+        .build();
+    if (!useNestedArrays) {
+      // Nothing that is recorded about the arrays will be retained, so each aggregation will need to
+      // be evaluated over the exploded collection.
+      parserContext = spy(parserContext);
+      when(parserContext.getNestedArrays()).thenAnswer(invocation -> new IdentityHashMap<>());
+    }
+    return new Parser(parserContext).parse(expression);
+  }
+
 }
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.io;
+
+import static au.csiro.pathling.io.PersistenceScheme.getEdgeTableUrl;
+import static au.csiro.pathling.io.PersistenceScheme.getTableUrl;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import au.csiro.pathling.config.StorageConfiguration;
+import au.csiro.pathling.fhirpath.FhirPath;
+import au.csiro.pathling.fhirpath.ResourcePath;
+import au.csiro.pathling.fhirpath.parser.Parser;
+import au.csiro.pathling.fhirpath.parser.ParserContext;
+import au.csiro.pathling.test.WarehouseTest;
+import au.csiro.pathling.test.builders.ParserContextBuilder;
+import io.delta.tables.DeltaTable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collectors;
+import javax.annotation.Nonnull;
+import org.apache.spark.sql.Dataset;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.SaveMode;
+import org.apache.spark.sql.catalyst.plans.logical.RepartitionByExpression;
+import org.apache.spark.sql.execution.SparkPlan;
+import org.apache.spark.sql.execution.exchange.ENSURE_REQUIREMENTS$;
+import org.apache.spark.sql.execution.exchange.ShuffleExchangeExec;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.context.TestPropertySource;
+
+@TestPropertySource(properties = "pathling.storage.edgeTables=true")
+class DatabaseTest extends WarehouseTest {
+
+  @BeforeEach
+  void setUp() {
+    database.merge(ResourceType.PATIENT, List.of(patient("1"), patient("2"), patient("3")));
+    database.merge(ResourceType.CONDITION, List.of(
+        condition("a", "Patient/1"),
+        condition("b", "Patient/1"),
+        condition("c", "Patient/2"),
+        condition("d", "Group/1"),
+        condition("e", null)));
+  }
+
+  @AfterEach
+  void tearDown() {
+    // Restore the settings that are changed by individual tests.
+    final StorageConfiguration storage = configuration.getStorage();
+    storage.setEdgeTables(true);
+    storage.setPatientPartitions(0);
+    configuration.getSpark().setCacheDatasets(true);
+  }
+
+  @Test
+  void writesEdgeTables() {
+    assertEquals(List.of("a|Patient|1", "b|Patient|1", "c|Patient|2", "d|Group|1"),
+        readEdges());
+
+    database.merge(ResourceType.CONDITION, condition("f", "Patient/3"));
+    assertEquals(List.of("a|Patient|1", "b|Patient|1", "c|Patient|2", "d|Group|1", "f|Patient|3"),
+        readEdges());
+  }
+
+  @Test
+  void mergesEdgesOfChangedResources() {
+    database.merge(ResourceType.CONDITION, List.of(
+        condition("a", "Patient/2"),
+        condition("d", null)));
+
+    assertEquals(List.of("a|Patient|2", "b|Patient|1", "c|Patient|2"), readEdges());
+    final String edgeTableUrl = getEdgeTableUrl(configuration.getStorage().getWarehouseUrl(),
+        configuration.getStorage().getDatabaseName(), ResourceType.CONDITION, "subject");
+    final List<String> operations = DeltaTable.forPath(spark, edgeTableUrl).history(2)
+        .select("operation").collectAsList().stream()
+        .map(row -> row.getString(0))
+        .collect(Collectors.toList());
+    assertEquals(List.of("WRITE", "MERGE"), operations);
+  }
+
+  @Test
+  void ignoresStaleEdgeTables() {
+    // Update the resource table without going through the database, leaving the edge table behind.
+    final String tableUrl = getTableUrl(configuration.getStorage().getWarehouseUrl(),
+        configuration.getStorage().getDatabaseName(), ResourceType.CONDITION);
+    spark.read().format("delta").load(tableUrl)
+        .write().format("delta").mode(SaveMode.Overwrite).save(tableUrl);
+
+    assertTrue(database.readEdges(ResourceType.CONDITION, "subject").isEmpty());
+  }
+
+  @Test
+  void usesEdgeTablesAfterCompaction() {
+    database.merge(ResourceType.CONDITION, condition("f", "Patient/3"));
+    final String tableUrl = getTableUrl(configuration.getStorage().getWarehouseUrl(),
+        configuration.getStorage().getDatabaseName(), ResourceType.CONDITION);
+    final TableMaintenance maintenance = new TableMaintenance(configuration, spark);
+    try {
+      maintenance.compact(tableUrl);
+    } finally {
+      maintenance.shutdown();
+    }
+    assertEquals(TableMaintenance.COMPACTION_OPERATION, DeltaTable.forPath(spark, tableUrl)
+        .history(1).select("operation").first().getString(0));
+
+    assertEquals(List.of("a|Patient|1", "b|Patient|1", "c|Patient|2", "d|Group|1", "f|Patient|3"),
+        readEdges());
+  }
+
+  @Test
+  void reverseResolveMatchesWithAndWithoutEdges() {
+    final List<String> withEdges = reverseResolveCounts();
+    configuration.getStorage().setEdgeTables(false);
+    final List<String> withoutEdges = reverseResolveCounts();
+
+    assertEquals(List.of("1|2", "2|1", "3|0"), withEdges);
+    assertEquals(withoutEdges, withEdges);
+  }
+
+  @Test
+  void joinsOnPatientKeyWithoutShuffle() {
+    final List<String> withoutPartitions = reverseResolveCounts();
+    configuration.getStorage().setPatientPartitions(4);
+    spark.conf().set("spark.sql.autoBroadcastJoinThreshold", "-1");
+    spark.conf().set("spark.sql.adaptive.enabled", "false");
+    try {
+      final FhirPath result = parse(ResourceType.PATIENT,
+          "reverseResolve(Condition.subject).count()");
+      final SparkPlan plan = result.getDataset().queryExecution().executedPlan();
+      assertTrue(plan.find(node -> node instanceof ShuffleExchangeExec
+          && ((ShuffleExchangeExec) node).shuffleOrigin() == ENSURE_REQUIREMENTS$.MODULE$)
+          .isEmpty());
+      assertEquals(withoutPartitions, reverseResolveCounts());
+    } finally {
+      spark.conf().unset("spark.sql.autoBroadcastJoinThreshold");
+      spark.conf().unset("spark.sql.adaptive.enabled");
+    }
+  }
+
+  @Test
+  void doesNotPartitionOnReadWithoutCaching() {
+    configuration.getStorage().setPatientPartitions(4);
+    configuration.getSpark().setCacheDatasets(false);
+    final Dataset<Row> conditions = database.read(ResourceType.CONDITION);
+    assertFalse(Arrays.asList(conditions.columns()).contains(Database.PATIENT_KEY_COLUMN));
+    assertTrue(conditions.queryExecution().analyzed()
+        .find(node -> node instanceof RepartitionByExpression).isEmpty());
+    assertTrue(database.getPatientKeyElement(ResourceType.CONDITION).isEmpty());
+    assertEquals(List.of("1|2", "2|1", "3|0"), reverseResolveCounts());
+  }
+
+  private List<String> readEdges() {
+    final Optional<Dataset<Row>> edges = database.readEdges(ResourceType.CONDITION, "subject");
+    assertTrue(edges.isPresent());
+    return edges.get().collectAsList().stream()
+        .map(row -> row.getString(0) + "|" + row.getString(1) + "|" + row.getString(2))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private List<String> reverseResolveCounts() {
+    final FhirPath result = parse(ResourceType.PATIENT,
+        "reverseResolve(Condition.subject).count()");
+    return result.getDataset().select(result.getIdColumn(), result.getValueColumn())
+        .collectAsList().stream()
+        .map(row -> row.getString(0) + "|" + row.getLong(1))
+        .sorted()
+        .collect(Collectors.toList());
+  }
+
+  private FhirPath parse(@Nonnull final ResourceType resourceType,
+      @Nonnull final String expression) {
+    final ResourcePath inputContext = ResourcePath
+        .build(fhirContext, database, resourceType, resourceType.toCode(), true);
+    final ParserContext parserContext = new ParserContextBuilder(spark, fhirContext)
+        .database(database)
+        .inputContext(inputContext)
+        .groupingColumns(Collections.singletonList(inputContext.getIdColumn()))
+        .build();
+    return new Parser(parserContext).parse(expression);
+  }
+
+}
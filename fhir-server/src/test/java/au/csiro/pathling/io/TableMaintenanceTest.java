@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.io;
+
+import static au.csiro.pathling.io.PersistenceScheme.getTableUrl;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import au.csiro.pathling.config.MaintenanceConfiguration;
+import au.csiro.pathling.test.WarehouseTest;
+import io.delta.tables.DeltaTable;
+import java.time.Duration;
+import java.time.LocalTime;
+import org.apache.spark.sql.delta.DeltaLog;
+import org.apache.spark.sql.delta.actions.AddFile;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.junit.jupiter.api.Test;
+
+class TableMaintenanceTest extends WarehouseTest {
+
+  @Test
+  void calculatesTimeUntilWindowOpens() {
+    assertEquals(Duration.ZERO,
+        TableMaintenance.untilWindowOpens("01:00-05:00", LocalTime.of(3, 0)));
+    assertEquals(Duration.ofHours(2),
+        TableMaintenance.untilWindowOpens("01:00-05:00", LocalTime.of(23, 0)));
+    assertEquals(Duration.ofMinutes(30),
+        TableMaintenance.untilWindowOpens("01:00-05:00", LocalTime.of(0, 30)));
+    // Windows can span midnight.
+    assertEquals(Duration.ZERO,
+        TableMaintenance.untilWindowOpens("22:00-02:00", LocalTime.of(1, 0)));
+    assertEquals(Duration.ofHours(20),
+        TableMaintenance.untilWindowOpens("22:00-02:00", LocalTime.of(2, 0)));
+  }
+
+  @Test
+  void compactsSmallFiles() {
+    final String tableUrl = getTableUrl(configuration.getStorage().getWarehouseUrl(),
+        configuration.getStorage().getDatabaseName(), ResourceType.PATIENT);
+    spark.range(1000).repartition(20).write().format("delta").save(tableUrl);
+    assertEquals(20, countFiles(tableUrl));
+
+    final TableMaintenance maintenance = new TableMaintenance(configuration, spark);
+    try {
+      maintenance.compact(tableUrl);
+      assertEquals(1, countFiles(tableUrl));
+      assertEquals(1000, spark.read().format("delta").load(tableUrl).count());
+      assertFalse(maintenance.isPending());
+    } finally {
+      maintenance.shutdown();
+    }
+  }
+
+  @Test
+  void compactsSmallFilesWithinBudget() {
+    final String tableUrl = getTableUrl(configuration.getStorage().getWarehouseUrl(),
+        configuration.getStorage().getDatabaseName(), ResourceType.PATIENT);
+    spark.range(1000).repartition(20).write().format("delta").save(tableUrl);
+    // The budget only covers the ten smallest files, so the rest are left as they are.
+    final long tenSmallest = DeltaLog.forTable(spark, tableUrl).snapshot().allFiles()
+        .collectAsList().stream()
+        .mapToLong(AddFile::size)
+        .sorted()
+        .limit(10)
+        .sum();
+    final MaintenanceConfiguration maintenanceConfiguration = configuration.getStorage()
+        .getMaintenance();
+    final Long compactionBudget = maintenanceConfiguration.getCompactionBudget();
+    maintenanceConfiguration.setCompactionBudget(tenSmallest);
+    final TableMaintenance maintenance = new TableMaintenance(configuration, spark);
+    try {
+      maintenance.compact(tableUrl);
+      assertEquals(11, countFiles(tableUrl));
+      assertEquals(1000, spark.read().format("delta").load(tableUrl).count());
+      assertEquals(TableMaintenance.COMPACTION_OPERATION,
+          DeltaTable.forPath(spark, tableUrl).history(1).first().getAs("operation"));
+    } finally {
+      maintenance.shutdown();
+      maintenanceConfiguration.setCompactionBudget(compactionBudget);
+    }
+  }
+
+  private int countFiles(final String tableUrl) {
+    return spark.read().format("delta").load(tableUrl).inputFiles().length;
+  }
+
+}
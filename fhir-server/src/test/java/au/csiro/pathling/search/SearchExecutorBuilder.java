@@ -9,6 +9,8 @@ package au.csiro.pathling.search;
 import static au.csiro.pathling.utilities.Preconditions.checkNotNull;
 import static org.mockito.Mockito.mock;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.encoders.FhirEncoders;
 import au.csiro.pathling.fhir.TerminologyServiceFactory;
@@ -79,7 +81,9 @@ class SearchExecutorBuilder {
   SearchExecutor build() {
     checkNotNull(subjectResource);
     return new SearchExecutor(configuration, fhirContext, sparkSession, database,
-        Optional.of(terminologyServiceFactory), fhirEncoders, subjectResource, filters);
+        Optional.of(terminologyServiceFactory), fhirEncoders, subjectResource, filters,
+        new AdmissionController(configuration, sparkSession),
+        new RequestCoalescer(Optional.empty()));
   }
 
 }
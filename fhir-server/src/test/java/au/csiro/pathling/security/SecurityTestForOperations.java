@@ -68,7 +68,7 @@ abstract class SecurityTestForOperations extends SecurityTest {
     final AggregateProvider aggregateProvider = (AggregateProvider) resourceProviderFactory
         .createAggregateResourceProvider(ResourceType.Patient);
     try {
-      aggregateProvider.aggregate(null, null, null, null, null, null);
+      aggregateProvider.aggregate(null, null, null, null, null, null, null);
     } catch (final InvalidUserInputError ex) {
       // pass
     }
@@ -14,6 +14,7 @@ import au.csiro.pathling.encoders.FhirEncoders;
 import au.csiro.pathling.fhirpath.element.BooleanPath;
 import au.csiro.pathling.fhirpath.parser.AbstractParserTest;
 import au.csiro.pathling.io.Database;
+import au.csiro.pathling.io.TableMaintenance;
 import ca.uhn.fhir.context.FhirContext;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -53,6 +54,9 @@ class ManifestConverterTest extends AbstractParserTest {
   @MockBean
   ThreadPoolTaskExecutor executor;
 
+  @MockBean
+  TableMaintenance tableMaintenance;
+
   static final String PATIENT_ID_1 = "0dc85075-4f59-4e4f-b75d-a2f601d0cf24";
   static final String PATIENT_ID_2 = "1f276fc3-7e91-4fc9-a287-be19228e8807";
   static final String PATIENT_ID_3 = "f34e77c9-df31-49c4-92e2-e871fa76026e";
@@ -87,7 +91,7 @@ class ManifestConverterTest extends AbstractParserTest {
 
   @Test
   void convertsManifest() {
-    database = new Database(configuration, spark, fhirEncoders, executor);
+    database = new Database(configuration, spark, fhirEncoders, executor, tableMaintenance);
 
     final PassportScope passportScope = new PassportScope();
     final VisaManifest manifest = new VisaManifest();
@@ -0,0 +1,46 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.security.ga4gh;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.util.LinkedHashSet;
+import java.util.List;
+import org.hl7.fhir.r4.model.Enumerations.ResourceType;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class PassportScopeTest {
+
+  @Test
+  void digestDoesNotDependOnOrder() {
+    final PassportScope first = new PassportScope();
+    first.put(ResourceType.PATIENT, new LinkedHashSet<>(List.of("id = '1'", "id = '2'")));
+    first.put(ResourceType.CONDITION, new LinkedHashSet<>(List.of("subject.reference = 'a'")));
+    final PassportScope second = new PassportScope();
+    second.put(ResourceType.CONDITION, new LinkedHashSet<>(List.of("subject.reference = 'a'")));
+    second.put(ResourceType.PATIENT, new LinkedHashSet<>(List.of("id = '2'", "id = '1'")));
+
+    assertEquals(first.getDigest(), second.getDigest());
+  }
+
+  @Test
+  void digestDiffersForDifferentFilters() {
+    final PassportScope first = new PassportScope();
+    first.put(ResourceType.PATIENT, new LinkedHashSet<>(List.of("id = '1'")));
+    final PassportScope second = new PassportScope();
+    second.put(ResourceType.PATIENT, new LinkedHashSet<>(List.of("id = '2'")));
+    final PassportScope third = new PassportScope();
+    third.put(ResourceType.CONDITION, new LinkedHashSet<>(List.of("id = '1'")));
+
+    assertNotEquals(first.getDigest(), second.getDigest());
+    assertNotEquals(first.getDigest(), third.getDigest());
+  }
+
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.spark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.SparkConfiguration;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import org.apache.spark.SparkContext;
+import org.apache.spark.sql.SparkSession;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class QueryCancellerTest {
+
+  SparkContext sparkContext;
+  QueryCanceller queryCanceller;
+
+  @BeforeEach
+  void setUp() {
+    final SparkConfiguration sparkConfiguration = new SparkConfiguration();
+    // Use a long interval, so that checks are only performed when the test asks for them.
+    sparkConfiguration.setCancellationCheckInterval(Integer.MAX_VALUE);
+    final Configuration configuration = new Configuration();
+    configuration.setSpark(sparkConfiguration);
+
+    final SparkSession spark = mock(SparkSession.class);
+    sparkContext = mock(SparkContext.class);
+    when(spark.sparkContext()).thenReturn(sparkContext);
+    queryCanceller = new QueryCanceller(configuration, spark);
+  }
+
+  @AfterEach
+  void tearDown() {
+    queryCanceller.shutdown();
+  }
+
+  @Test
+  void cancelsJobGroupUntilReleased() {
+    queryCanceller.cancel("abc");
+    verify(sparkContext).cancelJobGroup("abc");
+
+    // Jobs submitted to the group after it was cancelled are also cancelled.
+    queryCanceller.check();
+    verify(sparkContext, times(2)).cancelJobGroup("abc");
+
+    queryCanceller.release("abc");
+    queryCanceller.check();
+    verify(sparkContext, times(2)).cancelJobGroup("abc");
+  }
+
+  @Test
+  void cancelsJobGroupWhenWriteFails() throws IOException {
+    final OutputStream working = queryCanceller.watch("abc", new ByteArrayOutputStream());
+    working.write(new byte[]{1, 2, 3});
+    working.flush();
+    verify(sparkContext, never()).cancelJobGroup("abc");
+
+    final OutputStream broken = queryCanceller.watch("def", new OutputStream() {
+      @Override
+      public void write(final int b) throws IOException {
+        throw new IOException("Broken pipe");
+      }
+    });
+    assertThrows(IOException.class, () -> broken.write(new byte[]{1, 2, 3}));
+    verify(sparkContext).cancelJobGroup("def");
+
+    // The group stays cancelled until the request is released.
+    queryCanceller.check();
+    verify(sparkContext, times(2)).cancelJobGroup("def");
+  }
+
+  @Test
+  void cancelsSharedJobGroupOnceNoRequestsAreWaiting() {
+    // The leader starts the shared work, and a follower then waits for it.
+    when(sparkContext.getLocalProperty("spark.jobGroup.id")).thenReturn("leader", "follower");
+    final String result = queryCanceller.runShared("shared", () -> {
+      queryCanceller.waitFor("shared");
+
+      queryCanceller.cancel("leader");
+      verify(sparkContext, never()).cancelJobGroup("shared");
+
+      queryCanceller.cancel("follower");
+      verify(sparkContext).cancelJobGroup("shared");
+      return "result";
+    });
+    assertEquals("result", result);
+    verify(sparkContext).setJobGroup("shared", "shared", true);
+    verify(sparkContext).setLocalProperty("spark.jobGroup.id", "leader");
+
+    // The shared group is released once the shared work has completed.
+    queryCanceller.check();
+    verify(sparkContext).cancelJobGroup("shared");
+  }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.spark;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.config.SchedulerConfiguration;
+import au.csiro.pathling.config.SchedulerConfiguration.Pool;
+import au.csiro.pathling.config.SparkConfiguration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.apache.spark.SparkContext;
+import org.apache.spark.sql.SparkSession;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+@Tag("UnitTest")
+class RequestSchedulerTest {
+
+  SparkContext sparkContext;
+  RequestScheduler requestScheduler;
+
+  @BeforeEach
+  void setUp() {
+    final Pool interactive = new Pool();
+    interactive.setOperations(List.of("aggregate", "search"));
+    final Pool batch = new Pool();
+    batch.setOperations(List.of("extract"));
+    batch.setUsers(List.of("batch-user"));
+    batch.setMaxConcurrency(1);
+    final Map<String, Pool> pools = new LinkedHashMap<>();
+    pools.put("interactive", interactive);
+    pools.put("batch", batch);
+
+    final SchedulerConfiguration schedulerConfiguration = new SchedulerConfiguration();
+    schedulerConfiguration.setPools(pools);
+    final SparkConfiguration sparkConfiguration = new SparkConfiguration();
+    sparkConfiguration.setScheduler(schedulerConfiguration);
+    final Configuration configuration = new Configuration();
+    configuration.setSpark(sparkConfiguration);
+
+    final SparkSession spark = mock(SparkSession.class);
+    sparkContext = mock(SparkContext.class);
+    when(spark.sparkContext()).thenReturn(sparkContext);
+    requestScheduler = new RequestScheduler(configuration, spark);
+  }
+
+  @Test
+  void resolvesPoolByOperation() {
+    assertEquals("interactive", requestScheduler.resolvePool("aggregate", Optional.empty()));
+    assertEquals("batch", requestScheduler.resolvePool("extract", Optional.of("someone")));
+    assertEquals(RequestScheduler.DEFAULT_POOL,
+        requestScheduler.resolvePool("import", Optional.empty()));
+  }
+
+  @Test
+  void userTakesPrecedenceOverOperation() {
+    assertEquals("batch", requestScheduler.resolvePool("aggregate", Optional.of("batch-user")));
+  }
+
+  @Test
+  void setsPoolOnCurrentThread() {
+    final String pool = requestScheduler.enter("search", Optional.empty());
+    verify(sparkContext).setLocalProperty("spark.scheduler.pool", "interactive");
+    requestScheduler.exit(pool);
+    verify(sparkContext).setLocalProperty("spark.scheduler.pool", null);
+  }
+
+  @Test
+  void waitsForCapacityWithinPool() throws InterruptedException {
+    final String pool = requestScheduler.enter("extract", Optional.empty());
+    final CountDownLatch entered = new CountDownLatch(1);
+    final Thread waiting = new Thread(() -> {
+      final String secondPool = requestScheduler.enter("extract", Optional.empty());
+      entered.countDown();
+      requestScheduler.exit(secondPool);
+    });
+    waiting.start();
+    assertFalse(entered.await(200, TimeUnit.MILLISECONDS));
+    requestScheduler.exit(pool);
+    assertTrue(entered.await(5, TimeUnit.SECONDS));
+    waiting.join();
+  }
+
+}
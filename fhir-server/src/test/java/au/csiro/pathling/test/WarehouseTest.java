@@ -0,0 +1,127 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.test;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+
+import au.csiro.pathling.config.Configuration;
+import au.csiro.pathling.encoders.FhirEncoders;
+import au.csiro.pathling.io.Database;
+import au.csiro.pathling.io.TableMaintenance;
+import ca.uhn.fhir.context.FhirContext;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Path;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import org.apache.spark.sql.SparkSession;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+import org.hl7.fhir.r4.model.Condition;
+import org.hl7.fhir.r4.model.Enumerations.AdministrativeGender;
+import org.hl7.fhir.r4.model.Patient;
+import org.hl7.fhir.r4.model.Reference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.util.FileSystemUtils;
+
+/**
+ * A base for tests that write resources to a warehouse. Each test class gets an empty warehouse
+ * within a temporary directory, which is cleared after each test. Settings that a test class needs
+ * should be supplied using a {@link org.springframework.test.context.TestPropertySource}, which
+ * gives the class an application context (and configuration) of its own.
+ */
+@SpringBootTest
+@Tag("UnitTest")
+public abstract class WarehouseTest {
+
+  @TempDir
+  static Path warehouseDirectory;
+
+  @Autowired
+  protected SparkSession spark;
+
+  @Autowired
+  protected Configuration configuration;
+
+  @Autowired
+  protected FhirContext fhirContext;
+
+  @Autowired
+  protected FhirEncoders fhirEncoders;
+
+  @MockBean
+  protected ThreadPoolTaskExecutor threadPoolTaskExecutor;
+
+  @MockBean
+  protected TableMaintenance tableMaintenance;
+
+  protected Database database;
+
+  @DynamicPropertySource
+  @SuppressWarnings("unused")
+  static void registerProperties(@Nonnull final DynamicPropertyRegistry registry) {
+    registry.add("pathling.storage.warehouseUrl",
+        () -> warehouseDirectory.toUri().toString().replaceFirst("/$", ""));
+  }
+
+  @BeforeEach
+  void setUpWarehouse() {
+    // Run cache invalidation synchronously, so that each read sees the latest writes.
+    doAnswer(invocation -> {
+      invocation.getArgument(0, Runnable.class).run();
+      return null;
+    }).when(threadPoolTaskExecutor).execute(any(Runnable.class));
+    database = new Database(configuration, spark, fhirEncoders, threadPoolTaskExecutor,
+        tableMaintenance);
+  }
+
+  @AfterEach
+  void clearWarehouse() throws IOException {
+    final URI warehouseUrl = URI.create(configuration.getStorage().getWarehouseUrl());
+    final Path databaseDirectory = Path.of(warehouseUrl)
+        .resolve(configuration.getStorage().getDatabaseName());
+    FileSystemUtils.deleteRecursively(databaseDirectory);
+    spark.sqlContext().clearCache();
+  }
+
+  @Nonnull
+  protected static IBaseResource patient(@Nonnull final String id) {
+    final Patient patient = new Patient();
+    patient.setId(id);
+    return patient;
+  }
+
+  @Nonnull
+  protected static IBaseResource patient(@Nonnull final String id,
+      @Nonnull final AdministrativeGender gender) {
+    final Patient patient = new Patient();
+    patient.setId(id);
+    patient.setGender(gender);
+    return patient;
+  }
+
+  @Nonnull
+  protected static IBaseResource condition(@Nonnull final String id,
+      @Nullable final String subject) {
+    final Condition condition = new Condition();
+    condition.setId(id);
+    if (subject != null) {
+      condition.setSubject(new Reference(subject));
+    }
+    return condition;
+  }
+
+}
@@ -2,6 +2,8 @@ package au.csiro.pathling.test.benchmark;
 
 import static org.mockito.Mockito.mock;
 
+import au.csiro.pathling.AdmissionController;
+import au.csiro.pathling.caching.RequestCoalescer;
 import au.csiro.pathling.config.Configuration;
 import au.csiro.pathling.aggregate.AggregateExecutor;
 import au.csiro.pathling.aggregate.AggregateRequest;
@@ -89,7 +91,8 @@ public class AggregateBenchmark {
           ResourceType.CAREPLAN);
 
       executor = new AggregateExecutor(configuration, fhirContext, spark, database,
-          Optional.of(terminologyServiceFactory));
+          Optional.of(terminologyServiceFactory), new AdmissionController(configuration, spark),
+          new RequestCoalescer(Optional.empty()));
     }
 
     public AggregateResponse execute(@Nonnull final AggregateRequest query) {
@@ -10,6 +10,7 @@ import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import au.csiro.pathling.errors.AccessDeniedError;
+import au.csiro.pathling.errors.ServerBusyError;
 import au.csiro.pathling.fhir.ErrorHandlingInterceptor;
 import ca.uhn.fhir.parser.DataFormatException;
 import ca.uhn.fhir.rest.client.exceptions.FhirClientConnectionException;
@@ -23,6 +24,7 @@ import com.fasterxml.jackson.core.JsonParseException;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.UndeclaredThrowableException;
+import java.util.List;
 import javax.annotation.Nonnull;
 import org.apache.spark.SparkException;
 import org.hl7.fhir.r4.model.OperationOutcome;
@@ -101,6 +103,16 @@ class ErrorHandlingInterceptorTest {
     assertEquals("FhirClientConnectionException message", actualException.getMessage());
   }
 
+  @Test
+  void convertsServerBusyError() {
+    final BaseServerResponseException actualException = callInterceptor(
+        new ServerBusyError("ServerBusyError message", 10)
+    );
+    assertEquals(503, actualException.getStatusCode());
+    assertEquals("ServerBusyError message", actualException.getMessage());
+    assertEquals(List.of("10"), actualException.getResponseHeaders().get("Retry-After"));
+  }
+
   @Test
   void convertsDataFormatExceptionsWithJsonError() {
     final BaseServerResponseException actualException = callInterceptor(
@@ -103,6 +103,33 @@ class AsyncTest extends IntegrationTest {
     assertEquals(HttpStatus.NOT_FOUND_404, response.getStatusCode().value());
   }
 
+  @Test
+  void cancelJob() throws URISyntaxException {
+    TestHelpers.mockResource(database, spark, ResourceType.PATIENT);
+    final String uri = "http://localhost:" + port + "/fhir/Patient/$aggregate?aggregation=count()";
+    final RequestEntity<Void> request = RequestEntity.get(new URI(uri))
+        .header("Prefer", "respond-async")
+        .build();
+    final ResponseEntity<String> response = restTemplate
+        .exchange(uri, HttpMethod.GET, request, String.class);
+    assertEquals(HttpStatus.ACCEPTED_202, response.getStatusCode().value());
+    final List<String> contentLocations = response.getHeaders().get("Content-Location");
+    assertNotNull(contentLocations);
+    final URI statusUri = new URI(contentLocations.get(0));
+
+    final ResponseEntity<String> deleteResponse = restTemplate.exchange(statusUri,
+        HttpMethod.DELETE, RequestEntity.delete(statusUri).build(), String.class);
+    assertEquals(HttpStatus.ACCEPTED_202, deleteResponse.getStatusCode().value());
+
+    // Once deleted, the job is no longer available.
+    final ResponseEntity<String> statusResponse = restTemplate.exchange(statusUri,
+        HttpMethod.GET, RequestEntity.get(statusUri).build(), String.class);
+    assertEquals(HttpStatus.NOT_FOUND_404, statusResponse.getStatusCode().value());
+    final ResponseEntity<String> secondDeleteResponse = restTemplate.exchange(statusUri,
+        HttpMethod.DELETE, RequestEntity.delete(statusUri).build(), String.class);
+    assertEquals(HttpStatus.NOT_FOUND_404, secondDeleteResponse.getStatusCode().value());
+  }
+
   void assertAsyncResponse(@Nonnull final ResponseEntity<String> response,
       final int expectedStatus, final boolean inProgressRequired)
       throws MalformedURLException, URISyntaxException, InterruptedException {
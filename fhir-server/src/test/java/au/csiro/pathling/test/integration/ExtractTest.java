@@ -9,6 +9,9 @@ package au.csiro.pathling.test.integration;
 import static au.csiro.pathling.test.TestResources.getResourceAsString;
 import static java.nio.charset.StandardCharsets.UTF_8;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import au.csiro.pathling.io.Database;
@@ -17,14 +20,21 @@ import ca.uhn.fhir.parser.IParser;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringWriter;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.zip.GZIPInputStream;
 import org.apache.commons.io.IOUtils;
 import org.apache.spark.sql.SparkSession;
 import org.hl7.fhir.r4.model.Enumerations.ResourceType;
 import org.hl7.fhir.r4.model.Parameters;
+import org.hl7.fhir.r4.model.Parameters.ParametersParameterComponent;
 import org.hl7.fhir.r4.model.UrlType;
 import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
@@ -33,6 +43,7 @@ import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.web.client.TestRestTemplate;
 import org.springframework.boot.test.web.server.LocalServerPort;
 import org.springframework.http.HttpMethod;
+import org.springframework.http.MediaType;
 import org.springframework.http.RequestEntity;
 import org.springframework.http.ResponseEntity;
 
@@ -81,4 +92,103 @@ class ExtractTest extends IntegrationTest {
     assertEquals(expected, actual);
   }
 
+  @Test
+  void extractPartitionedNdjson() throws URISyntaxException, MalformedURLException {
+    TestHelpers.mockResource(database, spark, ResourceType.DIAGNOSTICREPORT);
+    final String uri = "http://localhost:" + port
+        + "/fhir/DiagnosticReport/$extract?column=id&format=ndjson&partitioned=true";
+    final ResponseEntity<String> response = restTemplate
+        .exchange(uri, HttpMethod.GET, RequestEntity.get(new URI(uri)).build(), String.class);
+    assertTrue(response.getStatusCode().is2xxSuccessful());
+    final Parameters result = (Parameters) jsonParser.parseResource(response.getBody());
+    final List<ParametersParameterComponent> urlParams = result.getParameter().stream()
+        .filter(param -> param.getName().equals("url"))
+        .collect(Collectors.toList());
+    assertFalse(urlParams.isEmpty());
+
+    // Gather up the rows from each of the files that make up the result.
+    final List<String> actual = new ArrayList<>();
+    for (final ParametersParameterComponent urlParam : urlParams) {
+      final URL url = new URL(((UrlType) urlParam.getValue()).getValueAsString());
+      try {
+        final InputStream resultStream = url.openStream();
+        actual.addAll(IOUtils.readLines(resultStream, UTF_8));
+      } catch (final IOException e) {
+        throw new RuntimeException("Problem retrieving extract result", e);
+      }
+    }
+    Collections.sort(actual);
+
+    final List<String> expected = getResourceAsString("responses/ExtractTest/extract.csv")
+        .lines()
+        .map(id -> "{\"id\":\"" + id + "\"}")
+        .sorted()
+        .collect(Collectors.toList());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  void extractStream() throws URISyntaxException {
+    TestHelpers.mockResource(database, spark, ResourceType.DIAGNOSTICREPORT);
+    final String uri = "http://localhost:" + port
+        + "/fhir/DiagnosticReport/$extract-stream?column=id";
+    final ResponseEntity<String> response = restTemplate
+        .exchange(uri, HttpMethod.GET, RequestEntity.get(new URI(uri)).build(), String.class);
+    assertTrue(response.getStatusCode().is2xxSuccessful());
+    final MediaType contentType = response.getHeaders().getContentType();
+    assertNotNull(contentType);
+    assertTrue(contentType.isCompatibleWith(MediaType.parseMediaType("text/csv")));
+    final String body = response.getBody();
+    assertNotNull(body);
+
+    final List<String> actual = body.lines().sorted().collect(Collectors.toList());
+    final List<String> expected = getResourceAsString("responses/ExtractTest/extract.csv")
+        .lines()
+        .sorted()
+        .collect(Collectors.toList());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  void resultRangeAndCompression() throws URISyntaxException, IOException {
+    TestHelpers.mockResource(database, spark, ResourceType.DIAGNOSTICREPORT);
+    final String uri = "http://localhost:" + port + "/fhir/DiagnosticReport/$extract?column=id";
+    final ResponseEntity<String> response = restTemplate
+        .exchange(uri, HttpMethod.GET, RequestEntity.get(new URI(uri)).build(), String.class);
+    assertTrue(response.getStatusCode().is2xxSuccessful());
+    final Parameters result = (Parameters) jsonParser.parseResource(response.getBody());
+    final URL url = new URL(((UrlType) result.getParameter("url")).getValueAsString());
+    final String expected = getResourceAsString("responses/ExtractTest/extract.csv");
+    final int length = expected.getBytes(UTF_8).length;
+
+    // Request a range from the middle of the result.
+    final HttpURLConnection rangeConnection = (HttpURLConnection) url.openConnection();
+    rangeConnection.setRequestProperty("Range", "bytes=10-19");
+    assertEquals(206, rangeConnection.getResponseCode());
+    assertEquals("bytes 10-19/" + length, rangeConnection.getHeaderField("Content-Range"));
+    final String eTag = rangeConnection.getHeaderField("ETag");
+    try (final InputStream inputStream = rangeConnection.getInputStream()) {
+      assertEquals(expected.substring(10, 20), IOUtils.toString(inputStream, UTF_8));
+    }
+
+    // Request a range that starts beyond the end of the result.
+    final HttpURLConnection unsatisfiableConnection = (HttpURLConnection) url.openConnection();
+    unsatisfiableConnection.setRequestProperty("Range", "bytes=" + length + "-");
+    assertEquals(416, unsatisfiableConnection.getResponseCode());
+    assertEquals("bytes */" + length, unsatisfiableConnection.getHeaderField("Content-Range"));
+
+    // Request the whole result, compressed using gzip.
+    final HttpURLConnection gzipConnection = (HttpURLConnection) url.openConnection();
+    gzipConnection.setRequestProperty("Accept-Encoding", "gzip");
+    assertEquals(200, gzipConnection.getResponseCode());
+    assertEquals("gzip", gzipConnection.getHeaderField("Content-Encoding"));
+    // The compressed body is a different representation, so it must not share the entity tag of
+    // the stored bytes.
+    assertNotNull(eTag);
+    assertNotEquals(eTag, gzipConnection.getHeaderField("ETag"));
+    try (final InputStream inputStream = new GZIPInputStream(gzipConnection.getInputStream())) {
+      assertEquals(expected, IOUtils.toString(inputStream, UTF_8));
+    }
+  }
+
 }
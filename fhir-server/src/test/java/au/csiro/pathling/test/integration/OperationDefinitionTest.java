@@ -36,8 +36,8 @@ class OperationDefinitionTest extends IntegrationTest {
   @Autowired
   TestRestTemplate restTemplate;
 
-  private static final List<String> OPERATIONS = List.of("aggregate", "search", "extract", "import",
-      "result", "job");
+  private static final List<String> OPERATIONS = List.of("aggregate", "search", "extract",
+      "extract-stream", "import", "result", "job");
   private static final String SUFFIX = "5";
 
   @Test
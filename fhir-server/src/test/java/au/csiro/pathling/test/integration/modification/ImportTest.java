@@ -128,6 +128,55 @@ class ImportTest extends ModificationTest {
     DatasetAssert.of(result.select("id", "birthDate")).hasRows(expected);
   }
 
+  @Test
+  void importBundleFile() {
+    final URL jsonURL = getResourceAsUrl("import/Bundle.ndjson");
+    importExecutor.execute(buildImportParameters(jsonURL, ResourceType.BUNDLE));
+
+    final Dataset<Row> patients = database.read(ResourceType.PATIENT);
+    final Dataset<Row> expectedPatients = new DatasetBuilder(spark)
+        .withIdColumn()
+        .withColumn(DataTypes.StringType)
+        .withRow("7c2f6a4e-93d8-4b61-a2e5-0d4c8b9f1e23", "male")
+        .withRow("d9b5e3ad-7a53-4b2e-9dd1-3aa4f8a4c2a1", "female")
+        .build();
+    DatasetAssert.of(patients.select("id", "gender")).hasRows(expectedPatients);
+
+    final Dataset<Row> conditions = database.read(ResourceType.CONDITION);
+    final Dataset<Row> expectedConditions = new DatasetBuilder(spark)
+        .withIdColumn()
+        .withRow("0f3e2b8a-6b9d-4d5c-9a0e-7c1d2e3f4a5b")
+        .withRow("5a0c9d1e-1c0f-4f57-8e3b-2a6f1f8f0b11")
+        .withRow("b4e1c7d2-58a3-4f0b-9c6e-1a2b3c4d5e6f")
+        .build();
+    DatasetAssert.of(conditions.select("id")).hasRows(expectedConditions);
+
+    // References to other entries within the bundle should be converted to relative references.
+    final Dataset<Row> expectedSubjects = new DatasetBuilder(spark)
+        .withIdColumn()
+        .withColumn(DataTypes.StringType)
+        .withRow("0f3e2b8a-6b9d-4d5c-9a0e-7c1d2e3f4a5b",
+            "Patient/d9b5e3ad-7a53-4b2e-9dd1-3aa4f8a4c2a1")
+        .withRow("5a0c9d1e-1c0f-4f57-8e3b-2a6f1f8f0b11",
+            "Patient/d9b5e3ad-7a53-4b2e-9dd1-3aa4f8a4c2a1")
+        .withRow("b4e1c7d2-58a3-4f0b-9c6e-1a2b3c4d5e6f",
+            "Patient/7c2f6a4e-93d8-4b61-a2e5-0d4c8b9f1e23")
+        .build();
+    DatasetAssert.of(conditions.select("id", "subject.reference")).hasRows(expectedSubjects);
+  }
+
+  @Test
+  void bundleWithUnsupportedTypeWritesNothing() {
+    final long patientsBefore = database.read(ResourceType.PATIENT).count();
+    final URL jsonURL = getResourceAsUrl("import/Bundle_unsupported.ndjson");
+    final InvalidUserInputError error = assertThrows(InvalidUserInputError.class,
+        () -> importExecutor.execute(buildImportParameters(jsonURL, ResourceType.BUNDLE)));
+    assertEquals("Unsupported resource type: Task", error.getMessage());
+
+    // The Patient within the bundle is supported, but it should not have been written.
+    assertEquals(patientsBefore, database.read(ResourceType.PATIENT).count());
+  }
+
   @Test
   void importJsonFileWithBlankLines() {
     final URL jsonURL = getResourceAsUrl("import/Patient_with_eol.ndjson");
@@ -173,8 +222,7 @@ class ImportTest extends ModificationTest {
   @Test
   void throwsOnUnsupportedResourceType() {
     final List<ResourceType> resourceTypes = Arrays.asList(ResourceType.PARAMETERS,
-        ResourceType.TASK, ResourceType.STRUCTUREDEFINITION, ResourceType.STRUCTUREMAP,
-        ResourceType.BUNDLE);
+        ResourceType.TASK, ResourceType.STRUCTUREDEFINITION, ResourceType.STRUCTUREMAP);
     for (final ResourceType resourceType : resourceTypes) {
       final InvalidUserInputError error = assertThrows(InvalidUserInputError.class,
           () -> importExecutor.execute(
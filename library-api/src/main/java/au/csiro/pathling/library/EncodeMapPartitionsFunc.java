@@ -68,6 +68,19 @@ abstract class EncodeMapPartitionsFunc<T extends IBaseResource> implements
 
   @Nonnull
   protected IParser createParser(@Nonnull final String mimeType) {
+    return createParser(fhirVersion, mimeType);
+  }
+
+  /**
+   * Creates a parser for the given FHIR version and mime type.
+   *
+   * @param fhirVersion the FHIR version of the input
+   * @param mimeType the mime type of the input
+   * @return a new {@link IParser}
+   */
+  @Nonnull
+  static IParser createParser(@Nonnull final FhirVersionEnum fhirVersion,
+      @Nonnull final String mimeType) {
     final FhirContext fhirContext = FhirEncoders.contextFor(fhirVersion);
     switch (mimeType) {
       case FHIR_JSON:
@@ -31,19 +31,25 @@ import au.csiro.pathling.terminology.TerminologyFunctions;
 import ca.uhn.fhir.context.FhirContext;
 import ca.uhn.fhir.context.FhirVersionEnum;
 import ca.uhn.fhir.context.RuntimeResourceDefinition;
+import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import lombok.Getter;
+import org.apache.spark.api.java.JavaRDD;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
 import org.apache.spark.sql.Encoders;
 import org.apache.spark.sql.Row;
 import org.apache.spark.sql.SparkSession;
+import org.apache.spark.sql.catalyst.encoders.RowEncoder;
 import org.apache.spark.sql.functions;
+import org.apache.spark.storage.StorageLevel;
 import org.hl7.fhir.instance.model.api.IBaseBundle;
 import org.hl7.fhir.instance.model.api.IBaseResource;
 import org.slf4j.MDC;
@@ -358,6 +364,83 @@ public class PathlingContext {
     return encodeBundle(stringBundlesDF, resourceName, FhirMimeTypes.FHIR_JSON);
   }
 
+  /**
+   * Takes a dataset with string representations of FHIR bundles and encodes the resources of each
+   * of the given types as a separate Spark dataframe.
+   * <p>
+   * The entries of each bundle are split out into an intermediate dataset of typed JSON strings,
+   * which is then filtered by type for each of the resulting dataframes. The intermediate dataset is
+   * persisted, so that each bundle is only parsed once no matter how many of the resulting
+   * dataframes are evaluated. It is released by Spark's context cleaner once the resulting
+   * dataframes are no longer referenced.
+   *
+   * @param stringBundles the dataset with the string representation of the bundles.
+   * @param resourceNames the names of the resource types to encode. If null, all the types present
+   * within the bundles are encoded.
+   * @param inputMimeType the mime type of the encoding for the input strings.
+   * @return a map of resource type names to dataframes with Spark encoded resources.
+   */
+  @Nonnull
+  public Map<String, Dataset<Row>> encodeBundleByType(@Nonnull final Dataset<String> stringBundles,
+      @Nullable final Collection<String> resourceNames,
+      @Nonnull final String inputMimeType) {
+    // The entries are persisted as an RDD rather than as a cached dataset, as cached datasets are
+    // held by the cache manager until they are explicitly unpersisted.
+    final JavaRDD<Row> entryRows = stringBundles.mapPartitions(
+            new SplitBundleMapPartitionsFunc(fhirVersion, inputMimeType, false),
+            RowEncoder.apply(SplitBundleMapPartitionsFunc.SCHEMA))
+        .javaRDD()
+        .persist(StorageLevel.MEMORY_AND_DISK());
+    final Dataset<Row> entries = stringBundles.sparkSession()
+        .createDataFrame(entryRows, SplitBundleMapPartitionsFunc.SCHEMA);
+    final Column resourceTypeColumn = entries.col(
+        SplitBundleMapPartitionsFunc.RESOURCE_TYPE_COLUMN);
+
+    final Collection<String> types = nonNull(resourceNames)
+                                     ? resourceNames
+                                     : entries.select(resourceTypeColumn)
+                                         .distinct()
+                                         .as(Encoders.STRING())
+                                         .collectAsList();
+
+    final Map<String, Dataset<Row>> result = new LinkedHashMap<>();
+    for (final String resourceName : types) {
+      final Dataset<String> stringResources = entries
+          .filter(resourceTypeColumn.equalTo(resourceName))
+          .select(SplitBundleMapPartitionsFunc.RESOURCE_COLUMN)
+          .as(Encoders.STRING());
+      final RuntimeResourceDefinition definition = FhirEncoders.contextFor(fhirVersion)
+          .getResourceDefinition(resourceName);
+      result.put(resourceName,
+          encode(stringResources, definition.getImplementingClass(), FhirMimeTypes.FHIR_JSON)
+              .toDF());
+    }
+    return result;
+  }
+
+  /**
+   * Takes a dataframe with string representations of FHIR bundles and encodes the resources of all
+   * the types present within the bundles, with each type in a separate Spark dataframe.
+   *
+   * @param stringBundlesDF the dataframe with the string representation of the bundles.
+   * @param inputMimeType the mime type of the encoding for the input strings.
+   * @param maybeColumnName the name of the column in the input dataframe that contains the bundle
+   * strings. If null the input dataframe must have a single column of type string.
+   * @return a map of resource type names to dataframes with Spark encoded resources.
+   * @see #encodeBundleByType(Dataset, Collection, String)
+   */
+  @Nonnull
+  public Map<String, Dataset<Row>> encodeBundleByType(@Nonnull final Dataset<Row> stringBundlesDF,
+      @Nonnull final String inputMimeType,
+      @Nullable final String maybeColumnName) {
+
+    final Dataset<String> stringBundles = (nonNull(maybeColumnName)
+                                           ?
+                                           stringBundlesDF.select(maybeColumnName)
+                                           : stringBundlesDF).as(Encoders.STRING());
+    return encodeBundleByType(stringBundles, null, inputMimeType);
+  }
+
   @Nonnull
   public Dataset<Row> memberOf(@Nonnull final Dataset<Row> dataset,
       @Nonnull final Column coding, @Nonnull final String valueSetUri,
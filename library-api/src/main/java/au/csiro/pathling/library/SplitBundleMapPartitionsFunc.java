@@ -0,0 +1,137 @@
+/*
+ * Copyright © 2018-2022, Commonwealth Scientific and Industrial Research
+ * Organisation (CSIRO) ABN 41 687 119 230. Licensed under the CSIRO Open Source
+ * Software Licence Agreement.
+ */
+
+package au.csiro.pathling.library;
+
+import au.csiro.pathling.encoders.FhirEncoders;
+import au.csiro.pathling.support.FhirConversionSupport;
+import ca.uhn.fhir.context.FhirContext;
+import ca.uhn.fhir.context.FhirVersionEnum;
+import ca.uhn.fhir.parser.IParser;
+import ca.uhn.fhir.util.FhirTerser;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+import javax.annotation.Nonnull;
+import org.apache.spark.api.java.function.MapPartitionsFunction;
+import org.apache.spark.sql.Row;
+import org.apache.spark.sql.RowFactory;
+import org.apache.spark.sql.types.DataTypes;
+import org.apache.spark.sql.types.StructField;
+import org.apache.spark.sql.types.StructType;
+import org.hl7.fhir.instance.model.api.IBaseBundle;
+import org.hl7.fhir.instance.model.api.IBaseReference;
+import org.hl7.fhir.instance.model.api.IBaseResource;
+
+/**
+ * Parses each input bundle once, and emits a row for every resource found within its entries. Each
+ * row contains the type of the resource and its JSON representation, which allows the entries to
+ * be routed to the encoder for their type without parsing the bundle again.
+ * <p>
+ * Entries within transaction bundles are often identified using a UUID within the {@code fullUrl},
+ * and referred to using that URN by the other entries. If local references are resolved, each of
+ * these entries is given the naked UUID as its ID, and the references to it are rewritten as
+ * relative references.
+ */
+public class SplitBundleMapPartitionsFunc implements MapPartitionsFunction<String, Row> {
+
+  private static final long serialVersionUID = 2245196215378286346L;
+
+  private static final String UUID_PREFIX = "urn:uuid:";
+
+  /**
+   * The name of the column containing the type of each resource.
+   */
+  public static final String RESOURCE_TYPE_COLUMN = "resourceType";
+
+  /**
+   * The name of the column containing the JSON representation of each resource.
+   */
+  public static final String RESOURCE_COLUMN = "resource";
+
+  /**
+   * The schema of the rows emitted by this function.
+   */
+  public static final StructType SCHEMA = DataTypes.createStructType(new StructField[]{
+      DataTypes.createStructField(RESOURCE_TYPE_COLUMN, DataTypes.StringType, false),
+      DataTypes.createStructField(RESOURCE_COLUMN, DataTypes.StringType, false)
+  });
+
+  @Nonnull
+  private final FhirVersionEnum fhirVersion;
+
+  @Nonnull
+  private final String inputMimeType;
+
+  private final boolean resolveLocalReferences;
+
+  /**
+   * @param fhirVersion the FHIR version of the bundles
+   * @param inputMimeType the mime type of the encoding of the bundles
+   * @param resolveLocalReferences whether to rewrite references to other entries identified by a
+   * UUID
+   */
+  public SplitBundleMapPartitionsFunc(@Nonnull final FhirVersionEnum fhirVersion,
+      @Nonnull final String inputMimeType, final boolean resolveLocalReferences) {
+    this.fhirVersion = fhirVersion;
+    this.inputMimeType = inputMimeType;
+    this.resolveLocalReferences = resolveLocalReferences;
+  }
+
+  @Override
+  @Nonnull
+  public Iterator<Row> call(@Nonnull final Iterator<String> iterator) {
+    final IParser inputParser = EncodeMapPartitionsFunc.createParser(fhirVersion, inputMimeType);
+    // The entries are always serialized as JSON, as it is the cheaper of the two formats to parse
+    // again when the entries are encoded.
+    final FhirContext fhirContext = FhirEncoders.contextFor(fhirVersion);
+    final IParser outputParser = fhirContext.newJsonParser();
+    final FhirTerser terser = fhirContext.newTerser();
+    final FhirConversionSupport conversionSupport = FhirConversionSupport.supportFor(fhirVersion);
+
+    final Iterable<String> iterable = () -> iterator;
+    final Stream<Row> entries = StreamSupport.stream(iterable.spliterator(), false)
+        .map(inputParser::parseResource)
+        .map(bundle -> conversionSupport.extractEntryFromBundle((IBaseBundle) bundle,
+            IBaseResource.class))
+        .flatMap(resources -> resolveLocalReferences
+                              ? resolveLocalReferences(resources, terser)
+                              : resources.stream())
+        .map(resource -> RowFactory.create(conversionSupport.fhirType(resource),
+            outputParser.encodeResourceToString(resource)));
+    return entries.iterator();
+  }
+
+  @Nonnull
+  private Stream<IBaseResource> resolveLocalReferences(
+      @Nonnull final List<IBaseResource> resources, @Nonnull final FhirTerser terser) {
+    // The parser sets the URN within the fullUrl as the ID of the resource, so this is used to map
+    // each URN to a relative reference.
+    final Map<String, String> localReferences = new HashMap<>();
+    for (final IBaseResource resource : resources) {
+      final String id = resource.getIdElement().getValue();
+      if (id != null && id.startsWith(UUID_PREFIX)) {
+        final String nakedId = id.substring(UUID_PREFIX.length());
+        localReferences.put(id, resource.fhirType() + "/" + nakedId);
+        resource.setId(nakedId);
+      }
+    }
+    for (final IBaseResource resource : resources) {
+      for (final IBaseReference reference : terser.getAllPopulatedChildElementsOfType(resource,
+          IBaseReference.class)) {
+        final String target = localReferences.get(reference.getReferenceElement().getValue());
+        if (target != null) {
+          reference.setReference(target);
+        }
+      }
+    }
+    return resources.stream();
+  }
+
+}
@@ -37,6 +37,7 @@ import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.spark.sql.Column;
 import org.apache.spark.sql.Dataset;
@@ -116,6 +117,27 @@ public class PathlingContextTest {
   }
 
 
+  @Test
+  public void testEncodeResourcesFromXmlBundleByType() {
+
+    final Dataset<String> bundlesDF = spark.read().option("wholetext", true)
+        .textFile(testDataUrl + "/bundles/R4/xml");
+
+    final PathlingContext pathling = PathlingContext.create(spark, null, null, true, null, null,
+        null, null, null, null, 0);
+
+    final Map<String, Dataset<Row>> resources = pathling.encodeBundleByType(bundlesDF,
+        List.of("Patient", "Condition"), FhirMimeTypes.FHIR_XML);
+    assertEquals(Set.of("Patient", "Condition"), resources.keySet());
+    assertEquals(5, resources.get("Patient").count());
+    assertEquals(107, resources.get("Condition").count());
+
+    final Map<String, Dataset<Row>> allResources = pathling.encodeBundleByType(bundlesDF.toDF(),
+        FhirMimeTypes.FHIR_XML, null);
+    assertTrue(allResources.keySet().containsAll(List.of("Patient", "Condition")));
+    assertEquals(107, allResources.get("Condition").count());
+  }
+
   @Test
   public void testEncodeResourcesFromJson() {
     final Dataset<String> jsonResources = spark.read()